@@ -4,15 +4,38 @@
 package org.windu2b.osm.check_transport_relations;
 
 import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.windu2b.osm.check_transport_relations.check.Check;
+import org.windu2b.osm.check_transport_relations.check.CheckPlatform;
+import org.windu2b.osm.check_transport_relations.check.PlatformProximity;
+import org.windu2b.osm.check_transport_relations.data.osm.AbstractPrimitive;
 import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
 import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.RelationMember;
+import org.windu2b.osm.check_transport_relations.data.osm.TagCollection;
+import org.windu2b.osm.check_transport_relations.data.osm.TagStatistics;
+import org.windu2b.osm.check_transport_relations.io.BackreferenceCache;
+import org.windu2b.osm.check_transport_relations.io.DiskResponseCache;
+import org.windu2b.osm.check_transport_relations.io.DownloadScheduler;
+import org.windu2b.osm.check_transport_relations.io.FilteredReader;
+import org.windu2b.osm.check_transport_relations.io.HttpConnectionPool;
 import org.windu2b.osm.check_transport_relations.io.Log;
+import org.windu2b.osm.check_transport_relations.io.OsmFileReader;
 import org.windu2b.osm.check_transport_relations.io.OsmServerObjectReader;
+import org.windu2b.osm.check_transport_relations.io.OverpassServerReader;
+import org.windu2b.osm.check_transport_relations.io.RateLimiter;
+import org.windu2b.osm.check_transport_relations.io.ReferrerIndex;
+import org.windu2b.osm.check_transport_relations.io.RetryPolicy;
+import org.windu2b.osm.check_transport_relations.tools.StringTable;
 
 /**
  * @author windu
@@ -27,52 +50,270 @@ public class Main
 	 */
 	public static void main( String[] args )
 	{
-		if( args.length == 0 )
+		// On lit les options, le dernier paramètre restant est la liste des
+		// relations
+		String relationIds = null;
+		File cacheDir = null;
+		File file = null;
+		File index = null;
+		File indexedExtract = null;
+		TagCollection filter = null;
+		double maxDistance = 0;
+		boolean overpass = false;
+		for( int i = 0; i < args.length; i++ )
 		{
-			Log.log( tr( "No relation ID found ! Usage : org.windu2b.osm.check_transport_relations.Main <Relation ID>" ) );
+			if( args[i].equals( "--cache-dir" ) && i + 1 < args.length )
+				cacheDir = new File( args[++i] );
+			else if( args[i].equals( "--file" ) && i + 1 < args.length )
+				file = new File( args[++i] );
+			else if( args[i].equals( "--filter" ) && i + 1 < args.length )
+				filter = FilteredReader.parseTags( args[++i] );
+			else if( args[i].equals( "--max-distance" ) && i + 1 < args.length )
+				maxDistance = Double.parseDouble( args[++i] );
+			else if( args[i].equals( "--overpass" ) )
+				overpass = true;
+			else if( args[i].equals( "--compact-tags" ) )
+				AbstractPrimitive.setCompactTags( true );
+			else if( args[i].equals( "--columnar-members" ) )
+				Relation.setColumnarMembers( true );
+			else if( args[i].equals( "--index" ) && i + 1 < args.length )
+				index = new File( args[++i] );
+			else if( args[i].equals( "--build-index" ) && i + 2 < args.length )
+			{
+				indexedExtract = new File( args[++i] );
+				index = new File( args[++i] );
+			}
+			else relationIds = args[i];
+		}
+
+		// Construction de l'index des relations d'un extrait, sans
+		// vérification
+		if( indexedExtract != null )
+		{
+			try
+			{
+				long start = System.currentTimeMillis();
+				int size = ReferrerIndex.build( indexedExtract, index );
+				Log.log( tr( "Index {0} built : {1} entries in {2} ms", index,
+				        size, System.currentTimeMillis() - start ) );
+			}
+			catch( Exception e )
+			{
+				Log.log( e.getMessage() );
+			}
 
 			return;
 		}
 
-		/*
-		 * On découpe le paramètre d'entrée en autant d'id de relations que
-		 * possible
-		 */
-		String[] ids = args[0].split( ";" );
-		DataSet ds;
+		if( relationIds == null && file == null )
+		{
+			Log.log( tr( "No relation ID found ! Usage : org.windu2b.osm.check_transport_relations.Main [--cache-dir <directory>] [--file <extract.osm[.gz|.bz2|.pbf]> [--filter <type=route|route_master|public_transport,public_transport>] [--compact-tags] [--columnar-members]] [--max-distance <metres>] [--overpass] [--index <index>] <Relation ID>" ) );
+			Log.log( tr( "To build an index : org.windu2b.osm.check_transport_relations.Main --build-index <extract.osm[.gz|.bz2|.pbf]> <index>" ) );
+
+			return;
+		}
+
+		// Distance maximale entre une 'platform' et sa 'stop_position'
+		CheckPlatform.setMaxDistance( maxDistance );
+
+		// Mode hors-ligne : tout est lu dans l'extrait, sans accès au serveur
+		if( file != null )
+		{
+			checkFile( file, filter, maxDistance, relationIds );
+
+			return;
+		}
+
+		// Les relations 'stop_area' sont cherchées dans l'index plutôt que
+		// sur le serveur
+		if( index != null )
+		{
+			try
+			{
+				ReferrerIndex.install( index );
+			}
+			catch( IOException e )
+			{
+				Log.log( e.getMessage() );
+
+				return;
+			}
+		}
+
+		if( cacheDir != null )
+		{
+			try
+			{
+				DiskResponseCache.install( cacheDir, Long.getLong(
+				        "osm-server.cache-ttl", DiskResponseCache.DEFAULT_TTL ),
+				        Long.getLong( "osm-server.cache-max-size",
+				                DiskResponseCache.DEFAULT_MAX_SIZE ) );
+			}
+			catch( IOException e )
+			{
+				Log.log( e.getMessage() );
+
+				return;
+			}
+		}
 
 		try
 		{
-			// On boucle sur les id de relation passés en paramètre
-			for( String s : ids )
+			// On télécharge en parallèle les relations passées en paramètre
+			DownloadScheduler scheduler = DownloadScheduler.getInstance();
+			List<Long> ids = parseIds( relationIds );
+			List<Future<DataSet>> downloads = new ArrayList<Future<DataSet>>();
+			for( long id : ids )
+			{
+				// Avec Overpass, une seule requête ramène tout ce qui est
+				// nécessaire aux vérifications
+				if( overpass )
+					downloads.add( scheduler.submit( new OverpassServerReader(
+					        id ) ) );
+				else downloads.add( scheduler.submit( new OsmServerObjectReader(
+				        id, OsmPrimitiveType.RELATION, true ) ) );
+			}
+
+			// On boucle sur les relations, dans l'ordre des paramètres, dès
+			// qu'elles sont téléchargées
+			for( int i = 0; i < downloads.size(); i++ )
 			{
-				String[] relationId;
-				if( s.contains( "-" ) )
-					relationId = s.split( "-" );
-				else
+				DataSet ds = DownloadScheduler.get( downloads.get( i ) );
+				Collection<Relation> cRelations = ds.getRelations();
+				if( overpass )
+				{
+					// La réponse contient aussi les routes et les stop_area :
+					// seule la relation demandée est vérifiée
+					cRelations = new ArrayList<Relation>();
+					Relation r = ds.getRelation( ids.get( i ) );
+					if( r != null ) cRelations.add( r );
+				}
+				for( Relation r : cRelations )
 				{
-					relationId = new String[1];
-					relationId[0] = s;
+					Check c = new Check( r );
+					c.check();
 				}
+			}
+		}
+		catch( Exception e )
+		{
+			e.printStackTrace();
+		}
+
+		logSummary();
+	}
+
+
+
+
+	/**
+	 * Splits the relation ids given on the command line, separated by ';' or
+	 * '-'
+	 * 
+	 * @param relationIds
+	 *            the ids
+	 * @return the ids, in the order of the command line
+	 */
+	private static List<Long> parseIds( String relationIds )
+	{
+		List<Long> ids = new ArrayList<Long>();
+		for( String s : relationIds.split( "[;-]" ) )
+		{
+			if( !s.isEmpty() ) ids.add( Long.parseLong( s ) );
+		}
+		return ids;
+	}
+
+
+
+
+	/**
+	 * Checks the relations of a local extract. Without any relation id, all
+	 * the route_master relations are checked, as well as the routes which
+	 * aren't part of any route_master.
+	 * 
+	 * @param file
+	 *            the extract
+	 * @param filter
+	 *            the tags of the relations read in the extract, with their
+	 *            members. If null, the whole extract is read.
+	 * @param maxDistance
+	 *            the maximal distance between a platform and any
+	 *            stop_position, in metres. 0 if it isn't checked.
+	 * @param relationIds
+	 *            the relations to check. May be null.
+	 */
+	private static void checkFile( File file, TagCollection filter,
+	        double maxDistance, String relationIds )
+	{
+		try
+		{
+			DataSet ds = OsmFileReader.parseDataSet( file, filter, null );
+			Log.log( new TagStatistics( ds.allPrimitives() ).toString() );
 
-				for( String idx : relationId )
+			List<Relation> relations = new ArrayList<Relation>();
+			if( relationIds != null )
+			{
+				for( long id : parseIds( relationIds ) )
+				{
+					Relation r = ds.getRelation( id );
+					if( r == null || r.isIncomplete() )
+						Log.log( tr( "Relation {0} not found in {1}", id, file ) );
+					else relations.add( r );
+				}
+			}
+			else
+			{
+				Set<Relation> inRouteMaster = new HashSet<Relation>();
+				for( Relation r : ds.getRelations( "type", "route_master" ) )
 				{
-					OsmServerObjectReader reader = new OsmServerObjectReader(
-					        Integer.parseInt( idx ), OsmPrimitiveType.RELATION,
-					        true );
-					ds = reader.parseOsm( null );
-					Collection<Relation> cRelations = ds.getRelations();
-					for( Relation r : cRelations )
+					relations.add( r );
+					for( RelationMember rm : r.getMembers() )
 					{
-						Check c = new Check( r );
-						c.check();
+						if( rm.isRelation() )
+						    inRouteMaster.add( rm.getRelation() );
 					}
 				}
+				for( Relation r : ds.getRelations( "type", "route" ) )
+				{
+					if( !inRouteMaster.contains( r ) ) relations.add( r );
+				}
 			}
+
+			for( Relation r : relations )
+			{
+				Check c = new Check( r );
+				c.check();
+			}
+
+			// Les 'platform' de tout l'extrait sont comparées aux
+			// 'stop_position'
+			if( maxDistance > 0 ) PlatformProximity.check( ds, maxDistance );
 		}
 		catch( Exception e )
 		{
 			e.printStackTrace();
 		}
+
+		logSummary();
+	}
+
+
+
+
+	/**
+	 * Logs the statistics of the run
+	 */
+	private static void logSummary()
+	{
+		Log.log( BackreferenceCache.getInstance().toString() );
+		Log.log( HttpConnectionPool.getInstance().toString() );
+		Log.log( RetryPolicy.getInstance().toString() );
+		Log.log( RateLimiter.getInstance().toString() );
+		Log.log( StringTable.getInstance().toString() );
+		if( DiskResponseCache.getInstance() != null )
+		{
+			Log.log( DiskResponseCache.getInstance().toString() );
+		}
 	}
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ package org.windu2b.osm.check_transport_relations.check;
 
 import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
 
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
 import org.windu2b.osm.check_transport_relations.data.osm.RelationMember;
 import org.windu2b.osm.check_transport_relations.io.Log;
@@ -56,65 +57,71 @@ public abstract class AbstractCheck implements ICheck
 
 	@Override
 	public boolean check( RelationMember rm ) throws OsmTransferException
+	{
+		return check( rm.getMember(), rm.getRole() );
+	}
+
+
+
+
+	@Override
+	public boolean check( OsmPrimitive member, String role )
+	        throws OsmTransferException
 	{
 		// Is it a node ?
-		if( rm.getType().equals( OsmPrimitiveType.NODE ) )
+		if( member.getType().equals( OsmPrimitiveType.NODE ) )
 		{
 			// Is it a 'stop position' node ?
-			if( rm.getRole().equals( "stop" ) )
+			if( role.equals( "stop" ) )
 				this.check.setState( this.check.cStopPosition );
 			// Or is it a 'platform' node ?
-			else if( rm.getRole().equals( "platform" ) )
+			else if( role.equals( "platform" ) )
 				this.check.setState( this.check.cPlatform );
 
-			return this.check.cState.check( rm.getMember() );
+			return this.check.cState.check( member );
 
 		}
 
 		// Or is it a way ?
-		else if( rm.getType().equals( OsmPrimitiveType.WAY ) )
+		else if( member.getType().equals( OsmPrimitiveType.WAY ) )
 		{
 			// No role ? It's a 'way'
-			if( !rm.hasRole() )
+			if( "".equals( role ) )
 			{
-				return this.check.setState( this.check.cWay ).check(
-				        rm.getMember() );
+				return this.check.setState( this.check.cWay ).check( member );
 			}
 			// Has a role ? It's a 'platform' or a 'station'
-			else if( !rm.getRole().equals( "platform" ) )
+			else if( !role.equals( "platform" ) )
 			{
 				Log.log( tr(
 				        "[{0}]RelationMember {1} has not the role 'platform' !",
-				        AbstractCheck.class.getSimpleName(), rm.getMember()
-				                .getId() ) );
+				        AbstractCheck.class.getSimpleName(), member.getId() ) );
 				return false;
 			}
 
-			return check( rm.getMember() );
+			return check( member );
 		}
 
 		// Or is it a relation ?
-		else if( rm.getType().equals( OsmPrimitiveType.RELATION ) )
+		else if( member.getType().equals( OsmPrimitiveType.RELATION ) )
 		{
 			// Is it a 'route' ?
-			if( rm.getMember().isThisKind( "type", "route" ) )
+			if( member.isThisKind( "type", "route" ) )
 			{
-				return this.check.setState( this.check.cRoute ).check(
-				        rm.getMember() );
+				return this.check.setState( this.check.cRoute ).check( member );
 			}
 			// Or a 'route_master' ?
-			else if( rm.getMember().isThisKind( "type", "route_master" ) )
+			else if( member.isThisKind( "type", "route_master" ) )
 			{
 				return this.check.setState( this.check.cRoute_master ).check(
-				        rm.getMember() );
+				        member );
 			}
 			// Anything else ? Error
 			else
 			{
 				Log.log( tr(
 				        "[{0}]RelationMember {1} is neither a 'route' nor a 'route_master' relation !",
-				        AbstractCheck.class.getSimpleName(), rm.getMember()
-				                .getId() ) );
+				        AbstractCheck.class.getSimpleName(), member.getId() ) );
 				return false;
 			}
 		}
@@ -123,7 +130,7 @@ public abstract class AbstractCheck implements ICheck
 		else
 		{
 			Log.log( tr( "[{0}]The type {1} is not supported !",
-			        AbstractCheck.class.getSimpleName(), rm.getType() ) );
+			        AbstractCheck.class.getSimpleName(), member.getType() ) );
 
 			return false;
 		}
@@ -5,6 +5,7 @@ package org.windu2b.osm.check_transport_relations.check;
 
 import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
 
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
 import org.windu2b.osm.check_transport_relations.data.osm.PublicTransport;
 import org.windu2b.osm.check_transport_relations.data.osm.Relation;
@@ -17,6 +18,14 @@ import org.windu2b.osm.check_transport_relations.io.OsmTransferException;
  */
 public class CheckPlatform extends AbstractCheck
 {
+	/**
+	 * La distance maximale entre une 'platform' et la 'stop_position' qui la
+	 * précède, en mètres. 0 si la distance n'est pas vérifiée.
+	 */
+	private static double	maxDistance	= 0;
+
+
+
 
 	public CheckPlatform( Check check )
 	{
@@ -26,6 +35,37 @@ public class CheckPlatform extends AbstractCheck
 
 
 
+	/**
+	 * @return the maximal distance between a platform and its stop_position,
+	 *         in metres. 0 if the distance isn't checked.
+	 */
+	public static double getMaxDistance()
+	{
+		return maxDistance;
+	}
+
+
+
+
+	/**
+	 * @param maxDistance
+	 *            the maximal distance between a platform and its
+	 *            stop_position, in metres. 0 if the distance isn't checked.
+	 * @throws IllegalArgumentException
+	 *             thrown if maxDistance < 0
+	 */
+	public static void setMaxDistance( double maxDistance )
+	{
+		if( !( maxDistance >= 0 ) )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' >= 0 expected. Got ''{1}''.",
+		            "maxDistance", maxDistance ) );
+		CheckPlatform.maxDistance = maxDistance;
+	}
+
+
+
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -60,8 +100,7 @@ public class CheckPlatform extends AbstractCheck
 				 * 'public_transport=stop_area' que le dernier node
 				 * 'stop_position' rencontré
 				 */
-				if( !PublicTransport.getStopAreaRelation( op ).equals(
-				        lastStopArea ) )
+				if( !stopArea.equals( lastStopArea ) )
 				{
 					Log.log( tr(
 					        "[{0}]The {1} {2} is not in the same 'public_transport=stop_area' ({3}) than the previous 'public_transport='stop_position' {4} !",
@@ -82,6 +121,28 @@ public class CheckPlatform extends AbstractCheck
 
 				return false;
 			}
+
+			/*
+			 * On vérifie que la 'platform' est proche de la dernière
+			 * 'stop_position' rencontrée, si leurs coordonnées sont connues
+			 */
+			Node lastStopPosition = LastElements.getLastStopPosition();
+			if( maxDistance > 0 && lastStopPosition != null )
+			{
+				double distance = PublicTransport.distance( lastStopPosition,
+				        op );
+				if( distance > maxDistance )
+				{
+					Log.log( tr(
+					        "[{0}]The {1} {2} is {3} m away from the previous 'public_transport=stop_position' {4} (more than {5} m) !",
+					        CheckPlatform.class.getSimpleName(),
+					        op.getDisplayType(), op.getId(),
+					        Math.round( distance ), lastStopPosition.getId(),
+					        maxDistance ) );
+
+					return false;
+				}
+			}
 		}
 		// Error cases
 		else
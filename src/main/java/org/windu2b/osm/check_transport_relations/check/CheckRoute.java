@@ -8,7 +8,6 @@ import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
 import org.windu2b.osm.check_transport_relations.data.osm.Relation;
-import org.windu2b.osm.check_transport_relations.data.osm.RelationMember;
 import org.windu2b.osm.check_transport_relations.io.Log;
 import org.windu2b.osm.check_transport_relations.io.OsmTransferException;
 
@@ -64,14 +63,17 @@ public class CheckRoute extends AbstractRouteCheck
 		// On affiche les infos principales de la relation
 		traceRouteRelation( r );
 
+		// On télécharge en une fois tout ce dont la vérification aura besoin
+		new RoutePrefetcher( r ).prefetch();
+
 		this.check.setState( this.check.cWay );
 
 		// On boucle sur le contenu de la relation
 		boolean checkIsOK = true;
-		for( RelationMember rm : r.getMembers() )
+		for( int i = 0; i < r.getMembersCount(); i++ )
 		{
-			if( this.check.cState.check( rm ) == false )
-				checkIsOK = false;
+			if( this.check.cState.check( r.getMemberPrimitive( i ),
+			        r.getRole( i ) ) == false ) checkIsOK = false;
 		}
 		return checkIsOK;
 	}
@@ -80,7 +82,8 @@ public class CheckRoute extends AbstractRouteCheck
 
 
 	@Override
-	public boolean check( RelationMember rm ) throws OsmTransferException
+	public boolean check( OsmPrimitive member, String role )
+	        throws OsmTransferException
 	{
 		throw new IllegalArgumentException( tr(
 		        "[{0}]This method should'nt be called !",
@@ -5,15 +5,17 @@ package org.windu2b.osm.check_transport_relations.check;
 
 import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
 
+import java.util.ArrayList;
 import java.util.Collection;
 
 import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.PrimitiveId;
 import org.windu2b.osm.check_transport_relations.data.osm.Relation;
-import org.windu2b.osm.check_transport_relations.data.osm.RelationMember;
+import org.windu2b.osm.check_transport_relations.io.DownloadScheduler;
 import org.windu2b.osm.check_transport_relations.io.Log;
-import org.windu2b.osm.check_transport_relations.io.OsmServerObjectReader;
+import org.windu2b.osm.check_transport_relations.io.OsmServerMultiObjectReader;
 import org.windu2b.osm.check_transport_relations.io.OsmTransferException;
 
 /**
@@ -71,23 +73,30 @@ public class CheckRouteMaster extends AbstractRouteCheck
 
 		this.check.setState( this.check.cRoute );
 
+		// On télécharge toutes les routes en une seule fois, sauf si elles
+		// sont déjà dans l'extrait local
+		Collection<PrimitiveId> routeIds = new ArrayList<PrimitiveId>();
+		for( int i = 0; i < r.getMembersCount(); i++ )
+		{
+			routeIds.add( r.getMemberPrimitive( i ).getPrimitiveId() );
+		}
+		DataSet ds = r.getDataSet();
+		if( ds == null || !ds.isLocalOnly() )
+		{
+			OsmServerMultiObjectReader reader = new OsmServerMultiObjectReader(
+			        routeIds, true );
+			ds = DownloadScheduler.get( DownloadScheduler.getInstance()
+			        .submit( reader ) );
+		}
+
 		// On boucle sur le contenu de la relation
 		boolean checkIsOK = true;
-		DataSet ds;
-		
-		for( RelationMember rm : r.getMembers() )
+		for( PrimitiveId id : routeIds )
 		{
-			OsmPrimitive opRoute = rm.getMember();
-			
-			OsmServerObjectReader reader = new OsmServerObjectReader(
-			        opRoute.getId(), OsmPrimitiveType.RELATION, true );
-			ds = reader.parseOsm( null );
-			Collection<Relation> cRelations = ds.getRelations();
-			for( Relation rel : cRelations )
-			{
-				if( this.check.cState.check( rel ) == false )
-					checkIsOK = false;
-			}
+			OsmPrimitive opRoute = ds.getPrimitiveById( id );
+			if( opRoute == null ) continue;
+			if( this.check.cState.check( opRoute ) == false )
+			    checkIsOK = false;
 		}
 		return checkIsOK;
 	}
@@ -96,7 +105,8 @@ public class CheckRouteMaster extends AbstractRouteCheck
 
 
 	@Override
-	public boolean check( RelationMember rm ) throws OsmTransferException
+	public boolean check( OsmPrimitive member, String role )
+	        throws OsmTransferException
 	{
 		throw new IllegalArgumentException( tr(
 		        "[{0}]This method should'nt be called !",
@@ -4,6 +4,7 @@
 package org.windu2b.osm.check_transport_relations.check;
 
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
 import org.windu2b.osm.check_transport_relations.data.osm.RelationMember;
 import org.windu2b.osm.check_transport_relations.io.OsmTransferException;
 
@@ -24,6 +25,21 @@ public interface ICheck
 
 
 
+	/**
+	 * Checks a member of a relation, without building its
+	 * {@link RelationMember} (see {@link Relation#getMemberPrimitive(int)})
+	 * 
+	 * @param member
+	 *            the primitive of the member
+	 * @param role
+	 *            the role of the member. "" if it has no role.
+	 */
+	public boolean check( OsmPrimitive member, String role )
+	        throws OsmTransferException;
+
+
+
+
 	Check getCheck();
 
 
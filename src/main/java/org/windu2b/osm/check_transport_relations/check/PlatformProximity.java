@@ -0,0 +1,104 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.check;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.NodeGrid;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
+import org.windu2b.osm.check_transport_relations.data.osm.PublicTransport;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+import org.windu2b.osm.check_transport_relations.io.Log;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * Vérifie, sur tout un réseau, que chaque 'platform' a une 'stop_position' à
+ * moins d'une distance donnée. Les 'stop_position' sont indexées dans une
+ * grille, chaque 'platform' ne lit que les cellules autour d'elle.
+ *
+ * @author windu
+ *
+ */
+public final class PlatformProximity
+{
+	private PlatformProximity()
+	{
+		// Hide default constructor for utils classes
+	}
+
+
+
+
+	/**
+	 * Logs the platforms of a dataset which are farther than a distance from
+	 * any stop_position. The primitives without coordinates are ignored.
+	 *
+	 * @param ds
+	 *            the dataset. Must not be null.
+	 * @param maxDistance
+	 *            the distance, in metres. > 0 expected.
+	 * @return the platforms too far from any stop_position
+	 * @throws IllegalArgumentException
+	 *             thrown if ds is null or if maxDistance <= 0
+	 */
+	public static List<OsmPrimitive> check( DataSet ds, double maxDistance )
+	{
+		CheckParameterUtil.ensureParameterNotNull( ds, "ds" );
+		if( !( maxDistance > 0 ) )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.",
+		            "maxDistance", maxDistance ) );
+		List<Node> stopPositions = new ArrayList<Node>();
+		List<OsmPrimitive> platforms = new ArrayList<OsmPrimitive>();
+		for( Node n : ds.getNodes() )
+		{
+			if( PublicTransport.isStopPosition( n ) )
+				stopPositions.add( n );
+			else if( PublicTransport.isPlatform( n ) ) platforms.add( n );
+		}
+		for( Way w : ds.getWays() )
+		{
+			if( PublicTransport.isPlatform( w ) ) platforms.add( w );
+		}
+
+		// Une cellule par distance maximale : chaque recherche lit 3 x 3
+		// cellules au plus
+		NodeGrid grid = new NodeGrid( stopPositions, maxDistance );
+		List<OsmPrimitive> result = new ArrayList<OsmPrimitive>();
+		for( OsmPrimitive platform : platforms )
+		{
+			boolean located = false;
+			boolean near = false;
+			List<Node> nodes = platform instanceof Way ? ( ( Way ) platform )
+			        .getNodes() : Collections.singletonList( ( Node ) platform );
+			for( Node n : nodes )
+			{
+				if( !n.hasCoor() ) continue;
+				located = true;
+				if( grid.nearest( n.getFixedLat(), n.getFixedLon(),
+				        maxDistance ) != null )
+				{
+					near = true;
+					break;
+				}
+			}
+			if( located && !near )
+			{
+				Log.log( tr(
+				        "[{0}]The {1} {2} is more than {3} m away from any 'public_transport=stop_position' !",
+				        PlatformProximity.class.getSimpleName(),
+				        platform.getDisplayType(), platform.getId(),
+				        maxDistance ) );
+				result.add( platform );
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.check;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSetMerger;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
+import org.windu2b.osm.check_transport_relations.data.osm.PrimitiveId;
+import org.windu2b.osm.check_transport_relations.data.osm.PublicTransport;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.io.BackreferenceCache;
+import org.windu2b.osm.check_transport_relations.io.DownloadScheduler;
+import org.windu2b.osm.check_transport_relations.io.OsmServerBackreferenceReader;
+import org.windu2b.osm.check_transport_relations.io.OsmServerMultiObjectReader;
+import org.windu2b.osm.check_transport_relations.io.OsmTransferException;
+import org.windu2b.osm.check_transport_relations.io.ReferrerIndex;
+
+/**
+ * Télécharge, avant la vérification d'une route, tout ce dont la vérification
+ * aura besoin : les membres qui n'ont pas encore été lus, puis les relations
+ * auxquelles appartiennent les 'stop_position' et les 'platform'.
+ *
+ * Toutes les requêtes sont lancées en même temps via le
+ * {@link DownloadScheduler}. Les relations lues sont mises dans le
+ * {@link BackreferenceCache} et fusionnées dans le DataSet de la route, avec
+ * leurs membres : la vérification les trouve ensuite parmi les referrers des
+ * arrêts, sans aucune requête.
+ *
+ * @author windu
+ *
+ */
+public class RoutePrefetcher
+{
+	private final Relation	route;
+
+
+
+
+	public RoutePrefetcher( Relation route )
+	{
+		this.route = route;
+	}
+
+
+
+
+	/**
+	 * Un membre qui n'a jamais été lu : seul son id est connu. Les nodes lus
+	 * restent 'incomplete' (voir Node#load), d'où le test sur la version.
+	 */
+	private static boolean isMissing( OsmPrimitive op )
+	{
+		return op.isIncomplete() && op.getVersion() == 0
+		        && op.getUniqueId() > 0;
+	}
+
+
+
+
+	/**
+	 * Les membres de la route qui doivent être lus avant la vérification
+	 */
+	List<PrimitiveId> planMissingMembers()
+	{
+		Set<PrimitiveId> ids = new LinkedHashSet<PrimitiveId>();
+		for( int i = 0, n = route.getMembersCount(); i < n; i++ )
+		{
+			OsmPrimitive op = route.getMemberPrimitive( i );
+			if( isMissing( op ) ) ids.add( op.getPrimitiveId() );
+		}
+		return new ArrayList<PrimitiveId>( ids );
+	}
+
+
+
+
+	/**
+	 * Les membres de la route dont on cherchera la relation 'stop_area', et
+	 * dont les referrers ne sont ni dans le DataSet ni dans le
+	 * {@link BackreferenceCache}. Aucun, si un {@link ReferrerIndex} est
+	 * installé : l'index répond à leur place.
+	 */
+	List<OsmPrimitive> planBackreferences()
+	{
+		if( ReferrerIndex.getInstance() != null )
+		    return new ArrayList<OsmPrimitive>();
+
+		BackreferenceCache cache = BackreferenceCache.getInstance();
+		Set<OsmPrimitive> primitives = new LinkedHashSet<OsmPrimitive>();
+		for( int i = 0, n = route.getMembersCount(); i < n; i++ )
+		{
+			OsmPrimitive op = route.getMemberPrimitive( i );
+			if( op.getUniqueId() <= 0 || isMissing( op ) ) continue;
+
+			boolean isStop = op instanceof Node
+			        && PublicTransport.isStopPosition( ( Node ) op );
+			if( !isStop && !PublicTransport.isPlatform( op ) ) continue;
+
+			// Les referrers déjà fusionnés sont connus sans requête
+			if( op.isReferrersComplete() ) continue;
+			if( !cache.contains( op, op.getVersion() ) ) primitives.add( op );
+		}
+		return new ArrayList<OsmPrimitive>( primitives );
+	}
+
+
+
+
+	/**
+	 * Télécharge les membres manquants de la route, puis les relations
+	 * auxquelles appartiennent ses arrêts
+	 *
+	 * @throws OsmTransferException
+	 *             si l'un des téléchargements a échoué
+	 */
+	public void prefetch() throws OsmTransferException
+	{
+		DataSet ds = route.getDataSet();
+		// Un extrait local contient déjà tout ce qu'il y a à vérifier
+		if( ds != null && ds.isLocalOnly() ) return;
+
+		DownloadScheduler scheduler = DownloadScheduler.getInstance();
+
+		// Les membres d'abord : leurs tags disent lesquels sont des arrêts
+		List<PrimitiveId> missing = planMissingMembers();
+		if( !missing.isEmpty() )
+		{
+			DataSet members = DownloadScheduler.get( scheduler
+			        .submit( new OsmServerMultiObjectReader( missing, true ) ) );
+			merge( ds, members );
+		}
+
+		List<OsmPrimitive> primitives = planBackreferences();
+		if( primitives.isEmpty() ) return;
+
+		DownloadScheduler.Batch batch = scheduler.newBatch();
+		for( OsmPrimitive op : primitives )
+		{
+			batch.submit( new OsmServerBackreferenceReader( op.getId(), op
+			        .getType(), true ) );
+		}
+		List<DataSet> results = batch.getResults();
+
+		BackreferenceCache cache = BackreferenceCache.getInstance();
+		for( int i = 0; i < primitives.size(); i++ )
+		{
+			DataSet referrers = results.get( i );
+			if( referrers == null ) continue;
+			OsmPrimitive op = primitives.get( i );
+			cache.put( op, op.getVersion(), referrers );
+			op.mergeReferrers( referrers );
+		}
+	}
+
+
+
+
+	private static void merge( DataSet target, DataSet source )
+	{
+		if( target == null || source == null ) return;
+		new DataSetMerger( target, source ).merge();
+	}
+}
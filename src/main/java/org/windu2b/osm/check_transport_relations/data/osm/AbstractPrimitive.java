@@ -16,6 +16,7 @@ import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.windu2b.osm.check_transport_relations.data.osm.PrimitiveData;
+import org.windu2b.osm.check_transport_relations.tools.StringTable;
 
 /**
  * @author windu
@@ -85,6 +86,14 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	protected static final int	FLAG_INCOMPLETE	= 1 << 3;
 
 
+	/**
+	 * This flag shows that all the relations referring to this primitive are
+	 * in its dataset. It belongs to this instance: it is never copied from
+	 * another primitive.
+	 */
+	protected static final int	FLAG_REFERRERS_COMPLETE	= 1 << 4;
+
+
 	/**
 	 * Put several boolean flags to one short int field to save memory. Other
 	 * bits of this field are used in subclasses.
@@ -104,10 +113,68 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	// the array itself will be never modified - only reference will be changed
 
 	/**
-	 * The key/value list for this primitive.
+	 * The tags of this primitive: null, the key/value list as a String[],
+	 * whose strings are the canonical instances of the {@link StringTable}, or
+	 * the tag codes of the {@link TagDictionary} as an int[], with the compact
+	 * tags.
+	 * 
+	 */
+	protected Object	           keys;
+
+
+	private static final StringTable	STRINGS	= StringTable.getInstance();
+
+
+	private static final TagDictionary	DICTIONARY	= TagDictionary.getInstance();
+
+
+	/**
+	 * true if the tags written from now on are stored as codes (see
+	 * {@link #setCompactTags(boolean)})
+	 */
+	private static volatile boolean	    compactTags;
+
+
+
+
+	/**
+	 * Stores the tags written from now on as codes of a dictionary shared by
+	 * all the primitives, instead of string arrays: the primitives with the
+	 * same tags share the same codes, and each string is stored once. The
+	 * dictionary is never emptied, so that this suits a large extract read
+	 * once. The tags written before keep their representation.
+	 * 
+	 * @param compact
+	 *            true for the compact tags
+	 */
+	public static void setCompactTags( boolean compact )
+	{
+		compactTags = compact;
+	}
+
+
+
+
+	public static boolean isCompactTags()
+	{
+		return compactTags;
+	}
+
+
+
+
+	/**
+	 * Replies the key/value list of some tags
 	 * 
+	 * @param keys
+	 *            the tags, as stored in {@link #keys}
+	 * @return the keys and their values, alternately; null, if there is none
 	 */
-	protected String[]	       keys;
+	static String[] keyValues( Object keys )
+	{
+		if( keys instanceof int[] ) return DICTIONARY.decode( ( int[] ) keys );
+		return ( String[] ) keys;
+	}
 
 
 
@@ -145,7 +212,23 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 		{
 			version = other.version;
 		}
-		flags = other.flags;
+		copyFlags( other );
+	}
+
+
+
+
+	/**
+	 * Copies the flags of another primitive, except
+	 * {@link #FLAG_REFERRERS_COMPLETE}
+	 * 
+	 * @param other
+	 *            the other primitive
+	 */
+	protected final void copyFlags( AbstractPrimitive other )
+	{
+		flags = ( short ) ( ( other.flags & ~FLAG_REFERRERS_COMPLETE ) | ( flags
+		        & FLAG_REFERRERS_COMPLETE ) );
 	}
 
 
@@ -306,12 +389,16 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	@Override
 	public final String get( String key )
 	{
-		String[] keys = this.keys;
+		Object keys = this.keys;
 		if( key == null ) return null;
 		if( keys == null ) return null;
-		for( int i = 0; i < keys.length; i += 2 )
+		if( keys instanceof int[] ) return DICTIONARY.get( ( int[] ) keys, key );
+		String[] k = ( String[] ) keys;
+		for( int i = 0; i < k.length; i += 2 )
 		{
-			if( keys[i].equals( key ) ) return keys[i + 1];
+			// the keys are canonical : a key read from another primitive is the
+			// same instance
+			if( k[i] == key || k[i].equals( key ) ) return k[i + 1];
 		}
 		return null;
 	}
@@ -335,39 +422,58 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	@Override
 	public void put( String key, String value )
 	{
-		Map<String, String> originalKeys = getKeys();
 		if( key == null )
 			return;
 		else if( value == null )
 		{
 			remove( key );
+			return;
+		}
+		Object originalKeys = keys;
+		if( compactTags )
+		{
+			int[] codes = originalKeys instanceof String[] ? DICTIONARY
+			        .encode( ( String[] ) originalKeys ) : ( int[] ) originalKeys;
+			codes = DICTIONARY.put( codes, key, value );
+			if( codes == originalKeys ) return;
+			keys = codes;
+			keysChangedImpl( originalKeys );
+			return;
 		}
-		else if( keys == null )
+		key = STRINGS.get( key );
+		value = STRINGS.get( value );
+		String[] k = keyValues( originalKeys );
+		if( k == null )
 		{
 			keys = new String[] { key, value };
 		}
 		else
 		{
-			for( int i = 0; i < keys.length; i += 2 )
+			for( int i = 0; i < k.length; i += 2 )
 			{
-				if( keys[i].equals( key ) )
+				if( k[i] == key || k[i].equals( key ) )
 				{
-					keys[i + 1] = value; // This modifies the keys array but it
-					                     // doesn't make it invalidate for any
-					                     // time so its ok (see note no top)
+					if( k[i + 1] == value || k[i + 1].equals( value ) ) return;
+					// a copy, as the other writes : the original keys are
+					// replied to keysChangedImpl
+					String[] newKeys = k.clone();
+					newKeys[i + 1] = value;
+					keys = newKeys;
+					keysChangedImpl( originalKeys );
 					return;
 				}
 			}
-			String[] newKeys = new String[keys.length + 2];
-			for( int i = 0; i < keys.length; i += 2 )
+			String[] newKeys = new String[k.length + 2];
+			for( int i = 0; i < k.length; i += 2 )
 			{
-				newKeys[i] = keys[i];
-				newKeys[i + 1] = keys[i + 1];
+				newKeys[i] = k[i];
+				newKeys[i + 1] = k[i + 1];
 			}
-			newKeys[keys.length] = key;
-			newKeys[keys.length + 1] = value;
+			newKeys[k.length] = key;
+			newKeys[k.length + 1] = value;
 			keys = newKeys;
 		}
+		keysChangedImpl( originalKeys );
 	}
 
 
@@ -382,25 +488,36 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	@Override
 	public void remove( String key )
 	{
-		if( key == null || keys == null ) return;
+		Object originalKeys = keys;
+		if( key == null || originalKeys == null ) return;
+		if( originalKeys instanceof int[] )
+		{
+			int[] codes = DICTIONARY.remove( ( int[] ) originalKeys, key );
+			if( codes == originalKeys ) return;
+			keys = codes;
+			keysChangedImpl( originalKeys );
+			return;
+		}
 		if( !hasKey( key ) ) return;
-		Map<String, String> originalKeys = getKeys();
-		if( keys.length == 2 )
+		String[] k = ( String[] ) originalKeys;
+		if( k.length == 2 )
 		{
 			keys = null;
+			keysChangedImpl( originalKeys );
 			return;
 		}
-		String[] newKeys = new String[keys.length - 2];
+		String[] newKeys = new String[k.length - 2];
 		int j = 0;
-		for( int i = 0; i < keys.length; i += 2 )
+		for( int i = 0; i < k.length; i += 2 )
 		{
-			if( !keys[i].equals( key ) )
+			if( !k[i].equals( key ) )
 			{
-				newKeys[j++] = keys[i];
-				newKeys[j++] = keys[i + 1];
+				newKeys[j++] = k[i];
+				newKeys[j++] = k[i + 1];
 			}
 		}
 		keys = newKeys;
+		keysChangedImpl( originalKeys );
 	}
 
 
@@ -412,11 +529,10 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	@Override
 	public void removeAll()
 	{
-		if( keys != null )
-		{
-			Map<String, String> originalKeys = getKeys();
-			keys = null;
-		}
+		Object originalKeys = keys;
+		if( originalKeys == null ) return;
+		keys = null;
+		keysChangedImpl( originalKeys );
 	}
 
 
@@ -433,12 +549,21 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	public Map<String, String> getKeys()
 	{
 		Map<String, String> result = new HashMap<String, String>();
-		String[] keys = this.keys;
-		if( keys != null )
+		Object keys = this.keys;
+		if( keys instanceof int[] )
 		{
-			for( int i = 0; i < keys.length; i += 2 )
+			int[] codes = ( int[] ) keys;
+			for( int code : codes )
 			{
-				result.put( keys[i], keys[i + 1] );
+				result.put( DICTIONARY.key( code ), DICTIONARY.value( code ) );
+			}
+		}
+		else if( keys != null )
+		{
+			String[] k = ( String[] ) keys;
+			for( int i = 0; i < k.length; i += 2 )
+			{
+				result.put( k[i], k[i + 1] );
 			}
 		}
 		return result;
@@ -459,20 +584,43 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	@Override
 	public void setKeys( Map<String, String> keys )
 	{
-		Map<String, String> originalKeys = getKeys();
+		Object originalKeys = this.keys;
 		if( keys == null || keys.isEmpty() )
 		{
 			this.keys = null;
+			if( originalKeys != null ) keysChangedImpl( originalKeys );
+			return;
+		}
+		if( compactTags )
+		{
+			this.keys = DICTIONARY.encode( keys );
+			keysChangedImpl( originalKeys );
 			return;
 		}
 		String[] newKeys = new String[keys.size() * 2];
 		int index = 0;
 		for( Entry<String, String> entry : keys.entrySet() )
 		{
-			newKeys[index++] = entry.getKey();
-			newKeys[index++] = entry.getValue();
+			newKeys[index++] = STRINGS.get( entry.getKey() );
+			newKeys[index++] = STRINGS.get( entry.getValue() );
 		}
 		this.keys = newKeys;
+		keysChangedImpl( originalKeys );
+	}
+
+
+
+
+	/**
+	 * Called after each change of the tags of this primitive. Does nothing by
+	 * default.
+	 * 
+	 * @param originalKeys
+	 *            the tags before the change, as stored in {@link #keys} (see
+	 *            {@link #keyValues(Object)}). May be null.
+	 */
+	protected void keysChangedImpl( Object originalKeys )
+	{
 	}
 
 
@@ -481,12 +629,23 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	@Override
 	public final Collection<String> keySet()
 	{
-		String[] keys = this.keys;
+		Object keys = this.keys;
 		if( keys == null ) return Collections.emptySet();
-		Set<String> result = new HashSet<String>( keys.length / 2 );
-		for( int i = 0; i < keys.length; i += 2 )
+		if( keys instanceof int[] )
 		{
-			result.add( keys[i] );
+			int[] codes = ( int[] ) keys;
+			Set<String> result = new HashSet<String>( codes.length );
+			for( int code : codes )
+			{
+				result.add( DICTIONARY.key( code ) );
+			}
+			return result;
+		}
+		String[] k = ( String[] ) keys;
+		Set<String> result = new HashSet<String>( k.length / 2 );
+		for( int i = 0; i < k.length; i += 2 )
+		{
+			result.add( k[i] );
 		}
 		return result;
 	}
@@ -519,14 +678,7 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	 */
 	public boolean hasKey( String key )
 	{
-		String[] keys = this.keys;
-		if( key == null ) return false;
-		if( keys == null ) return false;
-		for( int i = 0; i < keys.length; i += 2 )
-		{
-			if( keys[i].equals( key ) ) return true;
-		}
-		return false;
+		return get( key ) != null;
 	}
 
 
@@ -543,9 +695,8 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 	 */
 	public boolean hasKeyValue( String key, String value )
 	{
-		if( hasKey( key ) )
-			return get( key ).equals( value );
-		else return false;
+		String v = get( key );
+		return v != null && ( v == value || v.equals( value ) );
 	}
 
 
@@ -621,8 +772,7 @@ public abstract class AbstractPrimitive implements Tagged, IPrimitive
 
 	public boolean isThisKind( String key, String value )
 	{
-		return this.hasKey( key )
-		        && this.getKeys().get( key ).equals( value );
+		return this.hasKeyValue( key, value );
 	}
 
 
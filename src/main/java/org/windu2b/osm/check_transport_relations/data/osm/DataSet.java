@@ -3,19 +3,21 @@ package org.windu2b.osm.check_transport_relations.data.osm;
 
 import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
 
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.windu2b.osm.check_transport_relations.tools.Predicate;
-import org.windu2b.osm.check_transport_relations.tools.SubclassFilteredCollection;
-
 /**
  * DataSet is the data behind the application. It can consists of only a few
  * points up to the whole osm database. DataSet's can be merged together, saved,
@@ -58,52 +60,116 @@ import org.windu2b.osm.check_transport_relations.tools.SubclassFilteredCollectio
  * Note that locks cannot be upgraded - if one threads use read lock and and
  * then write lock, dead lock will occur - see #5814 for sample ticket
  * 
+ * A read-only snapshot of a dataset (see {@link #freeze()}) is read by any
+ * number of threads without lock, while the dataset itself goes on changing.
+ * 
  * @author imi
  */
 public class DataSet implements Cloneable
 {
+	/**
+	 * The primitives by id, read without any lock nor allocation, see
+	 * {@link #getPrimitiveById(long, OsmPrimitiveType)}
+	 */
+	private final PrimitiveTable<Node>	   nodesById	     = new PrimitiveTable<Node>();
+
+
+	private final PrimitiveTable<Way>	   waysById	         = new PrimitiveTable<Way>();
+
+
+	private final PrimitiveTable<Relation>	relationsById	 = new PrimitiveTable<Relation>();
+
+
+	// Number of open calls to beginUpdate
+	private int	                           updateCount;
+
+
+	private int	                           highlightUpdateCount;
+
+
+	private boolean	                       uploadDiscouraged	= false;
+
+
+	/**
+	 * true if this dataset is a whole local extract (file, Overpass query):
+	 * the referrers of its primitives are searched in it, never on the server
+	 */
+	private boolean	                       localOnly	      = false;
+
+
+	private final ReadWriteLock	           lock	             = new ReentrantReadWriteLock();
+
+
+	/**
+	 * true if this dataset is a snapshot, which is never modified (see
+	 * {@link #freeze()}). Written once, before the snapshot is published.
+	 */
+	private volatile boolean	           readOnly	         = false;
 
-	private static class IdHash implements Hash<PrimitiveId, OsmPrimitive>
-	{
 
-		public int getHashCode( PrimitiveId k )
+	/** the last snapshot of this dataset, replied by {@link #freeze()} */
+	private volatile DataSet	           lastSnapshot;
+
+
+	/** the read lock of the snapshots */
+	private static final Lock	           NO_LOCK	         = new NoLock();
+
+
+
+
+	/**
+	 * The read lock of a snapshot, which does nothing
+	 */
+	private static final class NoLock implements Lock
+	{
+		@Override
+		public void lock()
 		{
-			return ( int ) k.getUniqueId() ^ k.getType().hashCode();
 		}
 
 
 
 
-		public boolean equals( PrimitiveId key, OsmPrimitive value )
+		@Override
+		public void lockInterruptibly()
 		{
-			if( key == null || value == null ) return false;
-			return key.getUniqueId() == value.getUniqueId()
-			        && key.getType() == value.getType();
 		}
-	}
 
 
 
-	private Storage<OsmPrimitive>	       allPrimitives	 = new Storage<OsmPrimitive>(
-	                                                                 new IdHash(),
-	                                                                 true );
 
+		@Override
+		public boolean tryLock()
+		{
+			return true;
+		}
 
-	private Map<PrimitiveId, OsmPrimitive>	primitivesMap	 = allPrimitives
-	                                                                 .foreignKey( new IdHash() );
 
 
-	// Number of open calls to beginUpdate
-	private int	                           updateCount;
+
+		@Override
+		public boolean tryLock( long time, TimeUnit unit )
+		{
+			return true;
+		}
 
 
-	private int	                           highlightUpdateCount;
 
 
-	private boolean	                       uploadDiscouraged	= false;
+		@Override
+		public void unlock()
+		{
+		}
 
 
-	private final ReadWriteLock	           lock	             = new ReentrantReadWriteLock();
+
+
+		@Override
+		public Condition newCondition()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
 
 
 
@@ -115,9 +181,81 @@ public class DataSet implements Cloneable
 
 
 
+	/**
+	 * Replies the read lock of this dataset. The read lock of a snapshot does
+	 * nothing.
+	 */
 	public Lock getReadLock()
 	{
-		return lock.readLock();
+		return readOnly ? NO_LOCK : lock.readLock();
+	}
+
+
+
+
+	/**
+	 * Replies true if this dataset is a snapshot (see {@link #freeze()}): it
+	 * is never modified, and is read without lock
+	 */
+	public final boolean isReadOnly()
+	{
+		return readOnly;
+	}
+
+
+
+
+	/**
+	 * Replies a read-only snapshot of this dataset: a copy of its primitives,
+	 * which no later change of this dataset modifies. It is read by any number
+	 * of threads without lock, and any attempt to modify it throws an
+	 * IllegalStateException. The relations referring to a primitive of the
+	 * snapshot are those known when it was frozen.
+	 * 
+	 * The snapshot is published as the last one (see
+	 * {@link #getLastSnapshot()}), so that a thread which merges new data into
+	 * this dataset can freeze it from time to time, while other threads read
+	 * the last snapshot.
+	 * 
+	 * @return the snapshot
+	 */
+	public DataSet freeze()
+	{
+		getReadLock().lock();
+		try
+		{
+			DataSet snapshot = clone();
+			snapshot.localOnly = localOnly;
+			snapshot.uploadDiscouraged = uploadDiscouraged;
+			for( OsmPrimitive primitive : allPrimitives() )
+			{
+				if( ( primitive.flags & AbstractPrimitive.FLAG_REFERRERS_COMPLETE ) != 0 )
+				    snapshot.getPrimitiveById( primitive.getUniqueId(),
+				            primitive.getType() ).updateFlags(
+				            AbstractPrimitive.FLAG_REFERRERS_COMPLETE, true );
+			}
+			// publishes the primitives with the flag
+			snapshot.readOnly = true;
+			lastSnapshot = snapshot;
+			return snapshot;
+		}
+		finally
+		{
+			getReadLock().unlock();
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the last snapshot of this dataset, replied by {@link #freeze()}
+	 * 
+	 * @return the snapshot, or null if this dataset was never frozen
+	 */
+	public DataSet getLastSnapshot()
+	{
+		return lastSnapshot;
 	}
 
 
@@ -218,6 +356,29 @@ public class DataSet implements Cloneable
 
 
 
+
+	/**
+	 * Replies true if this dataset is a whole local extract, i.e. read from a
+	 * file or from an Overpass query. The referrers of its primitives are then
+	 * searched in it instead of being read from the server.
+	 * 
+	 * @return true if this dataset is a local extract
+	 */
+	public final boolean isLocalOnly()
+	{
+		return localOnly;
+	}
+
+
+
+
+	public final void setLocalOnly( boolean localOnly )
+	{
+		this.localOnly = localOnly;
+	}
+
+
+
 	/*
 	 * Holding bin for changeset tag information, to be applied when or if this
 	 * is ever uploaded.
@@ -247,17 +408,7 @@ public class DataSet implements Cloneable
 	 * enables the instant conversion of the whole DataSet by iterating over
 	 * this data structure.
 	 */
-	private Collection<Node>	nodes	= new ArrayList<Node>();
-
-
-
-
-	private <T extends OsmPrimitive> Collection<T> getPrimitives(
-	        Predicate<OsmPrimitive> predicate )
-	{
-		return new SubclassFilteredCollection<OsmPrimitive, T>( allPrimitives,
-		        predicate );
-	}
+	private final PrimitiveList<Node>	nodes	= new PrimitiveList<Node>();
 
 
 
@@ -269,7 +420,7 @@ public class DataSet implements Cloneable
 	 */
 	public Collection<Node> getNodes()
 	{
-		return getPrimitives( OsmPrimitive.nodePredicate );
+		return nodes;
 	}
 
 
@@ -279,7 +430,7 @@ public class DataSet implements Cloneable
 	 * 
 	 * The way nodes are stored only in the way list.
 	 */
-	private Collection<Way>	ways	= new ArrayList<Way>();
+	private final PrimitiveList<Way>	ways	= new PrimitiveList<Way>();
 
 
 
@@ -291,7 +442,7 @@ public class DataSet implements Cloneable
 	 */
 	public Collection<Way> getWays()
 	{
-		return getPrimitives( OsmPrimitive.wayPredicate );
+		return ways;
 	}
 
 
@@ -299,7 +450,7 @@ public class DataSet implements Cloneable
 	/**
 	 * All relations/relationships
 	 */
-	private Collection<Relation>	relations	= new ArrayList<Relation>();
+	private final PrimitiveList<Relation>	relations	= new PrimitiveList<Relation>();
 
 
 
@@ -311,26 +462,165 @@ public class DataSet implements Cloneable
 	 */
 	public Collection<Relation> getRelations()
 	{
-		return getPrimitives( OsmPrimitive.relationPredicate );
+		return relations;
+	}
+
+
+
+	/**
+	 * The relations by key and by key=value
+	 */
+	private final TagIndex<Relation>	relationTags	= new TagIndex<Relation>();
+
+
+
+
+	/**
+	 * Replies the relations with a key, in the order they were added, without
+	 * reading the other relations
+	 * 
+	 * @param key
+	 *            the key
+	 * @return a copy of the relations with the key
+	 */
+	public List<Relation> getRelations( String key )
+	{
+		getReadLock().lock();
+		try
+		{
+			return relationTags.get( key );
+		}
+		finally
+		{
+			getReadLock().unlock();
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the relations with a key and a value, in the order they were
+	 * added, without reading the other relations
+	 * 
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return a copy of the relations with the tag
+	 */
+	public List<Relation> getRelations( String key, String value )
+	{
+		getReadLock().lock();
+		try
+		{
+			return relationTags.get( key, value );
+		}
+		finally
+		{
+			getReadLock().unlock();
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the number of relations with a key, or with a key and a value,
+	 * without copying them
+	 * 
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value. If null, the relations with the key are counted.
+	 * @return the number of relations
+	 */
+	public int getRelationsCount( String key, String value )
+	{
+		getReadLock().lock();
+		try
+		{
+			return relationTags.count( key, value );
+		}
+		finally
+		{
+			getReadLock().unlock();
+		}
 	}
 
 
 
 
 	/**
-	 * @return A collection containing all primitives of the dataset. Data are
-	 *         not ordered
+	 * @return A collection containing all primitives of the dataset: the
+	 *         nodes, then the ways, then the relations
 	 */
 	public Collection<OsmPrimitive> allPrimitives()
 	{
-		return getPrimitives( OsmPrimitive.allPredicate );
+		return new AbstractCollection<OsmPrimitive>()
+		{
+			@Override
+			public int size()
+			{
+				return nodes.size() + ways.size() + relations.size();
+			}
+
+
+
+
+			@Override
+			public Iterator<OsmPrimitive> iterator()
+			{
+				final Iterator<?>[] iterators = { nodes.iterator(),
+				        ways.iterator(), relations.iterator() };
+				return new Iterator<OsmPrimitive>()
+				{
+					private int	current;
+
+
+
+
+					@Override
+					public boolean hasNext()
+					{
+						while( current < iterators.length
+						        && !iterators[current].hasNext() )
+						{
+							current++;
+						}
+						return current < iterators.length;
+					}
+
+
+
+
+					@Override
+					public OsmPrimitive next()
+					{
+						if( !hasNext() ) throw new NoSuchElementException();
+						return ( OsmPrimitive ) iterators[current].next();
+					}
+
+
+
+
+					@Override
+					public void remove()
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
 	}
 
 
 
 
 	/**
-	 * Adds a primitive to the dataset
+	 * Adds a primitive to the dataset. A way or a relation is registered as
+	 * referrer of its nodes or members of the dataset (see
+	 * {@link OsmPrimitive#getReferrers()}).
 	 * 
 	 * @param primitive
 	 *            the primitive.
@@ -340,28 +630,32 @@ public class DataSet implements Cloneable
 		beginUpdate();
 		try
 		{
-			if( getPrimitiveById( primitive ) != null )
+			if( getPrimitiveById( primitive.getUniqueId(),
+			        primitive.getType() ) != null )
 			    throw new DataIntegrityProblemException(
 			            tr( "Unable to add primitive {0} to the dataset because it is already included",
 			                    primitive.toString() ) );
-			boolean success = false;
 			if( primitive instanceof Node )
 			{
-				success = nodes.add( ( Node ) primitive );
+				nodes.append( ( Node ) primitive );
+				nodesById.add( ( Node ) primitive );
 			}
 			else if( primitive instanceof Way )
 			{
-				success = ways.add( ( Way ) primitive );
+				ways.append( ( Way ) primitive );
+				waysById.add( ( Way ) primitive );
 			}
 			else if( primitive instanceof Relation )
 			{
-				success = relations.add( ( Relation ) primitive );
+				relations.append( ( Relation ) primitive );
+				relationsById.add( ( Relation ) primitive );
+				relationTags.add( ( Relation ) primitive, AbstractPrimitive
+				        .keyValues( primitive.keys ) );
 			}
-			if( !success )
-			    throw new RuntimeException( "failed to add primitive: "
-			            + primitive );
-			allPrimitives.add( primitive );
+			else throw new RuntimeException( "failed to add primitive: "
+			        + primitive );
 			primitive.setDataset( this );
+			primitive.addToReferrers();
 		}
 		finally
 		{
@@ -372,6 +666,29 @@ public class DataSet implements Cloneable
 
 
 
+	/**
+	 * Updates the tag index after a change of the tags of a primitive. Called
+	 * under the write lock of the dataset.
+	 * 
+	 * @param primitive
+	 *            the primitive, part of this dataset
+	 * @param originalKeys
+	 *            its tags before the change, as stored by the primitive
+	 */
+	void keysChanged( OsmPrimitive primitive, Object originalKeys )
+	{
+		if( primitive instanceof Relation )
+		{
+			relationTags.remove( ( Relation ) primitive, AbstractPrimitive
+			        .keyValues( originalKeys ) );
+			relationTags.add( ( Relation ) primitive, AbstractPrimitive
+			        .keyValues( primitive.keys ) );
+		}
+	}
+
+
+
+
 	@Override
 	public DataSet clone()
 	{
@@ -446,7 +763,17 @@ public class DataSet implements Cloneable
 	 */
 	public OsmPrimitive getPrimitiveById( long id, OsmPrimitiveType type )
 	{
-		return getPrimitiveById( new SimplePrimitiveId( id, type ) );
+		switch( type )
+		{
+			case NODE :
+				return nodesById.get( id );
+			case WAY :
+				return waysById.get( id );
+			case RELATION :
+				return relationsById.get( id );
+			default :
+				return null;
+		}
 	}
 
 
@@ -454,7 +781,53 @@ public class DataSet implements Cloneable
 
 	public OsmPrimitive getPrimitiveById( PrimitiveId primitiveId )
 	{
-		return primitivesMap.get( primitiveId );
+		return getPrimitiveById( primitiveId.getUniqueId(),
+		        primitiveId.getType() );
+	}
+
+
+
+
+	/**
+	 * Replies the node with a given id, without any lock
+	 * 
+	 * @param id
+	 *            the unique id of the node
+	 * @return the node, or null if there is none
+	 */
+	public Node getNode( long id )
+	{
+		return nodesById.get( id );
+	}
+
+
+
+
+	/**
+	 * Replies the way with a given id, without any lock
+	 * 
+	 * @param id
+	 *            the unique id of the way
+	 * @return the way, or null if there is none
+	 */
+	public Way getWay( long id )
+	{
+		return waysById.get( id );
+	}
+
+
+
+
+	/**
+	 * Replies the relation with a given id, without any lock
+	 * 
+	 * @param id
+	 *            the unique id of the relation
+	 * @return the relation, or null if there is none
+	 */
+	public Relation getRelation( long id )
+	{
+		return relationsById.get( id );
 	}
 
 
@@ -500,9 +873,15 @@ public class DataSet implements Cloneable
 	 *   ds.endUpdate();
 	 * }
 	 * </pre>
+	 * 
+	 * @throws IllegalStateException
+	 *             if this dataset is a read-only snapshot
 	 */
 	public void beginUpdate()
 	{
+		if( readOnly )
+		    throw new IllegalStateException(
+		            tr( "Unable to modify a read-only snapshot of a dataset" ) );
 		lock.writeLock().lock();
 		updateCount++;
 	}
@@ -538,14 +917,18 @@ public class DataSet implements Cloneable
 		beginUpdate();
 		try
 		{
-			for( OsmPrimitive primitive : allPrimitives )
+			for( OsmPrimitive primitive : allPrimitives() )
 			{
+				primitive.clearReferrers();
 				primitive.setDataset( null );
 			}
-			nodes.clear();
-			ways.clear();
-			relations.clear();
-			allPrimitives.clear();
+			nodes.reset();
+			ways.reset();
+			relations.reset();
+			nodesById.clear();
+			waysById.clear();
+			relationsById.clear();
+			relationTags.clear();
 		}
 		finally
 		{
@@ -52,6 +52,13 @@ public class DataSetMerger
 	private final Set<PrimitiveId>	            objectsWithChildrenToMerge;
 
 
+	/**
+	 * true, if the source primitives without a matching target primitive are
+	 * to be added to the target dataset
+	 */
+	private boolean	                            addMissingPrimitives;
+
+
 
 
 	/**
@@ -88,8 +95,9 @@ public class DataSetMerger
 	 * onto my primitives.
 	 * 
 	 * If other.id != 0 it tries to merge it with an corresponding primitive
-	 * from my dataset with the same id. If this is not possible a conflict is
-	 * remembered in {@link #conflicts}.
+	 * from my dataset with the same id. If there is no such primitive and
+	 * {@link #setAddMissingPrimitives(boolean)} is set, a copy of other is
+	 * added to my dataset.
 	 * 
 	 * If other.id == 0 it tries to find a primitive in my dataset with id == 0
 	 * which is semantically equal. If it finds one it merges its technical
@@ -107,6 +115,16 @@ public class DataSetMerger
 		// defined id
 		//
 		if( mergeById( source ) ) return;
+		if( !addMissingPrimitives ) return;
+
+		// no matching primitive: add a copy of source to my dataset
+		//
+		OsmPrimitive target = source.getType().newInstance(
+		        source.getUniqueId() );
+		target.mergeFrom( source );
+		targetDataSet.addPrimitive( target );
+		mergedMap.put( source.getPrimitiveId(), target.getPrimitiveId() );
+		objectsWithChildrenToMerge.add( source.getPrimitiveId() );
 	}
 
 
@@ -411,6 +429,29 @@ public class DataSetMerger
 
 
 
+	public boolean isAddMissingPrimitives()
+	{
+		return addMissingPrimitives;
+	}
+
+
+
+
+	/**
+	 * Set true if the source primitives which don't exist in the target dataset
+	 * are to be added to it. By default, they are ignored.
+	 * 
+	 * @param addMissingPrimitives
+	 *            true if the missing primitives are to be added
+	 */
+	public void setAddMissingPrimitives( boolean addMissingPrimitives )
+	{
+		this.addMissingPrimitives = addMissingPrimitives;
+	}
+
+
+
+
 	/**
 	 * replies my dataset
 	 * 
@@ -3,12 +3,22 @@
  */
 package org.windu2b.osm.check_transport_relations.data.osm;
 
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
 /**
  * @author windu
  * 
  */
 public class Node extends OsmPrimitive
 {
+	/** the latitude, in 1e-7 degrees, see {@link Coordinates} */
+	private int	lat	= Coordinates.UNKNOWN;
+
+
+	/** the longitude, in 1e-7 degrees */
+	private int	lon	= Coordinates.UNKNOWN;
+
+
 
 	/**
 	 * Constructs an incomplete {@code Node} object with the given id.
@@ -54,6 +64,8 @@ public class Node extends OsmPrimitive
 	{
 		super( clone.getUniqueId() );
 		cloneFrom( clone );
+		lat = clone.lat;
+		lon = clone.lon;
 	}
 
 
@@ -96,6 +108,161 @@ public class Node extends OsmPrimitive
 
 
 
+	@Override
+	public void load( int version, int timestamp )
+	{
+		boolean locked = writeLock();
+		try
+		{
+			super.load( version, timestamp );
+			this.setIncomplete( true );
+		}
+		finally
+		{
+			writeUnlock( locked );
+		}
+	}
+
+
+
+
+	@Override
+	public void mergeFrom( OsmPrimitive other )
+	{
+		boolean locked = writeLock();
+		try
+		{
+			super.mergeFrom( other );
+			Node n = ( Node ) other;
+			if( n.hasCoor() ) setFixedCoor( n.lat, n.lon );
+		}
+		finally
+		{
+			writeUnlock( locked );
+		}
+	}
+
+
+
+
+	/**
+	 * Replies true if the coordinates of the node are known
+	 */
+	public boolean hasCoor()
+	{
+		return lat != Coordinates.UNKNOWN;
+	}
+
+
+
+
+	/**
+	 * Sets the coordinates of the node
+	 * 
+	 * @param lat
+	 *            the latitude, in 1e-7 degrees
+	 * @param lon
+	 *            the longitude, in 1e-7 degrees
+	 * @throws IllegalArgumentException
+	 *             thrown if a coordinate is out of range
+	 */
+	public void setFixedCoor( int lat, int lon )
+	{
+		if( lat < -90 * ( int ) Coordinates.SCALE
+		        || lat > 90 * ( int ) Coordinates.SCALE )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' in range [-90, 90] expected. Got ''{1}''.",
+		            "lat", Coordinates.toDegrees( lat ) ) );
+		if( lon < -180 * ( int ) Coordinates.SCALE
+		        || lon > 180 * ( int ) Coordinates.SCALE )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' in range [-180, 180] expected. Got ''{1}''.",
+		            "lon", Coordinates.toDegrees( lon ) ) );
+		this.lat = lat;
+		this.lon = lon;
+	}
+
+
+
+
+	/**
+	 * Sets the coordinates of the node
+	 * 
+	 * @param lat
+	 *            the latitude, in degrees
+	 * @param lon
+	 *            the longitude, in degrees
+	 * @throws IllegalArgumentException
+	 *             thrown if a coordinate is out of range
+	 */
+	public void setCoor( double lat, double lon )
+	{
+		setFixedCoor( Coordinates.toFixed( lat ), Coordinates.toFixed( lon ) );
+	}
+
+
+
+
+	/**
+	 * @return the latitude, in 1e-7 degrees, or {@link Coordinates#UNKNOWN}
+	 */
+	public int getFixedLat()
+	{
+		return lat;
+	}
+
+
+
+
+	/**
+	 * @return the longitude, in 1e-7 degrees, or {@link Coordinates#UNKNOWN}
+	 */
+	public int getFixedLon()
+	{
+		return lon;
+	}
+
+
+
+
+	/**
+	 * @return the latitude, in degrees, or NaN if unknown
+	 */
+	public double getLat()
+	{
+		return Coordinates.toDegrees( lat );
+	}
+
+
+
+
+	/**
+	 * @return the longitude, in degrees, or NaN if unknown
+	 */
+	public double getLon()
+	{
+		return Coordinates.toDegrees( lon );
+	}
+
+
+
+
+	/**
+	 * Replies the distance to another node
+	 * 
+	 * @param other
+	 *            the other node. Must not be null.
+	 * @return the distance, in metres, or NaN if a coordinate is unknown
+	 */
+	public double distance( Node other )
+	{
+		if( !hasCoor() || !other.hasCoor() ) return Double.NaN;
+		return Coordinates.distance( lat, lon, other.lat, other.lon );
+	}
+
+
+
+
 	@Override
 	public String toString()
 	{
@@ -0,0 +1,242 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+import org.windu2b.osm.check_transport_relations.tools.LongHashMap;
+
+/**
+ * A uniform grid over some nodes, for the radius and the nearest neighbour
+ * queries. The cells are squares of a given size in metres at the highest
+ * latitude of the nodes, so that a query only reads the cells around its
+ * point. The nodes without coordinates aren't indexed.
+ *
+ * The grid doesn't wrap around the antimeridian. This class is not thread
+ * safe while it is built, and may be read by several threads afterwards.
+ */
+public class NodeGrid
+{
+	/** The lowest cosine of a latitude, so that a cell stays bounded */
+	private static final double	     MIN_COS	= 0.01;
+
+
+	/** the height and the width of a cell, in 1e-7 degrees */
+	private final int	             cellLat;
+
+
+	private final int	             cellLon;
+
+
+	/** the size of a cell, in metres */
+	private final double	         cellSize;
+
+
+	private final LongHashMap<List<Node>>	cells	= new LongHashMap<List<Node>>();
+
+
+	private int	                     size;
+
+
+
+
+	/**
+	 * Indexes some nodes
+	 *
+	 * @param nodes
+	 *            the nodes. Must not be null.
+	 * @param cellSize
+	 *            the size of a cell, in metres : about the radius of the
+	 *            queries. > 0 expected.
+	 * @throws IllegalArgumentException
+	 *             thrown if nodes is null or if cellSize <= 0
+	 */
+	public NodeGrid( Collection<Node> nodes, double cellSize )
+	{
+		CheckParameterUtil.ensureParameterNotNull( nodes, "nodes" );
+		if( !( cellSize > 0 ) )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.",
+		            "cellSize", cellSize ) );
+		int maxLat = 0;
+		for( Node n : nodes )
+		{
+			if( n.hasCoor() )
+			    maxLat = Math.max( maxLat, Math.abs( n.getFixedLat() ) );
+		}
+		this.cellSize = cellSize;
+		this.cellLat = Math.max( 1,
+		        ( int ) Math.min( 90 * Coordinates.SCALE, cellSize
+		                / Coordinates.METRES_PER_UNIT ) );
+		this.cellLon = ( int ) Math.min( 180 * Coordinates.SCALE, cellLat
+		        / cos( maxLat ) );
+		for( Node n : nodes )
+		{
+			add( n );
+		}
+	}
+
+
+
+
+	private static double cos( int lat )
+	{
+		return Math.max( MIN_COS, Math.cos( Math.toRadians( Math.min( Math
+		        .abs( ( long ) lat ), 90 * ( long ) Coordinates.SCALE )
+		        / Coordinates.SCALE ) ) );
+	}
+
+
+
+
+	/**
+	 * Replies the row or the column of a coordinate, rounded down
+	 */
+	private static int index( long fixed, int cell )
+	{
+		long index = fixed / cell;
+		return ( int ) ( fixed < 0 && index * cell != fixed ? index - 1 : index );
+	}
+
+
+
+
+	private static long key( int row, int column )
+	{
+		return ( ( long ) row << 32 ) | ( column & 0xffffffffL );
+	}
+
+
+
+
+	private void add( Node n )
+	{
+		if( !n.hasCoor() ) return;
+		long key = key( index( n.getFixedLat(), cellLat ),
+		        index( n.getFixedLon(), cellLon ) );
+		List<Node> cell = cells.get( key );
+		if( cell == null )
+		{
+			cell = new ArrayList<Node>( 2 );
+			cells.put( key, cell );
+		}
+		cell.add( n );
+		size++;
+	}
+
+
+
+
+	/**
+	 * Replies the number of indexed nodes
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+
+
+
+	/**
+	 * Replies the nodes within a distance of a point
+	 *
+	 * @param lat
+	 *            the latitude of the point, in 1e-7 degrees
+	 * @param lon
+	 *            the longitude of the point, in 1e-7 degrees
+	 * @param radius
+	 *            the distance, in metres
+	 * @return the nodes, in no particular order
+	 */
+	public List<Node> within( int lat, int lon, double radius )
+	{
+		List<Node> result = new ArrayList<Node>();
+		if( !( radius >= 0 ) ) return result;
+		long latSpan = ( long ) Math.min( 180 * Coordinates.SCALE,
+		        Math.ceil( radius / Coordinates.METRES_PER_UNIT ) );
+		long lonSpan = ( long ) Math.ceil( latSpan
+		        / cos( ( int ) Math.min( Math.abs( ( long ) lat ) + latSpan,
+		                90 * ( long ) Coordinates.SCALE ) ) );
+		int minRow = index( lat - latSpan, cellLat );
+		int maxRow = index( lat + latSpan, cellLat );
+		int minColumn = index( Math.max( lon - lonSpan,
+		        -180 * ( long ) Coordinates.SCALE ), cellLon );
+		int maxColumn = index( Math.min( lon + lonSpan,
+		        180 * ( long ) Coordinates.SCALE ), cellLon );
+		if( ( long ) ( maxRow - minRow + 1 ) * ( maxColumn - minColumn + 1 ) > cells
+		        .size() )
+		{
+			// a large radius : fewer cells are read than are covered
+			for( List<Node> cell : cells.values() )
+			{
+				addWithin( result, cell, lat, lon, radius );
+			}
+			return result;
+		}
+		for( int row = minRow; row <= maxRow; row++ )
+		{
+			for( int column = minColumn; column <= maxColumn; column++ )
+			{
+				List<Node> cell = cells.get( key( row, column ) );
+				if( cell != null ) addWithin( result, cell, lat, lon, radius );
+			}
+		}
+		return result;
+	}
+
+
+
+
+	private static void addWithin( List<Node> result, List<Node> cell,
+	        int lat, int lon, double radius )
+	{
+		for( Node n : cell )
+		{
+			if( Coordinates.distance( lat, lon, n.getFixedLat(),
+			        n.getFixedLon() ) <= radius ) result.add( n );
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the nearest node of a point, within a distance
+	 *
+	 * @param lat
+	 *            the latitude of the point, in 1e-7 degrees
+	 * @param lon
+	 *            the longitude of the point, in 1e-7 degrees
+	 * @param maxDistance
+	 *            the distance, in metres
+	 * @return the nearest node, or null if none is within maxDistance
+	 */
+	public Node nearest( int lat, int lon, double maxDistance )
+	{
+		// the radius grows until a node is found : the nearest one of the
+		// nodes within the radius is the nearest one of all
+		double radius = Math.min( cellSize, maxDistance );
+		while( true )
+		{
+			Node nearest = null;
+			double best = Double.POSITIVE_INFINITY;
+			for( Node n : within( lat, lon, radius ) )
+			{
+				double d = Coordinates.distance( lat, lon, n.getFixedLat(),
+				        n.getFixedLon() );
+				if( d < best )
+				{
+					best = d;
+					nearest = n;
+				}
+			}
+			if( nearest != null || !( radius < maxDistance ) ) return nearest;
+			radius = Math.min( radius * 2, maxDistance );
+		}
+	}
+}
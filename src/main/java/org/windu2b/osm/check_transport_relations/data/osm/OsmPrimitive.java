@@ -5,13 +5,21 @@ package org.windu2b.osm.check_transport_relations.data.osm;
 
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import org.windu2b.osm.check_transport_relations.data.osm.DataIntegrityProblemException;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
+import org.windu2b.osm.check_transport_relations.io.BackreferenceCache;
+import org.windu2b.osm.check_transport_relations.io.DownloadScheduler;
 import org.windu2b.osm.check_transport_relations.io.OsmServerBackreferenceReader;
 import org.windu2b.osm.check_transport_relations.io.OsmServerReader;
+import org.windu2b.osm.check_transport_relations.io.OsmTransferCanceledException;
 import org.windu2b.osm.check_transport_relations.io.OsmTransferException;
+import org.windu2b.osm.check_transport_relations.io.ReferrerIndex;
 import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
 import org.windu2b.osm.check_transport_relations.tools.Predicate;
 
@@ -30,6 +38,13 @@ public abstract class OsmPrimitive extends AbstractPrimitive implements
 	private DataSet	                            dataSet;
 
 
+	/**
+	 * The ways and relations of the dataset referring to this primitive: null,
+	 * a primitive or an array of primitives, replaced at each change
+	 */
+	private Object	                            referrers;
+
+
 	/**
 	 * Some predicates, that describe conditions on primitives.
 	 */
@@ -253,7 +268,7 @@ public abstract class OsmPrimitive extends AbstractPrimitive implements
 			timestamp = other.timestamp;
 			version = other.version;
 			setIncomplete( other.isIncomplete() );
-			flags = other.flags;
+			copyFlags( other );
 			changesetId = other.changesetId;
 		}
 		finally
@@ -282,20 +297,227 @@ public abstract class OsmPrimitive extends AbstractPrimitive implements
 
 
 
+	/**
+	 * Loads the attributes read by a reader, as {@link #load(PrimitiveData)}
+	 * does, without any intermediate PrimitiveData
+	 * 
+	 * @param version
+	 *            the version
+	 * @param timestamp
+	 *            the time of the last modification, in seconds since the epoch
+	 */
+	public void load( int version, int timestamp )
+	{
+		// Write lock is provided by subclasses
+		this.timestamp = timestamp;
+		setIncomplete( false );
+		this.version = version;
+	}
+
+
+
+
+	/**
+	 * Replies the ways and relations of the dataset referring to this
+	 * primitive. They are registered when a way or a relation is added to the
+	 * dataset, and when its nodes or its members change.
+	 * 
+	 * @return an unmodifiable list of the referrers, in the order they were
+	 *         registered
+	 */
+	public List<OsmPrimitive> getReferrers()
+	{
+		Object referrers = this.referrers;
+		if( referrers == null ) return Collections.emptyList();
+		if( referrers instanceof OsmPrimitive )
+		    return Collections.singletonList( ( OsmPrimitive ) referrers );
+		return Collections.unmodifiableList( Arrays
+		        .asList( ( OsmPrimitive[] ) referrers ) );
+	}
+
+
+
+
+	/**
+	 * Registers a referrer. Called under the write lock of the dataset.
+	 * 
+	 * @param referrer
+	 *            the way or the relation, in the dataset of this primitive
+	 */
+	void addReferrer( OsmPrimitive referrer )
+	{
+		Object referrers = this.referrers;
+		if( referrers == null )
+		{
+			this.referrers = referrer;
+		}
+		else if( referrers instanceof OsmPrimitive )
+		{
+			if( referrers != referrer )
+			    this.referrers = new OsmPrimitive[] {
+			            ( OsmPrimitive ) referrers, referrer };
+		}
+		else
+		{
+			OsmPrimitive[] array = ( OsmPrimitive[] ) referrers;
+			for( OsmPrimitive p : array )
+			{
+				if( p == referrer ) return;
+			}
+			// a copy : the arrays are read without lock
+			OsmPrimitive[] newArray = Arrays.copyOf( array, array.length + 1 );
+			newArray[array.length] = referrer;
+			this.referrers = newArray;
+		}
+	}
+
+
+
+
+	/**
+	 * Unregisters a referrer. Called under the write lock of the dataset.
+	 * 
+	 * @param referrer
+	 *            the way or the relation
+	 */
+	void removeReferrer( OsmPrimitive referrer )
+	{
+		Object referrers = this.referrers;
+		if( referrers == referrer )
+		{
+			this.referrers = null;
+		}
+		else if( referrers instanceof OsmPrimitive[] )
+		{
+			OsmPrimitive[] array = ( OsmPrimitive[] ) referrers;
+			int index = -1;
+			for( int i = 0; i < array.length; i++ )
+			{
+				if( array[i] == referrer ) index = i;
+			}
+			if( index < 0 ) return;
+			if( array.length == 2 )
+			{
+				this.referrers = array[1 - index];
+				return;
+			}
+			OsmPrimitive[] newArray = new OsmPrimitive[array.length - 1];
+			System.arraycopy( array, 0, newArray, 0, index );
+			System.arraycopy( array, index + 1, newArray, index,
+			        newArray.length - index );
+			this.referrers = newArray;
+		}
+	}
+
+
+
+
+	/**
+	 * Forgets the referrers, when this primitive leaves its dataset
+	 */
+	void clearReferrers()
+	{
+		referrers = null;
+		updateFlags( FLAG_REFERRERS_COMPLETE, false );
+	}
+
+
+
+
+	/**
+	 * Registers this primitive as referrer of its nodes or members. Called
+	 * when it is added to the dataset, and when they change. Does nothing by
+	 * default.
+	 */
+	void addToReferrers()
+	{
+	}
+
+
+
+
+	/**
+	 * Unregisters this primitive as referrer of its nodes or members, before
+	 * they change. Does nothing by default.
+	 */
+	void removeFromReferrers()
+	{
+	}
+
+
+
+
+	/**
+	 * Replies true if all the relations referring to this primitive are in its
+	 * dataset: this primitive is part of a local extract (see
+	 * {@link DataSet#isLocalOnly()}), or its referring relations read from the
+	 * server have been merged into the dataset (see
+	 * {@link #mergeReferrers(DataSet)}).
+	 * 
+	 * @return true if the referring relations are known without any request
+	 */
+	public boolean isReferrersComplete()
+	{
+		DataSet ds = dataSet;
+		return ds != null
+		        && ( ds.isLocalOnly() || ( flags & FLAG_REFERRERS_COMPLETE ) != 0 );
+	}
+
+
+
+
+	/**
+	 * Merges the relations referring to this primitive, as read from the
+	 * server, into its dataset. They are then read from
+	 * {@link #getReferrers()}, without any other request.
+	 * 
+	 * @param referrers
+	 *            the reply of the <code>[node|way|relation]/#id/relations</code>
+	 *            API call. Ignored, if null.
+	 */
+	public void mergeReferrers( DataSet referrers )
+	{
+		if( dataSet == null || referrers == null ) return;
+		DataSetMerger dm = new DataSetMerger( dataSet, referrers );
+		dm.setAddMissingPrimitives( true );
+		dm.merge();
+		boolean locked = writeLock();
+		try
+		{
+			updateFlags( FLAG_REFERRERS_COMPLETE, true );
+		}
+		finally
+		{
+			writeUnlock( locked );
+		}
+	}
+
+
+
+
 	protected DataSet loadRelations() throws OsmTransferException
 	{
 		/*
 		 * if( isIncomplete() ) {
 		 */
-		OsmServerReader reader = new OsmServerBackreferenceReader( getId(),
-		        this.getType(), true );
-		DataSet ds = reader.parseOsm( null );
-
-		if( getDataSet() != null )
+		BackreferenceCache cache = BackreferenceCache.getInstance();
+		DataSet ds = cache.get( this, getVersion() );
+		if( ds == null )
 		{
-			DataSetMerger dm = new DataSetMerger( getDataSet(), ds );
-			dm.merge();
+			OsmServerReader reader = new OsmServerBackreferenceReader( getId(),
+			        this.getType(), true );
+			// the scheduler retries the failed requests
+			ds = DownloadScheduler.get( DownloadScheduler.getInstance().submit(
+			        reader ) );
+			// a canceled download replies nothing
+			if( ds == null ) throw new OsmTransferCanceledException();
+			cache.put( this, getVersion(), ds );
 		}
+
+		// a snapshot is never modified : the relations read aren't merged
+		if( dataSet != null && dataSet.isReadOnly() ) return ds;
+
+		mergeReferrers( ds );
 		this.setIncomplete( false );
 
 		return ds;
@@ -309,6 +531,37 @@ public abstract class OsmPrimitive extends AbstractPrimitive implements
 
 
 
+	/**
+	 * Replies the relations referring to this primitive. They are read from
+	 * the referrers of this primitive once they are complete (see
+	 * {@link #isReferrersComplete()}), and from the server otherwise.
+	 * 
+	 * @return the referring relations
+	 * @throws OsmTransferException
+	 *             thrown if the relations can't be read from the server
+	 */
+	public Collection<Relation> getReferringRelations()
+	        throws OsmTransferException
+	{
+		if( !isReferrersComplete() )
+		{
+			DataSet ds = loadRelations();
+			// without any dataset, the relations read aren't merged
+			if( !isReferrersComplete() ) return ds.getRelations();
+		}
+
+		Collection<Relation> relations = new ArrayList<Relation>();
+		for( OsmPrimitive referrer : getReferrers() )
+		{
+			if( referrer instanceof Relation )
+			    relations.add( ( Relation ) referrer );
+		}
+		return relations;
+	}
+
+
+
+
 	public OsmPrimitive addRelation( Relation relation )
 	{
 		boolean locked = writeLock();
@@ -330,16 +583,7 @@ public abstract class OsmPrimitive extends AbstractPrimitive implements
 	public Collection<Relation> getRelations( String key )
 	        throws OsmTransferException
 	{
-		loadRelations();
-
-		Collection<Relation> relations = new ArrayList<Relation>();
-
-		for( Relation r : getDataSet().getRelations() )
-		{
-			if( r.isThisKind( key ) ) relations.add( r );
-		}
-
-		return relations;
+		return getReferringRelations( key, null );
 	}
 
 
@@ -348,32 +592,62 @@ public abstract class OsmPrimitive extends AbstractPrimitive implements
 	public Collection<Relation> getRelations( String key, String value )
 	        throws OsmTransferException
 	{
-		loadRelations();
+		return getReferringRelations( key, value );
+	}
 
-		Collection<Relation> relations = new ArrayList<Relation>();
 
-		for( Relation r : getDataSet().getRelations() )
-		{
-			if( r.isThisKind( key, value ) ) relations.add( r );
-		}
 
-		return relations;
+
+	public Relation getRelation( String key, String value )
+	        throws OsmTransferException
+	{
+		Collection<Relation> relations = getReferringRelations( key, value );
+		return relations.isEmpty() ? null : relations.iterator().next();
 	}
 
 
 
 
-	public Relation getRelation( String key, String value )
-	        throws OsmTransferException
+	/**
+	 * Replies the relations referring to this primitive with a key, or with a
+	 * key and a value. Once the referrers are complete, the relations of the
+	 * tag index of the dataset are read instead of the referrers if they are
+	 * fewer : a lookup then costs the number of matches.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value. If null, any value of the key matches.
+	 * @return the matching relations
+	 * @throws OsmTransferException
+	 *             thrown if the relations can't be read from the server
+	 */
+	private Collection<Relation> getReferringRelations( String key,
+	        String value ) throws OsmTransferException
 	{
-		loadRelations();
+		Collection<Relation> relations = new ArrayList<Relation>();
+		DataSet ds = dataSet;
+		if( isReferrersComplete() )
+		{
+			List<OsmPrimitive> referrers = getReferrers();
+			if( ds.getRelationsCount( key, value ) < referrers.size() )
+			{
+				for( Relation r : value == null ? ds.getRelations( key ) : ds
+				        .getRelations( key, value ) )
+				{
+					if( referrers.contains( r ) ) relations.add( r );
+				}
+				return relations;
+			}
+		}
 
-		for( Relation r : getDataSet().getRelations() )
+		for( Relation r : getReferringRelations() )
 		{
-			if( r.isThisKind( key, value ) ) return r;
+			if( value == null ? r.isThisKind( key ) : r.isThisKind( key,
+			        value ) ) relations.add( r );
 		}
 
-		return null;
+		return relations;
 	}
 
 
@@ -382,9 +656,15 @@ public abstract class OsmPrimitive extends AbstractPrimitive implements
 	public Relation getRelation( TagCollection tagCollection )
 	        throws OsmTransferException
 	{
-		DataSet ds = loadRelations();
+		// the referrers of the dataset first, then the referrer index : both
+		// avoid asking the server for the relations
+		ReferrerIndex index = ReferrerIndex.getInstance();
+		if( index != null && !isReferrersComplete()
+		        && ReferrerIndex.isIndexed( tagCollection ) )
+		    return index.getRelation( this, tagCollection );
+
 		Relation relation = null;
-		for( Relation r : ds.getRelations() )
+		for( Relation r : getReferringRelations() )
 		{
 			for( Tag t : tagCollection )
 			{
@@ -404,7 +684,78 @@ public abstract class OsmPrimitive extends AbstractPrimitive implements
 	@Override
 	public final void put( String key, String value )
 	{
-		super.put( key, value );
+		boolean locked = writeLock();
+		try
+		{
+			super.put( key, value );
+		}
+		finally
+		{
+			writeUnlock( locked );
+		}
+	}
+
+
+
+
+	@Override
+	public final void remove( String key )
+	{
+		boolean locked = writeLock();
+		try
+		{
+			super.remove( key );
+		}
+		finally
+		{
+			writeUnlock( locked );
+		}
+	}
+
+
+
+
+	@Override
+	public final void removeAll()
+	{
+		boolean locked = writeLock();
+		try
+		{
+			super.removeAll();
+		}
+		finally
+		{
+			writeUnlock( locked );
+		}
+	}
+
+
+
+
+	@Override
+	public final void setKeys( Map<String, String> keys )
+	{
+		boolean locked = writeLock();
+		try
+		{
+			super.setKeys( keys );
+		}
+		finally
+		{
+			writeUnlock( locked );
+		}
+	}
+
+
+
+
+	/**
+	 * Updates the tag index of the dataset
+	 */
+	@Override
+	protected void keysChangedImpl( Object originalKeys )
+	{
+		if( dataSet != null ) dataSet.keysChanged( this, originalKeys );
 	}
 
 
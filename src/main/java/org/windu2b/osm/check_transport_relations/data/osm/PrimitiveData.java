@@ -70,7 +70,7 @@ public abstract class PrimitiveData extends AbstractPrimitive
 	public String toString()
 	{
 		StringBuilder builder = new StringBuilder();
-		builder.append( id ).append( Arrays.toString( keys ) );
+		builder.append( id ).append( Arrays.toString( keyValues( keys ) ) );
 		return builder.toString();
 	}
 
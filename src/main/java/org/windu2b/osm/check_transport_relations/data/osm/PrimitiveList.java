@@ -0,0 +1,124 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The primitives of a type in a {@link DataSet}, in the order they were added
+ * : a read-only collection, whose size is known and whose iteration only reads
+ * the primitives of the type.
+ *
+ * As {@link PrimitiveTable}, it is written under the write lock of the
+ * dataset and read by any thread without lock : an iterator reads the
+ * primitives added before it was created, and never throws a
+ * ConcurrentModificationException.
+ *
+ * @param <T>
+ *            the type of the primitives
+ */
+final class PrimitiveList<T extends OsmPrimitive> extends
+        AbstractCollection<T>
+{
+	private static final int	INITIAL_CAPACITY	= 16;
+
+
+	/** replaced by a larger copy when full */
+	private volatile Object[]	elements	     = new Object[INITIAL_CAPACITY];
+
+
+	/** written after the primitive */
+	private volatile int	    size;
+
+
+
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+
+
+
+	@Override
+	public Iterator<T> iterator()
+	{
+		// the elements first : a larger copy holds the same primitives, a
+		// cleared list may be shorter than its former elements
+		final Object[] snapshot = elements;
+		final int end = Math.min( size, snapshot.length );
+		return new Iterator<T>()
+		{
+			private int	index;
+
+
+
+
+			@Override
+			public boolean hasNext()
+			{
+				return index < end && snapshot[index] != null;
+			}
+
+
+
+
+			@Override
+			@SuppressWarnings( "unchecked" )
+			public T next()
+			{
+				if( !hasNext() ) throw new NoSuchElementException();
+				return ( T ) snapshot[index++];
+			}
+
+
+
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+
+
+
+	/**
+	 * Adds a primitive. Must be called under the write lock of the dataset.
+	 *
+	 * @param primitive
+	 *            the primitive
+	 */
+	void append( T primitive )
+	{
+		Object[] e = elements;
+		int n = size;
+		if( n == e.length )
+		{
+			e = Arrays.copyOf( e, n * 2 );
+			elements = e;
+		}
+		e[n] = primitive;
+		size = n + 1;
+	}
+
+
+
+
+	/**
+	 * Removes all the primitives. Must be called under the write lock of the
+	 * dataset. The iterators created meanwhile may still read the former
+	 * primitives.
+	 */
+	void reset()
+	{
+		size = 0;
+		elements = new Object[INITIAL_CAPACITY];
+	}
+}
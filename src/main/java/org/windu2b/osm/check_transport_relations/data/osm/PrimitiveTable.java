@@ -0,0 +1,178 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+/**
+ * The primitives of a type in a {@link DataSet}, by id : an open addressing
+ * table, with linear probing, of the ids in a long array and of the
+ * primitives in another one. A lookup allocates nothing and takes no lock.
+ *
+ * The table is written by a single thread at a time, under the write lock of
+ * the dataset, and read by any thread : each write ends with a write of the
+ * volatile {@link #slots}, which a lookup reads first, so a lookup sees every
+ * primitive added before it started. When the table grows, the primitives are
+ * copied into new arrays, which replace the former ones at once.
+ *
+ * @param <T>
+ *            the type of the primitives
+ */
+final class PrimitiveTable<T extends OsmPrimitive>
+{
+	/**
+	 * The arrays of the table. A slot is free while its primitive is null.
+	 */
+	private static final class Slots
+	{
+		private final long[]	      ids;
+
+
+		private final OsmPrimitive[]	primitives;
+
+
+
+
+		private Slots( int capacity )
+		{
+			ids = new long[capacity];
+			primitives = new OsmPrimitive[capacity];
+		}
+	}
+
+
+	private static final int	INITIAL_CAPACITY	= 16;
+
+
+	private volatile Slots	 slots	            = new Slots( INITIAL_CAPACITY );
+
+
+	/** written under the write lock of the dataset */
+	private int	             size;
+
+
+
+
+	private static int hash( long id, int mask )
+	{
+		long h = id * 0x9e3779b97f4a7c15L;
+		return ( int ) ( h ^ ( h >>> 32 ) ) & mask;
+	}
+
+
+
+
+	/**
+	 * Replies the primitive with an id
+	 *
+	 * @param id
+	 *            the unique id
+	 * @return the primitive, or null if there is none
+	 */
+	@SuppressWarnings( "unchecked" )
+	T get( long id )
+	{
+		Slots s = slots;
+		int mask = s.ids.length - 1;
+		for( int i = hash( id, mask );; i = ( i + 1 ) & mask )
+		{
+			OsmPrimitive p = s.primitives[i];
+			if( p == null ) return null;
+			if( s.ids[i] == id ) return ( T ) p;
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the number of slots read by a lookup, for the benchmarks
+	 *
+	 * @param id
+	 *            the unique id
+	 * @return the number of slots read until the primitive or a free slot
+	 */
+	int probes( long id )
+	{
+		Slots s = slots;
+		int mask = s.ids.length - 1;
+		int probes = 1;
+		for( int i = hash( id, mask ); s.primitives[i] != null
+		        && s.ids[i] != id; i = ( i + 1 ) & mask )
+		{
+			probes++;
+		}
+		return probes;
+	}
+
+
+
+
+	/**
+	 * Adds a primitive, which isn't in the table yet. Must be called under the
+	 * write lock of the dataset.
+	 *
+	 * @param primitive
+	 *            the primitive
+	 */
+	void add( T primitive )
+	{
+		Slots s = slots;
+		if( ( size + 1 ) * 4L > s.ids.length * 3L )
+		{
+			s = grow( s );
+		}
+		put( s, primitive.getUniqueId(), primitive );
+		size++;
+		// publishes the primitive
+		slots = s;
+	}
+
+
+
+
+	private static void put( Slots s, long id, OsmPrimitive primitive )
+	{
+		int mask = s.ids.length - 1;
+		int i = hash( id, mask );
+		while( s.primitives[i] != null )
+		{
+			i = ( i + 1 ) & mask;
+		}
+		// the id first : a slot is taken once its primitive is set
+		s.ids[i] = id;
+		s.primitives[i] = primitive;
+	}
+
+
+
+
+	private static Slots grow( Slots s )
+	{
+		Slots grown = new Slots( s.ids.length * 2 );
+		for( int i = 0; i < s.ids.length; i++ )
+		{
+			if( s.primitives[i] != null )
+			    put( grown, s.ids[i], s.primitives[i] );
+		}
+		return grown;
+	}
+
+
+
+
+	int size()
+	{
+		return size;
+	}
+
+
+
+
+	/**
+	 * Removes all the primitives. Must be called under the write lock of the
+	 * dataset.
+	 */
+	void clear()
+	{
+		size = 0;
+		slots = new Slots( INITIAL_CAPACITY );
+	}
+}
@@ -70,4 +70,34 @@ public class PublicTransport
 		return op.isThisKind( "public_transport", "platform" )
 		        || op.isThisKind( "public_transport", "station" );
 	}
+
+
+
+
+	/**
+	 * Replies the distance between a stop_position and a platform : the
+	 * distance to the platform node, or to the nearest node of the platform
+	 * way
+	 * 
+	 * @param stopPosition
+	 *            the stop_position. Must not be null.
+	 * @param platform
+	 *            the platform, a node or a way. Must not be null.
+	 * @return the distance, in metres, or NaN if the coordinates are unknown
+	 */
+	public static double distance( Node stopPosition, OsmPrimitive platform )
+	{
+		if( platform instanceof Node )
+		    return stopPosition.distance( ( Node ) platform );
+		double distance = Double.NaN;
+		if( platform instanceof Way )
+		{
+			for( Node n : ( ( Way ) platform ).getNodes() )
+			{
+				double d = stopPosition.distance( n );
+				if( d < distance || Double.isNaN( distance ) ) distance = d;
+			}
+		}
+		return distance;
+	}
 }
\ No newline at end of file
@@ -1,12 +1,165 @@
 package org.windu2b.osm.check_transport_relations.data.osm;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 
 import org.windu2b.osm.check_transport_relations.tools.CopyList;
 
-public class Relation extends OsmPrimitive
+public class Relation extends OsmPrimitive implements IRelation
 {
-	private RelationMember[]	members	= new RelationMember[0];
+	private static final RelationMember[]	NO_MEMBERS	= new RelationMember[0];
+
+
+	private static final TagDictionary	  DICTIONARY	= TagDictionary
+	                                                      .getInstance();
+
+
+	/**
+	 * true if the members set from now on are stored in columns (see
+	 * {@link #setColumnarMembers(boolean)})
+	 */
+	private static volatile boolean	      columnarMembers;
+
+
+	/**
+	 * The members: a RelationMember[], or their {@link Columns}. Never
+	 * modified, only replaced.
+	 */
+	private Object	                      members	    = NO_MEMBERS;
+
+
+
+
+	/**
+	 * The members of a relation, in columns: the primitives, and the codes of
+	 * their roles in the {@link TagDictionary}
+	 */
+	private static final class Columns
+	{
+		private final OsmPrimitive[]	primitives;
+
+
+		private final int[]	         roles;
+
+
+
+
+		private Columns( OsmPrimitive[] primitives, int[] roles )
+		{
+			this.primitives = primitives;
+			this.roles = roles;
+		}
+
+
+
+
+		private Columns( List<RelationMember> members )
+		{
+			this( new OsmPrimitive[members.size()], new int[members.size()] );
+			for( int i = 0; i < primitives.length; i++ )
+			{
+				RelationMember rm = members.get( i );
+				primitives[i] = rm.getMember();
+				roles[i] = DICTIONARY.code( rm.getRole() );
+			}
+		}
+
+
+
+
+		private RelationMember get( int index )
+		{
+			return new RelationMember( DICTIONARY.string( roles[index] ),
+			        primitives[index] );
+		}
+	}
+
+
+
+
+	/**
+	 * The members of a relation stored in columns, built on demand. It copies
+	 * them when first modified, as a {@link CopyList}.
+	 */
+	private static final class ColumnsList extends
+	        AbstractList<RelationMember> implements RandomAccess
+	{
+		private final Columns	     columns;
+
+
+		private List<RelationMember>	copy;
+
+
+
+
+		private ColumnsList( Columns columns )
+		{
+			this.columns = columns;
+		}
+
+
+
+
+		private List<RelationMember> copy()
+		{
+			if( copy == null )
+			{
+				copy = new ArrayList<RelationMember>( this );
+			}
+			return copy;
+		}
+
+
+
+
+		@Override
+		public RelationMember get( int index )
+		{
+			if( copy != null ) return copy.get( index );
+			return columns.get( index );
+		}
+
+
+
+
+		@Override
+		public int size()
+		{
+			if( copy != null ) return copy.size();
+			return columns.primitives.length;
+		}
+
+
+
+
+		@Override
+		public RelationMember set( int index, RelationMember element )
+		{
+			return copy().set( index, element );
+		}
+
+
+
+
+		@Override
+		public void add( int index, RelationMember element )
+		{
+			modCount++;
+			copy().add( index, element );
+		}
+
+
+
+
+		@Override
+		public RelationMember remove( int index )
+		{
+			modCount++;
+			return copy().remove( index );
+		}
+	}
 
 
 
@@ -51,15 +204,57 @@ public class Relation extends OsmPrimitive
 
 
 
+	/**
+	 * Stores the members set from now on in columns: an array of the
+	 * primitives and an array of the codes of their roles, instead of a
+	 * {@link RelationMember} for each of them. The members set before keep
+	 * their representation. {@link #getMembers()} then builds the
+	 * RelationMembers on demand.
+	 * 
+	 * @param columnar
+	 *            true for the members in columns
+	 */
+	public static void setColumnarMembers( boolean columnar )
+	{
+		columnarMembers = columnar;
+	}
+
+
+
+
+	public static boolean isColumnarMembers()
+	{
+		return columnarMembers;
+	}
+
+
+
+
+	/**
+	 * Replies the members as stored
+	 * 
+	 * @param members
+	 *            the members. Must not be null.
+	 * @return the members, in columns if they are stored so
+	 */
+	private static Object store( List<RelationMember> members )
+	{
+		if( columnarMembers ) return new Columns( members );
+		return members.toArray( new RelationMember[members.size()] );
+	}
+
+
+
+
 	public void addMember( RelationMember member )
 	{
 		boolean locked = writeLock();
 		try
 		{
-			RelationMember[] newMembers = new RelationMember[members.length + 1];
-			System.arraycopy( members, 0, newMembers, 0, members.length );
-			newMembers[members.length] = member;
-			members = newMembers;
+			List<RelationMember> newMembers = getMembers();
+			newMembers.add( member );
+			members = store( newMembers );
+			addToReferrers( member.getMember() );
 		}
 		finally
 		{
@@ -75,12 +270,10 @@ public class Relation extends OsmPrimitive
 		boolean locked = writeLock();
 		try
 		{
-			RelationMember[] newMembers = new RelationMember[members.length + 1];
-			System.arraycopy( members, 0, newMembers, 0, index );
-			System.arraycopy( members, index, newMembers, index + 1,
-			        members.length - index );
-			newMembers[index] = member;
-			members = newMembers;
+			List<RelationMember> newMembers = getMembers();
+			newMembers.add( index, member );
+			members = store( newMembers );
+			addToReferrers( member.getMember() );
 		}
 		finally
 		{
@@ -99,7 +292,92 @@ public class Relation extends OsmPrimitive
 	 */
 	public List<RelationMember> getMembers()
 	{
-		return new CopyList<RelationMember>( members );
+		Object members = this.members;
+		if( members instanceof Columns )
+		    return new ColumnsList( ( Columns ) members );
+		return new CopyList<RelationMember>( ( RelationMember[] ) members );
+	}
+
+
+
+
+	/**
+	 * Replies the member at position <code>index</code>.
+	 * 
+	 * @param index
+	 *            the position
+	 * @return the member at position <code>index</code>
+	 * @exception IndexOutOfBoundsException
+	 *                thrown if <code>index</code> < 0 or <code>index</code> >=
+	 *                {@link #getMembersCount()}
+	 */
+	public RelationMember getMember( int index )
+	{
+		Object members = this.members;
+		if( members instanceof Columns )
+		    return ( ( Columns ) members ).get( index );
+		return ( ( RelationMember[] ) members )[index];
+	}
+
+
+
+
+	/**
+	 * Replies the primitive of the member at position <code>index</code>,
+	 * without building a {@link RelationMember}.
+	 * 
+	 * @param index
+	 *            the position
+	 * @return the primitive of the member
+	 */
+	public OsmPrimitive getMemberPrimitive( int index )
+	{
+		Object members = this.members;
+		if( members instanceof Columns )
+		    return ( ( Columns ) members ).primitives[index];
+		return ( ( RelationMember[] ) members )[index].getMember();
+	}
+
+
+
+
+	@Override
+	public int getMembersCount()
+	{
+		Object members = this.members;
+		if( members instanceof Columns )
+		    return ( ( Columns ) members ).primitives.length;
+		return ( ( RelationMember[] ) members ).length;
+	}
+
+
+
+
+	@Override
+	public long getMemberId( int idx )
+	{
+		return getMemberPrimitive( idx ).getUniqueId();
+	}
+
+
+
+
+	@Override
+	public String getRole( int idx )
+	{
+		Object members = this.members;
+		if( members instanceof Columns )
+		    return DICTIONARY.string( ( ( Columns ) members ).roles[idx] );
+		return ( ( RelationMember[] ) members )[idx].getRole();
+	}
+
+
+
+
+	@Override
+	public OsmPrimitiveType getMemberType( int idx )
+	{
+		return getMemberPrimitive( idx ).getType();
 	}
 
 
@@ -113,13 +391,58 @@ public class Relation extends OsmPrimitive
 	 */
 	public void setMembers( List<RelationMember> members )
 	{
-		if( members != null )
+		boolean locked = writeLock();
+		try
 		{
-			this.members = members.toArray( new RelationMember[members.size()] );
+			removeFromReferrers();
+			if( members != null )
+			{
+				this.members = store( members );
+			}
+			else
+			{
+				this.members = NO_MEMBERS;
+			}
+			addToReferrers();
 		}
-		else
+		finally
 		{
-			this.members = new RelationMember[0];
+			writeUnlock( locked );
+		}
+	}
+
+
+
+
+	@Override
+	void addToReferrers()
+	{
+		for( int i = 0, n = getMembersCount(); i < n; i++ )
+		{
+			addToReferrers( getMemberPrimitive( i ) );
+		}
+	}
+
+
+
+
+	private void addToReferrers( OsmPrimitive member )
+	{
+		DataSet ds = getDataSet();
+		if( ds != null && member.getDataSet() == ds )
+		    member.addReferrer( this );
+	}
+
+
+
+
+	@Override
+	void removeFromReferrers()
+	{
+		if( getDataSet() == null ) return;
+		for( int i = 0, n = getMembersCount(); i < n; i++ )
+		{
+			getMemberPrimitive( i ).removeReferrer( this );
 		}
 	}
 
@@ -133,8 +456,16 @@ public class Relation extends OsmPrimitive
 	 */
 	public boolean hasIncompleteMembers()
 	{
-		RelationMember[] members = this.members;
-		for( RelationMember rm : members )
+		Object members = this.members;
+		if( members instanceof Columns )
+		{
+			for( OsmPrimitive member : ( ( Columns ) members ).primitives )
+			{
+				if( member.isIncomplete() ) return true;
+			}
+			return false;
+		}
+		for( RelationMember rm : ( RelationMember[] ) members )
 		{
 			if( rm.getMember().isIncomplete() ) return true;
 		}
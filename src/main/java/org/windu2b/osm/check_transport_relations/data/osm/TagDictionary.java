@@ -0,0 +1,604 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.windu2b.osm.check_transport_relations.tools.StringTable;
+
+/**
+ * The dictionary of the compact tags (see
+ * {@link AbstractPrimitive#setCompactTags(boolean)}): each distinct key or
+ * value gets a string code, and each distinct key=value tag a tag code. The
+ * tags of a primitive are the codes of its tags, sorted by the codes of their
+ * keys.
+ *
+ * The dictionary only grows: a string or a tag keeps its code until the end
+ * of the run. It is written under its own lock, and read without lock: a
+ * reader which doesn't find a string or a tag takes the lock to look again.
+ *
+ * The code arrays are never modified once built. Equal arrays are shared
+ * through a direct mapped table, as the strings of the {@link StringTable}:
+ * most ways and nodes have one of a few common tag sets.
+ */
+final class TagDictionary
+{
+	private static final TagDictionary	INSTANCE	  = new TagDictionary();
+
+
+	/** the number of slots of the table of the shared code arrays */
+	private static final int	       SETS	          = 1 << 16;
+
+
+	private static final int	       INITIAL_CAPACITY	= 1 << 10;
+
+
+
+
+	/**
+	 * The arrays of the strings, replaced when they grow
+	 */
+	private static final class Strings
+	{
+		/** the strings by code */
+		private final String[]	strings;
+
+
+		/** the code + 1 of the strings, by hash; 0 for a free slot */
+		private final int[]	   slots;
+
+
+
+
+		private Strings( int capacity )
+		{
+			strings = new String[capacity];
+			slots = new int[capacity * 2];
+		}
+	}
+
+
+
+
+	/**
+	 * The arrays of the tags, replaced when they grow
+	 */
+	private static final class Tags
+	{
+		/** the string code + 1 of the keys, by tag code; 0 while unwritten */
+		private final int[]	keys;
+
+
+		/** the string code of the values, by tag code */
+		private final int[]	values;
+
+
+		/** the code + 1 of the tags, by hash; 0 for a free slot */
+		private final int[]	slots;
+
+
+
+
+		private Tags( int capacity )
+		{
+			keys = new int[capacity];
+			values = new int[capacity];
+			slots = new int[capacity * 2];
+		}
+	}
+
+
+	private volatile Strings	strings	  = new Strings( INITIAL_CAPACITY );
+
+
+	private volatile Tags	    tags	  = new Tags( INITIAL_CAPACITY );
+
+
+	/** written under the lock of the dictionary */
+	private int	             stringCount;
+
+
+	/** written under the lock of the dictionary */
+	private int	             tagCount;
+
+
+	/** read by several threads : an array is published with its codes */
+	private final AtomicReferenceArray<int[]>	sets	= new AtomicReferenceArray<int[]>(
+	                                                    SETS );
+
+
+
+
+	static TagDictionary getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+
+
+	private static int mix( int h, int mask )
+	{
+		h *= 0x9e3779b9;
+		return ( h ^ ( h >>> 16 ) ) & mask;
+	}
+
+
+
+
+	private static int hash( int keyCode, int valueCode, int mask )
+	{
+		return mix( keyCode * 31 + valueCode, mask );
+	}
+
+
+
+
+	/**
+	 * Replies the code of a string, without adding it
+	 *
+	 * @param s
+	 *            the string. Must not be null.
+	 * @return the code, or -1 if the string isn't in the dictionary
+	 */
+	int codeOf( String s )
+	{
+		Strings t = strings;
+		int mask = t.slots.length - 1;
+		for( int i = mix( s.hashCode(), mask );; i = ( i + 1 ) & mask )
+		{
+			int code = t.slots[i] - 1;
+			if( code < 0 ) break;
+			String candidate = t.strings[code];
+			// null while another thread adds it
+			if( candidate == null ) break;
+			if( candidate == s || candidate.equals( s ) ) return code;
+		}
+		synchronized( this )
+		{
+			return find( strings, s );
+		}
+	}
+
+
+
+
+	private static int find( Strings t, String s )
+	{
+		int mask = t.slots.length - 1;
+		for( int i = mix( s.hashCode(), mask );; i = ( i + 1 ) & mask )
+		{
+			int code = t.slots[i] - 1;
+			if( code < 0 ) return -1;
+			if( t.strings[code].equals( s ) ) return code;
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the code of a string, which is added if needed
+	 *
+	 * @param s
+	 *            the string. Must not be null.
+	 * @return the code
+	 */
+	int code( String s )
+	{
+		int code = codeOf( s );
+		if( code >= 0 ) return code;
+		synchronized( this )
+		{
+			Strings t = strings;
+			code = find( t, s );
+			if( code >= 0 ) return code;
+			if( stringCount == t.strings.length )
+			{
+				Strings grown = new Strings( t.strings.length * 2 );
+				System.arraycopy( t.strings, 0, grown.strings, 0, stringCount );
+				for( int c = 0; c < stringCount; c++ )
+				{
+					insert( grown, c );
+				}
+				t = grown;
+			}
+			code = stringCount++;
+			t.strings[code] = s;
+			insert( t, code );
+			// publishes the string
+			strings = t;
+			return code;
+		}
+	}
+
+
+
+
+	private static void insert( Strings t, int code )
+	{
+		int mask = t.slots.length - 1;
+		int i = mix( t.strings[code].hashCode(), mask );
+		while( t.slots[i] != 0 )
+		{
+			i = ( i + 1 ) & mask;
+		}
+		t.slots[i] = code + 1;
+	}
+
+
+
+
+	/**
+	 * Replies the string of a code
+	 *
+	 * @param code
+	 *            a code replied by {@link #code(String)}
+	 * @return the string
+	 */
+	String string( int code )
+	{
+		return strings.strings[code];
+	}
+
+
+
+
+	/**
+	 * Replies the number of strings in the dictionary
+	 */
+	synchronized int size()
+	{
+		return stringCount;
+	}
+
+
+
+
+	/**
+	 * Replies the number of tags in the dictionary
+	 */
+	synchronized int tagCount()
+	{
+		return tagCount;
+	}
+
+
+
+
+	/**
+	 * Replies the code of a tag, without adding it
+	 *
+	 * @param keyCode
+	 *            the code of its key
+	 * @param valueCode
+	 *            the code of its value
+	 * @return the tag code, or -1 if the tag isn't in the dictionary
+	 */
+	int tagCodeOf( int keyCode, int valueCode )
+	{
+		Tags t = tags;
+		int mask = t.slots.length - 1;
+		for( int i = hash( keyCode, valueCode, mask );; i = ( i + 1 ) & mask )
+		{
+			int code = t.slots[i] - 1;
+			if( code < 0 ) break;
+			if( t.keys[code] == keyCode + 1 && t.values[code] == valueCode )
+			    return code;
+		}
+		synchronized( this )
+		{
+			return find( tags, keyCode, valueCode );
+		}
+	}
+
+
+
+
+	private static int find( Tags t, int keyCode, int valueCode )
+	{
+		int mask = t.slots.length - 1;
+		for( int i = hash( keyCode, valueCode, mask );; i = ( i + 1 ) & mask )
+		{
+			int code = t.slots[i] - 1;
+			if( code < 0 ) return -1;
+			if( t.keys[code] == keyCode + 1 && t.values[code] == valueCode )
+			    return code;
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the code of a tag, which is added if needed
+	 *
+	 * @param key
+	 *            the key. Must not be null.
+	 * @param value
+	 *            the value. Must not be null.
+	 * @return the tag code
+	 */
+	int tagCode( String key, String value )
+	{
+		int keyCode = code( key );
+		int valueCode = code( value );
+		int code = tagCodeOf( keyCode, valueCode );
+		if( code >= 0 ) return code;
+		synchronized( this )
+		{
+			Tags t = tags;
+			code = find( t, keyCode, valueCode );
+			if( code >= 0 ) return code;
+			if( tagCount == t.keys.length )
+			{
+				Tags grown = new Tags( t.keys.length * 2 );
+				System.arraycopy( t.keys, 0, grown.keys, 0, tagCount );
+				System.arraycopy( t.values, 0, grown.values, 0, tagCount );
+				for( int c = 0; c < tagCount; c++ )
+				{
+					insert( grown, c );
+				}
+				t = grown;
+			}
+			code = tagCount++;
+			t.values[code] = valueCode;
+			t.keys[code] = keyCode + 1;
+			insert( t, code );
+			// publishes the tag
+			tags = t;
+			return code;
+		}
+	}
+
+
+
+
+	private static void insert( Tags t, int code )
+	{
+		int mask = t.slots.length - 1;
+		int i = hash( t.keys[code] - 1, t.values[code], mask );
+		while( t.slots[i] != 0 )
+		{
+			i = ( i + 1 ) & mask;
+		}
+		t.slots[i] = code + 1;
+	}
+
+
+
+
+	/**
+	 * Replies the string code of the key of a tag
+	 */
+	private int keyCode( int tagCode )
+	{
+		return tags.keys[tagCode] - 1;
+	}
+
+
+
+
+	/**
+	 * Replies the key of a tag
+	 *
+	 * @param tagCode
+	 *            a code replied by {@link #tagCode(String, String)}
+	 * @return the key
+	 */
+	String key( int tagCode )
+	{
+		return string( keyCode( tagCode ) );
+	}
+
+
+
+
+	/**
+	 * Replies the value of a tag
+	 *
+	 * @param tagCode
+	 *            a code replied by {@link #tagCode(String, String)}
+	 * @return the value
+	 */
+	String value( int tagCode )
+	{
+		return string( tags.values[tagCode] );
+	}
+
+
+
+
+	/**
+	 * Replies the shared instance of a code array
+	 *
+	 * @param codes
+	 *            the codes, never modified afterwards
+	 * @return an equal array, possibly <code>codes</code> itself
+	 */
+	int[] share( int[] codes )
+	{
+		int h = Arrays.hashCode( codes );
+		int i = ( h ^ ( h >>> 16 ) ) & ( SETS - 1 );
+		int[] shared = sets.get( i );
+		if( shared != null && Arrays.equals( shared, codes ) ) return shared;
+		sets.set( i, codes );
+		return codes;
+	}
+
+
+
+
+	/**
+	 * Replies the index of the tag of a key in a code array
+	 *
+	 * @param codes
+	 *            the tag codes. Must not be null.
+	 * @param keyCode
+	 *            the string code of the key
+	 * @return the index of the tag, or (-(insertion index) - 1) if there is
+	 *         none
+	 */
+	int indexOf( int[] codes, int keyCode )
+	{
+		int[] keys = tags.keys;
+		int low = 0;
+		int high = codes.length - 1;
+		while( low <= high )
+		{
+			int mid = ( low + high ) >>> 1;
+			int c = keys[codes[mid]] - 1;
+			if( c < keyCode )
+				low = mid + 1;
+			else if( c > keyCode )
+				high = mid - 1;
+			else return mid;
+		}
+		return -low - 1;
+	}
+
+
+
+
+	/**
+	 * Replies the value of a key
+	 *
+	 * @param codes
+	 *            the tag codes. Must not be null.
+	 * @param key
+	 *            the key. Must not be null.
+	 * @return the value, or null if there is no such key
+	 */
+	String get( int[] codes, String key )
+	{
+		int keyCode = codeOf( key );
+		if( keyCode < 0 ) return null;
+		int i = indexOf( codes, keyCode );
+		return i < 0 ? null : value( codes[i] );
+	}
+
+
+
+
+	/**
+	 * Replies the codes with a tag set
+	 *
+	 * @param codes
+	 *            the tag codes. May be null.
+	 * @param key
+	 *            the key. Must not be null.
+	 * @param value
+	 *            the value. Must not be null.
+	 * @return the new shared codes, or <code>codes</code> if the tag was
+	 *         already set
+	 */
+	int[] put( int[] codes, String key, String value )
+	{
+		int tagCode = tagCode( key, value );
+		if( codes == null ) return share( new int[] { tagCode } );
+		int i = indexOf( codes, keyCode( tagCode ) );
+		int[] newCodes;
+		if( i >= 0 )
+		{
+			if( codes[i] == tagCode ) return codes;
+			newCodes = codes.clone();
+		}
+		else
+		{
+			i = -i - 1;
+			newCodes = new int[codes.length + 1];
+			System.arraycopy( codes, 0, newCodes, 0, i );
+			System.arraycopy( codes, i, newCodes, i + 1, codes.length - i );
+		}
+		newCodes[i] = tagCode;
+		return share( newCodes );
+	}
+
+
+
+
+	/**
+	 * Replies the codes without a key
+	 *
+	 * @param codes
+	 *            the tag codes. Must not be null.
+	 * @param key
+	 *            the key. Must not be null.
+	 * @return the new shared codes, null if there is no tag left, or
+	 *         <code>codes</code> if there was no such key
+	 */
+	int[] remove( int[] codes, String key )
+	{
+		int keyCode = codeOf( key );
+		if( keyCode < 0 ) return codes;
+		int i = indexOf( codes, keyCode );
+		if( i < 0 ) return codes;
+		if( codes.length == 1 ) return null;
+		int[] newCodes = new int[codes.length - 1];
+		System.arraycopy( codes, 0, newCodes, 0, i );
+		System.arraycopy( codes, i + 1, newCodes, i, newCodes.length - i );
+		return share( newCodes );
+	}
+
+
+
+
+	/**
+	 * Replies the codes of some tags
+	 *
+	 * @param tags
+	 *            the tags. Must not be null nor empty.
+	 * @return the shared codes
+	 */
+	int[] encode( Map<String, String> tags )
+	{
+		int[] codes = null;
+		for( Map.Entry<String, String> e : tags.entrySet() )
+		{
+			codes = put( codes, e.getKey(), e.getValue() );
+		}
+		return codes;
+	}
+
+
+
+
+	/**
+	 * Replies the codes of a key/value list
+	 *
+	 * @param keys
+	 *            the keys and their values, alternately. Must not be null.
+	 * @return the shared codes
+	 */
+	int[] encode( String[] keys )
+	{
+		int[] codes = null;
+		for( int i = 0; i < keys.length; i += 2 )
+		{
+			codes = put( codes, keys[i], keys[i + 1] );
+		}
+		return codes;
+	}
+
+
+
+
+	/**
+	 * Replies the key/value list of some codes
+	 *
+	 * @param codes
+	 *            the tag codes. Must not be null.
+	 * @return the keys and their values, alternately
+	 */
+	String[] decode( int[] codes )
+	{
+		String[] keys = new String[codes.length * 2];
+		for( int i = 0; i < codes.length; i++ )
+		{
+			keys[i * 2] = key( codes[i] );
+			keys[i * 2 + 1] = value( codes[i] );
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,176 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The primitives of a type in a {@link DataSet}, by key and by key=value : an
+ * inverted index of their tags, updated when a primitive is added and when its
+ * tags change. A lookup replies the primitives in the order they were indexed,
+ * in a time proportional to their number.
+ *
+ * The index is written under the write lock of the dataset, and read under its
+ * read lock.
+ *
+ * @param <T>
+ *            the type of the primitives
+ */
+final class TagIndex<T extends OsmPrimitive>
+{
+	/**
+	 * The primitives with a key, and with each of its values
+	 */
+	private static final class Entry<T>
+	{
+		private final Set<T>	          all	    = new LinkedHashSet<T>();
+
+
+		private final Map<String, Set<T>>	byValue	= new HashMap<String, Set<T>>();
+	}
+
+
+	private final Map<String, Entry<T>>	entries	= new HashMap<String, Entry<T>>();
+
+
+
+
+	/**
+	 * Indexes the tags of a primitive. Must be called under the write lock of
+	 * the dataset.
+	 *
+	 * @param primitive
+	 *            the primitive
+	 * @param keys
+	 *            its key/value list, see
+	 *            {@link AbstractPrimitive#keyValues(Object)}. May be null.
+	 */
+	void add( T primitive, String[] keys )
+	{
+		if( keys == null ) return;
+		for( int i = 0; i < keys.length; i += 2 )
+		{
+			Entry<T> entry = entries.get( keys[i] );
+			if( entry == null )
+			{
+				entry = new Entry<T>();
+				entries.put( keys[i], entry );
+			}
+			entry.all.add( primitive );
+			Set<T> withValue = entry.byValue.get( keys[i + 1] );
+			if( withValue == null )
+			{
+				withValue = new LinkedHashSet<T>();
+				entry.byValue.put( keys[i + 1], withValue );
+			}
+			withValue.add( primitive );
+		}
+	}
+
+
+
+
+	/**
+	 * Removes the tags of a primitive from the index. Must be called under the
+	 * write lock of the dataset.
+	 *
+	 * @param primitive
+	 *            the primitive
+	 * @param keys
+	 *            its former key/value list. May be null.
+	 */
+	void remove( T primitive, String[] keys )
+	{
+		if( keys == null ) return;
+		for( int i = 0; i < keys.length; i += 2 )
+		{
+			Entry<T> entry = entries.get( keys[i] );
+			if( entry == null ) continue;
+			entry.all.remove( primitive );
+			Set<T> withValue = entry.byValue.get( keys[i + 1] );
+			if( withValue != null )
+			{
+				withValue.remove( primitive );
+				if( withValue.isEmpty() ) entry.byValue.remove( keys[i + 1] );
+			}
+			if( entry.all.isEmpty() ) entries.remove( keys[i] );
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the primitives with a key
+	 *
+	 * @param key
+	 *            the key
+	 * @return a copy of the primitives, never null
+	 */
+	List<T> get( String key )
+	{
+		Entry<T> entry = entries.get( key );
+		if( entry == null ) return Collections.emptyList();
+		return new ArrayList<T>( entry.all );
+	}
+
+
+
+
+	/**
+	 * Replies the primitives with a key and a value
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return a copy of the primitives, never null
+	 */
+	List<T> get( String key, String value )
+	{
+		Entry<T> entry = entries.get( key );
+		if( entry == null ) return Collections.emptyList();
+		Set<T> withValue = entry.byValue.get( value );
+		if( withValue == null ) return Collections.emptyList();
+		return new ArrayList<T>( withValue );
+	}
+
+
+
+
+	/**
+	 * Replies the number of primitives with a key, or with a key and a value,
+	 * without copying them
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value. If null, the primitives with the key are counted.
+	 * @return the number of primitives
+	 */
+	int count( String key, String value )
+	{
+		Entry<T> entry = entries.get( key );
+		if( entry == null ) return 0;
+		if( value == null ) return entry.all.size();
+		Set<T> withValue = entry.byValue.get( value );
+		return withValue == null ? 0 : withValue.size();
+	}
+
+
+
+
+	/**
+	 * Removes all the primitives. Must be called under the write lock of the
+	 * dataset.
+	 */
+	void clear()
+	{
+		entries.clear();
+	}
+}
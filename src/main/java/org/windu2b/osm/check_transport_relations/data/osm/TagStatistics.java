@@ -0,0 +1,170 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+import org.windu2b.osm.check_transport_relations.tools.StringTable;
+
+/**
+ * The sharing of the strings of the tags of some primitives, i.e. how well
+ * the {@link StringTable} deduplicated them.
+ *
+ * The sizes are estimated for a 64 bits JVM with compressed references : a
+ * string takes 24 bytes, plus 16 bytes and 2 bytes per character for its
+ * array.
+ */
+public class TagStatistics
+{
+	/** the references to the keys and the values */
+	private long	references;
+
+
+	/** the distinct instances */
+	private long	instances;
+
+
+	/** the distinct strings */
+	private long	strings;
+
+
+	private long	bytes;
+
+
+	private long	savedBytes;
+
+
+
+
+	/**
+	 * Computes the statistics of the tags of some primitives
+	 *
+	 * @param primitives
+	 *            the primitives, i.e. the ones of a dataset. Must not be null.
+	 */
+	public TagStatistics( Collection<? extends Tagged> primitives )
+	{
+		CheckParameterUtil.ensureParameterNotNull( primitives, "primitives" );
+		Map<String, Boolean> seen = new IdentityHashMap<String, Boolean>();
+		Set<String> distinct = new HashSet<String>();
+		for( Tagged t : primitives )
+		{
+			if( !t.hasKeys() ) continue;
+			for( Map.Entry<String, String> e : t.getKeys().entrySet() )
+			{
+				add( e.getKey(), seen, distinct );
+				add( e.getValue(), seen, distinct );
+			}
+		}
+		strings = distinct.size();
+	}
+
+
+
+
+	private void add( String s, Map<String, Boolean> seen, Set<String> distinct )
+	{
+		long size = sizeOf( s );
+		references++;
+		if( seen.put( s, Boolean.TRUE ) == null )
+		{
+			instances++;
+			bytes += size;
+			distinct.add( s );
+		}
+		else savedBytes += size;
+	}
+
+
+
+
+	/**
+	 * Replies the estimated size of a string, in bytes
+	 */
+	static long sizeOf( String s )
+	{
+		return 24 + ( ( 16 + 2L * s.length() + 7 ) & ~7 );
+	}
+
+
+
+
+	public long getReferences()
+	{
+		return references;
+	}
+
+
+
+
+	public long getInstances()
+	{
+		return instances;
+	}
+
+
+
+
+	/**
+	 * Replies the number of distinct strings : without duplicates, there would
+	 * be as many instances
+	 */
+	public long getStrings()
+	{
+		return strings;
+	}
+
+
+
+
+	/**
+	 * Replies the estimated size of the instances, in bytes
+	 */
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+
+
+
+	/**
+	 * Replies the estimated size of the instances saved by the sharing, in
+	 * bytes
+	 */
+	public long getSavedBytes()
+	{
+		return savedBytes;
+	}
+
+
+
+
+	/**
+	 * Replies the number of references per instance
+	 */
+	public double getDedupRatio()
+	{
+		return instances == 0 ? 1 : ( double ) references / instances;
+	}
+
+
+
+
+	@Override
+	public String toString()
+	{
+		return tr(
+		        "Tags : {0} strings, {1} instances for {2} references (ratio {3}), {4} KB used, {5} KB saved",
+		        strings, instances, references, String.format( Locale.ROOT,
+		                "%.2f", getDedupRatio() ), bytes / 1024,
+		        savedBytes / 1024 );
+	}
+}
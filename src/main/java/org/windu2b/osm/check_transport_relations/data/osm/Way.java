@@ -249,6 +249,7 @@ public class Way extends OsmPrimitive implements IWay
 		boolean locked = writeLock();
 		try
 		{
+			removeFromReferrers();
 			if( nodes == null )
 			{
 				this.nodes = new Node[0];
@@ -257,6 +258,7 @@ public class Way extends OsmPrimitive implements IWay
 			{
 				this.nodes = nodes.toArray( new Node[nodes.size()] );
 			}
+			addToReferrers();
 		}
 		finally
 		{
@@ -267,6 +269,58 @@ public class Way extends OsmPrimitive implements IWay
 
 
 
+	/**
+	 * Set new array of nodes to way. The array is used as is: it must not be
+	 * modified afterwards.
+	 * 
+	 * @param nodes
+	 *            New way nodes. Must not be null.
+	 */
+	public void setNodes( Node[] nodes )
+	{
+		boolean locked = writeLock();
+		try
+		{
+			removeFromReferrers();
+			this.nodes = nodes;
+			addToReferrers();
+		}
+		finally
+		{
+			writeUnlock( locked );
+		}
+	}
+
+
+
+
+	@Override
+	void addToReferrers()
+	{
+		DataSet ds = getDataSet();
+		if( ds == null ) return;
+		for( Node n : nodes )
+		{
+			if( n.getDataSet() == ds ) n.addReferrer( this );
+		}
+	}
+
+
+
+
+	@Override
+	void removeFromReferrers()
+	{
+		if( getDataSet() == null ) return;
+		for( Node n : nodes )
+		{
+			n.removeReferrer( this );
+		}
+	}
+
+
+
+
 	/**
 	 * Checks if the way contains the Node <code>node</code>
 	 * 
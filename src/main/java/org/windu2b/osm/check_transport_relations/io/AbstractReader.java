@@ -4,21 +4,20 @@ package org.windu2b.osm.check_transport_relations.io;
 import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
 import org.windu2b.osm.check_transport_relations.data.osm.Node;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
-import org.windu2b.osm.check_transport_relations.data.osm.PrimitiveId;
 import org.windu2b.osm.check_transport_relations.data.osm.Relation;
 import org.windu2b.osm.check_transport_relations.data.osm.RelationMember;
 import org.windu2b.osm.check_transport_relations.data.osm.RelationMemberData;
-import org.windu2b.osm.check_transport_relations.data.osm.SimplePrimitiveId;
 import org.windu2b.osm.check_transport_relations.data.osm.Way;
+import org.windu2b.osm.check_transport_relations.tools.LongHashMap;
+import org.windu2b.osm.check_transport_relations.tools.StringTable;
 
 /**
  * Abstract Reader, allowing other implementations than OsmReader (PbfReader in
@@ -37,23 +36,52 @@ public abstract class AbstractReader
 
 
 	/**
-	 * the map from external ids to read OsmPrimitives. External ids are longs
-	 * too, but in contrast to internal ids negative values are used to identify
-	 * primitives unknown to the OSM server
+	 * the maps from external ids to read OsmPrimitives, one per type. External
+	 * ids are longs too, but in contrast to internal ids negative values are
+	 * used to identify primitives unknown to the OSM server
 	 */
-	protected final Map<PrimitiveId, OsmPrimitive>	          externalIdMap	= new HashMap<PrimitiveId, OsmPrimitive>();
+	private final LongHashMap<OsmPrimitive>	                  externalNodes	= new LongHashMap<OsmPrimitive>();
+
+
+	private final LongHashMap<OsmPrimitive>	                  externalWays	= new LongHashMap<OsmPrimitive>();
+
+
+	private final LongHashMap<OsmPrimitive>	                  externalRelations	= new LongHashMap<OsmPrimitive>();
 
 
 	/**
-	 * Data structure for the remaining way objects
+	 * Data structure for the remaining way objects: the external ids of their
+	 * nodes
 	 */
-	protected final Map<Long, Collection<Long>>	              ways	        = new HashMap<Long, Collection<Long>>();
+	protected final LongHashMap<long[]>	                      ways	        = new LongHashMap<long[]>();
 
 
 	/**
 	 * Data structure for relation objects
 	 */
-	protected final Map<Long, Collection<RelationMemberData>>	relations	= new HashMap<Long, Collection<RelationMemberData>>();
+	protected final LongHashMap<Collection<RelationMemberData>>	relations	= new LongHashMap<Collection<RelationMemberData>>();
+
+
+	/**
+	 * The node refs of the way being parsed, reused from one way to the other
+	 */
+	private long[]	                                          nodeRefs	    = new long[256];
+
+
+	private int	                                              nodeRefCount;
+
+
+	/**
+	 * The table of the canonical strings of the tags and the roles, shared by
+	 * all the readers
+	 */
+	protected final StringTable	                              sharedStrings	= StringTable.getInstance();
+
+
+	/**
+	 * The primitives to keep; null, to keep them all
+	 */
+	private PrimitiveFilter	                                  filter;
 
 
 
@@ -71,18 +99,188 @@ public abstract class AbstractReader
 
 
 
+	private LongHashMap<OsmPrimitive> getExternalIdMap( OsmPrimitiveType type )
+	{
+		switch ( type )
+		{
+			case NODE :
+				return externalNodes;
+			case WAY :
+				return externalWays;
+			default :
+				return externalRelations;
+		}
+	}
+
+
+
+
+	/**
+	 * Remembers a read primitive by its external id
+	 * 
+	 * @param primitive
+	 *            the primitive
+	 */
+	protected final void putExternal( OsmPrimitive primitive )
+	{
+		getExternalIdMap( primitive.getType() ).put( primitive.getUniqueId(),
+		        primitive );
+	}
+
+
+
+
+	/**
+	 * Replies a read primitive
+	 * 
+	 * @param id
+	 *            the external id of the primitive
+	 * @param type
+	 *            the type of the primitive
+	 * @return the primitive; null, if it wasn't read
+	 */
+	protected final OsmPrimitive getExternal( long id, OsmPrimitiveType type )
+	{
+		return getExternalIdMap( type ).get( id );
+	}
+
+
+
+
+	/**
+	 * Sets the primitives to keep
+	 * 
+	 * @param filter
+	 *            the filter; null, to keep all the primitives
+	 */
+	protected void setFilter( PrimitiveFilter filter )
+	{
+		this.filter = filter;
+	}
+
+
+
+
+	/**
+	 * Replies true if some primitives of a type may be kept, see
+	 * {@link PrimitiveFilter#acceptsType(OsmPrimitiveType)}
+	 */
+	protected final boolean acceptsType( OsmPrimitiveType type )
+	{
+		return filter == null || filter.acceptsType( type );
+	}
+
+
+
+
+	/**
+	 * Replies true if a node or a way is kept, see
+	 * {@link PrimitiveFilter#accepts(OsmPrimitiveType, long)}
+	 */
+	protected final boolean accepts( OsmPrimitiveType type, long id )
+	{
+		return filter == null
+		        || ( filter.acceptsType( type ) && filter.accepts( type, id ) );
+	}
+
+
+
+
+	/**
+	 * Replies true if a relation is kept, see
+	 * {@link PrimitiveFilter#accepts(Relation, Collection)}
+	 */
+	protected final boolean accepts( Relation r,
+	        Collection<RelationMemberData> members )
+	{
+		return filter == null || filter.accepts( r, members );
+	}
+
+
+
+
+	/**
+	 * Replies true if the reader has a filter, i.e. if the ids of the nodes
+	 * and the ways are to be checked before they are parsed
+	 */
+	protected final boolean isFiltered()
+	{
+		return filter != null;
+	}
+
+
+
+
+	/**
+	 * Adds a node ref to the way being parsed
+	 */
+	protected final void addNodeRef( long ref )
+	{
+		if ( nodeRefCount == nodeRefs.length )
+		{
+			nodeRefs = Arrays.copyOf( nodeRefs, nodeRefs.length * 2 );
+		}
+		nodeRefs[nodeRefCount++] = ref;
+	}
+
+
+
+
+	/**
+	 * Replies the node refs of the way being parsed, and starts a new way
+	 * 
+	 * @return the node refs
+	 */
+	protected final long[] takeNodeRefs()
+	{
+		long[] refs = Arrays.copyOf( nodeRefs, nodeRefCount );
+		nodeRefCount = 0;
+		return refs;
+	}
+
+
+
+
+	/**
+	 * Forgets the node refs of the way being parsed, which isn't kept
+	 */
+	protected final void clearNodeRefs()
+	{
+		nodeRefCount = 0;
+	}
+
+
+
+
+	/**
+	 * Adds the primitives read by another reader to the ones of this reader.
+	 * The primitives of the other reader replace the ones of this reader with
+	 * the same ids, as if they were read after them.
+	 * 
+	 * @param other
+	 *            the other reader, which must not be used any more
+	 */
+	protected final void merge( AbstractReader other )
+	{
+		externalNodes.putAll( other.externalNodes );
+		externalWays.putAll( other.externalWays );
+		externalRelations.putAll( other.externalRelations );
+		ways.putAll( other.ways );
+		relations.putAll( other.relations );
+	}
+
+
+
+
 	/**
 	 * Processes the parsed nodes after parsing. Just adds them to the dataset
 	 * 
 	 */
 	protected void processNodesAfterParsing()
 	{
-		for ( OsmPrimitive primitive : externalIdMap.values() )
+		for ( OsmPrimitive primitive : externalNodes.values() )
 		{
-			if ( primitive instanceof Node )
-			{
-				this.ds.addPrimitive( primitive );
-			}
+			this.ds.addPrimitive( primitive );
 		}
 	}
 
@@ -98,15 +296,15 @@ public abstract class AbstractReader
 	 */
 	protected void processWaysAfterParsing() throws IllegalDataException
 	{
-		for ( Long externalWayId : ways.keySet() )
+		for ( long externalWayId : ways.keys() )
 		{
-			Way w = ( Way ) externalIdMap.get( new SimplePrimitiveId(
-			        externalWayId, OsmPrimitiveType.WAY ) );
-			List<Node> wayNodes = new ArrayList<Node>();
-			for ( long id : ways.get( externalWayId ) )
+			Way w = ( Way ) externalWays.get( externalWayId );
+			long[] refs = ways.get( externalWayId );
+			Node[] wayNodes = new Node[refs.length];
+			for ( int i = 0; i < refs.length; i++ )
 			{
-				Node n = ( Node ) externalIdMap.get( new SimplePrimitiveId( id,
-				        OsmPrimitiveType.NODE ) );
+				long id = refs[i];
+				Node n = ( Node ) externalNodes.get( id );
 				if ( n == null )
 				{
 					if ( id <= 0 )
@@ -115,24 +313,16 @@ public abstract class AbstractReader
 					                    externalWayId, id ) );
 					// create an incomplete node if necessary
 					//
-					n = ( Node ) ds
-					        .getPrimitiveById( id, OsmPrimitiveType.NODE );
+					n = ds.getNode( id );
 					if ( n == null )
 					{
 						n = new Node( id );
 						ds.addPrimitive( n );
 					}
 				}
-				wayNodes.add( n );
+				wayNodes[i] = n;
 			}
 			w.setNodes( wayNodes );
-			if ( w.hasIncompleteNodes() )
-			{
-				/*System.out
-				        .println( tr(
-				                "Way {0} with {1} nodes has incomplete nodes because at least one node was missing in the loaded data.",
-				                externalWayId, w.getNodesCount() ) );*/
-			}
 			ds.addPrimitive( w );
 		}
 	}
@@ -151,30 +341,26 @@ public abstract class AbstractReader
 	 */
 	protected void processRelationsAfterParsing() throws IllegalDataException
 	{
+		long[] relationIds = relations.keys();
 
 		// First add all relations to make sure that when relation reference
 		// other relation, the referenced will be already in dataset
-		for ( Long externalRelationId : relations.keySet() )
+		for ( long externalRelationId : relationIds )
 		{
-			Relation relation = ( Relation ) externalIdMap
-			        .get( new SimplePrimitiveId( externalRelationId,
-			                OsmPrimitiveType.RELATION ) );
-			ds.addPrimitive( relation );
+			ds.addPrimitive( externalRelations.get( externalRelationId ) );
 		}
 
-		for ( Long externalRelationId : relations.keySet() )
+		for ( long externalRelationId : relationIds )
 		{
-			Relation relation = ( Relation ) externalIdMap
-			        .get( new SimplePrimitiveId( externalRelationId,
-			                OsmPrimitiveType.RELATION ) );
+			Relation relation = ( Relation ) externalRelations
+			        .get( externalRelationId );
 			List<RelationMember> relationMembers = new ArrayList<RelationMember>();
 			for ( RelationMemberData rm : relations.get( externalRelationId ) )
 			{
 				OsmPrimitive primitive = null;
 
 				// lookup the member from the map of already created primitives
-				primitive = externalIdMap.get( new SimplePrimitiveId( rm
-				        .getMemberId(), rm.getMemberType() ) );
+				primitive = getExternal( rm.getMemberId(), rm.getMemberType() );
 
 				if ( primitive == null )
 				{
@@ -214,9 +400,7 @@ public abstract class AbstractReader
 						}
 
 						ds.addPrimitive( primitive );
-						externalIdMap.put(
-						        new SimplePrimitiveId( rm.getMemberId(), rm
-						                .getMemberType() ), primitive );
+						putExternal( primitive );
 					}
 				}
 				relationMembers.add( new RelationMember( rm.getRole(),
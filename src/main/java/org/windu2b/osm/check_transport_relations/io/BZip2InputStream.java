@@ -0,0 +1,584 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * Decompresses a bzip2 stream, i.e. a <code>.osm.bz2</code> extract.
+ *
+ * Concatenated streams, as written by the parallel compressors, are read one
+ * after the other. The CRCs of the blocks and of the streams are checked.
+ * Randomised blocks, which no compressor writes any more, are not supported.
+ *
+ */
+public class BZip2InputStream extends InputStream
+{
+	private static final long	BLOCK_MAGIC	        = 0x314159265359L;
+
+
+	private static final long	END_OF_STREAM_MAGIC	= 0x177245385090L;
+
+
+	private static final int	MAX_GROUPS	        = 6;
+
+
+	private static final int	GROUP_SIZE	        = 50;
+
+
+	private static final int	MAX_ALPHA_SIZE	    = 258;
+
+
+	private static final int	MAX_CODE_LENGTH	    = 23;
+
+
+	private static final int	MAX_SELECTORS	    = 18002;
+
+
+	private static final int	RUNA	            = 0;
+
+
+	private static final int	RUNB	            = 1;
+
+
+	private static final int[]	CRC_TABLE	        = new int[256];
+
+
+	static
+	{
+		for( int i = 0; i < 256; i++ )
+		{
+			int c = i << 24;
+			for( int j = 0; j < 8; j++ )
+			{
+				c = ( c & 0x80000000 ) != 0 ? ( c << 1 ) ^ 0x04c11db7 : c << 1;
+			}
+			CRC_TABLE[i] = c;
+		}
+	}
+
+
+	private final InputStream	in;
+
+
+	/** the bits read from the input, not used yet */
+	private long	            bitBuffer;
+
+
+	private int	                bitCount;
+
+
+	/** the maximum size of a block, 100000 * level */
+	private int	                blockSize;
+
+
+	private int	                streamCrc;
+
+
+	private int	                computedStreamCrc;
+
+
+	private boolean	            eof;
+
+
+	/** true while the bytes of a block are output */
+	private boolean	            inBlock;
+
+
+	// Block being output
+
+	/** the inverse BWT vector: byte in the low 8 bits, next index above */
+	private int[]	            tt;
+
+
+	private int	                blockLength;
+
+
+	private int	                blockCrc;
+
+
+	private int	                computedBlockCrc;
+
+
+	/** the number of bytes of the BWT output already read */
+	private int	                bwtRead;
+
+
+	private int	                tPos;
+
+
+	/** the last byte read from the BWT output; -1 at the start of a block */
+	private int	                lastByte;
+
+
+	/** the number of times lastByte was repeated */
+	private int	                runLength;
+
+
+	/** the number of copies of lastByte still to output */
+	private int	                repeat;
+
+
+
+
+	/**
+	 * Creates a new decompressing stream
+	 *
+	 * @param in
+	 *            the compressed stream, starting with the "BZh" header. Must
+	 *            not be null.
+	 * @throws IOException
+	 *             thrown if the header can't be read or is not valid
+	 */
+	public BZip2InputStream( InputStream in ) throws IOException
+	{
+		CheckParameterUtil.ensureParameterNotNull( in, "in" );
+		this.in = in instanceof BufferedInputStream ? in
+		        : new BufferedInputStream( in );
+		if( !readStreamHeader( true ) )
+		    throw new IOException( tr( "Not a bzip2 stream" ) );
+	}
+
+
+
+
+	private int readBits( int n ) throws IOException
+	{
+		while( bitCount < n )
+		{
+			int b = in.read();
+			if( b == -1 )
+			    throw new IOException( tr( "Unexpected end of bzip2 stream" ) );
+			bitBuffer = ( bitBuffer << 8 ) | b;
+			bitCount += 8;
+		}
+		bitCount -= n;
+		return ( int ) ( bitBuffer >>> bitCount ) & ( ( 1 << n ) - 1 );
+	}
+
+
+
+
+	private boolean readBit() throws IOException
+	{
+		return readBits( 1 ) != 0;
+	}
+
+
+
+
+	private long readLong48() throws IOException
+	{
+		return ( ( long ) readBits( 24 ) << 24 ) | readBits( 24 );
+	}
+
+
+
+
+	/**
+	 * Reads the "BZh" header of a stream
+	 *
+	 * @param first
+	 *            true for the first stream
+	 * @return true, if a stream starts; false, at the end of the input
+	 */
+	private boolean readStreamHeader( boolean first ) throws IOException
+	{
+		int b = in.read();
+		if( b == -1 && !first ) return false;
+		if( b != 'B' || in.read() != 'Z' || in.read() != 'h' )
+		{
+			if( first ) return false;
+			throw new IOException( tr( "Garbage after the bzip2 stream" ) );
+		}
+		int level = in.read() - '0';
+		if( level < 1 || level > 9 )
+		    throw new IOException( tr( "Invalid bzip2 block size" ) );
+		blockSize = level * 100000;
+		if( tt == null || tt.length < blockSize )
+		{
+			tt = new int[blockSize];
+		}
+		bitBuffer = 0;
+		bitCount = 0;
+		computedStreamCrc = 0;
+		return true;
+	}
+
+
+
+
+	/**
+	 * Reads the next block
+	 *
+	 * @return true if a block was read; false, at the end of the input
+	 */
+	private boolean readBlock() throws IOException
+	{
+		while( true )
+		{
+			long magic = readLong48();
+			if( magic == BLOCK_MAGIC ) break;
+			if( magic != END_OF_STREAM_MAGIC )
+			    throw new IOException( tr( "Invalid bzip2 block header" ) );
+			streamCrc = readBits( 16 ) << 16 | readBits( 16 );
+			if( streamCrc != computedStreamCrc )
+			    throw new IOException( tr( "bzip2 stream CRC error" ) );
+			// the next stream starts on a byte boundary
+			if( !readStreamHeader( false ) ) return false;
+		}
+
+		blockCrc = readBits( 16 ) << 16 | readBits( 16 );
+		if( readBit() )
+		    throw new IOException( tr( "Randomised bzip2 blocks are not supported" ) );
+		int origPtr = readBits( 24 );
+
+		// the bytes used in the block
+		byte[] seqToUnseq = new byte[256];
+		int inUse = 0;
+		int ranges = readBits( 16 );
+		for( int i = 0; i < 16; i++ )
+		{
+			if( ( ranges & ( 0x8000 >>> i ) ) != 0 )
+			{
+				int bits = readBits( 16 );
+				for( int j = 0; j < 16; j++ )
+				{
+					if( ( bits & ( 0x8000 >>> j ) ) != 0 )
+					{
+						seqToUnseq[inUse++] = ( byte ) ( i * 16 + j );
+					}
+				}
+			}
+		}
+		if( inUse == 0 ) throw new IOException( tr( "Invalid bzip2 block" ) );
+		int alphaSize = inUse + 2;
+
+		// the Huffman tables and the selectors
+		int groups = readBits( 3 );
+		int selectors = readBits( 15 );
+		if( groups < 2 || groups > MAX_GROUPS || selectors < 1 )
+		    throw new IOException( tr( "Invalid bzip2 block" ) );
+		byte[] mtfGroups = new byte[MAX_GROUPS];
+		for( int i = 0; i < groups; i++ )
+		{
+			mtfGroups[i] = ( byte ) i;
+		}
+		// recent compressors may write more selectors than can be used
+		byte[] selector = new byte[Math.min( selectors, MAX_SELECTORS )];
+		for( int i = 0; i < selectors; i++ )
+		{
+			int j = 0;
+			while( readBit() )
+			{
+				if( ++j >= groups )
+				    throw new IOException( tr( "Invalid bzip2 block" ) );
+			}
+			byte g = mtfGroups[j];
+			System.arraycopy( mtfGroups, 0, mtfGroups, 1, j );
+			mtfGroups[0] = g;
+			if( i < selector.length )
+			{
+				selector[i] = g;
+			}
+		}
+
+		int[][] limit = new int[groups][MAX_CODE_LENGTH + 1];
+		int[][] base = new int[groups][MAX_CODE_LENGTH + 2];
+		int[][] perm = new int[groups][MAX_ALPHA_SIZE];
+		int[] minLength = new int[groups];
+		byte[] length = new byte[alphaSize];
+		for( int t = 0; t < groups; t++ )
+		{
+			int current = readBits( 5 );
+			for( int i = 0; i < alphaSize; i++ )
+			{
+				while( true )
+				{
+					if( current < 1 || current > 20 )
+					    throw new IOException( tr( "Invalid bzip2 block" ) );
+					if( !readBit() ) break;
+					current += readBit() ? -1 : 1;
+				}
+				length[i] = ( byte ) current;
+			}
+			minLength[t] = createDecodeTables( length, alphaSize, limit[t],
+			        base[t], perm[t] );
+		}
+
+		// the MTF values, with their runs
+		byte[] mtf = new byte[256];
+		for( int i = 0; i < 256; i++ )
+		{
+			mtf[i] = ( byte ) i;
+		}
+		int[] counts = new int[256];
+		int endOfBlock = inUse + 1;
+		int groupIndex = -1;
+		int groupPosition = 0;
+		int[] groupLimit = null, groupBase = null, groupPerm = null;
+		int groupMinLength = 0;
+		int n = 0;
+		int runSum = 0, runWeight = 1;
+		while( true )
+		{
+			if( groupPosition == 0 )
+			{
+				if( ++groupIndex >= selector.length )
+				    throw new IOException( tr( "Invalid bzip2 block" ) );
+				groupPosition = GROUP_SIZE;
+				int g = selector[groupIndex];
+				groupLimit = limit[g];
+				groupBase = base[g];
+				groupPerm = perm[g];
+				groupMinLength = minLength[g];
+			}
+			groupPosition--;
+
+			int codeLength = groupMinLength;
+			int code = readBits( codeLength );
+			while( code > groupLimit[codeLength] )
+			{
+				if( ++codeLength > 20 )
+				    throw new IOException( tr( "Invalid bzip2 block" ) );
+				code = ( code << 1 ) | readBits( 1 );
+			}
+			int symbol = groupPerm[code - groupBase[codeLength]];
+
+			if( symbol == RUNA || symbol == RUNB )
+			{
+				runSum += ( symbol + 1 ) * runWeight;
+				runWeight <<= 1;
+				if( runSum > blockSize )
+				    throw new IOException( tr( "Invalid bzip2 block" ) );
+				continue;
+			}
+			if( runSum > 0 )
+			{
+				// output the run of the first MTF byte
+				int b = seqToUnseq[mtf[0] & 0xff] & 0xff;
+				if( n + runSum > blockSize )
+				    throw new IOException( tr( "Invalid bzip2 block" ) );
+				counts[b] += runSum;
+				while( runSum-- > 0 )
+				{
+					tt[n++] = b;
+				}
+				runSum = 0;
+				runWeight = 1;
+			}
+			if( symbol == endOfBlock ) break;
+
+			if( n >= blockSize )
+			    throw new IOException( tr( "Invalid bzip2 block" ) );
+			int index = symbol - 1;
+			byte m = mtf[index];
+			System.arraycopy( mtf, 0, mtf, 1, index );
+			mtf[0] = m;
+			int b = seqToUnseq[m & 0xff] & 0xff;
+			counts[b]++;
+			tt[n++] = b;
+		}
+		if( origPtr >= n ) throw new IOException( tr( "Invalid bzip2 block" ) );
+
+		// inverse BWT
+		int[] cumulated = new int[256];
+		for( int i = 0, sum = 0; i < 256; i++ )
+		{
+			cumulated[i] = sum;
+			sum += counts[i];
+		}
+		for( int i = 0; i < n; i++ )
+		{
+			int b = tt[i] & 0xff;
+			tt[cumulated[b]++] |= i << 8;
+		}
+		tPos = tt[origPtr] >>> 8;
+		blockLength = n;
+		bwtRead = 0;
+		lastByte = -1;
+		runLength = 0;
+		repeat = 0;
+		computedBlockCrc = -1;
+		return true;
+	}
+
+
+
+
+	/**
+	 * Builds the tables decoding a canonical Huffman code
+	 *
+	 * @return the minimum length of the codes
+	 */
+	private static int createDecodeTables( byte[] length, int alphaSize,
+	        int[] limit, int[] base, int[] perm )
+	{
+		int minLength = 32, maxLength = 0;
+		for( int i = 0; i < alphaSize; i++ )
+		{
+			minLength = Math.min( minLength, length[i] );
+			maxLength = Math.max( maxLength, length[i] );
+		}
+		int p = 0;
+		for( int l = minLength; l <= maxLength; l++ )
+		{
+			for( int i = 0; i < alphaSize; i++ )
+			{
+				if( length[i] == l )
+				{
+					perm[p++] = i;
+				}
+			}
+		}
+		for( int i = 0; i < alphaSize; i++ )
+		{
+			base[length[i] + 1]++;
+		}
+		for( int i = 1; i < base.length; i++ )
+		{
+			base[i] += base[i - 1];
+		}
+		for( int i = 0; i < limit.length; i++ )
+		{
+			// no code of this length
+			limit[i] = -1;
+		}
+		int code = 0;
+		for( int l = minLength; l <= maxLength; l++ )
+		{
+			code += base[l + 1] - base[l];
+			limit[l] = code - 1;
+			code <<= 1;
+		}
+		for( int l = minLength + 1; l <= maxLength; l++ )
+		{
+			base[l] = ( ( limit[l - 1] + 1 ) << 1 ) - base[l];
+		}
+		return minLength;
+	}
+
+
+
+
+	private void updateCrc( int b )
+	{
+		computedBlockCrc = ( computedBlockCrc << 8 )
+		        ^ CRC_TABLE[( ( computedBlockCrc >>> 24 ) ^ b ) & 0xff];
+	}
+
+
+
+
+	/**
+	 * Ends the current block, and checks its CRC
+	 */
+	private void endBlock() throws IOException
+	{
+		computedBlockCrc = ~computedBlockCrc;
+		if( computedBlockCrc != blockCrc )
+		    throw new IOException( tr( "bzip2 block CRC error" ) );
+		computedStreamCrc = ( ( computedStreamCrc << 1 ) | ( computedStreamCrc >>> 31 ) )
+		        ^ blockCrc;
+	}
+
+
+
+
+	/**
+	 * Replies the next decompressed byte of the current block
+	 *
+	 * @return the byte; -1 at the end of the block
+	 */
+	private int nextByte()
+	{
+		if( repeat > 0 )
+		{
+			repeat--;
+			updateCrc( lastByte );
+			return lastByte;
+		}
+		if( bwtRead == blockLength ) return -1;
+
+		tPos = tt[tPos];
+		int b = tPos & 0xff;
+		tPos >>>= 8;
+		bwtRead++;
+
+		if( runLength == 4 )
+		{
+			// b is the number of additional copies of the last byte
+			runLength = 0;
+			if( b == 0 ) return nextByte();
+			repeat = b - 1;
+			updateCrc( lastByte );
+			return lastByte;
+		}
+		if( b == lastByte )
+		{
+			runLength++;
+		}
+		else
+		{
+			runLength = 1;
+			lastByte = b;
+		}
+		updateCrc( b );
+		return b;
+	}
+
+
+
+
+	@Override
+	public int read() throws IOException
+	{
+		byte[] b = new byte[1];
+		return read( b, 0, 1 ) == -1 ? -1 : b[0] & 0xff;
+	}
+
+
+
+
+	@Override
+	public int read( byte[] b, int off, int len ) throws IOException
+	{
+		if( len == 0 ) return 0;
+		int n = 0;
+		while( n < len )
+		{
+			if( !inBlock )
+			{
+				if( eof || !readBlock() )
+				{
+					eof = true;
+					break;
+				}
+				inBlock = true;
+			}
+			int c = nextByte();
+			if( c == -1 )
+			{
+				endBlock();
+				inBlock = false;
+				continue;
+			}
+			b[off + n++] = ( byte ) c;
+		}
+		return n == 0 ? -1 : n;
+	}
+
+
+
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+}
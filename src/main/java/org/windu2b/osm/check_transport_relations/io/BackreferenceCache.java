@@ -0,0 +1,289 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.PrimitiveId;
+import org.windu2b.osm.check_transport_relations.data.osm.SimplePrimitiveId;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * Session-wide cache for the replies of the
+ * <code>[node|way|relation]/#id/relations</code> API calls.
+ *
+ * The referring primitives of a primitive are remembered together with the
+ * version the primitive had when they were read. A lookup with another
+ * (known) version invalidates the entry, so that the referrers are read again
+ * from the server.
+ *
+ * The cache is bounded: when it is full, the least recently used entry is
+ * evicted. All the methods are thread safe.
+ *
+ */
+public class BackreferenceCache
+{
+	/**
+	 * Default maximum number of primitives whose referrers are kept in the
+	 * cache
+	 */
+	static public final int	          DEFAULT_MAX_ENTRIES	= 10000;
+
+
+	// The cache shared by all the checks of a run
+	private static BackreferenceCache	instance;
+
+
+
+	private static class CacheEntry
+	{
+		private final int		version;
+
+
+		private final DataSet	referrers;
+
+
+
+
+		private CacheEntry( int version, DataSet referrers )
+		{
+			this.version = version;
+			this.referrers = referrers;
+		}
+	}
+
+
+
+	/** the maximum number of entries */
+	private final int	                           maxEntries;
+
+
+	/** the entries, in access order */
+	private final LinkedHashMap<PrimitiveId, CacheEntry>	entries;
+
+
+	private long	                               hits;
+
+
+	private long	                               misses;
+
+
+	private long	                               evictions;
+
+
+
+
+	/**
+	 * Replies the cache shared by all the checks of a run
+	 *
+	 * @return the shared cache
+	 */
+	public static synchronized BackreferenceCache getInstance()
+	{
+		if( instance == null )
+		{
+			instance = new BackreferenceCache( DEFAULT_MAX_ENTRIES );
+		}
+		return instance;
+	}
+
+
+
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param maxEntries
+	 *            the maximum number of entries. > 0 expected
+	 * @throws IllegalArgumentException
+	 *             thrown if maxEntries <= 0
+	 */
+	public BackreferenceCache( int maxEntries )
+	{
+		if( maxEntries <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.",
+		            "maxEntries", maxEntries ) );
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<PrimitiveId, CacheEntry>( 16, 0.75f, true )
+		{
+			@Override
+			protected boolean removeEldestEntry(
+			        Map.Entry<PrimitiveId, CacheEntry> eldest )
+			{
+				if( size() > BackreferenceCache.this.maxEntries )
+				{
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+
+
+
+	private static PrimitiveId key( PrimitiveId id )
+	{
+		CheckParameterUtil.ensureParameterNotNull( id, "id" );
+		// OsmPrimitive.equals() doesn't use the type, SimplePrimitiveId does
+		return new SimplePrimitiveId( id.getUniqueId(), id.getType() );
+	}
+
+
+
+
+	/**
+	 * Replies the referrers of a primitive.
+	 *
+	 * If <code>version</code> is > 0 and differs from the version the
+	 * referrers were read for, the entry is invalidated.
+	 *
+	 * @param id
+	 *            the id of the primitive. Must not be null.
+	 * @param version
+	 *            the current version of the primitive; 0, if unknown
+	 * @return the referrers of the primitive; null, if they are not cached
+	 */
+	public synchronized DataSet get( PrimitiveId id, int version )
+	{
+		PrimitiveId k = key( id );
+		CacheEntry e = entries.get( k );
+		if( e != null && version > 0 && e.version != version )
+		{
+			entries.remove( k );
+			e = null;
+		}
+		if( e == null )
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		return e.referrers;
+	}
+
+
+
+
+	/**
+	 * Replies true if the referrers of a primitive are cached for a version.
+	 * Unlike {@link #get(PrimitiveId, int)}, it counts neither a hit nor a
+	 * miss, and never invalidates the entry. The entry is still marked as
+	 * recently used, as it is about to be read.
+	 *
+	 * @param id
+	 *            the id of the primitive. Must not be null.
+	 * @param version
+	 *            the current version of the primitive; 0, if unknown
+	 * @return true if {@link #get(PrimitiveId, int)} would reply the referrers
+	 */
+	public synchronized boolean contains( PrimitiveId id, int version )
+	{
+		CacheEntry e = entries.get( key( id ) );
+		return e != null && ( version <= 0 || e.version == version );
+	}
+
+
+
+
+	/**
+	 * Remembers the referrers of a primitive
+	 *
+	 * @param id
+	 *            the id of the primitive. Must not be null.
+	 * @param version
+	 *            the version of the primitive the referrers were read for
+	 * @param referrers
+	 *            the referrers. Must not be null.
+	 */
+	public synchronized void put( PrimitiveId id, int version,
+	        DataSet referrers )
+	{
+		CheckParameterUtil.ensureParameterNotNull( referrers, "referrers" );
+		entries.put( key( id ), new CacheEntry( version, referrers ) );
+	}
+
+
+
+
+	/**
+	 * Forgets the referrers of a primitive, i.e. because it was changed on the
+	 * server
+	 *
+	 * @param id
+	 *            the id of the primitive. Must not be null.
+	 */
+	public synchronized void invalidate( PrimitiveId id )
+	{
+		entries.remove( key( id ) );
+	}
+
+
+
+
+	/**
+	 * Removes all the entries and resets the counters
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+
+
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+
+
+
+	public int getMaxEntries()
+	{
+		return maxEntries;
+	}
+
+
+
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+
+
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+
+
+
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+
+
+
+	@Override
+	public synchronized String toString()
+	{
+		return tr( "Backreference cache : {0} hits, {1} misses, {2} evictions",
+		        hits, misses, evictions );
+	}
+}
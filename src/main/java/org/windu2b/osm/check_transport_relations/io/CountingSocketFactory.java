@@ -0,0 +1,121 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * A {@link SSLSocketFactory} which counts the sockets it creates, i.e. the
+ * HTTPS connections really opened, see {@link HttpConnectionPool}.
+ */
+final class CountingSocketFactory extends SSLSocketFactory
+{
+	private final SSLSocketFactory	delegate;
+
+
+	private final AtomicLong	   created;
+
+
+
+
+	/**
+	 * @param delegate
+	 *            the factory which creates the sockets
+	 * @param created
+	 *            incremented for each socket created
+	 */
+	CountingSocketFactory( SSLSocketFactory delegate, AtomicLong created )
+	{
+		this.delegate = delegate;
+		this.created = created;
+	}
+
+
+
+
+	private Socket count( Socket socket )
+	{
+		created.incrementAndGet();
+		return socket;
+	}
+
+
+
+
+	@Override
+	public String[] getDefaultCipherSuites()
+	{
+		return delegate.getDefaultCipherSuites();
+	}
+
+
+
+
+	@Override
+	public String[] getSupportedCipherSuites()
+	{
+		return delegate.getSupportedCipherSuites();
+	}
+
+
+
+
+	@Override
+	public Socket createSocket() throws IOException
+	{
+		return count( delegate.createSocket() );
+	}
+
+
+
+
+	@Override
+	public Socket createSocket( Socket s, String host, int port,
+	        boolean autoClose ) throws IOException
+	{
+		return count( delegate.createSocket( s, host, port, autoClose ) );
+	}
+
+
+
+
+	@Override
+	public Socket createSocket( String host, int port ) throws IOException
+	{
+		return count( delegate.createSocket( host, port ) );
+	}
+
+
+
+
+	@Override
+	public Socket createSocket( String host, int port, InetAddress localHost,
+	        int localPort ) throws IOException
+	{
+		return count( delegate.createSocket( host, port, localHost, localPort ) );
+	}
+
+
+
+
+	@Override
+	public Socket createSocket( InetAddress host, int port ) throws IOException
+	{
+		return count( delegate.createSocket( host, port ) );
+	}
+
+
+
+
+	@Override
+	public Socket createSocket( InetAddress address, int port,
+	        InetAddress localAddress, int localPort ) throws IOException
+	{
+		return count( delegate.createSocket( address, port, localAddress,
+		        localPort ) );
+	}
+}
@@ -0,0 +1,858 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.PrimitiveId;
+import org.windu2b.osm.check_transport_relations.data.osm.SimplePrimitiveId;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * On-disk cache of the responses of the OSM server, shared between the runs.
+ *
+ * The responses are keyed by URL and stored gzip compressed in the cache
+ * directory, one file per URL. An entry older than the TTL is not used; when
+ * the cache gets bigger than its maximum size, the least recently used
+ * entries are deleted.
+ *
+ * The <code>[way|relation]/#id/full</code> responses also remember the
+ * version of their primitive. Before such an entry is used, the current
+ * version is read with the much smaller <code>[way|relation]/#id</code> call,
+ * and the entry is dropped if the primitive has changed.
+ *
+ * The cache is disabled until {@link #install(File, long, long)} is called.
+ *
+ */
+public class DiskResponseCache
+{
+	/**
+	 * Default time, in seconds, an entry is used
+	 */
+	static public final long	          DEFAULT_TTL	       = 24 * 3600;
+
+
+	/**
+	 * Default maximum size of the cache, in megabytes
+	 */
+	static public final long	          DEFAULT_MAX_SIZE	   = 256;
+
+
+	/** the extension of the cache files */
+	private static final String	          EXTENSION	           = ".osm.gz";
+
+
+	/** the version of the format of the cache files */
+	private static final int	          FORMAT_VERSION	   = 1;
+
+
+	private static final Pattern	      FULL_URL	           = Pattern
+	                                                               .compile( "(way|relation)/(\\d+)/full$" );
+
+
+	// The cache shared by all the readers of a run; null if disabled
+	private static DiskResponseCache	  instance;
+
+
+
+	/**
+	 * A response read from the cache
+	 */
+	public class CachedResponse
+	{
+		private final File		file;
+
+
+		private final String	url;
+
+
+		private final long		created;
+
+
+		private final int		version;
+
+
+
+
+		private CachedResponse( File file, String url, long created,
+		        int version )
+		{
+			this.file = file;
+			this.url = url;
+			this.created = created;
+			this.version = version;
+		}
+
+
+
+
+		public long getCreated()
+		{
+			return created;
+		}
+
+
+
+
+		/**
+		 * Replies the version of the primitive of a
+		 * <code>[way|relation]/#id/full</code> response
+		 *
+		 * @return the version; 0, if unknown
+		 */
+		public int getVersion()
+		{
+			return version;
+		}
+
+
+
+
+		/**
+		 * Opens the body of the response, and records a hit
+		 *
+		 * @return the uncompressed body
+		 * @throws IOException
+		 *             thrown if the file can't be read
+		 */
+		public InputStream open() throws IOException
+		{
+			DataInputStream in = new DataInputStream( new BufferedInputStream(
+			        new FileInputStream( file ) ) );
+			try
+			{
+				readHeader( in, file );
+				InputStream body = new GZIPInputStream( in );
+				// the last modification date is the last access date
+				file.setLastModified( System.currentTimeMillis() );
+				synchronized( DiskResponseCache.this )
+				{
+					hits++;
+				}
+				return body;
+			}
+			catch( IOException e )
+			{
+				in.close();
+				throw e;
+			}
+		}
+	}
+
+
+
+	/**
+	 * Copies the body of a response into the cache while it is read. The
+	 * entry is written only if the body was read to the end.
+	 */
+	private class CachingInputStream extends FilterInputStream
+	{
+		private final String	   url;
+
+
+		private final File		   tmp;
+
+
+		private final OutputStream	out;
+
+
+		private boolean		       complete;
+
+
+		private boolean		       failed;
+
+
+		private boolean		       closed;
+
+
+
+
+		private CachingInputStream( String url, InputStream in, File tmp )
+		        throws IOException
+		{
+			super( in );
+			this.url = url;
+			this.tmp = tmp;
+			this.out = new GZIPOutputStream( new BufferedOutputStream(
+			        new FileOutputStream( tmp ) ) );
+		}
+
+
+
+
+		private void write( byte[] b, int off, int len )
+		{
+			if( failed ) return;
+			try
+			{
+				out.write( b, off, len );
+			}
+			catch( IOException e )
+			{
+				failed = true;
+			}
+		}
+
+
+
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = in.read();
+			if( b == -1 )
+			{
+				complete = true;
+			}
+			else
+			{
+				write( new byte[] { ( byte ) b }, 0, 1 );
+			}
+			return b;
+		}
+
+
+
+
+		@Override
+		public int read( byte[] b, int off, int len ) throws IOException
+		{
+			int n = in.read( b, off, len );
+			if( n == -1 )
+			{
+				complete = true;
+			}
+			else
+			{
+				write( b, off, n );
+			}
+			return n;
+		}
+
+
+
+
+		@Override
+		public long skip( long n ) throws IOException
+		{
+			// skipped bytes must be cached too
+			byte[] buffer = new byte[( int ) Math.min( n, 4096 )];
+			int read = read( buffer, 0, buffer.length );
+			return read == -1 ? 0 : read;
+		}
+
+
+
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+
+
+
+		@Override
+		public void close() throws IOException
+		{
+			if( closed ) return;
+			closed = true;
+			try
+			{
+				// the parser may stop before the end of the body
+				byte[] buffer = new byte[4096];
+				while( !complete && read( buffer, 0, buffer.length ) != -1 )
+				{
+				}
+			}
+			catch( IOException e )
+			{
+				failed = true;
+			}
+			try
+			{
+				out.close();
+			}
+			catch( IOException e )
+			{
+				failed = true;
+			}
+			try
+			{
+				if( complete && !failed )
+				{
+					commit( url, tmp );
+				}
+			}
+			finally
+			{
+				tmp.delete();
+				super.close();
+			}
+		}
+	}
+
+
+
+	private final File	                  directory;
+
+
+	/** the TTL, in milliseconds */
+	private final long	                  ttl;
+
+
+	/** the maximum size, in bytes */
+	private final long	                  maxSize;
+
+
+	/** the number of entries when the cache was opened */
+	private final int	                  initialEntries;
+
+
+	private long	                      size;
+
+
+	private long	                      hits;
+
+
+	private long	                      misses;
+
+
+	private long	                      expired;
+
+
+	private long	                      revalidated;
+
+
+	private long	                      stale;
+
+
+
+
+	/**
+	 * Replies the cache shared by all the readers of a run
+	 *
+	 * @return the shared cache; null, if the cache is disabled
+	 */
+	public static synchronized DiskResponseCache getInstance()
+	{
+		return instance;
+	}
+
+
+
+
+	/**
+	 * Enables the cache shared by all the readers of a run
+	 *
+	 * @param directory
+	 *            the cache directory. Created if it doesn't exist.
+	 * @param ttl
+	 *            the time, in seconds, an entry is used
+	 * @param maxSize
+	 *            the maximum size of the cache, in megabytes
+	 * @return the shared cache
+	 * @throws IOException
+	 *             thrown if the directory can't be created
+	 */
+	public static synchronized DiskResponseCache install( File directory,
+	        long ttl, long maxSize ) throws IOException
+	{
+		instance = new DiskResponseCache( directory, ttl * 1000,
+		        maxSize * 1024 * 1024 );
+		return instance;
+	}
+
+
+
+
+	/**
+	 * Disables the cache shared by all the readers of a run
+	 */
+	public static synchronized void uninstall()
+	{
+		instance = null;
+	}
+
+
+
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param directory
+	 *            the cache directory. Created if it doesn't exist.
+	 * @param ttl
+	 *            the time, in milliseconds, an entry is used. > 0 expected
+	 * @param maxSize
+	 *            the maximum size of the cache, in bytes. > 0 expected
+	 * @throws IOException
+	 *             thrown if the directory can't be created
+	 * @throws IllegalArgumentException
+	 *             thrown if directory is null, ttl <= 0 or maxSize <= 0
+	 */
+	public DiskResponseCache( File directory, long ttl, long maxSize )
+	        throws IOException
+	{
+		CheckParameterUtil.ensureParameterNotNull( directory, "directory" );
+		if( ttl <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.", "ttl", ttl ) );
+		if( maxSize <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.", "maxSize",
+		            maxSize ) );
+		if( !directory.isDirectory() && !directory.mkdirs() )
+		    throw new IOException( tr( "Failed to create the cache directory {0}",
+		            directory ) );
+		this.directory = directory;
+		this.ttl = ttl;
+		this.maxSize = maxSize;
+		File[] files = listFiles();
+		for( File f : files )
+		{
+			size += f.length();
+		}
+		initialEntries = files.length;
+	}
+
+
+
+
+	private File[] listFiles()
+	{
+		File[] files = directory.listFiles();
+		if( files == null ) return new File[0];
+		int n = 0;
+		for( File f : files )
+		{
+			if( f.getName().endsWith( EXTENSION ) )
+			{
+				files[n++] = f;
+			}
+		}
+		return Arrays.copyOf( files, n );
+	}
+
+
+
+
+	/**
+	 * Replies the primitive of a <code>[way|relation]/#id/full</code> URL
+	 *
+	 * @param url
+	 *            the URL
+	 * @return the primitive; null, if the URL is not a full one
+	 */
+	public static PrimitiveId getFullPrimitiveId( String url )
+	{
+		Matcher m = FULL_URL.matcher( url );
+		if( !m.find() ) return null;
+		return new SimplePrimitiveId( Long.parseLong( m.group( 2 ) ),
+		        OsmPrimitiveType.fromApiTypeName( m.group( 1 ) ) );
+	}
+
+
+
+
+	private File getFile( String url )
+	{
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance( "SHA-1" );
+			byte[] digest = md.digest( url.getBytes( "UTF-8" ) );
+			StringBuilder sb = new StringBuilder();
+			for( byte b : digest )
+			{
+				sb.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) );
+				sb.append( Character.forDigit( b & 0xf, 16 ) );
+			}
+			return new File( directory, sb.append( EXTENSION ).toString() );
+		}
+		catch( NoSuchAlgorithmException e )
+		{
+			throw new RuntimeException( e );
+		}
+		catch( IOException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the cached response of an URL.
+	 *
+	 * @param url
+	 *            the URL. Must not be null.
+	 * @return the response; null, if the URL is not cached or if its entry
+	 *         is older than the TTL
+	 */
+	public CachedResponse get( String url )
+	{
+		CheckParameterUtil.ensureParameterNotNull( url, "url" );
+		File file = getFile( url );
+		if( file.isFile() )
+		{
+			DataInputStream in = null;
+			try
+			{
+				in = new DataInputStream( new BufferedInputStream(
+				        new FileInputStream( file ) ) );
+				CachedResponse response = readHeader( in, file );
+				if( url.equals( response.url ) )
+				{
+					if( System.currentTimeMillis() - response.created <= ttl )
+					    return response;
+					synchronized( this )
+					{
+						expired++;
+					}
+				}
+			}
+			catch( IOException e )
+			{
+				// unreadable entry, replaced by the next response
+			}
+			finally
+			{
+				if( in != null )
+				{
+					try
+					{
+						in.close();
+					}
+					catch( IOException e )
+					{/* ignore this exception */
+					}
+				}
+			}
+			delete( file );
+		}
+		synchronized( this )
+		{
+			misses++;
+		}
+		return null;
+	}
+
+
+
+
+	/**
+	 * Reads the header of a cache file
+	 */
+	private CachedResponse readHeader( DataInputStream in, File file )
+	        throws IOException
+	{
+		if( in.readInt() != FORMAT_VERSION )
+		    throw new IOException( tr( "Unknown cache file format" ) );
+		String url = in.readUTF();
+		long created = in.readLong();
+		int version = in.readInt();
+		return new CachedResponse( file, url, created, version );
+	}
+
+
+
+
+	/**
+	 * Drops the entry of an URL, because the probe of its version showed that
+	 * it is stale
+	 *
+	 * @param url
+	 *            the URL. Must not be null.
+	 */
+	public void invalidate( String url )
+	{
+		CheckParameterUtil.ensureParameterNotNull( url, "url" );
+		delete( getFile( url ) );
+		synchronized( this )
+		{
+			stale++;
+			misses++;
+		}
+	}
+
+
+
+
+	/**
+	 * Records that the version of a cached entry was checked with the server
+	 */
+	public synchronized void revalidated()
+	{
+		revalidated++;
+	}
+
+
+
+
+	/**
+	 * Wraps the body of a response, so that it is stored in the cache when it
+	 * is read to the end and closed.
+	 *
+	 * @param url
+	 *            the URL of the response. Must not be null.
+	 * @param in
+	 *            the body of the response. Must not be null.
+	 * @return the body to read
+	 */
+	public InputStream store( String url, InputStream in )
+	{
+		CheckParameterUtil.ensureParameterNotNull( url, "url" );
+		CheckParameterUtil.ensureParameterNotNull( in, "in" );
+		try
+		{
+			File tmp = File.createTempFile( "response", ".tmp", directory );
+			return new CachingInputStream( url, in, tmp );
+		}
+		catch( IOException e )
+		{
+			// the response is just not cached
+			return in;
+		}
+	}
+
+
+
+
+	/**
+	 * Writes the entry of an URL from the compressed body of its response
+	 */
+	private void commit( String url, File body ) throws IOException
+	{
+		int version = 0;
+		PrimitiveId id = getFullPrimitiveId( url );
+		if( id != null )
+		{
+			InputStream in = new GZIPInputStream( new BufferedInputStream(
+			        new FileInputStream( body ) ) );
+			try
+			{
+				version = readVersion( in, id );
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+
+		File file = getFile( url );
+		File tmp = File.createTempFile( "entry", ".tmp", directory );
+		try
+		{
+			DataOutputStream out = new DataOutputStream(
+			        new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+			try
+			{
+				out.writeInt( FORMAT_VERSION );
+				out.writeUTF( url );
+				out.writeLong( System.currentTimeMillis() );
+				out.writeInt( version );
+				Files.copy( body.toPath(), out );
+			}
+			finally
+			{
+				out.close();
+			}
+			long oldLength = file.length();
+			Files.move( tmp.toPath(), file.toPath(),
+			        StandardCopyOption.REPLACE_EXISTING );
+			synchronized( this )
+			{
+				size += file.length() - oldLength;
+			}
+		}
+		finally
+		{
+			tmp.delete();
+		}
+		evict();
+	}
+
+
+
+
+	private void delete( File file )
+	{
+		long length = file.length();
+		if( file.delete() )
+		{
+			synchronized( this )
+			{
+				size -= length;
+			}
+		}
+	}
+
+
+
+
+	/**
+	 * Deletes the least recently used entries, until the cache is smaller
+	 * than its maximum size
+	 */
+	private void evict()
+	{
+		synchronized( this )
+		{
+			if( size <= maxSize ) return;
+		}
+		File[] files = listFiles();
+		final long[] lastModified = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for( int i = 0; i < files.length; i++ )
+		{
+			lastModified[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort( order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare( Integer o1, Integer o2 )
+			{
+				long l1 = lastModified[o1], l2 = lastModified[o2];
+				return l1 < l2 ? -1 : ( l1 == l2 ? 0 : 1 );
+			}
+		} );
+		for( Integer i : order )
+		{
+			synchronized( this )
+			{
+				if( size <= maxSize ) return;
+			}
+			delete( files[i] );
+		}
+	}
+
+
+
+
+	/**
+	 * Reads the version of a primitive in an OSM document
+	 *
+	 * @param in
+	 *            the document
+	 * @param id
+	 *            the primitive
+	 * @return the version of the primitive; 0, if it is not in the document
+	 * @throws IOException
+	 *             thrown if the document can't be read
+	 */
+	public static int readVersion( InputStream in, PrimitiveId id )
+	        throws IOException
+	{
+		try
+		{
+			XMLStreamReader parser = XMLInputFactory.newInstance()
+			        .createXMLStreamReader( in, "UTF-8" );
+			try
+			{
+				String name = id.getType().getAPIName();
+				String idValue = Long.toString( id.getUniqueId() );
+				while( parser.hasNext() )
+				{
+					if( parser.next() == XMLStreamConstants.START_ELEMENT
+					        && parser.getLocalName().equals( name )
+					        && idValue.equals( parser.getAttributeValue( null,
+					                "id" ) ) )
+					{
+						String version = parser.getAttributeValue( null,
+						        "version" );
+						return version == null ? 0 : Integer.parseInt( version );
+					}
+				}
+				return 0;
+			}
+			finally
+			{
+				parser.close();
+			}
+		}
+		catch( XMLStreamException e )
+		{
+			throw new IOException( e );
+		}
+		catch( NumberFormatException e )
+		{
+			throw new IOException( e );
+		}
+	}
+
+
+
+
+	public File getDirectory()
+	{
+		return directory;
+	}
+
+
+
+
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+
+
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+
+
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+
+
+
+	@Override
+	public synchronized String toString()
+	{
+		long requests = hits + misses;
+		return tr(
+		        "Disk cache ({0} start, {1} entries) : {2} hits ({3} revalidated), {4} misses ({5} expired, {6} stale), hit rate {7}%",
+		        initialEntries == 0 ? tr( "cold" ) : tr( "warm" ),
+		        initialEntries, hits, revalidated, misses, expired, stale,
+		        requests == 0 ? 0 : hits * 100 / requests );
+	}
+}
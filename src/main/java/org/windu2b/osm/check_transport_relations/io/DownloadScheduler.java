@@ -0,0 +1,514 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.gui.progress.NullProgressMonitor;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * Runs the downloads of the readers on a fixed number of worker threads.
+ *
+ * The number of threads is set by the property
+ * <code>osm-server.download-threads</code> and defaults to
+ * {@link OsmApi#MAX_DOWNLOAD_THREADS}. The number of connections opened at the
+ * same time to a host is capped by the {@link HttpConnectionPool}.
+ *
+ * A reader submitted from a worker thread, i.e. by a reader which is already
+ * running in the scheduler, is queued like the other ones. A worker which
+ * waits for a download with {@link #get(Future)} runs the queued readers
+ * meanwhile: the readers of a nested batch are still downloaded concurrently,
+ * and the waiting workers cannot block the scheduler.
+ *
+ * A reader which fails is retried as decided by the {@link RetryPolicy}. The
+ * retry is scheduled on a timer, so that no worker waits meanwhile.
+ *
+ */
+public class DownloadScheduler
+{
+	// The scheduler shared by all the readers of a run
+	private static DownloadScheduler	         instance;
+
+
+	/** the scheduler of a worker thread, null for the other threads */
+	private static final ThreadLocal<DownloadScheduler>	WORKER	  = new ThreadLocal<DownloadScheduler>();
+
+
+	/**
+	 * The milliseconds a waiting worker blocks before it looks again for a
+	 * queued reader, e.g. a retry
+	 */
+	private static final long	                        HELP_POLL	= 50;
+
+
+
+	/**
+	 * The download of a reader, with its retries
+	 */
+	private class Download extends FutureTask<DataSet>
+	{
+		private final OsmServerReader	reader;
+
+
+		private int		              attempt;
+
+
+
+
+		private Download( OsmServerReader reader )
+		{
+			super( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					// not used: see Download.run()
+				}
+			}, null );
+			this.reader = reader;
+		}
+
+
+
+
+		@Override
+		public void run()
+		{
+			if( isDone() ) return;
+			if( reader.isCanceled() )
+			{
+				set( null );
+				return;
+			}
+			try
+			{
+				// the progress monitors are not thread safe
+				set( reader.parseOsm( NullProgressMonitor.INSTANCE ) );
+			}
+			catch( Exception e )
+			{
+				retry( e );
+			}
+		}
+
+
+
+
+		private void retry( final Exception e )
+		{
+			long delay = reader.isCanceled() ? -1 : retryPolicy.nextDelay(
+			        attempt++, e );
+			if( delay < 0 )
+			{
+				setException( e );
+				return;
+			}
+			try
+			{
+				timer.schedule( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							executor.execute( Download.this );
+						}
+						catch( RejectedExecutionException r )
+						{
+							// shut down meanwhile
+							setException( e );
+						}
+					}
+				}, delay, TimeUnit.MILLISECONDS );
+			}
+			catch( RejectedExecutionException r )
+			{
+				setException( e );
+			}
+		}
+	}
+
+
+
+	/**
+	 * A group of downloads, which can be waited for or canceled together
+	 */
+	public class Batch
+	{
+		private final List<OsmServerReader>	 readers	= new ArrayList<OsmServerReader>();
+
+
+		private final List<Future<DataSet>>	 futures	= new ArrayList<Future<DataSet>>();
+
+
+
+
+		private Batch()
+		{
+		}
+
+
+
+
+		/**
+		 * Submits a reader to the scheduler
+		 *
+		 * @param reader
+		 *            the reader. Must not be null.
+		 * @return the future of the downloaded data
+		 */
+		public synchronized Future<DataSet> submit( OsmServerReader reader )
+		{
+			Future<DataSet> future = DownloadScheduler.this.submit( reader );
+			readers.add( reader );
+			futures.add( future );
+			return future;
+		}
+
+
+
+
+		public synchronized int size()
+		{
+			return futures.size();
+		}
+
+
+
+
+		/**
+		 * Waits for all the downloads of this batch. If one of them fails,
+		 * the other ones are canceled.
+		 *
+		 * @return the downloaded data, in the order the readers were
+		 *         submitted; null for a canceled download
+		 * @throws OsmTransferException
+		 *             thrown if one of the downloads failed
+		 */
+		public List<DataSet> getResults() throws OsmTransferException
+		{
+			List<Future<DataSet>> toWait;
+			synchronized( this )
+			{
+				toWait = new ArrayList<Future<DataSet>>( futures );
+			}
+			List<DataSet> results = new ArrayList<DataSet>( toWait.size() );
+			try
+			{
+				for( Future<DataSet> future : toWait )
+				{
+					results.add( DownloadScheduler.get( future ) );
+				}
+			}
+			catch( OsmTransferException e )
+			{
+				cancel();
+				throw e;
+			}
+			return results;
+		}
+
+
+
+
+		/**
+		 * Cancels all the downloads of this batch
+		 */
+		public void cancel()
+		{
+			List<OsmServerReader> toCancel;
+			synchronized( this )
+			{
+				for( Future<DataSet> future : futures )
+				{
+					future.cancel( false );
+				}
+				toCancel = new ArrayList<OsmServerReader>( readers );
+			}
+			for( OsmServerReader reader : toCancel )
+			{
+				if( !reader.isCanceled() )
+				{
+					reader.cancel();
+				}
+			}
+		}
+	}
+
+
+
+	private final int	                         threadCount;
+
+
+	private final ExecutorService	             executor;
+
+
+	/** the readers waiting for a worker */
+	private final BlockingQueue<Runnable>	     queue	= new LinkedBlockingQueue<Runnable>();
+
+
+	/** schedules the retries: it never runs a download itself */
+	private final ScheduledExecutorService	     timer;
+
+
+	private final RetryPolicy	                 retryPolicy;
+
+
+
+
+	/**
+	 * Replies the scheduler shared by all the readers of a run
+	 *
+	 * @return the shared scheduler
+	 */
+	public static synchronized DownloadScheduler getInstance()
+	{
+		if( instance == null )
+		{
+			instance = new DownloadScheduler( Integer.getInteger(
+			        "osm-server.download-threads",
+			        OsmApi.MAX_DOWNLOAD_THREADS ) );
+		}
+		return instance;
+	}
+
+
+
+
+	/**
+	 * Creates a new scheduler
+	 *
+	 * @param threadCount
+	 *            the number of worker threads. > 0 expected
+	 * @throws IllegalArgumentException
+	 *             thrown if threadCount <= 0
+	 */
+	public DownloadScheduler( int threadCount )
+	{
+		this( threadCount, RetryPolicy.getInstance() );
+	}
+
+
+
+
+	/**
+	 * Creates a new scheduler
+	 *
+	 * @param threadCount
+	 *            the number of worker threads. > 0 expected
+	 * @param retryPolicy
+	 *            the policy of the retries. Must not be null.
+	 * @throws IllegalArgumentException
+	 *             thrown if threadCount <= 0
+	 */
+	public DownloadScheduler( int threadCount, RetryPolicy retryPolicy )
+	{
+		CheckParameterUtil.ensureParameterNotNull( retryPolicy, "retryPolicy" );
+		if( threadCount <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.",
+		            "threadCount", threadCount ) );
+		this.threadCount = threadCount;
+		this.retryPolicy = retryPolicy;
+		this.timer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+		{
+			@Override
+			public Thread newThread( Runnable r )
+			{
+				Thread t = new Thread( r, "download-retries" );
+				t.setDaemon( true );
+				return t;
+			}
+		} );
+		this.executor = new ThreadPoolExecutor( threadCount, threadCount, 0,
+		        TimeUnit.MILLISECONDS, queue, new ThreadFactory()
+		        {
+			        private final AtomicInteger	count	= new AtomicInteger();
+
+
+
+
+			        @Override
+			        public Thread newThread( final Runnable r )
+			        {
+				        Thread t = new Thread( new Runnable()
+				        {
+					        @Override
+					        public void run()
+					        {
+						        WORKER.set( DownloadScheduler.this );
+						        r.run();
+					        }
+				        }, "download-" + count.incrementAndGet() );
+				        // don't prevent the end of the program
+				        t.setDaemon( true );
+				        return t;
+			        }
+		        } );
+	}
+
+
+
+
+	/**
+	 * Replies true if the current thread is a worker thread of a scheduler
+	 *
+	 * @return true if the current thread is a worker thread
+	 */
+	public static boolean isWorkerThread()
+	{
+		return WORKER.get() != null;
+	}
+
+
+
+
+	/**
+	 * Creates a new, empty, batch of downloads
+	 *
+	 * @return the batch
+	 */
+	public Batch newBatch()
+	{
+		return new Batch();
+	}
+
+
+
+
+	/**
+	 * Submits a reader to the scheduler
+	 *
+	 * @param reader
+	 *            the reader. Must not be null.
+	 * @return the future of the data downloaded by
+	 *         {@link OsmServerReader#parseOsm(org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor)}
+	 */
+	public Future<DataSet> submit( OsmServerReader reader )
+	{
+		CheckParameterUtil.ensureParameterNotNull( reader, "reader" );
+		Download download = new Download( reader );
+		executor.execute( download );
+		return download;
+	}
+
+
+
+
+	/**
+	 * Runs the queued readers in the current worker thread until a download
+	 * is done
+	 */
+	private void helpUntilDone( Future<DataSet> future )
+	        throws InterruptedException
+	{
+		while( !future.isDone() )
+		{
+			Runnable download = queue.poll();
+			if( download != null )
+			{
+				download.run();
+				continue;
+			}
+			try
+			{
+				future.get( HELP_POLL, TimeUnit.MILLISECONDS );
+			}
+			catch( TimeoutException e )
+			{
+				// a retry may have been queued meanwhile
+			}
+			catch( CancellationException e )
+			{
+				return;
+			}
+			catch( ExecutionException e )
+			{
+				return;
+			}
+		}
+	}
+
+
+
+
+	/**
+	 * Waits for a download. A worker thread runs the queued readers
+	 * meanwhile.
+	 *
+	 * @param future
+	 *            the future, as replied by {@link #submit(OsmServerReader)}
+	 * @return the downloaded data; null, if the download was canceled
+	 * @throws OsmTransferException
+	 *             thrown if the download failed, or if the thread was
+	 *             interrupted
+	 */
+	public static DataSet get( Future<DataSet> future )
+	        throws OsmTransferException
+	{
+		try
+		{
+			DownloadScheduler scheduler = WORKER.get();
+			if( scheduler != null ) scheduler.helpUntilDone( future );
+			return future.get();
+		}
+		catch( CancellationException e )
+		{
+			return null;
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new OsmTransferCanceledException();
+		}
+		catch( ExecutionException e )
+		{
+			Throwable cause = e.getCause();
+			if( cause instanceof OsmTransferException )
+			    throw ( OsmTransferException ) cause;
+			if( cause instanceof RuntimeException )
+			    throw ( RuntimeException ) cause;
+			throw new OsmTransferException( cause );
+		}
+	}
+
+
+
+
+	public int getThreadCount()
+	{
+		return threadCount;
+	}
+
+
+
+
+	/**
+	 * Stops the worker threads once the submitted downloads are done
+	 */
+	public void shutdown()
+	{
+		timer.shutdown();
+		executor.shutdown();
+	}
+}
@@ -0,0 +1,283 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.RelationMemberData;
+import org.windu2b.osm.check_transport_relations.data.osm.Tag;
+import org.windu2b.osm.check_transport_relations.data.osm.TagCollection;
+import org.windu2b.osm.check_transport_relations.gui.progress.NullProgressMonitor;
+import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+import org.windu2b.osm.check_transport_relations.tools.LongHashMap;
+
+/**
+ * Reads only the relations of an extract selected by their tags, with their
+ * members and the nodes of their ways: the other primitives are never
+ * allocated.
+ *
+ * The extract is read three times, since the relations come after the ways,
+ * and the ways after the nodes : first the relations, then the ways which are
+ * members of the kept relations, then the nodes which are members of the kept
+ * relations or nodes of the kept ways. The member relations which aren't
+ * selected by their own tags are incomplete.
+ */
+public class FilteredReader
+{
+	private FilteredReader()
+	{
+		// Hide default constructor for utils classes
+	}
+
+
+
+
+	/**
+	 * Replies the tags of the relations needed by the checks : the routes, the
+	 * route_master and the public_transport relations
+	 *
+	 * @return the tags
+	 */
+	public static TagCollection getPublicTransportTags()
+	{
+		return new TagCollection( new Tag[] { new Tag( "type", "route" ),
+		        new Tag( "type", "route_master" ),
+		        new Tag( "type", "public_transport" ),
+		        new Tag( "public_transport" ) } );
+	}
+
+
+
+
+	/**
+	 * Parses tags, i.e. <code>type=route|route_master,public_transport</code>
+	 * : the tags are separated by ',', the values of a key by '|', and a key
+	 * without value matches any value
+	 *
+	 * @param tags
+	 *            the tags. Must not be null.
+	 * @return the tags
+	 * @throws IllegalArgumentException
+	 *             thrown if tags is null, or if a key is empty
+	 */
+	public static TagCollection parseTags( String tags )
+	{
+		CheckParameterUtil.ensureParameterNotNull( tags, "tags" );
+		TagCollection result = new TagCollection();
+		for( String tag : tags.split( "," ) )
+		{
+			int equal = tag.indexOf( '=' );
+			String key = ( equal < 0 ? tag : tag.substring( 0, equal ) ).trim();
+			if( key.isEmpty() )
+			    throw new IllegalArgumentException( tr(
+			            "Illegal tag ''{0}'' in ''{1}''.", tag, tags ) );
+			if( equal < 0 )
+			{
+				result.add( new Tag( key ) );
+				continue;
+			}
+			for( String value : tag.substring( equal + 1 ).split( "\\|" ) )
+			{
+				result.add( new Tag( key, value.trim() ) );
+			}
+		}
+		return result;
+	}
+
+
+
+
+	/**
+	 * Reads the relations of an extract which have one of some tags
+	 *
+	 * @param file
+	 *            the extract, see {@link OsmFileReader}. Must not be null.
+	 * @param tags
+	 *            the tags of the relations, i.e.
+	 *            {@link #getPublicTransportTags()}. Must not be null.
+	 * @param progressMonitor
+	 *            the progress monitor. If null,
+	 *            {@link NullProgressMonitor#INSTANCE} is assumed
+	 * @return the dataset
+	 * @throws IllegalDataException
+	 *             thrown if the file can't be read or parsed
+	 */
+	public static DataSet parseDataSet( File file, TagCollection tags,
+	        ProgressMonitor progressMonitor ) throws IllegalDataException
+	{
+		CheckParameterUtil.ensureParameterNotNull( file, "file" );
+		CheckParameterUtil.ensureParameterNotNull( tags, "tags" );
+		if( progressMonitor == null )
+		{
+			progressMonitor = NullProgressMonitor.INSTANCE;
+		}
+		boolean pbf = file.getName().toLowerCase().endsWith( ".pbf" );
+		AbstractReader reader = pbf ? new PbfReader() : new OsmReader();
+		// the XML files set their own version
+		reader.ds.setVersion( "0.6" );
+		Passes passes = new Passes( tags );
+		reader.setFilter( passes );
+		try
+		{
+			progressMonitor.beginTask( tr( "Prepare OSM data...", 4 ) );
+			progressMonitor
+			        .indeterminateSubTask( tr( "Parsing OSM relations..." ) );
+			passes.type = OsmPrimitiveType.RELATION;
+			parse( reader, file );
+			progressMonitor.worked( 1 );
+
+			progressMonitor.indeterminateSubTask( tr( "Parsing OSM ways..." ) );
+			passes.type = OsmPrimitiveType.WAY;
+			parse( reader, file );
+			for( long[] nodeIds : reader.ways.values() )
+			{
+				for( long id : nodeIds )
+				{
+					passes.nodes.put( id, Boolean.TRUE );
+				}
+			}
+			progressMonitor.worked( 1 );
+
+			progressMonitor.indeterminateSubTask( tr( "Parsing OSM nodes..." ) );
+			passes.type = OsmPrimitiveType.NODE;
+			parse( reader, file );
+			progressMonitor.worked( 1 );
+
+			progressMonitor
+			        .indeterminateSubTask( tr( "Preparing data set..." ) );
+			reader.prepareDataSet();
+			progressMonitor.worked( 1 );
+			return reader.getDataSet();
+		}
+		catch( IOException e )
+		{
+			throw new IllegalDataException( tr( "Failed to read the file {0}",
+			        file ), e );
+		}
+		catch( XMLStreamException e )
+		{
+			throw new IllegalDataException( e.getMessage(), e );
+		}
+		finally
+		{
+			if( pbf ) ( ( PbfReader ) reader ).end();
+			progressMonitor.finishTask();
+		}
+	}
+
+
+
+
+	/**
+	 * Reads the whole file once
+	 */
+	private static void parse( AbstractReader reader, File file )
+	        throws IOException, XMLStreamException, IllegalDataException
+	{
+		InputStream in = OsmFileReader.getInputStream( file );
+		try
+		{
+			if( reader instanceof PbfReader )
+				( ( PbfReader ) reader ).parse( in );
+			else
+			{
+				OsmReader osmReader = ( OsmReader ) reader;
+				osmReader.setParser( XMLInputFactory.newInstance()
+				        .createXMLStreamReader(
+				                UTFInputStreamReader.create( in, "UTF-8" ) ) );
+				osmReader.parse();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+
+
+
+	/**
+	 * Keeps the primitives of a type in each pass
+	 */
+	private static class Passes implements PrimitiveFilter
+	{
+		private final TagCollection	           tags;
+
+
+		/** the type of the primitives read by the current pass */
+		private OsmPrimitiveType	           type;
+
+
+		/** the ways to keep, and the nodes to keep */
+		private final LongHashMap<Boolean>	ways	= new LongHashMap<Boolean>();
+
+
+		private final LongHashMap<Boolean>	nodes	= new LongHashMap<Boolean>();
+
+
+
+
+		public Passes( TagCollection tags )
+		{
+			this.tags = tags;
+		}
+
+
+
+
+		@Override
+		public boolean acceptsType( OsmPrimitiveType type )
+		{
+			return type == this.type;
+		}
+
+
+
+
+		@Override
+		public boolean accepts( OsmPrimitiveType type, long id )
+		{
+			return ( type == OsmPrimitiveType.WAY ? ways : nodes )
+			        .containsKey( id );
+		}
+
+
+
+
+		@Override
+		public boolean accepts( Relation r,
+		        Collection<RelationMemberData> members )
+		{
+			boolean selected = false;
+			for( Tag tag : tags )
+			{
+				if( r.isThisKind( tag ) )
+				{
+					selected = true;
+					break;
+				}
+			}
+			if( !selected ) return false;
+			for( RelationMemberData rm : members )
+			{
+				if( rm.getMemberType() == OsmPrimitiveType.WAY )
+					ways.put( rm.getMemberId(), Boolean.TRUE );
+				else if( rm.getMemberType() == OsmPrimitiveType.NODE )
+				    nodes.put( rm.getMemberId(), Boolean.TRUE );
+			}
+			return true;
+		}
+	}
+}
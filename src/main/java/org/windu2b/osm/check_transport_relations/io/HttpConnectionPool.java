@@ -0,0 +1,619 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * Pool of persistent HTTP connections to the OSM servers.
+ *
+ * The sockets themselves are kept by the keep-alive cache of the JDK, which
+ * is enabled when this class is loaded. The pool adds what the JDK is
+ * missing:
+ * <ul>
+ * <li>a limit on the number of connections opened at the same time to a host,
+ * set by the property <code>osm-server.max-connections-per-host</code>;</li>
+ * <li>the draining of the response bodies when they are closed: the JDK only
+ * reuses a connection whose response was read to the end;</li>
+ * <li>the count of the connections opened and reused.</li>
+ * </ul>
+ *
+ * The HTTPS connections are counted exactly: their sockets are created by a
+ * counting {@link SSLSocketFactory}, and a request which creates none reuses
+ * a socket of the keep-alive cache. The JDK has no such hook for plain HTTP:
+ * those connections are only estimated from the idle connections of each
+ * host, evicted after <code>osm-server.connection-idle-timeout</code>
+ * milliseconds or after the timeout given by the server in its
+ * <code>Keep-Alive</code> header. The estimate counts a reuse even if the
+ * server closed the socket, or if the JDK dropped it past
+ * <code>http.maxConnections</code>.
+ *
+ * A connection got with {@link #open(URL)} must be given back, either by
+ * closing the stream returned by {@link #getInputStream(HttpURLConnection)}
+ * or by calling {@link #release(HttpURLConnection, boolean)}.
+ *
+ */
+public class HttpConnectionPool
+{
+	/**
+	 * Default maximum number of connections opened at the same time to a host
+	 */
+	static public final int	                DEFAULT_MAX_CONNECTIONS_PER_HOST	= OsmApi.MAX_DOWNLOAD_THREADS;
+
+
+	/**
+	 * Default time, in milliseconds, an idle connection is kept. This is the
+	 * default of the JDK keep-alive cache.
+	 */
+	static public final long	            DEFAULT_IDLE_TIMEOUT	         = 5000;
+
+
+	/**
+	 * Maximum number of bytes read to drain a response body. If more is left,
+	 * the connection is closed instead.
+	 */
+	static public final int	                MAX_DRAIN_LENGTH	             = 64 * 1024;
+
+
+	private static final Pattern	        KEEP_ALIVE_TIMEOUT	             = Pattern
+	                                                                             .compile( "timeout\\s*=\\s*(\\d+)" );
+
+
+	// The pool shared by all the connections of a run
+	private static HttpConnectionPool	    instance;
+
+
+	static
+	{
+		System.setProperty( "http.keepAlive", "true" );
+		if( System.getProperty( "http.maxConnections" ) == null )
+		{
+			System.setProperty( "http.maxConnections", Integer
+			        .toString( getMaxConnectionsPerHostProperty() ) );
+		}
+	}
+
+
+
+	private static class Host
+	{
+		private final Semaphore		   permits;
+
+
+		/** the expiry dates of the idle connections, oldest first */
+		private final LinkedList<Long>	idle	= new LinkedList<Long>();
+
+
+
+
+		private Host( int maxConnections )
+		{
+			permits = new Semaphore( maxConnections, true );
+		}
+	}
+
+
+
+	/**
+	 * Response body of a pooled connection. Closing it drains the rest of the
+	 * body and gives the connection back to the pool.
+	 */
+	private class PooledInputStream extends FilterInputStream
+	{
+		private final HttpURLConnection	connection;
+
+
+		private boolean		            closed;
+
+
+
+
+		private PooledInputStream( HttpURLConnection connection, InputStream in )
+		{
+			super( in );
+			this.connection = connection;
+		}
+
+
+
+
+		@Override
+		public void close() throws IOException
+		{
+			if( closed ) return;
+			closed = true;
+			boolean reusable = false;
+			try
+			{
+				reusable = drain( in );
+				in.close();
+			}
+			finally
+			{
+				release( connection, reusable );
+			}
+		}
+	}
+
+
+
+	private final int	                    maxConnectionsPerHost;
+
+
+	private final long	                    idleTimeout;
+
+
+	private final Map<String, Host>	        hosts	                         = new HashMap<String, Host>();
+
+
+	/** the HTTPS requests */
+	private long	                        requests;
+
+
+	/** the sockets created for the HTTPS requests */
+	private final AtomicLong	            opened	                         = new AtomicLong();
+
+
+	/** the counting factory, and the factory it delegates to */
+	private SSLSocketFactory	            socketFactory;
+
+
+	private SSLSocketFactory	            socketFactoryDelegate;
+
+
+	/** the plain HTTP connections, estimated */
+	private long	                        estimatedReused;
+
+
+	private long	                        estimatedOpened;
+
+
+
+
+	/**
+	 * Replies the pool shared by all the connections of a run
+	 *
+	 * @return the shared pool
+	 */
+	public static synchronized HttpConnectionPool getInstance()
+	{
+		if( instance == null )
+		{
+			instance = new HttpConnectionPool(
+			        getMaxConnectionsPerHostProperty(), Long.getLong(
+			                "osm-server.connection-idle-timeout",
+			                DEFAULT_IDLE_TIMEOUT ) );
+		}
+		return instance;
+	}
+
+
+
+
+	private static int getMaxConnectionsPerHostProperty()
+	{
+		return Integer.getInteger( "osm-server.max-connections-per-host",
+		        DEFAULT_MAX_CONNECTIONS_PER_HOST );
+	}
+
+
+
+
+	/**
+	 * Creates a new pool
+	 *
+	 * @param maxConnectionsPerHost
+	 *            the maximum number of connections opened at the same time to
+	 *            a host. > 0 expected
+	 * @param idleTimeout
+	 *            the time, in milliseconds, an idle connection is kept. >= 0
+	 *            expected
+	 * @throws IllegalArgumentException
+	 *             thrown if maxConnectionsPerHost <= 0 or idleTimeout < 0
+	 */
+	public HttpConnectionPool( int maxConnectionsPerHost, long idleTimeout )
+	{
+		if( maxConnectionsPerHost <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.",
+		            "maxConnectionsPerHost", maxConnectionsPerHost ) );
+		if( idleTimeout < 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' >= 0 expected. Got ''{1}''.",
+		            "idleTimeout", idleTimeout ) );
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.idleTimeout = idleTimeout;
+	}
+
+
+
+
+	private static String key( URL url )
+	{
+		int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+		return url.getProtocol() + "://" + url.getHost() + ":" + port;
+	}
+
+
+
+
+	private synchronized Host getHost( URL url )
+	{
+		String k = key( url );
+		Host host = hosts.get( k );
+		if( host == null )
+		{
+			host = new Host( maxConnectionsPerHost );
+			hosts.put( k, host );
+		}
+		return host;
+	}
+
+
+
+
+	/**
+	 * Removes the idle connections of a host which are expired
+	 */
+	private static void evictIdle( Host host, long now )
+	{
+		Iterator<Long> it = host.idle.iterator();
+		while( it.hasNext() )
+		{
+			if( it.next() <= now )
+			{
+				it.remove();
+			}
+		}
+	}
+
+
+
+
+	/**
+	 * Opens a connection to an URL. Blocks while the maximum number of
+	 * connections to the host is reached.
+	 *
+	 * @param url
+	 *            the URL. Must not be null.
+	 * @return the connection, not connected yet
+	 * @throws IOException
+	 *             thrown if the connection can't be opened, or if the thread
+	 *             is interrupted while waiting for a connection
+	 */
+	public HttpURLConnection open( URL url ) throws IOException
+	{
+		CheckParameterUtil.ensureParameterNotNull( url, "url" );
+		Host host = getHost( url );
+		try
+		{
+			host.permits.acquire();
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( tr(
+			        "Interrupted while waiting for a connection to {0}",
+			        key( url ) ) );
+		}
+		try
+		{
+			HttpURLConnection connection = ( HttpURLConnection ) url
+			        .openConnection();
+			synchronized( this )
+			{
+				if( connection instanceof HttpsURLConnection )
+				{
+					HttpsURLConnection https = ( HttpsURLConnection ) connection;
+					https.setSSLSocketFactory( getSocketFactory( https
+					        .getSSLSocketFactory() ) );
+					requests++;
+					return connection;
+				}
+				evictIdle( host, System.currentTimeMillis() );
+				if( host.idle.isEmpty() )
+				{
+					estimatedOpened++;
+				}
+				else
+				{
+					host.idle.removeLast();
+					estimatedReused++;
+				}
+			}
+			return connection;
+		}
+		catch( IOException e )
+		{
+			host.permits.release();
+			throw e;
+		}
+		catch( RuntimeException e )
+		{
+			host.permits.release();
+			throw e;
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the counting factory wrapping a factory. The same instance is
+	 * replied as long as the factory doesn't change: the keep-alive cache of
+	 * the JDK only reuses a socket for the factory which created it.
+	 */
+	private SSLSocketFactory getSocketFactory( SSLSocketFactory delegate )
+	{
+		if( delegate instanceof CountingSocketFactory ) return delegate;
+		if( socketFactory == null || socketFactoryDelegate != delegate )
+		{
+			socketFactoryDelegate = delegate;
+			socketFactory = new CountingSocketFactory( delegate, opened );
+		}
+		return socketFactory;
+	}
+
+
+
+
+	/**
+	 * Replies the response body of a connection. Closing it gives the
+	 * connection back to the pool.
+	 *
+	 * @param connection
+	 *            the connection, opened with {@link #open(URL)}
+	 * @param in
+	 *            the response body, as read from the connection
+	 * @return the response body to use
+	 */
+	public InputStream getInputStream( HttpURLConnection connection,
+	        InputStream in )
+	{
+		return new PooledInputStream( connection, in );
+	}
+
+
+
+
+	/**
+	 * Replies the response body of a connection. Closing it gives the
+	 * connection back to the pool.
+	 *
+	 * @param connection
+	 *            the connection, opened with {@link #open(URL)}
+	 * @return the response body
+	 * @throws IOException
+	 *             thrown if the response body can't be read
+	 */
+	public InputStream getInputStream( HttpURLConnection connection )
+	        throws IOException
+	{
+		return getInputStream( connection, connection.getInputStream() );
+	}
+
+
+
+
+	/**
+	 * Gives a connection back to the pool
+	 *
+	 * @param connection
+	 *            the connection, opened with {@link #open(URL)}
+	 * @param reusable
+	 *            true, if the response was read to the end and the connection
+	 *            can be used for another request; false, to close it
+	 */
+	public void release( HttpURLConnection connection, boolean reusable )
+	{
+		Host host = getHost( connection.getURL() );
+		try
+		{
+			if( reusable && isKeepAlive( connection ) )
+			{
+				long now = System.currentTimeMillis();
+				synchronized( this )
+				{
+					evictIdle( host, now );
+					if( host.idle.size() < maxConnectionsPerHost )
+					{
+						host.idle.addLast( now + getKeepAliveTimeout( connection ) );
+					}
+				}
+			}
+			else
+			{
+				connection.disconnect();
+			}
+		}
+		finally
+		{
+			host.permits.release();
+		}
+	}
+
+
+
+
+	private static boolean isKeepAlive( HttpURLConnection connection )
+	{
+		String header = connection.getHeaderField( "Connection" );
+		return header == null || !header.trim().equalsIgnoreCase( "close" );
+	}
+
+
+
+
+	/**
+	 * Replies the time an idle connection is kept, i.e. the timeout of the
+	 * <code>Keep-Alive</code> header if it is shorter than the idle timeout
+	 * of the pool.
+	 */
+	private long getKeepAliveTimeout( HttpURLConnection connection )
+	{
+		String header = connection.getHeaderField( "Keep-Alive" );
+		if( header != null )
+		{
+			Matcher m = KEEP_ALIVE_TIMEOUT.matcher( header );
+			if( m.find() )
+			{
+				try
+				{
+					return Math.min( idleTimeout,
+					        Long.parseLong( m.group( 1 ) ) * 1000 );
+				}
+				catch( NumberFormatException e )
+				{
+					// ignore the header
+				}
+			}
+		}
+		return idleTimeout;
+	}
+
+
+
+
+	/**
+	 * Reads the rest of a response body, so that the connection can be
+	 * reused.
+	 *
+	 * @param in
+	 *            the response body
+	 * @return true, if the end of the body was reached
+	 */
+	private static boolean drain( InputStream in )
+	{
+		byte[] buffer = new byte[4096];
+		int length = 0;
+		try
+		{
+			int read;
+			while( ( read = in.read( buffer ) ) != -1 )
+			{
+				length += read;
+				if( length > MAX_DRAIN_LENGTH ) return false;
+			}
+			return true;
+		}
+		catch( IOException e )
+		{
+			return false;
+		}
+	}
+
+
+
+
+	public int getMaxConnectionsPerHost()
+	{
+		return maxConnectionsPerHost;
+	}
+
+
+
+
+	public long getIdleTimeout()
+	{
+		return idleTimeout;
+	}
+
+
+
+
+	/**
+	 * Replies the number of idle connections to the host of an URL
+	 *
+	 * @param url
+	 *            the URL. Must not be null.
+	 * @return the number of idle connections
+	 */
+	public synchronized int getIdleCount( URL url )
+	{
+		CheckParameterUtil.ensureParameterNotNull( url, "url" );
+		Host host = hosts.get( key( url ) );
+		if( host == null ) return 0;
+		evictIdle( host, System.currentTimeMillis() );
+		return host.idle.size();
+	}
+
+
+
+
+	/**
+	 * @return the number of HTTPS requests which reused a socket
+	 */
+	public synchronized long getReused()
+	{
+		return Math.max( 0, requests - opened.get() );
+	}
+
+
+
+
+	/**
+	 * @return the number of sockets created for the HTTPS requests
+	 */
+	public long getOpened()
+	{
+		return opened.get();
+	}
+
+
+
+
+	/**
+	 * @return the estimated number of plain HTTP requests which reused a
+	 *         connection
+	 */
+	public synchronized long getEstimatedReused()
+	{
+		return estimatedReused;
+	}
+
+
+
+
+	/**
+	 * @return the estimated number of plain HTTP connections opened
+	 */
+	public synchronized long getEstimatedOpened()
+	{
+		return estimatedOpened;
+	}
+
+
+
+
+	@Override
+	public synchronized String toString()
+	{
+		String https = tr( "HTTPS connections : {0} opened, {1} reused",
+		        getOpened(), getReused() );
+		if( estimatedOpened + estimatedReused == 0 ) return https;
+		String http = tr(
+		        "HTTP connections : about {0} opened, {1} reused (estimated)",
+		        estimatedOpened, estimatedReused );
+		if( requests == 0 ) return http;
+		return https + "; " + http;
+	}
+}
@@ -3,13 +3,13 @@ package org.windu2b.osm.check_transport_relations.io;
 
 import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
@@ -197,22 +197,32 @@ public class OsmApi extends OsmConnection
 
 
 
-	private void sleepAndListen( int retry )
+	/**
+	 * Waits before a retry, as long as the request isn't canceled
+	 * 
+	 * @param delay
+	 *            the delay in milliseconds, as replied by the
+	 *            {@link RetryPolicy}
+	 */
+	private void sleepAndListen( long delay )
 	        throws OsmTransferCanceledException
 	{
-		System.out.print( tr( "Waiting 10 seconds ... " ) );
-		for ( int i = 0; i < 10; i++ )
+		long end = System.currentTimeMillis() + delay;
+		for ( long left = delay; left > 0; left = end
+		        - System.currentTimeMillis() )
 		{
 			if ( cancel ) throw new OsmTransferCanceledException();
 			try
 			{
-				Thread.sleep( 1000 );
+				Thread.sleep( Math.min( left, 100 ) );
 			}
 			catch ( InterruptedException ex )
 			{
+				Thread.currentThread().interrupt();
+				throw new OsmTransferCanceledException();
 			}
 		}
-		System.out.println( tr( "OK - trying again." ) );
+		if ( cancel ) throw new OsmTransferCanceledException();
 	}
 
 
@@ -225,7 +235,7 @@ public class OsmApi extends OsmConnection
 	 */
 	protected int getMaxRetries()
 	{
-		return Math.max( DEFAULT_MAX_NUM_RETRIES, 0 );
+		return RetryPolicy.getInstance().getMaxRetries();
 	}
 
 
@@ -239,12 +249,88 @@ public class OsmApi extends OsmConnection
 
 
 
+	/**
+	 * Consumes the body of a successful response, while it is downloaded
+	 * 
+	 * @param <T>
+	 *            the type of the result
+	 */
+	public interface ResponseHandler<T>
+	{
+		/**
+		 * Reads the body of a "200 OK" response
+		 * 
+		 * @param in
+		 *            the decompressed body. It is closed by the caller.
+		 * @return the result of the request
+		 * @throws IOException
+		 *             thrown if the body can't be read
+		 * @throws IllegalDataException
+		 *             thrown if the body can't be parsed
+		 */
+		T handle( InputStream in ) throws IOException, IllegalDataException;
+	}
+
+
+
+
+	/**
+	 * Generic method for sending requests to the OSM API, replying the body of
+	 * the response as a String.
+	 * 
+	 * @see #sendRequest(String, String, String, boolean, ResponseHandler)
+	 */
+	private String sendRequest( String requestMethod, String urlSuffix,
+	        String requestBody, boolean fastFail ) throws OsmTransferException
+	{
+		return sendRequest( requestMethod, urlSuffix, requestBody, fastFail,
+		        new ResponseHandler<String>()
+		        {
+			        @Override
+			        public String handle( InputStream in ) throws IOException
+			        {
+				        return readString( in );
+			        }
+		        } );
+	}
+
+
+
+
+	/**
+	 * Reads a whole response body, keeping its line terminators
+	 */
+	private static String readString( InputStream in ) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		Reader reader = new InputStreamReader( in, "UTF-8" );
+		char[] buffer = new char[4096];
+		int n;
+		while ( ( n = reader.read( buffer ) ) != -1 )
+		{
+			sb.append( buffer, 0, n );
+		}
+		return sb.toString();
+	}
+
+
+
+
 	/**
 	 * Generic method for sending requests to the OSM API.
 	 * 
 	 * This method will automatically re-try any requests that are answered with
-	 * a 5xx error code, or that resulted in a timeout exception from the TCP
-	 * layer.
+	 * a 5xx error code or a throttling response, or that resulted in a timeout
+	 * exception from the TCP layer, after the delays given by the
+	 * {@link RetryPolicy}. The connection goes back to the pool before the
+	 * wait. In a worker thread of the {@link DownloadScheduler}, the request
+	 * fails at once instead: the scheduler retries it on its timer, so that
+	 * the worker doesn't wait.
+	 * 
+	 * The body of a "200 OK" response is handed, decompressed, to
+	 * <code>handler</code> while it is downloaded: it is never buffered as a
+	 * whole. The connection goes back to the pool once the handler has read the
+	 * body to its end.
 	 * 
 	 * @param requestMethod
 	 *            The http method used when talking with the server.
@@ -256,35 +342,47 @@ public class OsmApi extends OsmConnection
 	 *            the body of the HTTP request, if any.
 	 * @param fastFail
 	 *            true to request a short timeout
+	 * @param handler
+	 *            reads the body of the response. Must not be null.
 	 * 
-	 * @return the body of the HTTP response, if and only if the response code
-	 *         was "200 OK".
+	 * @return the result of the handler, if and only if the response code was
+	 *         "200 OK".
 	 * @throws OsmTransferException
 	 *             if the HTTP return code was not 200 (and retries have been
-	 *             exhausted), or rewrapping a Java exception.
+	 *             exhausted), if the handler failed to parse the body, or
+	 *             rewrapping a Java exception.
 	 */
-	private String sendRequest( String requestMethod, String urlSuffix,
-	        String requestBody, boolean fastFail ) throws OsmTransferException
+	protected <T> T sendRequest( String requestMethod, String urlSuffix,
+	        String requestBody, boolean fastFail, ResponseHandler<T> handler )
+	        throws OsmTransferException
 	{
-		StringBuffer responseBody = new StringBuffer();
-		int retries = fastFail ? 0 : getMaxRetries();
-
+		CheckParameterUtil.ensureParameterNotNull( handler, "handler" );
+		RetryPolicy retryPolicy = RetryPolicy.getInstance();
+		int attempt = 0;
+		// the scheduler retries the readers run by its workers
+		boolean retried = !fastFail && !DownloadScheduler.isWorkerThread();
+		long delay = -1;
+
+		HttpConnectionPool pool = HttpConnectionPool.getInstance();
 		while ( true )
 		{ // the retry loop
+			// the connection of the failed attempt is already given back
+			if ( delay >= 0 ) sleepAndListen( delay );
+			HttpURLConnection connection = null;
+			boolean reusable = false;
 			try
 			{
 				URL url = new URL( new URL( getBaseUrl() ), urlSuffix );
+				RateLimiter.getInstance().acquire();
 				System.out.print( requestMethod + " " + url + "... " );
-				activeConnection = ( HttpURLConnection ) url.openConnection();
-				// fix #5369, see
-				// http://www.tikalk.com/java/forums/httpurlconnection-disable-keep-alive
-				activeConnection.setRequestProperty( "Connection", "close" );
+				activeConnection = connection = pool.open( url );
 				activeConnection.setConnectTimeout( fastFail ? 1000 : 15000 );
 				if ( fastFail )
 				{
 					activeConnection.setReadTimeout( 1000 );
 				}
 				activeConnection.setRequestMethod( requestMethod );
+				setAcceptEncoding( activeConnection );
 
 				if ( requestMethod.equals( "PUT" )
 				        || requestMethod.equals( "POST" )
@@ -319,20 +417,36 @@ public class OsmApi extends OsmConnection
 				System.out.println( activeConnection.getResponseMessage() );
 				int retCode = activeConnection.getResponseCode();
 
-				if ( retCode >= 500 )
+				String retryAfter = activeConnection
+				        .getHeaderField( "Retry-After" );
+				if ( retried
+				        && ( retCode >= 500 || retCode == RetryPolicy.HTTP_TOO_MANY_REQUESTS ) )
 				{
-					if ( retries-- > 0 )
+					OsmApiException e = new OsmApiException( retCode, null,
+					        null );
+					e.setRetryAfter( retryAfter );
+					delay = retryPolicy.nextDelay( attempt++, e );
+					// released by the finally block, then waited for
+					if ( delay >= 0 ) continue;
+				}
+
+				if ( retCode == HttpURLConnection.HTTP_OK )
+				{
+					// the pooled stream gives the connection back when closed
+					InputStream in = pool.getInputStream( connection,
+					        fixEncoding( activeConnection.getInputStream(),
+					                activeConnection.getContentEncoding() ) );
+					connection = null;
+					try
+					{
+						return handler.handle( in );
+					}
+					finally
 					{
-						sleepAndListen( retries );
-						System.out.println( tr( "Starting retry {0} of {1}.",
-						        getMaxRetries() - retries, getMaxRetries() ) );
-						continue;
+						in.close();
 					}
 				}
 
-				// populate return fields.
-				responseBody.setLength( 0 );
-
 				// If the API returned an error code like 403 forbidden,
 				// getInputStream
 				// will fail with an IOException.
@@ -345,6 +459,7 @@ public class OsmApi extends OsmConnection
 				{
 					i = activeConnection.getErrorStream();
 				}
+				String responseBody = "";
 				if ( i != null )
 				{
 					// the input stream can be null if both the input and the
@@ -353,14 +468,12 @@ public class OsmApi extends OsmConnection
 					// a 401
 					// Unauthorized, see #3887.
 					//
-					BufferedReader in = new BufferedReader(
-					        new InputStreamReader( i ) );
-					String s;
-					while ( ( s = in.readLine() ) != null )
-					{
-						responseBody.append( s );
-						responseBody.append( "\n" );
-					}
+					InputStream in = fixEncoding( i,
+					        activeConnection.getContentEncoding() );
+					responseBody = readString( in );
+					in.close();
+					// the whole body was read, the connection can be reused
+					reusable = true;
 				}
 				String errorHeader = null;
 				// Look for a detailed error message from the server
@@ -369,19 +482,15 @@ public class OsmApi extends OsmConnection
 					errorHeader = activeConnection.getHeaderField( "Error" );
 					System.err.println( "Error header: " + errorHeader );
 				}
-				else if ( retCode != 200 && responseBody.length() > 0 )
+				else if ( responseBody.length() > 0 )
 				{
 					System.err.println( "Error body: " + responseBody );
 				}
-				activeConnection.disconnect();
-
 				errorHeader = errorHeader == null ? null : errorHeader.trim();
 				String errorBody = responseBody.length() == 0 ? null
-				        : responseBody.toString().trim();
+				        : responseBody.trim();
 				switch ( retCode )
 				{
-					case HttpURLConnection.HTTP_OK :
-						return responseBody.toString();
 					case HttpURLConnection.HTTP_GONE :
 						throw new OsmApiPrimitiveGoneException( errorHeader,
 						        errorBody );
@@ -391,28 +500,31 @@ public class OsmApi extends OsmConnection
 						e.setAccessedUrl( activeConnection.getURL().toString() );
 						throw e;
 					default :
-						throw new OsmApiException( retCode, errorHeader,
-						        errorBody );
+						OsmApiException error = new OsmApiException( retCode,
+						        errorHeader, errorBody );
+						// for the retry of the scheduler
+						error.setRetryAfter( retryAfter );
+						throw error;
 				}
 			}
+			catch ( IllegalDataException e )
+			{
+				throw new OsmTransferException( e );
+			}
 			catch ( UnknownHostException e )
 			{
 				throw new OsmTransferException( e );
 			}
 			catch ( SocketTimeoutException e )
 			{
-				if ( retries-- > 0 )
-				{
-					continue;
-				}
+				delay = retried ? retryPolicy.nextDelay( attempt++, e ) : -1;
+				if ( delay >= 0 ) continue;
 				throw new OsmTransferException( e );
 			}
 			catch ( ConnectException e )
 			{
-				if ( retries-- > 0 )
-				{
-					continue;
-				}
+				delay = retried ? retryPolicy.nextDelay( attempt++, e ) : -1;
+				if ( delay >= 0 ) continue;
 				throw new OsmTransferException( e );
 			}
 			catch ( IOException e )
@@ -427,6 +539,13 @@ public class OsmApi extends OsmConnection
 			{
 				throw e;
 			}
+			finally
+			{
+				if ( connection != null )
+				{
+					pool.release( connection, reusable );
+				}
+			}
 		}
 	}
 }
@@ -24,6 +24,9 @@ public class OsmApiException extends OsmTransferException
 	private String	accessedUrl;
 
 
+	private String	retryAfter;
+
+
 
 
 	/**
@@ -291,4 +294,33 @@ public class OsmApiException extends OsmTransferException
 	{
 		return accessedUrl;
 	}
+
+
+
+
+	/**
+	 * Sets the value of the {@code Retry-After} header of the response, if
+	 * any
+	 * 
+	 * @param retryAfter
+	 *            the value of the header. May be null.
+	 * @see RetryPolicy
+	 */
+	public void setRetryAfter( String retryAfter )
+	{
+		this.retryAfter = retryAfter;
+	}
+
+
+
+
+	/**
+	 * Replies the value of the {@code Retry-After} header of the response
+	 * 
+	 * @return the value of the header; null, if there is none
+	 */
+	public String getRetryAfter()
+	{
+		return retryAfter;
+	}
 }
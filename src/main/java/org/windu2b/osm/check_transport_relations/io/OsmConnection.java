@@ -1,8 +1,12 @@
 // License: GPL. Copyright 2007 by Immanuel Scholz and others
 package org.windu2b.osm.check_transport_relations.io;
 
-
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 
 /**
@@ -67,6 +71,56 @@ public class OsmConnection
 
 
 
+	/**
+	 * Asks the server for a compressed response, unless the property
+	 * <code>osm-server.use-compression</code> is false. Only gzip is
+	 * requested: the servers don't agree on the format of deflate.
+	 * 
+	 * @param connection
+	 *            the connection, not connected yet
+	 */
+	protected static void setAcceptEncoding( HttpURLConnection connection )
+	{
+		if ( Boolean.parseBoolean( System.getProperty(
+		        "osm-server.use-compression", "true" ) ) )
+		{
+			connection.setRequestProperty( "Accept-Encoding", "gzip" );
+		}
+	}
+
+
+
+
+	/**
+	 * Decompresses a response body according to its
+	 * <code>Content-Encoding</code>
+	 * 
+	 * @param stream
+	 *            the body. May be null.
+	 * @param encoding
+	 *            the content encoding of the response. May be null.
+	 * @return the decompressed body; null, if stream is null
+	 * @throws IOException
+	 *             thrown if the gzip header can't be read
+	 */
+	protected static InputStream fixEncoding( InputStream stream,
+	        String encoding ) throws IOException
+	{
+		if ( stream == null ) return null;
+		if ( encoding != null && encoding.equalsIgnoreCase( "gzip" ) )
+		{
+			stream = new GZIPInputStream( stream );
+		}
+		else if ( encoding != null && encoding.equalsIgnoreCase( "deflate" ) )
+		{
+			stream = new InflaterInputStream( stream, new Inflater( true ) );
+		}
+		return stream;
+	}
+
+
+
+
 	/**
 	 * Replies true if this connection is canceled
 	 * 
@@ -0,0 +1,169 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.TagCollection;
+import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * Reads a local OSM extract, i.e. to check the relations without any access
+ * to the server.
+ *
+ * The files can be plain (<code>.osm</code>), gzip (<code>.osm.gz</code>) or
+ * bzip2 (<code>.osm.bz2</code>) compressed XML files, or PBF files (
+ * <code>.osm.pbf</code>, see {@link PbfReader}). The large XML files are
+ * parsed on several threads, see {@link ParallelOsmReader}, the other ones
+ * are streamed to an {@link OsmReader}. The replied dataset is
+ * {@link DataSet#isLocalOnly() local only}: the referrers of its primitives
+ * are searched in it.
+ *
+ */
+public class OsmFileReader
+{
+	private OsmFileReader()
+	{
+		// Hide default constructor for utils classes
+	}
+
+
+
+
+	/**
+	 * Opens an extract, uncompressing it according to its extension
+	 *
+	 * @param file
+	 *            the extract. Must not be null.
+	 * @return the uncompressed content of the file
+	 * @throws IOException
+	 *             thrown if the file can't be opened
+	 */
+	public static InputStream getInputStream( File file ) throws IOException
+	{
+		CheckParameterUtil.ensureParameterNotNull( file, "file" );
+		InputStream in = new BufferedInputStream( new FileInputStream( file ),
+		        64 * 1024 );
+		try
+		{
+			String name = file.getName().toLowerCase();
+			if( name.endsWith( ".gz" ) ) return new GZIPInputStream( in, 64 * 1024 );
+			if( name.endsWith( ".bz2" ) ) return new BZip2InputStream( in );
+			return in;
+		}
+		catch( IOException e )
+		{
+			in.close();
+			throw e;
+		}
+	}
+
+
+
+
+	/**
+	 * Reads an extract
+	 *
+	 * @param file
+	 *            the extract. Must not be null.
+	 * @param progressMonitor
+	 *            the progress monitor. May be null.
+	 * @return the dataset, local only
+	 * @throws IllegalDataException
+	 *             thrown if the file can't be read or parsed
+	 */
+	public static DataSet parseDataSet( File file,
+	        ProgressMonitor progressMonitor ) throws IllegalDataException
+	{
+		return parseDataSet( file, null, progressMonitor );
+	}
+
+
+
+
+	/**
+	 * Reads an extract, keeping only some relations if tags are given, see
+	 * {@link FilteredReader}
+	 *
+	 * @param file
+	 *            the extract. Must not be null.
+	 * @param tags
+	 *            the tags of the relations to keep. If null, the whole extract
+	 *            is kept.
+	 * @param progressMonitor
+	 *            the progress monitor. May be null.
+	 * @return the dataset, local only
+	 * @throws IllegalDataException
+	 *             thrown if the file can't be read or parsed
+	 */
+	public static DataSet parseDataSet( File file, TagCollection tags,
+	        ProgressMonitor progressMonitor ) throws IllegalDataException
+	{
+		if( tags != null )
+		{
+			DataSet ds = FilteredReader.parseDataSet( file, tags,
+			        progressMonitor );
+			ds.setLocalOnly( true );
+			return ds;
+		}
+		InputStream in = null;
+		try
+		{
+			in = getInputStream( file );
+			String name = file.getName().toLowerCase();
+			DataSet ds;
+			if( name.endsWith( ".pbf" ) )
+				ds = PbfReader.parseDataSet( in, progressMonitor );
+			else if( isParallel( name, file.length() ) )
+				ds = ParallelOsmReader.parseDataSet( in, progressMonitor );
+			else ds = OsmReader.parseDataSet( in, progressMonitor );
+			ds.setLocalOnly( true );
+			return ds;
+		}
+		catch( IOException e )
+		{
+			throw new IllegalDataException( tr( "Failed to read the file {0}",
+			        file ), e );
+		}
+		finally
+		{
+			if( in != null )
+			{
+				try
+				{
+					in.close();
+				}
+				catch( IOException e )
+				{/* ignore this exception */
+				}
+			}
+		}
+	}
+
+
+
+
+	/**
+	 * Replies true if an XML extract is worth being read in memory to be
+	 * parsed on several threads, i.e. if there are several processors and if
+	 * the size of the plain file is between two chunks and
+	 * {@link ParallelOsmReader#MAX_SIZE}. The size of a compressed file isn't
+	 * known before it is read : {@link ParallelOsmReader} streams it itself
+	 * when it is too large.
+	 */
+	static boolean isParallel( String name, long length )
+	{
+		if( Runtime.getRuntime().availableProcessors() < 2 ) return false;
+		if( name.endsWith( ".gz" ) || name.endsWith( ".bz2" ) ) return true;
+		return length >= 2L * ParallelOsmReader.MIN_CHUNK_SIZE
+		        && length <= ParallelOsmReader.MAX_SIZE;
+	}
+}
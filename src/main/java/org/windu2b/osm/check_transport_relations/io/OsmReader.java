@@ -16,17 +16,14 @@ import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 
+import org.windu2b.osm.check_transport_relations.data.osm.Coordinates;
 import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
 import org.windu2b.osm.check_transport_relations.data.osm.Node;
-import org.windu2b.osm.check_transport_relations.data.osm.NodeData;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
-import org.windu2b.osm.check_transport_relations.data.osm.PrimitiveData;
 import org.windu2b.osm.check_transport_relations.data.osm.Relation;
-import org.windu2b.osm.check_transport_relations.data.osm.RelationData;
 import org.windu2b.osm.check_transport_relations.data.osm.RelationMemberData;
 import org.windu2b.osm.check_transport_relations.data.osm.Tagged;
 import org.windu2b.osm.check_transport_relations.data.osm.Way;
-import org.windu2b.osm.check_transport_relations.data.osm.WayData;
 import org.windu2b.osm.check_transport_relations.gui.progress.NullProgressMonitor;
 import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
 import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
@@ -46,6 +43,20 @@ public class OsmReader extends AbstractReader
 	protected XMLStreamReader	                        parser;
 
 
+	/**
+	 * The common attributes of the element being parsed, see
+	 * {@link #readCommon()}
+	 */
+	private long	                                    id;
+
+
+	private int	                                        version;
+
+
+	/** in seconds since the epoch */
+	private int	                                        timestamp;
+
+
 
 
 	/**
@@ -151,6 +162,12 @@ public class OsmReader extends AbstractReader
 				{
 					parseRelation();
 				}
+				else if ( parser.getLocalName().equals( "note" )
+				        || parser.getLocalName().equals( "meta" ) )
+				{
+					// header of the Overpass responses
+					parseUnknown( false );
+				}
 				else
 				{
 					parseUnknown();
@@ -165,11 +182,12 @@ public class OsmReader extends AbstractReader
 
 	protected Node parseNode() throws XMLStreamException
 	{
-		NodeData nd = new NodeData();
-		readCommon( nd );
-		Node n = new Node( nd.getId(), nd.getVersion() );
-		n.load( nd );
-		externalIdMap.put( nd.getPrimitiveId(), n );
+		if ( skipped( OsmPrimitiveType.NODE ) ) return null;
+		readCommon();
+		Node n = new Node( id, version );
+		n.load( version, timestamp );
+		parseCoor( n );
+		putExternal( n );
 		while ( true )
 		{
 			int event = parser.next();
@@ -193,13 +211,12 @@ public class OsmReader extends AbstractReader
 
 	protected Way parseWay() throws XMLStreamException
 	{
-		WayData wd = new WayData();
-		readCommon( wd );
-		Way w = new Way( wd.getId(), wd.getVersion() );
-		w.load( wd );
-		externalIdMap.put( wd.getPrimitiveId(), w );
+		if ( skipped( OsmPrimitiveType.WAY ) ) return null;
+		readCommon();
+		Way w = new Way( id, version );
+		w.load( version, timestamp );
+		putExternal( w );
 
-		Collection<Long> nodeIds = new ArrayList<Long>();
 		while ( true )
 		{
 			int event = parser.next();
@@ -207,7 +224,7 @@ public class OsmReader extends AbstractReader
 			{
 				if ( parser.getLocalName().equals( "nd" ) )
 				{
-					nodeIds.add( parseWayNode( w ) );
+					addNodeRef( parseWayNode( w ) );
 				}
 				else if ( parser.getLocalName().equals( "tag" ) )
 				{
@@ -223,7 +240,7 @@ public class OsmReader extends AbstractReader
 				break;
 			}
 		}
-		ways.put( wd.getUniqueId(), nodeIds );
+		ways.put( w.getUniqueId(), takeNodeRefs() );
 		return w;
 	}
 
@@ -254,11 +271,14 @@ public class OsmReader extends AbstractReader
 
 	protected Relation parseRelation() throws XMLStreamException
 	{
-		RelationData rd = new RelationData();
-		readCommon( rd );
-		Relation r = new Relation( rd.getId(), rd.getVersion() );
-		r.load( rd );
-		externalIdMap.put( rd.getPrimitiveId(), r );
+		if ( !acceptsType( OsmPrimitiveType.RELATION ) )
+		{
+			parseUnknown( false );
+			return null;
+		}
+		readCommon();
+		Relation r = new Relation( id, version );
+		r.load( version, timestamp );
 
 		Collection<RelationMemberData> members = new ArrayList<RelationMemberData>();
 		while ( true )
@@ -284,13 +304,56 @@ public class OsmReader extends AbstractReader
 				break;
 			}
 		}
-		relations.put( rd.getUniqueId(), members );
+		if ( !accepts( r, members ) ) return null;
+		putExternal( r );
+		relations.put( r.getUniqueId(), members );
 		return r;
 	}
 
 
 
 
+	/**
+	 * Reads the coordinates of a node, if any : the deleted nodes have none
+	 */
+	private void parseCoor( Node n ) throws XMLStreamException
+	{
+		String lat = parser.getAttributeValue( null, "lat" );
+		String lon = parser.getAttributeValue( null, "lon" );
+		if ( lat == null || lon == null ) return;
+		try
+		{
+			n.setFixedCoor( Coordinates.parse( lat ), Coordinates.parse( lon ) );
+		}
+		catch ( IllegalArgumentException e )
+		{
+			throwException( tr(
+			        "Illegal value for attributes ''lat'', ''lon'' on node with ID {0}. Got ''{1}'', ''{2}''.",
+			        Long.toString( id ), lat, lon ) );
+		}
+	}
+
+
+
+
+	/**
+	 * Skips the node or the way at the cursor if the filter of the reader
+	 * rejects it, before anything is allocated for it
+	 * 
+	 * @return true if the element was skipped
+	 */
+	private boolean skipped( OsmPrimitiveType type ) throws XMLStreamException
+	{
+		if ( !isFiltered() ) return false;
+		if ( acceptsType( type ) && accepts( type, getLong( "id" ) ) )
+		    return false;
+		parseUnknown( false );
+		return true;
+	}
+
+
+
+
 	private RelationMemberData parseRelationMember( Relation r )
 	        throws XMLStreamException
 	{
@@ -333,7 +396,7 @@ public class OsmReader extends AbstractReader
 			        value ) );
 		}
 		value = parser.getAttributeValue( null, "role" );
-		role = value;
+		role = sharedStrings.get( value );
 
 		if ( id == 0 )
 		{
@@ -354,7 +417,7 @@ public class OsmReader extends AbstractReader
 		{
 			throwException( tr( "Missing key or value attribute in tag." ) );
 		}
-		t.put( key.intern(), value.intern() );
+		t.put( key, value );
 		jumpToEnd();
 	}
 
@@ -425,20 +488,22 @@ public class OsmReader extends AbstractReader
 
 
 	/**
-	 * Read out the common attributes and put them into current OsmPrimitive.
+	 * Read out the common attributes of the current element into
+	 * {@link #id}, {@link #version} and {@link #timestamp}.
 	 */
-	private void readCommon( PrimitiveData current ) throws XMLStreamException
+	private void readCommon() throws XMLStreamException
 	{
-		current.setId( getLong( "id" ) );
-		if ( current.getUniqueId() == 0 )
+		id = getLong( "id" );
+		if ( id == 0 )
 		{
 			throwException( tr( "Illegal object with ID=0." ) );
 		}
 
+		timestamp = 0;
 		String time = parser.getAttributeValue( null, "timestamp" );
 		if ( time != null && time.length() != 0 )
 		{
-			current.setTimestamp( DateUtils.fromString( time ) );
+			timestamp = ( int ) ( DateUtils.toEpochMillis( time ) / 1000 );
 		}
 
 		String versionString = parser.getAttributeValue( null, "version" );
@@ -453,42 +518,42 @@ public class OsmReader extends AbstractReader
 			{
 				throwException( tr(
 				        "Illegal value for attribute ''version'' on OSM primitive with ID {0}. Got {1}.",
-				        Long.toString( current.getUniqueId() ), versionString ) );
+				        Long.toString( id ), versionString ) );
 			}
 			if ( ds.getVersion().equals( "0.6" ) )
 			{
-				if ( version <= 0 && current.getUniqueId() > 0 )
+				if ( version <= 0 && id > 0 )
 				{
 					throwException( tr(
 					        "Illegal value for attribute ''version'' on OSM primitive with ID {0}. Got {1}.",
-					        Long.toString( current.getUniqueId() ),
+					        Long.toString( id ),
 					        versionString ) );
 				}
-				else if ( version < 0 && current.getUniqueId() <= 0 )
+				else if ( version < 0 && id <= 0 )
 				{
 					System.out
 					        .println( tr(
 					                "WARNING: Normalizing value of attribute ''version'' of element {0} to {2}, API version is ''{3}''. Got {1}.",
-					                current.getUniqueId(), version, 0, "0.6" ) );
+					                id, version, 0, "0.6" ) );
 					version = 0;
 				}
 			}
 			else if ( ds.getVersion().equals( "0.5" ) )
 			{
-				if ( version <= 0 && current.getUniqueId() > 0 )
+				if ( version <= 0 && id > 0 )
 				{
 					System.out
 					        .println( tr(
 					                "WARNING: Normalizing value of attribute ''version'' of element {0} to {2}, API version is ''{3}''. Got {1}.",
-					                current.getUniqueId(), version, 1, "0.5" ) );
+					                id, version, 1, "0.5" ) );
 					version = 1;
 				}
-				else if ( version < 0 && current.getUniqueId() <= 0 )
+				else if ( version < 0 && id <= 0 )
 				{
 					System.out
 					        .println( tr(
 					                "WARNING: Normalizing value of attribute ''version'' of element {0} to {2}, API version is ''{3}''. Got {1}.",
-					                current.getUniqueId(), version, 0, "0.5" ) );
+					                id, version, 0, "0.5" ) );
 					version = 0;
 				}
 			}
@@ -505,24 +570,24 @@ public class OsmReader extends AbstractReader
 			// version expected for OSM primitives with an id assigned by the
 			// server (id > 0), since API 0.6
 			//
-			if ( current.getUniqueId() > 0 && ds.getVersion() != null
+			if ( id > 0 && ds.getVersion() != null
 			        && ds.getVersion().equals( "0.6" ) )
 			{
 				throwException( tr(
 				        "Missing attribute ''version'' on OSM primitive with ID {0}.",
-				        Long.toString( current.getUniqueId() ) ) );
+				        Long.toString( id ) ) );
 			}
-			else if ( current.getUniqueId() > 0 && ds.getVersion() != null
+			else if ( id > 0 && ds.getVersion() != null
 			        && ds.getVersion().equals( "0.5" ) )
 			{
 				// default version in 0.5 files for existing primitives
 				System.out
 				        .println( tr(
 				                "WARNING: Normalizing value of attribute ''version'' of element {0} to {2}, API version is ''{3}''. Got {1}.",
-				                current.getUniqueId(), version, 1, "0.5" ) );
+				                id, version, 1, "0.5" ) );
 				version = 1;
 			}
-			else if ( current.getUniqueId() <= 0 && ds.getVersion() != null
+			else if ( id <= 0 && ds.getVersion() != null
 			        && ds.getVersion().equals( "0.5" ) )
 			{
 				// default version in 0.5 files for new primitives, no warning
@@ -531,7 +596,7 @@ public class OsmReader extends AbstractReader
 				version = 0;
 			}
 		}
-		current.setVersion( version );
+		this.version = version;
 	}
 
 
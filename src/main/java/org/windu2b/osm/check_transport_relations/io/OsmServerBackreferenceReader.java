@@ -297,7 +297,8 @@ public class OsmServerBackreferenceReader extends OsmServerReader
 	/**
 	 * Scans a dataset for incomplete primitives. Depending on the configuration
 	 * of this reader incomplete primitives are read from the server with an
-	 * individual <tt>/api/0.6/[way,relation]/#id/full</tt> request.
+	 * individual <tt>/api/0.6/[way,relation]/#id/full</tt> request. These
+	 * requests are run concurrently by the {@link DownloadScheduler}.
 	 * 
 	 * <ul>
 	 * <li>if this reader reads referers for a {@link Node}, referring ways are
@@ -323,6 +324,8 @@ public class OsmServerBackreferenceReader extends OsmServerReader
 		progressMonitor.beginTask( null, 2 );
 		try
 		{
+			DownloadScheduler.Batch batch = DownloadScheduler.getInstance()
+			        .newBatch();
 			Collection<Way> waysToCheck = new ArrayList<Way>( ds.getWays() );
 			if( isReadFull() || primitiveType.equals( OsmPrimitiveType.NODE ) )
 			{
@@ -330,15 +333,8 @@ public class OsmServerBackreferenceReader extends OsmServerReader
 				{
 					if( way.hasIncompleteNodes() )
 					{
-						OsmServerObjectReader reader = new OsmServerObjectReader(
-						        way.getId(), OsmPrimitiveType.from( way ), true /*
-																				 * read
-																				 * full
-																				 */);
-						DataSet wayDs = reader.parseOsm( progressMonitor
-						        .createSubTaskMonitor( 1, false ) );
-						DataSetMerger visitor = new DataSetMerger( ds, wayDs );
-						visitor.merge();
+						batch.submit( new OsmServerObjectReader( way.getId(),
+						        OsmPrimitiveType.from( way ), true /* read full */) );
 					}
 				}
 			}
@@ -350,19 +346,22 @@ public class OsmServerBackreferenceReader extends OsmServerReader
 				{
 					if( relation.hasIncompleteMembers() )
 					{
-						OsmServerObjectReader reader = new OsmServerObjectReader(
+						batch.submit( new OsmServerObjectReader(
 						        relation.getId(),
 						        OsmPrimitiveType.from( relation ), true /*
 																		 * read
 																		 * full
-																		 */);
-						DataSet wayDs = reader.parseOsm( progressMonitor
-						        .createSubTaskMonitor( 1, false ) );
-						DataSetMerger visitor = new DataSetMerger( ds, wayDs );
-						visitor.merge();
+																		 */) );
 					}
 				}
 			}
+			// the downloads run concurrently, the merges are done in the
+			// order of the requests
+			for( DataSet fullDs : batch.getResults() )
+			{
+				DataSetMerger visitor = new DataSetMerger( ds, fullDs );
+				visitor.merge();
+			}
 			return ds;
 		}
 		finally
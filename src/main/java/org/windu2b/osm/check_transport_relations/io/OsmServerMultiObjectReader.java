@@ -0,0 +1,613 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSetMerger;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.PrimitiveId;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.RelationMember;
+import org.windu2b.osm.check_transport_relations.gui.progress.NullProgressMonitor;
+import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * OsmServerMultiObjectReader downloads a set of primitives with as few
+ * requests as possible.
+ *
+ * The primitives are grouped by type and read with the API calls
+ * <code>nodes?nodes=#id,#id,...</code>, <code>ways?ways=#id,#id,...</code>
+ * and <code>relations?relations=#id,#id,...</code>. The ids are split into
+ * chunks, so that no request has more than {@link #getMaxIdsPerRequest()} ids
+ * and no URL is longer than {@link #MAX_URL_LENGTH} characters.
+ *
+ * The chunks are downloaded concurrently by the {@link DownloadScheduler}, and
+ * all the downloaded primitives are merged into one {@link DataSet}.
+ *
+ * If {@link #setReadFull(boolean)} is set to true, the direct members of the
+ * downloaded relations are read too. Contrary to a
+ * <code>relation/#id/full</code> call, the nodes of the member ways are left
+ * incomplete: the checks only need their ids.
+ *
+ */
+public class OsmServerMultiObjectReader extends OsmServerReader
+{
+	/**
+	 * Default maximum number of ids in a single request
+	 */
+	static public final int	                                 DEFAULT_MAX_IDS_PER_REQUEST	= 500;
+
+
+	/**
+	 * Maximum length of the URL of a request, including the base URL. Most of
+	 * the HTTP servers reject request lines longer than 8 KB.
+	 */
+	static public final int	                                 MAX_URL_LENGTH	             = 8000;
+
+
+	/** the ids to download, grouped by type */
+	private final Map<OsmPrimitiveType, Set<Long>>	         idsToRead	                 = new EnumMap<OsmPrimitiveType, Set<Long>>(
+	                                                                                             OsmPrimitiveType.class );
+
+
+	/** the ids already downloaded, grouped by type */
+	private final Map<OsmPrimitiveType, Set<Long>>	         idsRead	                 = new EnumMap<OsmPrimitiveType, Set<Long>>(
+	                                                                                             OsmPrimitiveType.class );
+
+
+	/** true if the members of the relations are to be read too */
+	private boolean	                                         readFull;
+
+
+	private int	                                             maxIdsPerRequest	         = DEFAULT_MAX_IDS_PER_REQUEST;
+
+
+	/** the dataset the downloaded primitives are merged into */
+	private DataSet	                                         outputDataSet;
+
+
+	/** the chunks being downloaded */
+	private DownloadScheduler.Batch	                         currentBatch;
+
+
+
+
+	/**
+	 * Reads a chunk of primitives of the same type with a single request. The
+	 * chunk readers are run by the {@link DownloadScheduler}.
+	 */
+	private class ChunkReader extends OsmServerReader
+	{
+		private final OsmPrimitiveType	type;
+
+
+		private final List<Long>		ids;
+
+
+
+
+		private ChunkReader( OsmPrimitiveType type, List<Long> ids )
+		{
+			this.type = type;
+			this.ids = ids;
+		}
+
+
+
+
+		/**
+		 * The chunks are read from the server of the reader
+		 */
+		@Override
+		protected String getBaseUrl()
+		{
+			return OsmServerMultiObjectReader.this.getBaseUrl();
+		}
+
+
+
+
+		@Override
+		public DataSet parseOsm( ProgressMonitor progressMonitor )
+		        throws OsmTransferException
+		{
+			if( progressMonitor == null )
+			{
+				progressMonitor = NullProgressMonitor.INSTANCE;
+			}
+			try
+			{
+				return readChunk( progressMonitor );
+			}
+			catch( OsmApiException e )
+			{
+				if( !isMissingPrimitive( e ) ) throw e;
+				return readSingly( progressMonitor );
+			}
+		}
+
+
+
+
+		/**
+		 * Downloads and parses the primitives of the chunk
+		 */
+		private DataSet readChunk( ProgressMonitor progressMonitor )
+		        throws OsmTransferException
+		{
+			InputStream in = null;
+			try
+			{
+				in = getInputStream( buildRequestString( type, ids ),
+				        progressMonitor );
+				if( in == null ) return null;
+				return OsmReader.parseDataSet( in, progressMonitor );
+			}
+			catch( OsmTransferException e )
+			{
+				throw e;
+			}
+			catch( Exception e )
+			{
+				if( cancel ) return null;
+				throw new OsmTransferException( e );
+			}
+			finally
+			{
+				if( in != null )
+				{
+					try
+					{
+						in.close();
+					}
+					catch( Exception e )
+					{/* ignore this exception */
+					}
+				}
+				activeConnection = null;
+			}
+		}
+
+
+
+
+		/**
+		 * Reads the primitives of the chunk one by one. Used when the server
+		 * refuses a multi-fetch request because one of its primitives doesn't
+		 * exist.
+		 */
+		private DataSet readSingly( ProgressMonitor progressMonitor )
+		        throws OsmTransferException
+		{
+			DataSet ds = new DataSet();
+			for( long id : ids )
+			{
+				if( cancel ) return null;
+				try
+				{
+					OsmServerObjectReader reader = new OsmServerObjectReader(
+					        id, type, false );
+					merge( ds, reader.parseOsm( progressMonitor
+					        .createSubTaskMonitor( 0, false ) ) );
+				}
+				catch( OsmApiException e )
+				{
+					if( !isMissingPrimitive( e ) ) throw e;
+					Log.log( tr( "[{0}]The {1} {2} doesn''t exist on the server",
+					        OsmServerMultiObjectReader.class.getSimpleName(),
+					        type, id ) );
+				}
+			}
+			return ds;
+		}
+	}
+
+
+
+
+	/**
+	 * Creates a new reader, without any primitive to read
+	 */
+	public OsmServerMultiObjectReader()
+	{
+		for( OsmPrimitiveType type : OsmPrimitiveType.dataValues() )
+		{
+			idsToRead.put( type, new TreeSet<Long>() );
+			idsRead.put( type, new TreeSet<Long>() );
+		}
+	}
+
+
+
+
+	/**
+	 * Creates a new reader for a collection of primitives
+	 *
+	 * @param ids
+	 *            the ids of the primitives to read. Must not be null.
+	 * @param readFull
+	 *            true, if the members of the relations are to be read too
+	 * @throws IllegalArgumentException
+	 *             thrown if ids is null, or if one of the ids is not > 0
+	 */
+	public OsmServerMultiObjectReader( Collection<? extends PrimitiveId> ids,
+	        boolean readFull )
+	{
+		this();
+		append( ids );
+		this.readFull = readFull;
+	}
+
+
+
+
+	/**
+	 * Adds a primitive to read
+	 *
+	 * @param id
+	 *            the id of the primitive. Must not be null, unique id > 0
+	 *            required.
+	 * @return this reader
+	 * @throws IllegalArgumentException
+	 *             thrown if id is null or if id.getUniqueId() <= 0
+	 */
+	public OsmServerMultiObjectReader append( PrimitiveId id )
+	{
+		CheckParameterUtil.ensureValidPrimitiveId( id, "id" );
+		Set<Long> ids = idsToRead.get( id.getType() );
+		if( ids == null )
+		    throw new IllegalArgumentException( tr(
+		            "Unsupported primitive type {0}", id.getType() ) );
+		ids.add( id.getUniqueId() );
+		return this;
+	}
+
+
+
+
+	/**
+	 * Adds a collection of primitives to read
+	 *
+	 * @param ids
+	 *            the ids of the primitives. Must not be null.
+	 * @return this reader
+	 * @throws IllegalArgumentException
+	 *             thrown if ids is null, or if one of the ids is not valid
+	 */
+	public OsmServerMultiObjectReader append(
+	        Collection<? extends PrimitiveId> ids )
+	{
+		CheckParameterUtil.ensureParameterNotNull( ids, "ids" );
+		for( PrimitiveId id : ids )
+		{
+			append( id );
+		}
+		return this;
+	}
+
+
+
+
+	/**
+	 * Replies true if this reader also reads the members of the relations
+	 *
+	 * @return true if this reader also reads the members of the relations
+	 */
+	public boolean isReadFull()
+	{
+		return readFull;
+	}
+
+
+
+
+	/**
+	 * Set true if this reader should read the members of the relations too.
+	 *
+	 * @param readFull
+	 *            true if this reader should read the members of the relations
+	 */
+	public void setReadFull( boolean readFull )
+	{
+		this.readFull = readFull;
+	}
+
+
+
+
+	public int getMaxIdsPerRequest()
+	{
+		return maxIdsPerRequest;
+	}
+
+
+
+
+	/**
+	 * Sets the maximum number of ids in a single request
+	 *
+	 * @param maxIdsPerRequest
+	 *            the maximum number of ids. > 0 expected
+	 * @throws IllegalArgumentException
+	 *             thrown if maxIdsPerRequest <= 0
+	 */
+	public void setMaxIdsPerRequest( int maxIdsPerRequest )
+	{
+		if( maxIdsPerRequest <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.",
+		            "maxIdsPerRequest", maxIdsPerRequest ) );
+		this.maxIdsPerRequest = maxIdsPerRequest;
+	}
+
+
+
+
+	/**
+	 * Builds the URL suffix of the request reading a chunk of primitives of
+	 * the same type, e.g. <code>ways?ways=1,2,3</code>
+	 *
+	 * @param type
+	 *            the type of the primitives
+	 * @param ids
+	 *            the ids of the primitives
+	 * @return the URL suffix
+	 */
+	protected static String buildRequestString( OsmPrimitiveType type,
+	        Collection<Long> ids )
+	{
+		StringBuilder sb = new StringBuilder( type.getAPIName() ).append( "s?" )
+		        .append( type.getAPIName() ).append( "s=" );
+		boolean first = true;
+		for( Long id : ids )
+		{
+			if( !first )
+			{
+				sb.append( ',' );
+			}
+			sb.append( id );
+			first = false;
+		}
+		return sb.toString();
+	}
+
+
+
+
+	/**
+	 * Splits a set of ids into chunks, so that each chunk can be read with a
+	 * single request.
+	 *
+	 * @param type
+	 *            the type of the primitives
+	 * @param ids
+	 *            the ids of the primitives
+	 * @return the chunks
+	 */
+	protected List<List<Long>> buildChunks( OsmPrimitiveType type,
+	        Collection<Long> ids )
+	{
+		List<List<Long>> chunks = new ArrayList<List<Long>>();
+		// length available for the ids, once the base URL and the prefix
+		// are written
+		int maxLength = MAX_URL_LENGTH - getBaseUrl().length()
+		        - buildRequestString( type, new ArrayList<Long>() ).length();
+
+		List<Long> chunk = null;
+		int length = 0;
+		for( Long id : ids )
+		{
+			int idLength = id.toString().length();
+			if( chunk != null
+			        && ( chunk.size() >= maxIdsPerRequest || length + 1
+			                + idLength > maxLength ) )
+			{
+				chunk = null;
+			}
+			if( chunk == null )
+			{
+				chunk = new ArrayList<Long>();
+				chunks.add( chunk );
+				length = idLength;
+			}
+			else
+			{
+				length += 1 + idLength;
+			}
+			chunk.add( id );
+		}
+		return chunks;
+	}
+
+
+
+
+	private static boolean isMissingPrimitive( OsmApiException e )
+	{
+		return e.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND
+		        || e.getResponseCode() == HttpURLConnection.HTTP_GONE;
+	}
+
+
+
+
+	private static void merge( DataSet target, DataSet ds )
+	{
+		if( ds == null ) return;
+		DataSetMerger merger = new DataSetMerger( target, ds );
+		merger.setAddMissingPrimitives( true );
+		merger.merge();
+	}
+
+
+
+
+	/**
+	 * Downloads all the pending primitives of a type
+	 *
+	 * @param type
+	 *            the type of the primitives
+	 * @param progressMonitor
+	 *            the progress monitor
+	 * @throws OsmTransferException
+	 *             thrown if an error occurs while communicating with the
+	 *             server
+	 */
+	protected void readPrimitives( OsmPrimitiveType type,
+	        ProgressMonitor progressMonitor ) throws OsmTransferException
+	{
+		Set<Long> pending = idsToRead.get( type );
+		pending.removeAll( idsRead.get( type ) );
+		if( pending.isEmpty() ) return;
+
+		List<List<Long>> chunks = buildChunks( type, pending );
+		progressMonitor.subTask( tr( "Downloading {0} {1}s...",
+		        pending.size(), type.getAPIName() ) );
+		DownloadScheduler.Batch batch = DownloadScheduler.getInstance()
+		        .newBatch();
+		synchronized( this )
+		{
+			if( cancel ) return;
+			currentBatch = batch;
+		}
+		try
+		{
+			for( List<Long> chunk : chunks )
+			{
+				batch.submit( new ChunkReader( type, chunk ) );
+			}
+			// merged in the order of the chunks, whatever the order they
+			// were downloaded
+			List<DataSet> results = batch.getResults();
+			for( int i = 0; i < results.size(); i++ )
+			{
+				merge( outputDataSet, results.get( i ) );
+				progressMonitor.worked( chunks.get( i ).size() );
+			}
+		}
+		finally
+		{
+			synchronized( this )
+			{
+				currentBatch = null;
+			}
+		}
+		if( cancel ) return;
+		idsRead.get( type ).addAll( pending );
+		pending.clear();
+	}
+
+
+
+
+	/**
+	 * Adds the direct members of the downloaded relations to the primitives
+	 * to read
+	 */
+	protected void appendRelationMembers()
+	{
+		for( long id : idsRead.get( OsmPrimitiveType.RELATION ) )
+		{
+			Relation r = outputDataSet.getRelation( id );
+			if( r == null ) continue;
+			for( RelationMember rm : r.getMembers() )
+			{
+				// Members which are relations are left incomplete, as with
+				// relation/#id/full
+				if( !rm.isRelation() )
+				{
+					append( rm.getMember() );
+				}
+			}
+		}
+	}
+
+
+
+
+	@Override
+	public void cancel()
+	{
+		DownloadScheduler.Batch batch;
+		synchronized( this )
+		{
+			cancel = true;
+			batch = currentBatch;
+		}
+		if( batch != null )
+		{
+			batch.cancel();
+		}
+		super.cancel();
+	}
+
+
+
+
+	/**
+	 * Downloads the primitives and merges them into a single {@link DataSet}.
+	 * Each call reads all the primitives, as the {@link DownloadScheduler}
+	 * does when it retries this reader.
+	 *
+	 * @param progressMonitor
+	 *            the progress monitor. Set to
+	 *            {@link NullProgressMonitor#INSTANCE} if null
+	 * @return the downloaded data
+	 * @exception OsmTransferException
+	 *                thrown if an error occurs while communicating with the
+	 *                server
+	 */
+	@Override
+	public DataSet parseOsm( ProgressMonitor progressMonitor )
+	        throws OsmTransferException
+	{
+		if( progressMonitor == null )
+		{
+			progressMonitor = NullProgressMonitor.INSTANCE;
+		}
+		// a retry reads everything again : the primitives read by a former
+		// call are in its dataset, not in the new one
+		for( OsmPrimitiveType type : idsRead.keySet() )
+		{
+			idsToRead.get( type ).addAll( idsRead.get( type ) );
+			idsRead.get( type ).clear();
+		}
+		int count = 0;
+		for( Set<Long> ids : idsToRead.values() )
+		{
+			count += ids.size();
+		}
+		progressMonitor.beginTask( tr( "Downloading OSM data..." ), count );
+		outputDataSet = new DataSet();
+		try
+		{
+			// Relations first, their members may be added to the nodes and
+			// ways to read
+			readPrimitives( OsmPrimitiveType.RELATION, progressMonitor );
+			if( readFull )
+			{
+				appendRelationMembers();
+			}
+			readPrimitives( OsmPrimitiveType.WAY, progressMonitor );
+			readPrimitives( OsmPrimitiveType.NODE, progressMonitor );
+			if( cancel ) return null;
+			return outputDataSet;
+		}
+		finally
+		{
+			progressMonitor.finishTask();
+		}
+	}
+}
@@ -10,16 +10,23 @@ import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
 
 import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.PrimitiveId;
 import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
 
 /**
  * This DataReader reads directly from the REST API of the osm server.
  * 
+ * The responses are read from the {@link DiskResponseCache} when it is
+ * enabled. The connections are taken from the {@link HttpConnectionPool}: the
+ * streams returned by {@link #getInputStream(String, ProgressMonitor)} must be
+ * closed to give them back.
+ * 
+ * The requests are paced by the shared {@link RateLimiter}. They are not
+ * retried here: the {@link DownloadScheduler} retries the failed readers, as
+ * decided by the {@link RetryPolicy}.
+ * 
  * It supports plain text transfer as well as gzip or deflate encoded transfers;
  * if compressed transfers are unwanted, set property osm-server.use-compression
  * to false.
@@ -57,7 +64,15 @@ public abstract class OsmServerReader extends OsmConnection
 		{
 			urlStr = urlStr.startsWith( "http" ) ? urlStr
 			        : ( getBaseUrl() + urlStr );
-			return getInputStreamRaw( urlStr, progressMonitor );
+			DiskResponseCache cache = DiskResponseCache.getInstance();
+			if ( cache == null )
+			    return getInputStreamRaw( urlStr, progressMonitor );
+
+			InputStream in = getCachedInputStream( cache, urlStr,
+			        progressMonitor );
+			if ( in != null ) return in;
+			in = getInputStreamRaw( urlStr, progressMonitor );
+			return in == null ? null : cache.store( urlStr, in );
 		}
 		finally
 		{
@@ -68,6 +83,85 @@ public abstract class OsmServerReader extends OsmConnection
 
 
 
+	/**
+	 * Replies the response of an URL from the disk cache. A
+	 * <code>[way|relation]/#id/full</code> response is only used if the
+	 * version of its primitive didn't change on the server.
+	 * 
+	 * @param cache
+	 *            the disk cache
+	 * @param urlStr
+	 *            the URL
+	 * @param progressMonitor
+	 *            the progress monitor
+	 * @return the cached response; null, if it is not cached or if it is
+	 *         stale
+	 * @throws OsmTransferException
+	 *             thrown if the version of the primitive can't be read
+	 */
+	private InputStream getCachedInputStream( DiskResponseCache cache,
+	        String urlStr, ProgressMonitor progressMonitor )
+	        throws OsmTransferException
+	{
+		DiskResponseCache.CachedResponse response = cache.get( urlStr );
+		if ( response == null ) return null;
+
+		PrimitiveId id = DiskResponseCache.getFullPrimitiveId( urlStr );
+		if ( id != null )
+		{
+			int version = 0;
+			InputStream in = null;
+			try
+			{
+				// the same URL, without the "/full"
+				in = getInputStreamRaw(
+				        urlStr.substring( 0, urlStr.length() - 5 ),
+				        progressMonitor );
+				if ( in == null ) return null;
+				version = DiskResponseCache.readVersion( in, id );
+			}
+			catch ( OsmApiException e )
+			{
+				// i.e. deleted, the full request will tell it
+			}
+			catch ( IOException e )
+			{
+				throw new OsmTransferException( e );
+			}
+			finally
+			{
+				if ( in != null )
+				{
+					try
+					{
+						in.close();
+					}
+					catch ( IOException e )
+					{/* ignore this exception */
+					}
+				}
+			}
+			if ( version == 0 || version != response.getVersion() )
+			{
+				cache.invalidate( urlStr );
+				return null;
+			}
+			cache.revalidated();
+		}
+
+		try
+		{
+			return response.open();
+		}
+		catch ( IOException e )
+		{
+			return null;
+		}
+	}
+
+
+
+
 	protected String getBaseUrl()
 	{
 		return api.getBaseUrl();
@@ -90,12 +184,11 @@ public abstract class OsmServerReader extends OsmConnection
 			{
 				throw new OsmTransferException( e );
 			}
+			RateLimiter.getInstance().acquire();
+			HttpConnectionPool pool = HttpConnectionPool.getInstance();
 			try
 			{
-				activeConnection = ( HttpURLConnection ) url.openConnection();
-				// fix #7640, see
-				// http://www.tikalk.com/java/forums/httpurlconnection-disable-keep-alive
-				activeConnection.setRequestProperty( "Connection", "close" );
+				activeConnection = pool.open( url );
 			}
 			catch ( Exception e )
 			{
@@ -103,78 +196,94 @@ public abstract class OsmServerReader extends OsmConnection
 				        "Failed to open connection to API {0}.",
 				        url.toExternalForm() ), e );
 			}
-			if ( cancel )
-			{
-				activeConnection.disconnect();
-				return null;
-			}
-
-			if ( cancel ) throw new OsmTransferCanceledException();
-
-			activeConnection.setConnectTimeout( 15 * 1000 );
-
-			try
-			{
-				System.out.println( "GET " + url );
-				activeConnection.connect();
-			}
-			catch ( Exception e )
-			{
-				e.printStackTrace();
-				throw new OsmTransferException(
-				        tr( "Could not connect to the OSM server. Please check your internet connection." ),
-				        e );
-			}
+			HttpURLConnection connection = activeConnection;
+			InputStream result = null;
+			boolean reusable = false;
 			try
 			{
-				if ( activeConnection.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED )
-				    throw new OsmApiException(
-				            HttpURLConnection.HTTP_UNAUTHORIZED, null, null );
+				if ( cancel ) return null;
 
-				if ( activeConnection.getResponseCode() == HttpURLConnection.HTTP_PROXY_AUTH )
-				    throw new OsmTransferCanceledException();
+				activeConnection.setConnectTimeout( 15 * 1000 );
+				setAcceptEncoding( activeConnection );
 
-				String encoding = activeConnection.getContentEncoding();
-				if ( activeConnection.getResponseCode() != HttpURLConnection.HTTP_OK )
+				try
 				{
-					String errorHeader = activeConnection
-					        .getHeaderField( "Error" );
-					StringBuilder errorBody = new StringBuilder();
-					try
+					System.out.println( "GET " + url );
+					activeConnection.connect();
+				}
+				catch ( Exception e )
+				{
+					e.printStackTrace();
+					throw new OsmTransferException(
+					        tr( "Could not connect to the OSM server. Please check your internet connection." ),
+					        e );
+				}
+				try
+				{
+					if ( activeConnection.getResponseCode() == HttpURLConnection.HTTP_UNAUTHORIZED )
+					    throw new OsmApiException(
+					            HttpURLConnection.HTTP_UNAUTHORIZED, null, null );
+
+					if ( activeConnection.getResponseCode() == HttpURLConnection.HTTP_PROXY_AUTH )
+					    throw new OsmTransferCanceledException();
+
+					String encoding = activeConnection.getContentEncoding();
+					if ( activeConnection.getResponseCode() != HttpURLConnection.HTTP_OK )
 					{
-						InputStream i = FixEncoding(
-						        activeConnection.getErrorStream(), encoding );
-						if ( i != null )
+						String errorHeader = activeConnection
+						        .getHeaderField( "Error" );
+						StringBuilder errorBody = new StringBuilder();
+						try
 						{
-							BufferedReader in = new BufferedReader(
-							        new InputStreamReader( i ) );
-							String s;
-							while ( ( s = in.readLine() ) != null )
+							InputStream i = fixEncoding(
+							        activeConnection.getErrorStream(), encoding );
+							if ( i != null )
 							{
-								errorBody.append( s );
-								errorBody.append( "\n" );
+								BufferedReader in = new BufferedReader(
+								        new InputStreamReader( i ) );
+								String s;
+								while ( ( s = in.readLine() ) != null )
+								{
+									errorBody.append( s );
+									errorBody.append( "\n" );
+								}
+								in.close();
+								reusable = true;
 							}
 						}
-					}
-					catch ( Exception e )
-					{
-						errorBody.append( tr( "Reading error text failed." ) );
+						catch ( Exception e )
+						{
+							errorBody.append( tr( "Reading error text failed." ) );
+						}
+
+						OsmApiException e = new OsmApiException(
+						        activeConnection.getResponseCode(), errorHeader,
+						        errorBody.toString() );
+						e.setRetryAfter( activeConnection
+						        .getHeaderField( "Retry-After" ) );
+						throw e;
 					}
 
-					throw new OsmApiException(
-					        activeConnection.getResponseCode(), errorHeader,
-					        errorBody.toString() );
+					result = pool.getInputStream( connection, fixEncoding(
+					        new ProgressInputStream( activeConnection,
+					                progressMonitor ), encoding ) );
+					return result;
 				}
+				catch ( Exception e )
+				{
+					if ( e instanceof OsmTransferException )
+						throw ( OsmTransferException ) e;
+					else throw new OsmTransferException( e );
 
-				return FixEncoding( new ProgressInputStream( activeConnection,
-				        progressMonitor ), encoding );
+				}
 			}
-			catch ( Exception e )
+			finally
 			{
-				if ( e instanceof OsmTransferException )
-					throw ( OsmTransferException ) e;
-				else throw new OsmTransferException( e );
-
+				// the connection is given back when the body is closed
+				if ( result == null )
+				{
+					pool.release( connection, reusable );
+				}
 			}
 		}
 		finally
@@ -186,23 +295,6 @@ public abstract class OsmServerReader extends OsmConnection
 
 
 
-	private InputStream FixEncoding( InputStream stream, String encoding )
-	        throws IOException
-	{
-		if ( encoding != null && encoding.equalsIgnoreCase( "gzip" ) )
-		{
-			stream = new GZIPInputStream( stream );
-		}
-		else if ( encoding != null && encoding.equalsIgnoreCase( "deflate" ) )
-		{
-			stream = new InflaterInputStream( stream, new Inflater( true ) );
-		}
-		return stream;
-	}
-
-
-
-
 	public abstract DataSet parseOsm( final ProgressMonitor progressMonitor )
 	        throws OsmTransferException;
 
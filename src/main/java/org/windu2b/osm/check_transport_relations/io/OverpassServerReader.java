@@ -0,0 +1,151 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.gui.progress.NullProgressMonitor;
+import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * Reads a route_master (or a route) with a single Overpass query: the
+ * relation, its routes, their ways and nodes, and the
+ * <code>public_transport=stop_area</code> relations of their stops and
+ * platforms.
+ *
+ * The replied dataset is {@link DataSet#isLocalOnly() local only}: the checks
+ * of the relation don't need any other request.
+ *
+ * The server is given by the property <code>osm-server.overpass-url</code>.
+ *
+ */
+public class OverpassServerReader extends OsmServerReader
+{
+	public static final String	DEFAULT_URL	= "https://overpass-api.de/api/interpreter";
+
+
+	/** the id of the relation to download */
+	private final long	       id;
+
+
+	private final String	   url;
+
+
+
+
+	/**
+	 * Creates a reader for the relation <code>id</code>, on the server given
+	 * by the property <code>osm-server.overpass-url</code>
+	 *
+	 * @param id
+	 *            the relation id. > 0 required.
+	 */
+	public OverpassServerReader( long id )
+	{
+		this( id, System.getProperty( "osm-server.overpass-url", DEFAULT_URL ) );
+	}
+
+
+
+
+	/**
+	 * @param id
+	 *            the relation id. > 0 required.
+	 * @param url
+	 *            the URL of the interpreter. Must not be null.
+	 */
+	public OverpassServerReader( long id, String url )
+	{
+		if( id <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.", "id", id ) );
+		CheckParameterUtil.ensureParameterNotNull( url, "url" );
+		this.id = id;
+		this.url = url;
+	}
+
+
+
+
+	/**
+	 * Builds the query of a relation
+	 *
+	 * @param id
+	 *            the relation id
+	 * @return the Overpass QL query
+	 */
+	public static String buildQuery( long id )
+	{
+		return "[timeout:180];\n"
+		        // the relation, and all its members, recursively
+		        + "(relation(" + id + ");>>;)->.all;\n"
+		        // the stops and the platforms
+		        + "(node(r.all);way(r.all);)->.stops;\n"
+		        // their stop areas
+		        + "(rel(bn.stops)[\"public_transport\"=\"stop_area\"];"
+		        + "rel(bw.stops)[\"public_transport\"=\"stop_area\"];)->.areas;\n"
+		        + "(.all;.areas;);\nout meta;";
+	}
+
+
+
+
+	@Override
+	public DataSet parseOsm( ProgressMonitor progressMonitor )
+	        throws OsmTransferException
+	{
+		if( progressMonitor == null )
+		{
+			progressMonitor = NullProgressMonitor.INSTANCE;
+		}
+		progressMonitor.beginTask( "", 1 );
+		InputStream in = null;
+		try
+		{
+			progressMonitor
+			        .indeterminateSubTask( tr( "Downloading OSM data..." ) );
+			in = getInputStream( url + "?data="
+			        + URLEncoder.encode( buildQuery( id ), "UTF-8" ),
+			        progressMonitor.createSubTaskMonitor( 1, true ) );
+			if( in == null ) return null;
+			DataSet data = OsmReader.parseDataSet( in, progressMonitor
+			        .createSubTaskMonitor( ProgressMonitor.ALL_TICKS, false ) );
+			data.setLocalOnly( true );
+			return data;
+		}
+		catch( UnsupportedEncodingException e )
+		{
+			throw new AssertionError( e ); // UTF-8 is always supported
+		}
+		catch( OsmTransferException e )
+		{
+			if( cancel ) return null;
+			throw e;
+		}
+		catch( Exception e )
+		{
+			if( cancel ) return null;
+			throw new OsmTransferException( e );
+		}
+		finally
+		{
+			progressMonitor.finishTask();
+			if( in != null )
+			{
+				try
+				{
+					in.close();
+				}
+				catch( Exception e )
+				{/* ignore this exception */
+				}
+			}
+			activeConnection = null;
+		}
+	}
+}
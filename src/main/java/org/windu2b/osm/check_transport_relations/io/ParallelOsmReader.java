@@ -0,0 +1,457 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.gui.progress.NullProgressMonitor;
+import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * Parses a large OSM XML extract on several threads.
+ *
+ * The content of the <code>&lt;osm&gt;</code> element is split into chunks,
+ * at the start of top-level <code>&lt;node&gt;</code>,
+ * <code>&lt;way&gt;</code> or <code>&lt;relation&gt;</code> elements. Each
+ * chunk is parsed by its own {@link OsmReader} on a fork-join pool, as if it
+ * were a whole file, then the primitives read by the chunks are merged, in the
+ * order of the file, before the ways and the relations are linked.
+ *
+ * The replied dataset is the same as the one of
+ * {@link OsmReader#parseDataSet(InputStream, ProgressMonitor)}. The input is
+ * parsed by a single {@link OsmReader} if it is too small to be split, if it
+ * isn't UTF-8, or if it holds comments, CDATA sections or processing
+ * instructions, in which a tag could be mistaken for a chunk boundary. When a
+ * chunk can't be parsed, the whole input is parsed again by a single
+ * {@link OsmReader}, so that the error is reported at its line in the file.
+ *
+ * The input is held in memory while it is parsed, up to {@link #MAX_SIZE}
+ * bytes: a larger input, or any input when there is a single thread, is
+ * streamed to a single {@link OsmReader}.
+ */
+public class ParallelOsmReader
+{
+	/**
+	 * The minimum size of a chunk, in bytes: smaller chunks cost more to
+	 * schedule and merge than they save
+	 */
+	public static final int	 MIN_CHUNK_SIZE	= 4 * 1024 * 1024;
+
+
+	/**
+	 * The maximum size of an input parsed on several threads, in bytes. It is
+	 * below the maximum size of an array.
+	 */
+	public static final int	 MAX_SIZE	    = 1024 * 1024 * 1024;
+
+
+	private static final byte[]	FOOTER	    = { '<', '/', 'o', 's', 'm', '>' };
+
+
+
+
+	private ParallelOsmReader()
+	{
+		// Hide default constructor for utils classes
+	}
+
+
+
+
+	/**
+	 * Parses the given input source on as many threads as there are
+	 * processors
+	 *
+	 * @param source
+	 *            the source input stream. Must not be null.
+	 * @param progressMonitor
+	 *            the progress monitor. If null,
+	 *            {@link NullProgressMonitor#INSTANCE} is assumed
+	 * @return the dataset with the parsed data
+	 * @throws IllegalDataException
+	 *             thrown if the source can't be read, or if an error was found
+	 *             while parsing it
+	 * @throws IllegalArgumentException
+	 *             thrown if source is null
+	 */
+	public static DataSet parseDataSet( InputStream source,
+	        ProgressMonitor progressMonitor ) throws IllegalDataException
+	{
+		return parseDataSet( source, progressMonitor, Runtime.getRuntime()
+		        .availableProcessors(), MIN_CHUNK_SIZE );
+	}
+
+
+
+
+	/**
+	 * Parses the given input source
+	 *
+	 * @param source
+	 *            the source input stream. Must not be null.
+	 * @param progressMonitor
+	 *            the progress monitor. If null,
+	 *            {@link NullProgressMonitor#INSTANCE} is assumed
+	 * @param parallelism
+	 *            the number of threads. > 0 expected. With a single thread,
+	 *            the source is streamed to an {@link OsmReader}.
+	 * @param minChunkSize
+	 *            the minimum size of a chunk, in bytes. > 0 expected
+	 * @return the dataset with the parsed data
+	 * @throws IllegalDataException
+	 *             thrown if the source can't be read, or if an error was found
+	 *             while parsing it
+	 * @throws IllegalArgumentException
+	 *             thrown if source is null, or if parallelism or minChunkSize
+	 *             <= 0
+	 */
+	public static DataSet parseDataSet( InputStream source,
+	        ProgressMonitor progressMonitor, int parallelism, int minChunkSize )
+	        throws IllegalDataException
+	{
+		return parseDataSet( source, progressMonitor, parallelism,
+		        minChunkSize, MAX_SIZE );
+	}
+
+
+
+
+	/**
+	 * Parses the given input source, holding at most maxSize bytes in memory
+	 */
+	static DataSet parseDataSet( InputStream source,
+	        ProgressMonitor progressMonitor, int parallelism, int minChunkSize,
+	        int maxSize ) throws IllegalDataException
+	{
+		CheckParameterUtil.ensureParameterNotNull( source, "source" );
+		if( parallelism <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.",
+		            "parallelism", parallelism ) );
+		if( minChunkSize <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.",
+		            "minChunkSize", minChunkSize ) );
+		if( progressMonitor == null )
+		{
+			progressMonitor = NullProgressMonitor.INSTANCE;
+		}
+
+		// a single thread parses as fast from the stream, without the copy
+		if( parallelism == 1 )
+		    return OsmReader.parseDataSet( source, progressMonitor );
+
+		byte[] data;
+		int length;
+		try
+		{
+			data = new byte[Math.min( 64 * 1024, maxSize )];
+			length = 0;
+			int n;
+			while( ( n = source.read( data, length, data.length - length ) ) > 0 )
+			{
+				length += n;
+				if( length == data.length )
+				{
+					if( length >= maxSize )
+					{
+						// too large : the rest of the input is streamed after
+						// the bytes already read
+						return OsmReader.parseDataSet( new SequenceInputStream(
+						        new ByteArrayInputStream( data, 0, length ),
+						        source ), progressMonitor );
+					}
+					data = Arrays.copyOf( data, ( int ) Math.min(
+					        data.length * 2L, maxSize ) );
+				}
+			}
+		}
+		catch( IOException e )
+		{
+			throw new IllegalDataException( e );
+		}
+
+		int[] bounds = split( data, length, parallelism, minChunkSize );
+		if( bounds != null )
+		{
+			try
+			{
+				progressMonitor.beginTask( tr( "Prepare OSM data...", 2 ) );
+				progressMonitor.indeterminateSubTask( tr( "Parsing OSM data..." ) );
+				ForkJoinPool pool = new ForkJoinPool( parallelism );
+				OsmReader reader;
+				try
+				{
+					reader = pool.invoke( new ParseTask( data, bounds, 0,
+					        bounds.length - 2 ) );
+				}
+				finally
+				{
+					pool.shutdown();
+				}
+				progressMonitor.worked( 1 );
+
+				progressMonitor
+				        .indeterminateSubTask( tr( "Preparing data set..." ) );
+				reader.prepareDataSet();
+				progressMonitor.worked( 1 );
+				return reader.getDataSet();
+			}
+			catch( RuntimeException e )
+			{
+				// a chunk can't be parsed : the error is reported below
+			}
+			finally
+			{
+				progressMonitor.finishTask();
+			}
+		}
+		// a single reader reports the errors at their line in the file
+		return OsmReader.parseDataSet( new ByteArrayInputStream( data, 0,
+		        length ), progressMonitor );
+	}
+
+
+
+
+	/**
+	 * Splits the input into chunks
+	 *
+	 * @return the offsets of the chunks : the end of the
+	 *         <code>&lt;osm&gt;</code> start tag, then the start of each chunk
+	 *         after the first one, then the start of the
+	 *         <code>&lt;/osm&gt;</code> end tag; null, if the input can't be
+	 *         split
+	 */
+	static int[] split( byte[] data, int length, int parallelism,
+	        int minChunkSize )
+	{
+		int chunks = Math.min( parallelism, length / minChunkSize );
+		if( chunks < 2 ) return null;
+
+		// a BOM other than the UTF-8 one
+		if( length >= 2
+		        && ( ( data[0] == ( byte ) 0xFE && data[1] == ( byte ) 0xFF )
+		                || ( data[0] == ( byte ) 0xFF && data[1] == ( byte ) 0xFE ) || ( data[0] == 0 && data[1] == 0 ) ) )
+		    return null;
+
+		int start = endOfOsmStartTag( data, length );
+		if( start < 0 ) return null;
+		int end = lastIndexOf( data, length, FOOTER );
+		if( end < start ) return null;
+		for( int i = start; i < end - 1; i++ )
+		{
+			if( data[i] == '<' && ( data[i + 1] == '!' || data[i + 1] == '?' ) )
+			    return null;
+		}
+
+		int[] bounds = new int[chunks + 1];
+		int n = 0;
+		bounds[n++] = start;
+		for( int i = 1; i < chunks; i++ )
+		{
+			long target = start + ( long ) ( end - start ) * i / chunks;
+			int bound = nextElement( data, ( int ) Math.max( target,
+			        bounds[n - 1] + 1 ), end );
+			if( bound < 0 ) break;
+			if( bound > bounds[n - 1] ) bounds[n++] = bound;
+		}
+		bounds[n++] = end;
+		return n < 3 ? null : Arrays.copyOf( bounds, n );
+	}
+
+
+
+
+	/**
+	 * Replies the offset after the <code>&lt;osm&gt;</code> start tag; -1, if
+	 * there is none
+	 */
+	private static int endOfOsmStartTag( byte[] data, int length )
+	{
+		for( int i = 0; i < length - 4; i++ )
+		{
+			if( data[i] == '<' && data[i + 1] == 'o' && data[i + 2] == 's'
+			        && data[i + 3] == 'm' && isNameEnd( data[i + 4] ) )
+			{
+				// '>' is allowed in the attribute values
+				byte quote = 0;
+				for( int j = i + 4; j < length; j++ )
+				{
+					byte b = data[j];
+					if( quote != 0 )
+					{
+						if( b == quote ) quote = 0;
+					}
+					else if( b == '"' || b == '\'' ) quote = b;
+					else if( b == '>' ) return data[j - 1] == '/' ? -1 : j + 1;
+				}
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+
+
+
+	/**
+	 * Replies the offset of the first <code>&lt;node&gt;</code>,
+	 * <code>&lt;way&gt;</code> or <code>&lt;relation&gt;</code> start tag
+	 * from an offset; -1, if there is none before end. The
+	 * <code>&lt;</code> character is always markup in the content of the
+	 * <code>&lt;osm&gt;</code> element, so that it is the start of a top-level
+	 * element.
+	 */
+	private static int nextElement( byte[] data, int from, int end )
+	{
+		for( int i = from; i < end; i++ )
+		{
+			if( data[i] != '<' ) continue;
+			if( startsWith( data, i + 1, end, "node" )
+			        || startsWith( data, i + 1, end, "way" )
+			        || startsWith( data, i + 1, end, "relation" ) ) return i;
+		}
+		return -1;
+	}
+
+
+
+
+	private static boolean startsWith( byte[] data, int offset, int end,
+	        String name )
+	{
+		int n = name.length();
+		if( offset + n >= end ) return false;
+		for( int i = 0; i < n; i++ )
+		{
+			if( data[offset + i] != name.charAt( i ) ) return false;
+		}
+		return isNameEnd( data[offset + n] );
+	}
+
+
+
+
+	private static boolean isNameEnd( byte b )
+	{
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '>'
+		        || b == '/';
+	}
+
+
+
+
+	private static int lastIndexOf( byte[] data, int length, byte[] pattern )
+	{
+		for( int i = length - pattern.length; i >= 0; i-- )
+		{
+			int j = 0;
+			while( j < pattern.length && data[i + j] == pattern[j] )
+			{
+				j++;
+			}
+			if( j == pattern.length ) return i;
+		}
+		return -1;
+	}
+
+
+
+
+	/**
+	 * Parses the chunks from first to last, and merges their primitives in the
+	 * reader of the first chunk
+	 */
+	private static class ParseTask extends RecursiveTask<OsmReader>
+	{
+		private static final long	serialVersionUID	= 1L;
+
+
+		private final byte[]	  data;
+
+
+		private final int[]	      bounds;
+
+
+		private final int	      first;
+
+
+		private final int	      last;
+
+
+
+
+		public ParseTask( byte[] data, int[] bounds, int first, int last )
+		{
+			this.data = data;
+			this.bounds = bounds;
+			this.first = first;
+			this.last = last;
+		}
+
+
+
+
+		@Override
+		protected OsmReader compute()
+		{
+			if( first == last ) return parseChunk();
+			int middle = ( first + last ) >>> 1;
+			ParseTask right = new ParseTask( data, bounds, middle + 1, last );
+			right.fork();
+			OsmReader reader = new ParseTask( data, bounds, first, middle )
+			        .compute();
+			reader.merge( right.join() );
+			return reader;
+		}
+
+
+
+
+		/**
+		 * Parses the chunk, preceded by the <code>&lt;osm&gt;</code> start tag
+		 * and followed by its end tag
+		 */
+		private OsmReader parseChunk()
+		{
+			Vector<InputStream> parts = new Vector<InputStream>( 3 );
+			parts.add( new ByteArrayInputStream( data, 0, bounds[0] ) );
+			parts.add( new ByteArrayInputStream( data, bounds[first],
+			        bounds[first + 1] - bounds[first] ) );
+			parts.add( new ByteArrayInputStream( FOOTER ) );
+			try
+			{
+				OsmReader reader = new OsmReader();
+				reader.setParser( XMLInputFactory.newInstance()
+				        .createXMLStreamReader(
+				                UTFInputStreamReader.create(
+				                        new SequenceInputStream( parts
+				                                .elements() ), "UTF-8" ) ) );
+				reader.parse();
+				return reader;
+			}
+			catch( IOException e )
+			{
+				throw new IllegalStateException( e );
+			}
+			catch( XMLStreamException e )
+			{
+				throw new IllegalStateException( e );
+			}
+		}
+	}
+}
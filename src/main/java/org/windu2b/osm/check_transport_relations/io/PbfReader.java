@@ -0,0 +1,823 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.RelationMemberData;
+import org.windu2b.osm.check_transport_relations.data.osm.Tagged;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+import org.windu2b.osm.check_transport_relations.gui.progress.NullProgressMonitor;
+import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * Parser for the <code>.osm.pbf</code> files. Reads the OSMHeader and OSMData
+ * blobs of an input stream and constructs a dataset out of them, like
+ * {@link OsmReader} does for the XML files.
+ *
+ * Only the raw and the zlib compressed blobs are supported. The coordinates of
+ * the nodes are converted from the granularity and the offsets of their block
+ * to the 1e-7 degrees stored by {@link Node}.
+ *
+ * @see <a href="http://wiki.openstreetmap.org/wiki/PBF_Format">PBF Format</a>
+ */
+public class PbfReader extends AbstractReader
+{
+	/**
+	 * The maximum sizes of the headers and of the blobs, as defined by the
+	 * format
+	 */
+	static final int	               MAX_BLOB_HEADER_SIZE	= 64 * 1024;
+
+
+	static final int	               MAX_BLOB_SIZE	    = 32 * 1024 * 1024;
+
+
+	private static final String[]	SUPPORTED_FEATURES	 = { "OsmSchema-V0.6",
+	        "DenseNodes"	                             };
+
+
+	private final Inflater	       inflater	            = new Inflater();
+
+
+	/**
+	 * The string table of the current block
+	 */
+	private String[]	           strings;
+
+
+	/**
+	 * The granularity of the timestamps of the current block, in milliseconds
+	 */
+	private int	                   dateGranularity;
+
+
+	/**
+	 * The granularity of the coordinates of the current block, and their
+	 * offsets, in nanodegrees
+	 */
+	private int	                   granularity;
+
+
+	private long	               latOffset;
+
+
+	private long	               lonOffset;
+
+
+	/**
+	 * The version and the timestamp (in seconds) of the primitive being read,
+	 * see {@link #readInfo(ProtobufParser)}
+	 */
+	private int	                   version;
+
+
+	private int	                   timestamp;
+
+
+
+
+	/**
+	 * constructor (for private and subclasses use only)
+	 *
+	 * @see #parseDataSet(InputStream, ProgressMonitor)
+	 */
+	protected PbfReader()
+	{
+	}
+
+
+
+
+	protected void parse( InputStream source ) throws IOException,
+	        IllegalDataException
+	{
+		DataInputStream in = new DataInputStream( source );
+		boolean headerRead = false;
+		while( true )
+		{
+			int headerSize;
+			try
+			{
+				headerSize = in.readInt();
+			}
+			catch( EOFException e )
+			{
+				break;
+			}
+			if( headerSize < 0 || headerSize > MAX_BLOB_HEADER_SIZE )
+			    throw new IllegalDataException( tr(
+			            "Illegal size of blob header. Got {0}.", headerSize ) );
+			byte[] header = new byte[headerSize];
+			in.readFully( header );
+
+			String type = null;
+			int dataSize = -1;
+			ProtobufParser blobHeader = new ProtobufParser( header );
+			while( blobHeader.hasNext() )
+			{
+				switch( blobHeader.next() )
+				{
+					case 1 :
+						type = blobHeader.readString();
+						break;
+					case 3 :
+						dataSize = blobHeader.readInt();
+						break;
+					default :
+						blobHeader.skip();
+				}
+			}
+			if( type == null || dataSize < 0 || dataSize > MAX_BLOB_SIZE )
+			    throw new IllegalDataException( tr(
+			            "Illegal blob header. Type: {0}, size: {1}.", type,
+			            dataSize ) );
+			byte[] blob = new byte[dataSize];
+			in.readFully( blob );
+
+			if( type.equals( "OSMHeader" ) )
+			{
+				parseHeaderBlock( readBlob( blob ) );
+				headerRead = true;
+			}
+			else if( type.equals( "OSMData" ) )
+			{
+				if( !headerRead )
+				    throw new IllegalDataException( tr(
+				            "OSMData blob found before the OSMHeader blob." ) );
+				parsePrimitiveBlock( readBlob( blob ) );
+			}
+			// the other blobs are skipped, as required by the format
+		}
+		if( !headerRead )
+		    throw new IllegalDataException( tr( "Missing OSMHeader blob." ) );
+	}
+
+
+
+
+	/**
+	 * Replies the content of a blob, uncompressed
+	 */
+	private ProtobufParser readBlob( byte[] blob ) throws IllegalDataException
+	{
+		byte[] raw = null;
+		byte[] zlibData = null;
+		int rawSize = -1;
+		ProtobufParser p = new ProtobufParser( blob );
+		while( p.hasNext() )
+		{
+			switch( p.next() )
+			{
+				case 1 :
+					raw = p.readBytes();
+					break;
+				case 2 :
+					rawSize = p.readInt();
+					break;
+				case 3 :
+					zlibData = p.readBytes();
+					break;
+				case 4 :
+				case 5 :
+				case 6 :
+				case 7 :
+					throw new IllegalDataException( tr(
+					        "Unsupported compression of PBF blob (field {0}).",
+					        p.getField() ) );
+				default :
+					p.skip();
+			}
+		}
+		if( raw != null ) return new ProtobufParser( raw );
+		if( zlibData == null || rawSize < 0 || rawSize > MAX_BLOB_SIZE )
+		    throw new IllegalDataException( tr( "Empty PBF blob." ) );
+
+		raw = new byte[rawSize];
+		inflater.reset();
+		inflater.setInput( zlibData );
+		try
+		{
+			int n = 0;
+			while( n < rawSize && !inflater.finished() )
+			{
+				int read = inflater.inflate( raw, n, rawSize - n );
+				if( read == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+				    break;
+				n += read;
+			}
+			if( n != rawSize || !inflater.finished() )
+			    throw new IllegalDataException( tr(
+			            "Illegal size of PBF blob. Expected {0}, got {1}.",
+			            rawSize, n ) );
+		}
+		catch( DataFormatException e )
+		{
+			throw new IllegalDataException( e );
+		}
+		return new ProtobufParser( raw );
+	}
+
+
+
+
+	private void parseHeaderBlock( ProtobufParser block )
+	        throws IllegalDataException
+	{
+		while( block.hasNext() )
+		{
+			if( block.next() == 4 )
+			{
+				String feature = block.readString();
+				boolean supported = false;
+				for( String s : SUPPORTED_FEATURES )
+				{
+					if( s.equals( feature ) ) supported = true;
+				}
+				if( !supported )
+				    throw new IllegalDataException( tr(
+				            "Unsupported PBF feature: {0}", feature ) );
+			}
+			else block.skip();
+		}
+	}
+
+
+
+
+	private void parsePrimitiveBlock( ProtobufParser block )
+	        throws IllegalDataException
+	{
+		// The groups are written before the granularity: they are read once
+		// the whole block is known
+		List<ProtobufParser> groups = new ArrayList<ProtobufParser>();
+		List<String> table = new ArrayList<String>();
+		dateGranularity = 1000;
+		granularity = 100;
+		latOffset = 0;
+		lonOffset = 0;
+		while( block.hasNext() )
+		{
+			switch( block.next() )
+			{
+				case 1 :
+					ProtobufParser stringTable = block.readMessage();
+					while( stringTable.hasNext() )
+					{
+						if( stringTable.next() == 1 )
+							table.add( sharedStrings.get( stringTable
+							        .readString() ) );
+						else stringTable.skip();
+					}
+					break;
+				case 2 :
+					groups.add( block.readMessage() );
+					break;
+				case 17 :
+					granularity = block.readInt();
+					break;
+				case 18 :
+					dateGranularity = block.readInt();
+					break;
+				case 19 :
+					latOffset = block.readVarint();
+					break;
+				case 20 :
+					lonOffset = block.readVarint();
+					break;
+				default :
+					block.skip();
+			}
+		}
+		strings = table.toArray( new String[table.size()] );
+
+		for( ProtobufParser group : groups )
+		{
+			while( group.hasNext() )
+			{
+				switch( group.next() )
+				{
+					case 1 :
+						if( isRelationsOnly()
+						        || !acceptsType( OsmPrimitiveType.NODE ) ) group
+						        .skip();
+						else parseNode( group.readMessage() );
+						break;
+					case 2 :
+						if( isRelationsOnly()
+						        || !acceptsType( OsmPrimitiveType.NODE ) ) group
+						        .skip();
+						else parseDenseNodes( group.readMessage() );
+						break;
+					case 3 :
+						if( isRelationsOnly()
+						        || !acceptsType( OsmPrimitiveType.WAY ) ) group
+						        .skip();
+						else parseWay( group.readMessage() );
+						break;
+					case 4 :
+						if( !acceptsType( OsmPrimitiveType.RELATION ) ) group
+						        .skip();
+						else parseRelation( group.readMessage() );
+						break;
+					default :
+						group.skip();
+				}
+			}
+		}
+	}
+
+
+
+
+	private String getString( long index ) throws IllegalDataException
+	{
+		if( index < 0 || index >= strings.length )
+		    throw new IllegalDataException( tr(
+		            "Illegal index in the string table. Got {0}.", index ) );
+		return strings[( int ) index];
+	}
+
+
+
+
+	private void readInfo( ProtobufParser info ) throws IllegalDataException
+	{
+		while( info.hasNext() )
+		{
+			switch( info.next() )
+			{
+				case 1 :
+					version = info.readInt();
+					break;
+				case 2 :
+					timestamp = ( int ) ( info.readVarint() * dateGranularity / 1000 );
+					break;
+				default :
+					info.skip();
+			}
+		}
+	}
+
+
+
+
+	private void readTags( Tagged t, ProtobufParser keys, ProtobufParser values )
+	        throws IllegalDataException
+	{
+		if( keys == null ) return;
+		while( keys.hasNext() )
+		{
+			if( values == null || !values.hasNext() )
+			    throw new IllegalDataException( tr( "Missing value of tag." ) );
+			t.put( getString( keys.readVarint() ),
+			        getString( values.readVarint() ) );
+		}
+	}
+
+
+
+
+	private static void checkId( long id ) throws IllegalDataException
+	{
+		if( id == 0 )
+		    throw new IllegalDataException( tr( "Illegal object with ID=0." ) );
+	}
+
+
+
+
+	/**
+	 * Converts a coordinate of the block to 1e-7 degrees
+	 */
+	private int toFixed( long offset, long value )
+	{
+		return ( int ) ( ( offset + granularity * value ) / 100 );
+	}
+
+
+
+
+	private void setCoor( Node n, long lat, long lon )
+	        throws IllegalDataException
+	{
+		try
+		{
+			n.setFixedCoor( toFixed( latOffset, lat ), toFixed( lonOffset, lon ) );
+		}
+		catch( IllegalArgumentException e )
+		{
+			throw new IllegalDataException( tr(
+			        "Illegal coordinates of node {0}.", n.getId() ), e );
+		}
+	}
+
+
+
+
+	private void parseNode( ProtobufParser message )
+	        throws IllegalDataException
+	{
+		long id = 0;
+		long lat = 0;
+		long lon = 0;
+		ProtobufParser keys = null;
+		ProtobufParser values = null;
+		version = 0;
+		timestamp = 0;
+		while( message.hasNext() )
+		{
+			switch( message.next() )
+			{
+				case 1 :
+					id = message.readSInt();
+					break;
+				case 2 :
+					keys = message.readPacked();
+					break;
+				case 3 :
+					values = message.readPacked();
+					break;
+				case 4 :
+					readInfo( message.readMessage() );
+					break;
+				case 8 :
+					lat = message.readSInt();
+					break;
+				case 9 :
+					lon = message.readSInt();
+					break;
+				default :
+					message.skip();
+			}
+		}
+		checkId( id );
+		if( !accepts( OsmPrimitiveType.NODE, id ) ) return;
+		Node n = new Node( id, version );
+		n.load( version, timestamp );
+		setCoor( n, lat, lon );
+		putExternal( n );
+		readTags( n, keys, values );
+	}
+
+
+
+
+	private void parseDenseNodes( ProtobufParser message )
+	        throws IllegalDataException
+	{
+		ProtobufParser ids = null;
+		ProtobufParser versions = null;
+		ProtobufParser timestamps = null;
+		ProtobufParser keysValues = null;
+		ProtobufParser lats = null;
+		ProtobufParser lons = null;
+		while( message.hasNext() )
+		{
+			switch( message.next() )
+			{
+				case 1 :
+					ids = message.readPacked();
+					break;
+				case 5 :
+					ProtobufParser info = message.readMessage();
+					while( info.hasNext() )
+					{
+						switch( info.next() )
+						{
+							case 1 :
+								versions = info.readPacked();
+								break;
+							case 2 :
+								timestamps = info.readPacked();
+								break;
+							default :
+								info.skip();
+						}
+					}
+					break;
+				case 8 :
+					lats = message.readPacked();
+					break;
+				case 9 :
+					lons = message.readPacked();
+					break;
+				case 10 :
+					keysValues = message.readPacked();
+					break;
+				default :
+					message.skip();
+			}
+		}
+		if( ids == null ) return;
+
+		// The ids, the timestamps and the coordinates are delta coded
+		long id = 0;
+		long timestamp = 0;
+		long lat = 0;
+		long lon = 0;
+		while( ids.hasNext() )
+		{
+			id += ids.readSInt();
+			checkId( id );
+			int v = 0;
+			if( versions != null && versions.hasNext() ) v = versions.readInt();
+			if( timestamps != null && timestamps.hasNext() )
+			{
+				timestamp += timestamps.readSInt();
+			}
+			if( lats == null || !lats.hasNext() || lons == null
+			        || !lons.hasNext() )
+			    throw new IllegalDataException( tr(
+			            "Missing coordinates of node {0}.", id ) );
+			lat += lats.readSInt();
+			lon += lons.readSInt();
+			if( !accepts( OsmPrimitiveType.NODE, id ) )
+			{
+				// skips the tags of the node
+				while( keysValues != null && keysValues.hasNext()
+				        && keysValues.readVarint() != 0 )
+				{
+					if( keysValues.hasNext() ) keysValues.readVarint();
+				}
+				continue;
+			}
+			Node n = new Node( id, v );
+			n.load( v, ( int ) ( timestamp * dateGranularity / 1000 ) );
+			setCoor( n, lat, lon );
+			putExternal( n );
+
+			// The tags of the nodes are separated by a 0
+			if( keysValues == null ) continue;
+			while( keysValues.hasNext() )
+			{
+				long key = keysValues.readVarint();
+				if( key == 0 ) break;
+				if( !keysValues.hasNext() )
+				    throw new IllegalDataException( tr( "Missing value of tag." ) );
+				n.put( getString( key ), getString( keysValues.readVarint() ) );
+			}
+		}
+	}
+
+
+
+
+	private void parseWay( ProtobufParser message ) throws IllegalDataException
+	{
+		long id = 0;
+		ProtobufParser keys = null;
+		ProtobufParser values = null;
+		version = 0;
+		timestamp = 0;
+		while( message.hasNext() )
+		{
+			switch( message.next() )
+			{
+				case 1 :
+					id = message.readVarint();
+					break;
+				case 2 :
+					keys = message.readPacked();
+					break;
+				case 3 :
+					values = message.readPacked();
+					break;
+				case 4 :
+					readInfo( message.readMessage() );
+					break;
+				case 8 :
+					ProtobufParser refs = message.readPacked();
+					long ref = 0;
+					while( refs.hasNext() )
+					{
+						ref += refs.readSInt();
+						addNodeRef( ref );
+					}
+					break;
+				default :
+					message.skip();
+			}
+		}
+		checkId( id );
+		if( !accepts( OsmPrimitiveType.WAY, id ) )
+		{
+			clearNodeRefs();
+			return;
+		}
+		long[] nodeIds = takeNodeRefs();
+		Way w = new Way( id, version );
+		w.load( version, timestamp );
+		putExternal( w );
+		readTags( w, keys, values );
+		ways.put( id, nodeIds );
+	}
+
+
+
+
+	private void parseRelation( ProtobufParser message )
+	        throws IllegalDataException
+	{
+		long relationId = 0;
+		ProtobufParser keys = null;
+		ProtobufParser values = null;
+		ProtobufParser roles = null;
+		ProtobufParser memberIds = null;
+		ProtobufParser types = null;
+		version = 0;
+		timestamp = 0;
+		while( message.hasNext() )
+		{
+			switch( message.next() )
+			{
+				case 1 :
+					relationId = message.readVarint();
+					break;
+				case 2 :
+					keys = message.readPacked();
+					break;
+				case 3 :
+					values = message.readPacked();
+					break;
+				case 4 :
+					readInfo( message.readMessage() );
+					break;
+				case 8 :
+					roles = message.readPacked();
+					break;
+				case 9 :
+					memberIds = message.readPacked();
+					break;
+				case 10 :
+					types = message.readPacked();
+					break;
+				default :
+					message.skip();
+			}
+		}
+		checkId( relationId );
+		Relation r = new Relation( relationId, version );
+		r.load( version, timestamp );
+		readTags( r, keys, values );
+
+		Collection<RelationMemberData> members = new ArrayList<RelationMemberData>();
+		long id = 0;
+		while( memberIds != null && memberIds.hasNext() )
+		{
+			id += memberIds.readSInt();
+			if( roles == null || !roles.hasNext() || types == null
+			        || !types.hasNext() )
+			    throw new IllegalDataException( tr(
+			            "Incomplete member {0} in relation {1}.", id,
+			            relationId ) );
+			String role = getString( roles.readVarint() );
+			OsmPrimitiveType type;
+			switch( types.readInt() )
+			{
+				case 0 :
+					type = OsmPrimitiveType.NODE;
+					break;
+				case 1 :
+					type = OsmPrimitiveType.WAY;
+					break;
+				case 2 :
+					type = OsmPrimitiveType.RELATION;
+					break;
+				default :
+					throw new IllegalDataException( tr(
+					        "Illegal type of member {0} in relation {1}.", id,
+					        relationId ) );
+			}
+			if( id == 0 )
+			    throw new IllegalDataException(
+			            tr( "Incomplete <member> specification with ref=0" ) );
+			members.add( new RelationMemberData( role, type, id ) );
+		}
+		relationRead( r, members );
+	}
+
+
+
+
+	/**
+	 * Replies true if only the relations are read, the nodes and the ways
+	 * being skipped. False by default.
+	 */
+	protected boolean isRelationsOnly()
+	{
+		return false;
+	}
+
+
+
+
+	/**
+	 * Called for each relation read, with its tags. Adds it to the dataset,
+	 * unless the filter of the reader rejects it.
+	 *
+	 * @param r
+	 *            the relation
+	 * @param members
+	 *            its members
+	 */
+	protected void relationRead( Relation r,
+	        Collection<RelationMemberData> members )
+	{
+		if( !accepts( r, members ) ) return;
+		putExternal( r );
+		relations.put( r.getUniqueId(), members );
+	}
+
+
+
+
+	protected DataSet doParseDataSet( InputStream source,
+	        ProgressMonitor progressMonitor ) throws IllegalDataException
+	{
+		if( progressMonitor == null )
+		{
+			progressMonitor = NullProgressMonitor.INSTANCE;
+		}
+		CheckParameterUtil.ensureParameterNotNull( source, "source" );
+		try
+		{
+			progressMonitor.beginTask( tr( "Prepare OSM data...", 2 ) );
+			progressMonitor.indeterminateSubTask( tr( "Parsing OSM data..." ) );
+
+			ds.setVersion( "0.6" );
+			parse( source );
+			progressMonitor.worked( 1 );
+
+			progressMonitor
+			        .indeterminateSubTask( tr( "Preparing data set..." ) );
+			prepareDataSet();
+			progressMonitor.worked( 1 );
+
+			return getDataSet();
+		}
+		catch( IllegalDataException e )
+		{
+			throw e;
+		}
+		catch( Exception e )
+		{
+			throw new IllegalDataException( e );
+		}
+		finally
+		{
+			end();
+			progressMonitor.finishTask();
+		}
+	}
+
+
+
+
+	/**
+	 * Releases the inflater, once the reader has parsed all its sources
+	 */
+	void end()
+	{
+		inflater.end();
+	}
+
+
+
+
+	/**
+	 * Parse the given input source and return the dataset.
+	 *
+	 * @param source
+	 *            the source input stream. Must not be null.
+	 * @param progressMonitor
+	 *            the progress monitor. If null,
+	 *            {@link NullProgressMonitor#INSTANCE} is assumed
+	 *
+	 * @return the dataset with the parsed data
+	 * @throws IllegalDataException
+	 *             thrown if the an error was found while parsing the data from
+	 *             the source
+	 * @throws IllegalArgumentException
+	 *             thrown if source is null
+	 */
+	public static DataSet parseDataSet( InputStream source,
+	        ProgressMonitor progressMonitor ) throws IllegalDataException
+	{
+		return new PbfReader().doParseDataSet( source, progressMonitor );
+	}
+}
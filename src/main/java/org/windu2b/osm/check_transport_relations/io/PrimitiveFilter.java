@@ -0,0 +1,53 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import java.util.Collection;
+
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.RelationMemberData;
+
+/**
+ * Selects the primitives kept by a reader, see
+ * {@link AbstractReader#setFilter(PrimitiveFilter)}. The nodes and the ways
+ * are selected by their id, before they are parsed: the rejected ones are
+ * never allocated. The relations are selected once parsed, by their tags and
+ * their members.
+ */
+public interface PrimitiveFilter
+{
+	/**
+	 * Replies true if some primitives of a type may be kept. If not, they are
+	 * skipped without being parsed.
+	 *
+	 * @param type
+	 *            the type
+	 */
+	boolean acceptsType( OsmPrimitiveType type );
+
+
+
+
+	/**
+	 * Replies true if a node or a way is kept
+	 *
+	 * @param type
+	 *            the type of the primitive, node or way
+	 * @param id
+	 *            the id of the primitive
+	 */
+	boolean accepts( OsmPrimitiveType type, long id );
+
+
+
+
+	/**
+	 * Replies true if a relation is kept
+	 *
+	 * @param r
+	 *            the relation, with its tags
+	 * @param members
+	 *            its members
+	 */
+	boolean accepts( Relation r, Collection<RelationMemberData> members );
+}
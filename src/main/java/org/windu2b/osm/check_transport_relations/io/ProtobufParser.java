@@ -0,0 +1,272 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Minimal decoder of protocol buffers messages, enough to read the
+ * <code>.osm.pbf</code> files (see {@link PbfReader}).
+ *
+ * The parser reads the fields of a message one after the other: {@link #next()}
+ * reads the key of the next field, then one of the read methods reads its
+ * value. Embedded messages and packed repeated fields are read by a parser
+ * over the same array, without any copy.
+ *
+ */
+class ProtobufParser
+{
+	static final int	 VARINT	          = 0;
+
+
+	static final int	 FIXED64	      = 1;
+
+
+	static final int	 LENGTH_DELIMITED	= 2;
+
+
+	static final int	 FIXED32	      = 5;
+
+
+	private final byte[]	data;
+
+
+	private final int	 end;
+
+
+	private int	         pos;
+
+
+	private int	         field;
+
+
+	private int	         wireType;
+
+
+
+
+	ProtobufParser( byte[] data )
+	{
+		this( data, 0, data.length );
+	}
+
+
+
+
+	ProtobufParser( byte[] data, int offset, int length )
+	{
+		this.data = data;
+		this.pos = offset;
+		this.end = offset + length;
+	}
+
+
+
+
+	/**
+	 * Replies true if there is another field, or another value of a packed
+	 * field
+	 *
+	 * @return true if there is another field
+	 */
+	boolean hasNext()
+	{
+		return pos < end;
+	}
+
+
+
+
+	/**
+	 * Reads the key of the next field
+	 *
+	 * @return the number of the field
+	 * @throws IllegalDataException
+	 *             thrown if the message is truncated
+	 */
+	int next() throws IllegalDataException
+	{
+		long key = readVarint();
+		field = ( int ) ( key >>> 3 );
+		wireType = ( int ) ( key & 7 );
+		return field;
+	}
+
+
+
+
+	int getField()
+	{
+		return field;
+	}
+
+
+
+
+	int getWireType()
+	{
+		return wireType;
+	}
+
+
+
+
+	long readVarint() throws IllegalDataException
+	{
+		long result = 0;
+		for( int shift = 0; shift < 64; shift += 7 )
+		{
+			if( pos >= end ) throw truncated();
+			byte b = data[pos++];
+			result |= ( long ) ( b & 0x7f ) << shift;
+			if( b >= 0 ) return result;
+		}
+		throw new IllegalDataException( tr( "Malformed varint in protobuf message" ) );
+	}
+
+
+
+
+	int readInt() throws IllegalDataException
+	{
+		return ( int ) readVarint();
+	}
+
+
+
+
+	/**
+	 * Reads a <code>sint32</code> or <code>sint64</code> value, ZigZag encoded
+	 */
+	long readSInt() throws IllegalDataException
+	{
+		long n = readVarint();
+		return ( n >>> 1 ) ^ -( n & 1 );
+	}
+
+
+
+
+	boolean readBool() throws IllegalDataException
+	{
+		return readVarint() != 0;
+	}
+
+
+
+
+	/**
+	 * Reads a length-delimited value and replies a parser over it
+	 */
+	ProtobufParser readMessage() throws IllegalDataException
+	{
+		int length = readLength();
+		ProtobufParser message = new ProtobufParser( data, pos, length );
+		pos += length;
+		return message;
+	}
+
+
+
+
+	/**
+	 * Reads a repeated field of scalar values. The values are read with the
+	 * replied parser, with {@link #hasNext()} and the read methods.
+	 *
+	 * The packed and the non-packed encodings are accepted.
+	 */
+	ProtobufParser readPacked() throws IllegalDataException
+	{
+		if( wireType == LENGTH_DELIMITED ) return readMessage();
+		int start = pos;
+		readVarint();
+		return new ProtobufParser( data, start, pos - start );
+	}
+
+
+
+
+	byte[] readBytes() throws IllegalDataException
+	{
+		int length = readLength();
+		byte[] bytes = new byte[length];
+		System.arraycopy( data, pos, bytes, 0, length );
+		pos += length;
+		return bytes;
+	}
+
+
+
+
+	String readString() throws IllegalDataException
+	{
+		int length = readLength();
+		try
+		{
+			String s = new String( data, pos, length, "UTF-8" );
+			pos += length;
+			return s;
+		}
+		catch( UnsupportedEncodingException e )
+		{
+			throw new AssertionError( e ); // UTF-8 is always supported
+		}
+	}
+
+
+
+
+	/**
+	 * Skips the value of the current field
+	 */
+	void skip() throws IllegalDataException
+	{
+		switch( wireType )
+		{
+			case VARINT :
+				readVarint();
+				break;
+			case FIXED64 :
+				skip( 8 );
+				break;
+			case LENGTH_DELIMITED :
+				skip( readLength() );
+				break;
+			case FIXED32 :
+				skip( 4 );
+				break;
+			default :
+				throw new IllegalDataException( tr(
+				        "Unsupported wire type {0} for protobuf field {1}",
+				        wireType, field ) );
+		}
+	}
+
+
+
+
+	private void skip( int length ) throws IllegalDataException
+	{
+		if( end - pos < length ) throw truncated();
+		pos += length;
+	}
+
+
+
+
+	private int readLength() throws IllegalDataException
+	{
+		long length = readVarint();
+		if( length < 0 || length > end - pos ) throw truncated();
+		return ( int ) length;
+	}
+
+
+
+
+	private static IllegalDataException truncated()
+	{
+		return new IllegalDataException( tr( "Truncated protobuf message" ) );
+	}
+}
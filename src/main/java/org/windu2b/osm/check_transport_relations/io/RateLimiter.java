@@ -0,0 +1,217 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by all the requests sent to the servers.
+ *
+ * The bucket is refilled with <code>osm-server.requests-per-second</code>
+ * tokens per second, up to <code>osm-server.request-burst</code> tokens. Each
+ * request takes a token, and waits for it when the bucket is empty. A rate of
+ * 0 disables the limit.
+ *
+ * The limiter can also be paused, i.e. after a throttling response of the
+ * server: see {@link RetryPolicy}.
+ *
+ */
+public class RateLimiter
+{
+	static public final double	  DEFAULT_REQUESTS_PER_SECOND	= 10;
+
+
+	static public final int	      DEFAULT_BURST	              = 20;
+
+
+	// The limiter shared by all the readers of a run
+	private static RateLimiter	  instance;
+
+
+	/** tokens per nanosecond; 0 if there is no limit */
+	private final double	      rate;
+
+
+	private final double	      capacity;
+
+
+	private double	              tokens;
+
+
+	/** the last refill of the bucket, in nanoseconds */
+	private long	              lastRefill;
+
+
+	/** no request is sent before this time, in nanoseconds */
+	private long	              pausedUntil;
+
+
+	private long	              delayed;
+
+
+	private long	              waited;
+
+
+
+
+	/**
+	 * Replies the limiter shared by all the readers of a run
+	 *
+	 * @return the shared limiter
+	 */
+	public static synchronized RateLimiter getInstance()
+	{
+		if( instance == null )
+		{
+			double rate = DEFAULT_REQUESTS_PER_SECOND;
+			String value = System.getProperty( "osm-server.requests-per-second" );
+			if( value != null )
+			{
+				try
+				{
+					rate = Double.parseDouble( value );
+				}
+				catch( NumberFormatException e )
+				{
+					Log.log( tr( "Illegal value for property ''{0}''. Got ''{1}''.",
+					        "osm-server.requests-per-second", value ) );
+				}
+			}
+			instance = new RateLimiter( rate, Integer.getInteger(
+			        "osm-server.request-burst", DEFAULT_BURST ) );
+		}
+		return instance;
+	}
+
+
+
+
+	/**
+	 * Creates a new limiter, with a full bucket
+	 *
+	 * @param requestsPerSecond
+	 *            the number of requests per second; 0 for no limit. >= 0
+	 *            expected
+	 * @param burst
+	 *            the number of requests which can be sent at once. > 0
+	 *            expected
+	 * @throws IllegalArgumentException
+	 *             thrown if requestsPerSecond < 0 or burst <= 0
+	 */
+	public RateLimiter( double requestsPerSecond, int burst )
+	{
+		if( requestsPerSecond < 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' >= 0 expected. Got ''{1}''.",
+		            "requestsPerSecond", requestsPerSecond ) );
+		if( burst <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.", "burst",
+		            burst ) );
+		this.rate = requestsPerSecond / TimeUnit.SECONDS.toNanos( 1 );
+		this.capacity = burst;
+		this.tokens = burst;
+		this.lastRefill = System.nanoTime();
+		this.pausedUntil = lastRefill;
+	}
+
+
+
+
+	/**
+	 * Takes a token, without waiting for it
+	 *
+	 * @return the time to wait before sending the request, in milliseconds
+	 */
+	public synchronized long reserve()
+	{
+		long now = System.nanoTime();
+		long wait = Math.max( 0, pausedUntil - now );
+		if( rate > 0 )
+		{
+			tokens = Math.min( capacity, tokens + ( now - lastRefill ) * rate );
+			lastRefill = now;
+			tokens--;
+			if( tokens < 0 ) wait = Math.max( wait, ( long ) ( -tokens / rate ) );
+		}
+		wait = TimeUnit.NANOSECONDS.toMillis( wait );
+		if( wait > 0 )
+		{
+			delayed++;
+			waited += wait;
+		}
+		return wait;
+	}
+
+
+
+
+	/**
+	 * Takes a token, waiting for it if needed
+	 *
+	 * @throws OsmTransferCanceledException
+	 *             thrown if the thread is interrupted while waiting
+	 */
+	public void acquire() throws OsmTransferCanceledException
+	{
+		long wait = reserve();
+		if( wait <= 0 ) return;
+		try
+		{
+			Thread.sleep( wait );
+		}
+		catch( InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new OsmTransferCanceledException();
+		}
+	}
+
+
+
+
+	/**
+	 * Delays all the requests
+	 *
+	 * @param delay
+	 *            the delay, in milliseconds
+	 */
+	public synchronized void pause( long delay )
+	{
+		pausedUntil = Math.max( pausedUntil, System.nanoTime()
+		        + TimeUnit.MILLISECONDS.toNanos( delay ) );
+	}
+
+
+
+
+	/**
+	 * Replies the number of requests which had to wait for a token
+	 */
+	public synchronized long getDelayed()
+	{
+		return delayed;
+	}
+
+
+
+
+	/**
+	 * Replies the total time waited by the requests, in milliseconds
+	 */
+	public synchronized long getWaited()
+	{
+		return waited;
+	}
+
+
+
+
+	@Override
+	public synchronized String toString()
+	{
+		return tr( "Rate limiter : {0} requests delayed, {1} ms waited",
+		        delayed, waited );
+	}
+}
@@ -0,0 +1,730 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.RelationMemberData;
+import org.windu2b.osm.check_transport_relations.data.osm.Tag;
+import org.windu2b.osm.check_transport_relations.data.osm.TagCollection;
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+import org.windu2b.osm.check_transport_relations.tools.StringTable;
+
+/**
+ * Memory-mapped index of the public transport relations of an extract.
+ *
+ * The index maps each member of a relation tagged
+ * <code>type=public_transport</code> or <code>public_transport=*</code> to the
+ * id of the relation and to the values of these two tags. It is built once
+ * from an extract with {@link #build(File, File)}, by streaming its relations
+ * only, and written as a file of fixed-size entries sorted by member.
+ *
+ * Opening the index only maps the file; a lookup is a binary search in the
+ * mapped file and allocates nothing. Once {@link #install(File) installed},
+ * {@link OsmPrimitive#getRelation(TagCollection)} searches the stop_area
+ * relations in the index instead of asking the server: the index is supposed
+ * to cover the area of the checked relations.
+ *
+ * File format (big endian): the magic number, the format version, the table
+ * of the tag values (count, then each value as written by
+ * {@link DataOutputStream#writeUTF(String)}), the number of entries, then the
+ * entries. An entry is the member (type and id, see {@link #key}), the id of
+ * the relation and the indexes of its <code>type</code> and
+ * <code>public_transport</code> values in the table (-1 if there is none).
+ *
+ */
+public class ReferrerIndex
+{
+	private static final int	    MAGIC	        = 0x4f524958;	     // "ORIX"
+
+
+	private static final int	    FORMAT_VERSION	= 1;
+
+
+	private static final int	    ENTRY_SIZE	    = 24;
+
+
+	private static final String	    TYPE	        = "type";
+
+
+	private static final String	    PUBLIC_TRANSPORT	= "public_transport";
+
+
+	// The index used by OsmPrimitive#getRelation(TagCollection). May be null.
+	private static ReferrerIndex	instance;
+
+
+	private final File	            file;
+
+
+	private final ByteBuffer	    buffer;
+
+
+	private final String[]	        values;
+
+
+	private final int	            entriesOffset;
+
+
+	private final int	            size;
+
+
+
+
+	/**
+	 * Replies the installed index
+	 *
+	 * @return the index; null, if none is installed
+	 */
+	public static synchronized ReferrerIndex getInstance()
+	{
+		return instance;
+	}
+
+
+
+
+	/**
+	 * Opens an index and uses it to find the referrers of the primitives
+	 *
+	 * @param file
+	 *            the index. Must not be null.
+	 * @return the index
+	 * @throws IOException
+	 *             thrown if the index can't be read
+	 */
+	public static synchronized ReferrerIndex install( File file )
+	        throws IOException
+	{
+		instance = open( file );
+		return instance;
+	}
+
+
+
+
+	public static synchronized void uninstall()
+	{
+		instance = null;
+	}
+
+
+
+
+	/**
+	 * Opens an index
+	 *
+	 * @param file
+	 *            the index. Must not be null.
+	 * @return the index
+	 * @throws IOException
+	 *             thrown if the file can't be read or is not an index
+	 */
+	public static ReferrerIndex open( File file ) throws IOException
+	{
+		CheckParameterUtil.ensureParameterNotNull( file, "file" );
+		RandomAccessFile raf = new RandomAccessFile( file, "r" );
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			if( channel.size() > Integer.MAX_VALUE )
+			    throw new IOException( tr( "The index {0} is too big", file ) );
+			// the mapping stays valid once the channel is closed
+			return new ReferrerIndex( file, channel.map(
+			        FileChannel.MapMode.READ_ONLY, 0, channel.size() ) );
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+
+
+
+	private ReferrerIndex( File file, final ByteBuffer buffer )
+	        throws IOException
+	{
+		this.file = file;
+		this.buffer = buffer;
+		try
+		{
+			if( buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION )
+			    throw new IOException( tr( "{0} is not a referrer index",
+			            file ) );
+			values = new String[buffer.getInt()];
+			// the values are in modified UTF-8, which differs from UTF-8
+			// for NUL and the supplementary characters
+			DataInputStream in = new DataInputStream( new InputStream()
+			{
+				@Override
+				public int read()
+				{
+					return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+				}
+			} );
+			for( int i = 0; i < values.length; i++ )
+			{
+				values[i] = StringTable.getInstance().get( in.readUTF() );
+			}
+			size = buffer.getInt();
+			entriesOffset = buffer.position();
+		}
+		catch( RuntimeException e )
+		{
+			throw new IOException( tr( "The index {0} is corrupted", file ), e );
+		}
+		catch( EOFException e )
+		{
+			throw new IOException( tr( "The index {0} is corrupted", file ), e );
+		}
+		catch( UTFDataFormatException e )
+		{
+			throw new IOException( tr( "The index {0} is corrupted", file ), e );
+		}
+		if( size < 0
+		        || entriesOffset + ( long ) size * ENTRY_SIZE > buffer.limit() )
+		    throw new IOException( tr( "The index {0} is corrupted", file ) );
+	}
+
+
+
+
+	/**
+	 * Replies the key of a member in the index: the type in the 2 upper bits,
+	 * the id in the other ones
+	 */
+	static long key( OsmPrimitiveType type, long id )
+	{
+		long t;
+		switch( type )
+		{
+			case NODE :
+				t = 0;
+			break;
+			case WAY :
+			case CLOSEDWAY :
+				t = 1;
+			break;
+			default :
+				t = 2;
+		}
+		return t << 62 | id;
+	}
+
+
+
+
+	public File getFile()
+	{
+		return file;
+	}
+
+
+
+
+	/**
+	 * Replies the number of entries of the index
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+
+
+
+	private long getKey( int i )
+	{
+		return buffer.getLong( entriesOffset + i * ENTRY_SIZE );
+	}
+
+
+
+
+	/**
+	 * Replies the first entry of a member
+	 *
+	 * @param type
+	 *            the type of the member. Must not be null.
+	 * @param id
+	 *            the id of the member
+	 * @return the index of the first entry; -1, if the member isn't in any
+	 *         indexed relation
+	 */
+	public int indexOf( OsmPrimitiveType type, long id )
+	{
+		long key = key( type, id );
+		int low = 0;
+		int high = size;
+		while( low < high )
+		{
+			int mid = ( low + high ) >>> 1;
+			if( getKey( mid ) < key ) low = mid + 1;
+			else high = mid;
+		}
+		return low < size && getKey( low ) == key ? low : -1;
+	}
+
+
+
+
+	/**
+	 * Replies true if the entry <code>i</code> is one of the member. The
+	 * entries of a member follow its first entry.
+	 */
+	public boolean isEntryOf( int i, OsmPrimitiveType type, long id )
+	{
+		return i >= 0 && i < size && getKey( i ) == key( type, id );
+	}
+
+
+
+
+	public long getRelationId( int i )
+	{
+		return buffer.getLong( entriesOffset + i * ENTRY_SIZE + 8 );
+	}
+
+
+
+
+	/**
+	 * Replies the value of the <code>type</code> tag of the relation of an
+	 * entry. May be null.
+	 */
+	public String getType( int i )
+	{
+		return getValue( buffer.getInt( entriesOffset + i * ENTRY_SIZE + 16 ) );
+	}
+
+
+
+
+	/**
+	 * Replies the value of the <code>public_transport</code> tag of the
+	 * relation of an entry. May be null.
+	 */
+	public String getPublicTransport( int i )
+	{
+		return getValue( buffer.getInt( entriesOffset + i * ENTRY_SIZE + 20 ) );
+	}
+
+
+
+
+	private String getValue( int index )
+	{
+		return index < 0 || index >= values.length ? null : values[index];
+	}
+
+
+
+
+	/**
+	 * Replies true if the relations having any of <code>tags</code> are all
+	 * in the index, i.e. if the tags are only <code>type=public_transport</code>
+	 * or <code>public_transport=*</code> tags
+	 */
+	public static boolean isIndexed( TagCollection tags )
+	{
+		if( tags.isEmpty() ) return false;
+		for( Tag t : tags )
+		{
+			if( t.getKey().equals( PUBLIC_TRANSPORT ) ) continue;
+			if( t.getKey().equals( TYPE )
+			        && PUBLIC_TRANSPORT.equals( t.getValue() ) ) continue;
+			return false;
+		}
+		return true;
+	}
+
+
+
+
+	/**
+	 * Replies the last relation referring to a primitive and having any of
+	 * <code>tags</code>, as {@link OsmPrimitive#getRelation(TagCollection)}
+	 * does.
+	 *
+	 * The relation of the dataset of the primitive is replied if there is one;
+	 * otherwise, a new incomplete relation with the indexed tags.
+	 *
+	 * @param primitive
+	 *            the primitive. Must not be null.
+	 * @param tags
+	 *            the tags, see {@link #isIndexed(TagCollection)}
+	 * @return the relation; null, if there is none
+	 */
+	public Relation getRelation( OsmPrimitive primitive, TagCollection tags )
+	{
+		OsmPrimitiveType type = primitive.getType();
+		long id = primitive.getId();
+		int found = -1;
+		for( int i = indexOf( type, id ); isEntryOf( i, type, id ); i++ )
+		{
+			for( Tag t : tags )
+			{
+				String value = t.getKey().equals( TYPE ) ? getType( i )
+				        : getPublicTransport( i );
+				if( t.getValue().equals( value ) ) found = i;
+			}
+		}
+		if( found < 0 ) return null;
+
+		long relationId = getRelationId( found );
+		DataSet ds = primitive.getDataSet();
+		if( ds != null )
+		{
+			Relation r = ds.getRelation( relationId );
+			if( r != null ) return r;
+		}
+		Relation r = new Relation( relationId );
+		if( getType( found ) != null ) r.put( TYPE, getType( found ) );
+		if( getPublicTransport( found ) != null )
+		    r.put( PUBLIC_TRANSPORT, getPublicTransport( found ) );
+		return r;
+	}
+
+
+
+
+	/**
+	 * Builds the index of an extract. Only the relations of the extract are
+	 * read.
+	 *
+	 * @param extract
+	 *            the extract, see {@link OsmFileReader}. Must not be null.
+	 * @param index
+	 *            the index to write. Must not be null.
+	 * @return the number of entries of the index
+	 * @throws IOException
+	 *             thrown if the extract can't be read or the index can't be
+	 *             written
+	 * @throws IllegalDataException
+	 *             thrown if the extract can't be parsed
+	 */
+	public static int build( File extract, File index ) throws IOException,
+	        IllegalDataException
+	{
+		CheckParameterUtil.ensureParameterNotNull( index, "index" );
+		Builder builder = new Builder();
+		InputStream in = OsmFileReader.getInputStream( extract );
+		try
+		{
+			if( extract.getName().toLowerCase().endsWith( ".pbf" ) )
+				new PbfScanner( builder ).doParseDataSet( in, null );
+			else scanXml( in, builder );
+		}
+		finally
+		{
+			in.close();
+		}
+		builder.write( index );
+		return builder.size;
+	}
+
+
+
+
+	/**
+	 * Reads the relations of an XML extract, skipping everything else
+	 */
+	private static void scanXml( InputStream in, Builder builder )
+	        throws IllegalDataException
+	{
+		try
+		{
+			XMLStreamReader parser = XMLInputFactory.newInstance()
+			        .createXMLStreamReader( in );
+			long relationId = 0;
+			List<RelationMemberData> members = new ArrayList<RelationMemberData>();
+			String type = null;
+			String publicTransport = null;
+			while( parser.hasNext() )
+			{
+				int event = parser.next();
+				if( event == XMLStreamConstants.START_ELEMENT )
+				{
+					String name = parser.getLocalName();
+					if( name.equals( "relation" ) )
+					{
+						relationId = Long.parseLong( parser.getAttributeValue(
+						        null, "id" ) );
+						members.clear();
+						type = null;
+						publicTransport = null;
+					}
+					else if( relationId == 0 )
+					{
+						continue;
+					}
+					else if( name.equals( "member" ) )
+					{
+						members.add( new RelationMemberData( "",
+						        OsmPrimitiveType.fromApiTypeName( parser
+						                .getAttributeValue( null, "type" ) ),
+						        Long.parseLong( parser.getAttributeValue( null,
+						                "ref" ) ) ) );
+					}
+					else if( name.equals( "tag" ) )
+					{
+						String k = parser.getAttributeValue( null, "k" );
+						if( TYPE.equals( k ) )
+							type = parser.getAttributeValue( null, "v" );
+						else if( PUBLIC_TRANSPORT.equals( k ) )
+						    publicTransport = parser.getAttributeValue( null,
+						            "v" );
+					}
+				}
+				else if( event == XMLStreamConstants.END_ELEMENT
+				        && relationId != 0
+				        && parser.getLocalName().equals( "relation" ) )
+				{
+					builder.add( relationId, members, type, publicTransport );
+					relationId = 0;
+				}
+			}
+			parser.close();
+		}
+		catch( XMLStreamException e )
+		{
+			throw new IllegalDataException( e );
+		}
+		catch( IllegalArgumentException e )
+		{
+			throw new IllegalDataException( e );
+		}
+	}
+
+
+
+
+	/**
+	 * Reads the relations of a PBF extract, skipping its nodes and ways
+	 */
+	private static class PbfScanner extends PbfReader
+	{
+		private final Builder	builder;
+
+
+
+
+		private PbfScanner( Builder builder )
+		{
+			this.builder = builder;
+		}
+
+
+
+
+		@Override
+		protected boolean isRelationsOnly()
+		{
+			return true;
+		}
+
+
+
+
+		@Override
+		protected void relationRead( Relation r,
+		        Collection<RelationMemberData> members )
+		{
+			builder.add( r.getId(), members, r.get( TYPE ),
+			        r.get( PUBLIC_TRANSPORT ) );
+		}
+	}
+
+
+
+
+	/**
+	 * The entries of the index being built, 3 longs per entry: key, relation
+	 * id, and the two value indexes
+	 */
+	private static class Builder
+	{
+		private long[]	                   entries	= new long[3 * 1024];
+
+
+		private int	                       size;
+
+
+		private final Map<String, Integer>	valueIndexes	= new HashMap<String, Integer>();
+
+
+		private final List<String>	       values	= new ArrayList<String>();
+
+
+
+
+		private void add( long relationId,
+		        Collection<RelationMemberData> members, String type,
+		        String publicTransport )
+		{
+			if( publicTransport == null && !PUBLIC_TRANSPORT.equals( type ) )
+			    return;
+			long tags = ( ( long ) indexOf( type ) << 32 )
+			        | ( indexOf( publicTransport ) & 0xffffffffL );
+			for( RelationMemberData member : members )
+			{
+				if( 3 * ( size + 1 ) > entries.length )
+				    entries = Arrays.copyOf( entries, entries.length * 2 );
+				entries[3 * size] = key( member.getMemberType(),
+				        member.getMemberId() );
+				entries[3 * size + 1] = relationId;
+				entries[3 * size + 2] = tags;
+				size++;
+			}
+		}
+
+
+
+
+		private int indexOf( String value )
+		{
+			if( value == null ) return -1;
+			Integer index = valueIndexes.get( value );
+			if( index == null )
+			{
+				index = values.size();
+				values.add( value );
+				valueIndexes.put( value, index );
+			}
+			return index;
+		}
+
+
+
+
+		private void write( File index ) throws IOException
+		{
+			sort( 0, size - 1 );
+
+			File tmp = new File( index.getPath() + ".tmp" );
+			DataOutputStream out = new DataOutputStream(
+			        new BufferedOutputStream( new FileOutputStream( tmp ),
+			                64 * 1024 ) );
+			try
+			{
+				out.writeInt( MAGIC );
+				out.writeInt( FORMAT_VERSION );
+				out.writeInt( values.size() );
+				for( String value : values )
+				{
+					out.writeUTF( value );
+				}
+				out.writeInt( size );
+				for( int i = 0; i < size; i++ )
+				{
+					out.writeLong( entries[3 * i] );
+					out.writeLong( entries[3 * i + 1] );
+					out.writeLong( entries[3 * i + 2] );
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			if( index.exists() && !index.delete() || !tmp.renameTo( index ) )
+			{
+				tmp.delete();
+				throw new IOException( tr( "Failed to write the index {0}",
+				        index ) );
+			}
+		}
+
+
+
+
+		private int compare( int i, int j )
+		{
+			int c = Long.compare( entries[3 * i], entries[3 * j] );
+			return c != 0 ? c : Long.compare( entries[3 * i + 1],
+			        entries[3 * j + 1] );
+		}
+
+
+
+
+		private void swap( int i, int j )
+		{
+			for( int k = 0; k < 3; k++ )
+			{
+				long tmp = entries[3 * i + k];
+				entries[3 * i + k] = entries[3 * j + k];
+				entries[3 * j + k] = tmp;
+			}
+		}
+
+
+
+
+		/**
+		 * Sorts the entries by key then by relation, in place
+		 */
+		private void sort( int low, int high )
+		{
+			while( low < high )
+			{
+				if( high - low < 16 )
+				{
+					for( int i = low + 1; i <= high; i++ )
+					{
+						for( int j = i; j > low && compare( j - 1, j ) > 0; j-- )
+						{
+							swap( j - 1, j );
+						}
+					}
+					return;
+				}
+				swap( low, ( low + high ) >>> 1 );
+				int last = low;
+				for( int i = low + 1; i <= high; i++ )
+				{
+					if( compare( i, low ) < 0 ) swap( ++last, i );
+				}
+				swap( low, last );
+				// the smaller part first, so that the stack stays small
+				if( last - low < high - last )
+				{
+					sort( low, last - 1 );
+					low = last + 1;
+				}
+				else
+				{
+					sort( last + 1, high );
+					high = last - 1;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,330 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.windu2b.osm.check_transport_relations.tools.CheckParameterUtil;
+
+/**
+ * Decides whether a failed request is retried, and after which delay.
+ *
+ * The requests are retried on the 5xx errors, on the throttling responses
+ * (429 Too Many Requests and 509 Bandwidth Limit Exceeded) and on the timeouts
+ * and connection failures. The delay grows exponentially from
+ * <code>osm-server.retry-base-delay</code> up to
+ * <code>osm-server.retry-max-delay</code> milliseconds, with a random jitter so
+ * that the readers don't retry all together. A delay given by the server in a
+ * <code>Retry-After</code> header is used as is; for a throttling response it
+ * also pauses the {@link RateLimiter}, so that no reader hits the server in
+ * the meantime.
+ *
+ * The number of retries is set by <code>osm-server.max-retries</code>.
+ *
+ */
+public class RetryPolicy
+{
+	/**
+	 * Replied by the servers when a client sends too many requests
+	 */
+	static public final int	         HTTP_TOO_MANY_REQUESTS	        = 429;
+
+
+	/**
+	 * Replied by the OSM API when a client downloads too much data
+	 */
+	static public final int	         HTTP_BANDWIDTH_LIMIT_EXCEEDED	= 509;
+
+
+	static public final long	     DEFAULT_BASE_DELAY	            = 1000;
+
+
+	static public final long	     DEFAULT_MAX_DELAY	            = 60 * 1000;
+
+
+	// The policy shared by all the readers of a run
+	private static RetryPolicy	     instance;
+
+
+	private final int	             maxRetries;
+
+
+	private final long	             baseDelay;
+
+
+	private final long	             maxDelay;
+
+
+	/** paused after the throttling responses */
+	private final RateLimiter	     rateLimiter;
+
+
+	private final Random	         random	                        = new Random();
+
+
+	/**
+	 * The failures which were already retried as many times as allowed: a
+	 * reader which fails because of one of them is not retried again
+	 */
+	private final Set<Throwable>	 exhausted	                    = Collections
+	                                                                    .newSetFromMap( new WeakHashMap<Throwable, Boolean>() );
+
+
+	private long	                 retries;
+
+
+	private long	                 throttled;
+
+
+
+
+	/**
+	 * Replies the policy shared by all the readers of a run
+	 *
+	 * @return the shared policy
+	 */
+	public static synchronized RetryPolicy getInstance()
+	{
+		if( instance == null )
+		{
+			instance = new RetryPolicy( Integer.getInteger(
+			        "osm-server.max-retries", OsmApi.DEFAULT_MAX_NUM_RETRIES ),
+			        Long.getLong( "osm-server.retry-base-delay",
+			                DEFAULT_BASE_DELAY ), Long.getLong(
+			                "osm-server.retry-max-delay", DEFAULT_MAX_DELAY ) );
+		}
+		return instance;
+	}
+
+
+
+
+	/**
+	 * Creates a new policy
+	 *
+	 * @param maxRetries
+	 *            the number of retries of a request. >= 0 expected
+	 * @param baseDelay
+	 *            the delay before the first retry, in milliseconds. > 0
+	 *            expected
+	 * @param maxDelay
+	 *            the maximum delay between two retries, in milliseconds
+	 * @throws IllegalArgumentException
+	 *             thrown if maxRetries < 0 or baseDelay <= 0
+	 */
+	public RetryPolicy( int maxRetries, long baseDelay, long maxDelay )
+	{
+		this( maxRetries, baseDelay, maxDelay, RateLimiter.getInstance() );
+	}
+
+
+
+
+	/**
+	 * Creates a new policy
+	 *
+	 * @param maxRetries
+	 *            the number of retries of a request. >= 0 expected
+	 * @param baseDelay
+	 *            the delay before the first retry, in milliseconds. > 0
+	 *            expected
+	 * @param maxDelay
+	 *            the maximum delay between two retries, in milliseconds
+	 * @param rateLimiter
+	 *            the limiter paused after a throttling response. Must not be
+	 *            null.
+	 * @throws IllegalArgumentException
+	 *             thrown if maxRetries < 0 or baseDelay <= 0
+	 */
+	public RetryPolicy( int maxRetries, long baseDelay, long maxDelay,
+	        RateLimiter rateLimiter )
+	{
+		CheckParameterUtil.ensureParameterNotNull( rateLimiter, "rateLimiter" );
+		if( maxRetries < 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' >= 0 expected. Got ''{1}''.",
+		            "maxRetries", maxRetries ) );
+		if( baseDelay <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.",
+		            "baseDelay", baseDelay ) );
+		this.maxRetries = maxRetries;
+		this.baseDelay = baseDelay;
+		this.maxDelay = Math.max( baseDelay, maxDelay );
+		this.rateLimiter = rateLimiter;
+	}
+
+
+
+
+	/**
+	 * Replies true if a request which failed with <code>e</code> may succeed
+	 * later
+	 *
+	 * @param e
+	 *            the failure
+	 * @return true if the request can be retried
+	 */
+	public static boolean isRetryable( Throwable e )
+	{
+		if( e instanceof OsmTransferCanceledException ) return false;
+		for( Throwable t = e; t != null; t = t.getCause() )
+		{
+			if( t instanceof OsmApiException )
+			{
+				int code = ( ( OsmApiException ) t ).getResponseCode();
+				return code == HTTP_TOO_MANY_REQUESTS
+				        || code >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+			}
+			if( t instanceof SocketTimeoutException
+			        || t instanceof SocketException ) return true;
+		}
+		return false;
+	}
+
+
+
+
+	/**
+	 * Replies true if <code>e</code> is a throttling response of the server
+	 */
+	public static boolean isThrottled( Throwable e )
+	{
+		if( !( e instanceof OsmApiException ) ) return false;
+		int code = ( ( OsmApiException ) e ).getResponseCode();
+		return code == HTTP_TOO_MANY_REQUESTS
+		        || code == HTTP_BANDWIDTH_LIMIT_EXCEEDED;
+	}
+
+
+
+
+	/**
+	 * Parses the value of a <code>Retry-After</code> header, either a number of
+	 * seconds or a date
+	 *
+	 * @param value
+	 *            the value of the header. May be null.
+	 * @return the delay in milliseconds; -1, if there is no valid value
+	 */
+	public static long parseRetryAfter( String value )
+	{
+		if( value == null ) return -1;
+		value = value.trim();
+		try
+		{
+			return Math.max( 0, Long.parseLong( value ) * 1000 );
+		}
+		catch( NumberFormatException e )
+		{
+			// a date, then
+		}
+		try
+		{
+			SimpleDateFormat format = new SimpleDateFormat(
+			        "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US );
+			return Math.max( 0, format.parse( value ).getTime()
+			        - System.currentTimeMillis() );
+		}
+		catch( ParseException e )
+		{
+			return -1;
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the delay before the next attempt of a failed request
+	 *
+	 * @param attempt
+	 *            the number of retries already made for the request
+	 * @param e
+	 *            the failure
+	 * @return the delay in milliseconds; -1, if the request must not be
+	 *         retried
+	 */
+	public long nextDelay( int attempt, Throwable e )
+	{
+		synchronized( this )
+		{
+			if( exhausted.contains( e ) || !isRetryable( e ) ) return -1;
+			if( attempt >= maxRetries )
+			{
+				exhausted.add( e );
+				return -1;
+			}
+		}
+
+		long delay = -1;
+		if( e instanceof OsmApiException )
+		{
+			delay = parseRetryAfter( ( ( OsmApiException ) e ).getRetryAfter() );
+		}
+		synchronized( this )
+		{
+			if( delay < 0 )
+			{
+				// exponential backoff, the second half being random
+				long backoff = baseDelay << Math.min( attempt, 30 );
+				if( backoff <= 0 || backoff > maxDelay ) backoff = maxDelay;
+				delay = backoff / 2
+				        + ( long ) ( random.nextDouble() * ( backoff / 2 + 1 ) );
+			}
+			retries++;
+			if( isThrottled( e ) ) throttled++;
+		}
+		if( isThrottled( e ) )
+		{
+			rateLimiter.pause( delay );
+		}
+		Log.log( tr( "Request failed ({0}), retry {1} of {2} in {3} ms",
+		        e.getMessage(), attempt + 1, maxRetries, delay ) );
+		return delay;
+	}
+
+
+
+
+	public int getMaxRetries()
+	{
+		return maxRetries;
+	}
+
+
+
+
+	public synchronized long getRetries()
+	{
+		return retries;
+	}
+
+
+
+
+	public synchronized long getThrottled()
+	{
+		return throttled;
+	}
+
+
+
+
+	@Override
+	public synchronized String toString()
+	{
+		return tr( "Retries : {0}, {1} after a throttling response", retries,
+		        throttled );
+	}
+}
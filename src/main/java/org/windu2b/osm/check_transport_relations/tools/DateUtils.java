@@ -74,98 +74,185 @@ public final class DateUtils
 
 
 
-	public static synchronized Date fromString( String str )
+	/**
+	 * Parses a date
+	 * 
+	 * @param str
+	 *            the date, i.e. "2007-07-25T09:26:24Z"
+	 * @return the date; the current date, if str can't be parsed
+	 */
+	public static Date fromString( String str )
+	{
+		long millis = parseIsoDate( str );
+		if ( millis != Long.MIN_VALUE ) return new Date( millis );
+		return parseOtherDate( str );
+	}
+
+
+
+
+	/**
+	 * Parses a date into milliseconds since the epoch, without allocating
+	 * anything for the common layouts of the OSM files
+	 * 
+	 * @param str
+	 *            the date, i.e. "2007-07-25T09:26:24Z"
+	 * @return the milliseconds since the epoch; the current time, if str can't
+	 *         be parsed
+	 * @see #fromString(String)
+	 */
+	public static long toEpochMillis( String str )
+	{
+		long millis = parseIsoDate( str );
+		if ( millis != Long.MIN_VALUE ) return millis;
+		return parseOtherDate( str ).getTime();
+	}
+
+
+
+
+	/**
+	 * Parses the layouts "2007-07-25T09:26:24{Z|{+|-}01:00}" and
+	 * "2007-07-25T09:26:24.123{Z|{+|-}01:00}" with integer arithmetic. It
+	 * needs no lock: the dates are read by several threads. Like the lenient
+	 * {@link GregorianCalendar}, the fields out of their ranges overflow into
+	 * the next ones, but the dates before 1582 are proleptic Gregorian ones.
+	 * 
+	 * @return the milliseconds since the epoch; Long.MIN_VALUE, if str has
+	 *         another layout
+	 */
+	private static long parseIsoDate( String str )
 	{
-		// "2007-07-25T09:26:24{Z|{+|-}01:00}"
-		if ( checkLayout( str, "xxxx-xx-xxTxx:xx:xxZ" )
-		        || checkLayout( str, "xxxx-xx-xxTxx:xx:xx" )
-		        || checkLayout( str, "xxxx-xx-xxTxx:xx:xx+xx:00" )
-		        || checkLayout( str, "xxxx-xx-xxTxx:xx:xx-xx:00" ) )
+		if ( str == null ) return Long.MIN_VALUE;
+		int length = str.length();
+		int zone;
+		if ( length == 19 || length == 20 || length == 25 )
+			zone = 19;
+		else if ( length == 23 || length == 24 || length == 29 )
+			zone = 23;
+		else return Long.MIN_VALUE;
+		if ( str.charAt( 4 ) != '-' || str.charAt( 7 ) != '-'
+		        || str.charAt( 10 ) != 'T' || str.charAt( 13 ) != ':'
+		        || str.charAt( 16 ) != ':' ) return Long.MIN_VALUE;
+
+		int year = digits( str, 0, 4 );
+		int month = digits( str, 5, 2 );
+		int day = digits( str, 8, 2 );
+		int hour = digits( str, 11, 2 );
+		int minute = digits( str, 14, 2 );
+		int second = digits( str, 17, 2 );
+		int millis = 0;
+		if ( zone == 23 )
 		{
-			calendar.set( parsePart( str, 0, 4 ), parsePart( str, 5, 2 ) - 1,
-			        parsePart( str, 8, 2 ), parsePart( str, 11, 2 ),
-			        parsePart( str, 14, 2 ), parsePart( str, 17, 2 ) );
-
-			if ( str.length() == 25 )
-			{
-				int plusHr = parsePart( str, 20, 2 );
-				int mul = str.charAt( 19 ) == '+' ? -3600000 : 3600000;
-				calendar.setTimeInMillis( calendar.getTimeInMillis() + plusHr
-				        * mul );
-			}
-
-			return calendar.getTime();
+			if ( str.charAt( 19 ) != '.' ) return Long.MIN_VALUE;
+			millis = digits( str, 20, 3 );
 		}
-		else if ( checkLayout( str, "xxxx-xx-xxTxx:xx:xx.xxxZ" )
-		        || checkLayout( str, "xxxx-xx-xxTxx:xx:xx.xxx" )
-		        || checkLayout( str, "xxxx-xx-xxTxx:xx:xx.xxx+xx:00" )
-		        || checkLayout( str, "xxxx-xx-xxTxx:xx:xx.xxx-xx:00" ) )
+		if ( ( year | month | day | hour | minute | second | millis ) < 0 )
+		    return Long.MIN_VALUE;
+
+		long offset = 0;
+		if ( length == zone + 1 )
 		{
-			calendar.set( parsePart( str, 0, 4 ), parsePart( str, 5, 2 ) - 1,
-			        parsePart( str, 8, 2 ), parsePart( str, 11, 2 ),
-			        parsePart( str, 14, 2 ), parsePart( str, 17, 2 ) );
-			long millis = parsePart( str, 20, 3 );
-			if ( str.length() == 29 )
-			    millis += parsePart( str, 24, 2 )
-			            * ( str.charAt( 23 ) == '+' ? -3600000 : 3600000 );
-			calendar.setTimeInMillis( calendar.getTimeInMillis() + millis );
-
-			return calendar.getTime();
+			if ( str.charAt( zone ) != 'Z' ) return Long.MIN_VALUE;
 		}
-		else
+		else if ( length == zone + 6 )
 		{
-			// example date format "18-AUG-08 13:33:03"
-			SimpleDateFormat f = new SimpleDateFormat( "dd-MMM-yy HH:mm:ss" );
-			Date d = f.parse( str, new ParsePosition( 0 ) );
-			if ( d != null ) return d;
+			char sign = str.charAt( zone );
+			int hours = digits( str, zone + 1, 2 );
+			if ( ( sign != '+' && sign != '-' ) || hours < 0
+			        || str.charAt( zone + 3 ) != ':'
+			        || str.charAt( zone + 4 ) != '0'
+			        || str.charAt( zone + 5 ) != '0' ) return Long.MIN_VALUE;
+			offset = hours * ( sign == '+' ? -3600000L : 3600000L );
 		}
 
-		try
+		// the months out of range overflow into the years
+		month -= 1;
+		if ( month < 0 )
 		{
-			return XML_DATE.newXMLGregorianCalendar( str )
-			        .toGregorianCalendar().getTime();
-		}
-		catch ( Exception ex )
-		{
-			return new Date();
+			year--;
+			month += 12;
 		}
+		year += month / 12;
+		month = month % 12 + 1;
+
+		long days = daysFromCivil( year, month, 1 ) + day - 1;
+		return ( ( days * 24 + hour ) * 60 + minute ) * 60000L + second
+		        * 1000L + millis + offset;
 	}
 
 
 
 
-	public static synchronized String fromDate( Date date )
+	/**
+	 * Replies the number of days from 1970-01-01 to a date of the proleptic
+	 * Gregorian calendar (H. Hinnant's algorithm)
+	 */
+	private static long daysFromCivil( int year, int month, int day )
 	{
-		calendar.setTime( date );
-		XMLGregorianCalendar xgc = XML_DATE.newXMLGregorianCalendar( calendar );
-		if ( calendar.get( Calendar.MILLISECOND ) == 0 )
-		    xgc.setFractionalSecond( null );
-		return xgc.toXMLFormat();
+		if ( month <= 2 ) year--;
+		int era = ( year >= 0 ? year : year - 399 ) / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = ( 153 * ( month + ( month > 2 ? -3 : 9 ) ) + 2 ) / 5
+		        + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+		        + dayOfYear;
+		return era * 146097L + dayOfEra - 719468;
 	}
 
 
 
 
-	private static boolean checkLayout( String text, String pattern )
+	/**
+	 * Replies the value of some decimal digits; -1, if one of the characters
+	 * isn't a digit
+	 */
+	private static int digits( String str, int off, int len )
 	{
-		if ( text.length() != pattern.length() ) return false;
-		for ( int i = 0; i < pattern.length(); i++ )
+		int value = 0;
+		for ( int i = off; i < off + len; i++ )
 		{
-			char pc = pattern.charAt( i );
-			char tc = text.charAt( i );
-			if ( pc == 'x' && tc >= '0' && tc <= '9' )
-				continue;
-			else if ( pc == 'x' || pc != tc ) return false;
+			int digit = str.charAt( i ) - '0';
+			if ( digit < 0 || digit > 9 ) return -1;
+			value = value * 10 + digit;
 		}
-		return true;
+		return value;
 	}
 
 
 
 
-	private static int parsePart( String str, int off, int len )
+	/**
+	 * Parses the other layouts. The {@link DatatypeFactory} isn't known to be
+	 * thread safe : the calls are guarded by the class lock.
+	 */
+	private static synchronized Date parseOtherDate( String str )
 	{
-		return Integer.valueOf( str.substring( off, off + len ) );
+		// example date format "18-AUG-08 13:33:03"
+		SimpleDateFormat f = new SimpleDateFormat( "dd-MMM-yy HH:mm:ss" );
+		Date d = f.parse( str, new ParsePosition( 0 ) );
+		if ( d != null ) return d;
+
+		try
+		{
+			return XML_DATE.newXMLGregorianCalendar( str )
+			        .toGregorianCalendar().getTime();
+		}
+		catch ( Exception ex )
+		{
+			return new Date();
+		}
 	}
 
+
+
+
+	public static synchronized String fromDate( Date date )
+	{
+		calendar.setTime( date );
+		XMLGregorianCalendar xgc = XML_DATE.newXMLGregorianCalendar( calendar );
+		if ( calendar.get( Calendar.MILLISECOND ) == 0 )
+		    xgc.setFractionalSecond( null );
+		return xgc.toXMLFormat();
+	}
 }
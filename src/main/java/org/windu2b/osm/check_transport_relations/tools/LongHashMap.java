@@ -0,0 +1,236 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.tools;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A map from long keys to objects, which doesn't box its keys nor allocate
+ * any entry: the keys and the values are stored in two arrays, with open
+ * addressing and linear probing.
+ *
+ * The values can't be null, and the entries can't be removed. This class is
+ * not thread safe.
+ *
+ * @param <V>
+ *            the type of the values
+ */
+public class LongHashMap<V>
+{
+	private long[]	 keys;
+
+
+	private Object[]	values;
+
+
+	private int	     size;
+
+
+
+
+	public LongHashMap()
+	{
+		this( 16 );
+	}
+
+
+
+
+	/**
+	 * Creates a map
+	 *
+	 * @param expectedSize
+	 *            the number of entries the map holds without growing. >= 0
+	 *            expected
+	 * @throws IllegalArgumentException
+	 *             thrown if expectedSize < 0
+	 */
+	public LongHashMap( int expectedSize )
+	{
+		if( expectedSize < 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' >= 0 expected. Got ''{1}''.",
+		            "expectedSize", expectedSize ) );
+		int capacity = 16;
+		while( capacity * 3 < expectedSize * 4 )
+		{
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		values = new Object[capacity];
+	}
+
+
+
+
+	private static int hash( long key, int mask )
+	{
+		long h = key * 0x9e3779b97f4a7c15L;
+		return ( int ) ( h ^ ( h >>> 32 ) ) & mask;
+	}
+
+
+
+
+	/**
+	 * Replies the slot of a key: the slot where it is, or the free slot where
+	 * it would be put
+	 */
+	private int slot( long key )
+	{
+		int mask = keys.length - 1;
+		int i = hash( key, mask );
+		while( values[i] != null && keys[i] != key )
+		{
+			i = ( i + 1 ) & mask;
+		}
+		return i;
+	}
+
+
+
+
+	@SuppressWarnings( "unchecked" )
+	public V get( long key )
+	{
+		return ( V ) values[slot( key )];
+	}
+
+
+
+
+	public boolean containsKey( long key )
+	{
+		return values[slot( key )] != null;
+	}
+
+
+
+
+	/**
+	 * Maps a key to a value
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value. Must not be null.
+	 * @return the previous value of the key; null, if there was none
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V put( long key, V value )
+	{
+		CheckParameterUtil.ensureParameterNotNull( value, "value" );
+		int i = slot( key );
+		Object previous = values[i];
+		keys[i] = key;
+		values[i] = value;
+		if( previous == null && ++size * 4 > keys.length * 3 )
+		{
+			grow();
+		}
+		return ( V ) previous;
+	}
+
+
+
+
+	/**
+	 * Copies all the entries of another map to this map
+	 *
+	 * @param other
+	 *            the other map. Must not be null.
+	 */
+	public void putAll( LongHashMap<? extends V> other )
+	{
+		CheckParameterUtil.ensureParameterNotNull( other, "other" );
+		for( int i = 0; i < other.keys.length; i++ )
+		{
+			if( other.values[i] != null )
+			{
+				@SuppressWarnings( "unchecked" )
+				V value = ( V ) other.values[i];
+				put( other.keys[i], value );
+			}
+		}
+	}
+
+
+
+
+	private void grow()
+	{
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new Object[oldValues.length * 2];
+		for( int i = 0; i < oldKeys.length; i++ )
+		{
+			if( oldValues[i] == null ) continue;
+			int j = slot( oldKeys[i] );
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+
+
+
+
+	public int size()
+	{
+		return size;
+	}
+
+
+
+
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+
+
+
+	public void clear()
+	{
+		Arrays.fill( values, null );
+		size = 0;
+	}
+
+
+
+
+	/**
+	 * Replies the keys of the map, in no particular order
+	 */
+	public long[] keys()
+	{
+		long[] result = new long[size];
+		int n = 0;
+		for( int i = 0; i < keys.length; i++ )
+		{
+			if( values[i] != null ) result[n++] = keys[i];
+		}
+		return result;
+	}
+
+
+
+
+	/**
+	 * Replies the values of the map, in the order of {@link #keys()}
+	 */
+	@SuppressWarnings( "unchecked" )
+	public List<V> values()
+	{
+		List<V> result = new ArrayList<V>( size );
+		for( int i = 0; i < keys.length; i++ )
+		{
+			if( values[i] != null ) result.add( ( V ) values[i] );
+		}
+		return result;
+	}
+}
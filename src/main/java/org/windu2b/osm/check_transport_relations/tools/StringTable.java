@@ -0,0 +1,141 @@
+// License: GPL. For details, see LICENSE file.
+package org.windu2b.osm.check_transport_relations.tools;
+
+import static org.windu2b.osm.check_transport_relations.tools.I18n.tr;
+
+/**
+ * A bounded table of canonical strings, replacing {@link String#intern()} for
+ * the keys and the values of the tags: equal strings read from the data share
+ * a single instance, without growing the string table of the JVM.
+ *
+ * The table is direct mapped: each string has a single slot, and a string
+ * replaces the one of the same slot, so that the table never holds more than
+ * its capacity and the rare strings don't stay in it. It isn't locked: the
+ * readers of several threads may share it, at the cost of some duplicates
+ * when two of them write the same slot.
+ */
+public class StringTable
+{
+	/** The number of slots of the shared table */
+	public static final int	   DEFAULT_CAPACITY	= 1 << 16;
+
+
+	private static StringTable	instance;
+
+
+	private final String[]	   slots;
+
+
+
+
+	/**
+	 * Replies the table shared by the readers
+	 *
+	 * @return the table
+	 */
+	public static synchronized StringTable getInstance()
+	{
+		if( instance == null )
+		{
+			instance = new StringTable( DEFAULT_CAPACITY );
+		}
+		return instance;
+	}
+
+
+
+
+	/**
+	 * Creates a table
+	 *
+	 * @param capacity
+	 *            the number of slots, rounded up to a power of two. > 0
+	 *            expected
+	 * @throws IllegalArgumentException
+	 *             thrown if capacity <= 0
+	 */
+	public StringTable( int capacity )
+	{
+		if( capacity <= 0 )
+		    throw new IllegalArgumentException( tr(
+		            "Parameter ''{0}'' > 0 expected. Got ''{1}''.", "capacity",
+		            capacity ) );
+		int n = 1;
+		while( n < capacity )
+		{
+			n <<= 1;
+		}
+		slots = new String[n];
+	}
+
+
+
+
+	/**
+	 * Replies the canonical instance of a string: the one already in the
+	 * table, if it is equal, otherwise the string itself, which becomes the
+	 * canonical instance
+	 *
+	 * @param s
+	 *            the string. May be null.
+	 * @return the canonical instance; null, if s is null
+	 */
+	public String get( String s )
+	{
+		if( s == null ) return null;
+		int h = s.hashCode();
+		int i = ( h ^ ( h >>> 16 ) ) & ( slots.length - 1 );
+		String canonical = slots[i];
+		if( canonical != null && canonical.equals( s ) ) return canonical;
+		slots[i] = s;
+		return s;
+	}
+
+
+
+
+	/**
+	 * Replies the number of slots of the table
+	 */
+	public int capacity()
+	{
+		return slots.length;
+	}
+
+
+
+
+	/**
+	 * Replies the number of strings in the table
+	 */
+	public int size()
+	{
+		int size = 0;
+		for( String s : slots )
+		{
+			if( s != null ) size++;
+		}
+		return size;
+	}
+
+
+
+
+	public void clear()
+	{
+		for( int i = 0; i < slots.length; i++ )
+		{
+			slots[i] = null;
+		}
+	}
+
+
+
+
+	@Override
+	public String toString()
+	{
+		return tr( "String table : {0} strings in {1} slots", size(),
+		        capacity() );
+	}
+}
@@ -7,7 +7,9 @@ import org.junit.runners.Suite.SuiteClasses;
 @RunWith( Suite.class )
 @SuiteClasses( {
         org.windu2b.osm.check_transport_relations.check.AllTests.class,
-        org.windu2b.osm.check_transport_relations.data.osm.AllTests.class } )
+        org.windu2b.osm.check_transport_relations.data.osm.AllTests.class,
+        org.windu2b.osm.check_transport_relations.io.AllTests.class,
+        org.windu2b.osm.check_transport_relations.tools.AllTests.class } )
 public class AllTests
 {
 
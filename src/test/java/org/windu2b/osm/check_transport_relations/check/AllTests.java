@@ -6,7 +6,8 @@ import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith( Suite.class )
 @SuiteClasses( { AbstractCheckTest.class, CheckPlatformTest.class,
-        CheckStopPositionTest.class, CheckTest.class, CheckWayTest.class } )
+        CheckStopPositionTest.class, CheckTest.class, CheckWayTest.class,
+        RoutePrefetcherTest.class, PlatformProximityTest.class } )
 public class AllTests
 {
 
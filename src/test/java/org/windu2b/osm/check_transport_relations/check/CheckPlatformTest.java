@@ -11,6 +11,7 @@ import java.util.Map;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
 import org.windu2b.osm.check_transport_relations.data.osm.Node;
 import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
 import org.windu2b.osm.check_transport_relations.data.osm.Relation;
@@ -85,6 +86,7 @@ public class CheckPlatformTest
 	{
 		check = null;
 		LastElements.reset();
+		CheckPlatform.setMaxDistance( 0 );
 	}
 
 
@@ -312,4 +314,97 @@ public class CheckPlatformTest
 			e.printStackTrace();
 		}
 	}
+
+
+
+
+	/**
+	 * Simule un 'stop_position' et une 'platform' node d'une même 'stop_area',
+	 * dans un extrait local, la 'platform' étant à environ 111 m au nord du
+	 * 'stop_position'
+	 * 
+	 * @return le membre 'platform'
+	 */
+	private RelationMember stopAreaAtAboutHundredMetres()
+	{
+		DataSet ds = new DataSet();
+		ds.setLocalOnly( true );
+
+		Node platform = new Node( 1849501769 );
+		Map<String, String> keysPlatform = new HashMap<>();
+		keysPlatform.put( "public_transport", "platform" );
+		platform.setKeys( keysPlatform );
+
+		nStopPosition.setCoor( 48.0, 2.0 );
+		platform.setCoor( 48.001, 2.0 );
+		ds.addPrimitive( nStopPosition );
+		ds.addPrimitive( platform );
+
+		Map<String, String> keysStopArea = new HashMap<>();
+		keysStopArea.put( "type", "public_transport" );
+		keysStopArea.put( "public_transport", "stop_area" );
+		rStopArea.setKeys( keysStopArea );
+		ds.addPrimitive( rStopArea );
+		rStopArea.addMember( new RelationMember( "stop", nStopPosition ) );
+		rStopArea.addMember( new RelationMember( "platform", platform ) );
+
+		// On simule la vérification du 'stop_position'
+		LastElements.lastStopPosition = nStopPosition;
+		LastElements.lastStopArea = rStopArea;
+		check.cState = check.cPlatform;
+
+		return new RelationMember( "platform", platform );
+	}
+
+
+
+
+	/**
+	 * Test method for
+	 * {@link org.windu2b.osm.check_transport_relations.check.CheckPlatform#check(OsmPrimitive)}
+	 * .
+	 */
+	@Test
+	public final void testCheckWithAPlatformWithinTheMaxDistance()
+	{
+		RelationMember rm = stopAreaAtAboutHundredMetres();
+		ICheck cp = new CheckPlatform( check );
+
+		CheckPlatform.setMaxDistance( 150 );
+		try
+		{
+			assertTrue( cp.check( rm ) );
+			assertNull( LastElements.getLastStopPosition() );
+		}
+		catch( OsmTransferException e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	/**
+	 * Test method for
+	 * {@link org.windu2b.osm.check_transport_relations.check.CheckPlatform#check(OsmPrimitive)}
+	 * .
+	 */
+	@Test
+	public final void testCheckWithAPlatformBeyondTheMaxDistance()
+	{
+		RelationMember rm = stopAreaAtAboutHundredMetres();
+		ICheck cp = new CheckPlatform( check );
+
+		CheckPlatform.setMaxDistance( 50 );
+		try
+		{
+			assertFalse( cp.check( rm ) );
+			assertEquals( nStopPosition, LastElements.getLastStopPosition() );
+		}
+		catch( OsmTransferException e )
+		{
+			fail( e.toString() );
+		}
+	}
 }
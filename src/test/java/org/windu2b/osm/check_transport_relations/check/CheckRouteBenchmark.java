@@ -0,0 +1,139 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.check;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.RelationMember;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+
+/**
+ * Measures the time of the checks of the routes of a local extract, with the
+ * members of the relations stored as {@link RelationMember}s and in columns
+ * (see {@link Relation#setColumnarMembers(boolean)}). The messages of the
+ * checks are discarded. Not run by the tests.
+ *
+ * Usage : <code>java -Xmx2g CheckRouteBenchmark</code>.
+ *
+ * @author windu
+ *
+ */
+public class CheckRouteBenchmark
+{
+	private static final int	RUNS	= 5;
+
+
+	private static final int	ROUTES	= 2000;
+
+
+	private static final int	STOPS	= 30;
+
+
+
+
+	public static void main( String[] args ) throws Exception
+	{
+		PrintStream out = System.out;
+		for( boolean columnar : new boolean[] { false, true } )
+		{
+			Relation.setColumnarMembers( columnar );
+			List<Relation> routes = extract();
+			long best = Long.MAX_VALUE;
+			System.setOut( new PrintStream( new OutputStream()
+			{
+				@Override
+				public void write( int b )
+				{
+				}
+			} ) );
+			try
+			{
+				for( int run = 0; run < 2 * RUNS; run++ )
+				{
+					long start = System.nanoTime();
+					for( Relation r : routes )
+					{
+						new Check( r ).check();
+						LastElements.reset();
+					}
+					// the first runs warm up
+					if( run >= RUNS )
+					    best = Math.min( best, System.nanoTime() - start );
+				}
+			}
+			finally
+			{
+				System.setOut( out );
+			}
+			out.println( String.format( Locale.ROOT,
+			        "%s : %d routes checked in %.1f ms", columnar ? "columns"
+			                : "members", routes.size(), best / 1e6 ) );
+		}
+		Relation.setColumnarMembers( false );
+	}
+
+
+
+
+	/**
+	 * Replies the routes of a local extract : a way, then the stop_position
+	 * and the platform node of a stop_area, for each stop
+	 */
+	private static List<Relation> extract()
+	{
+		DataSet ds = new DataSet();
+		ds.setLocalOnly( true );
+		List<Relation> routes = new ArrayList<Relation>();
+		long id = 1;
+		for( int r = 0; r < ROUTES; r++ )
+		{
+			List<RelationMember> members = new ArrayList<RelationMember>();
+			Node previous = new Node( id++ );
+			previous.setCoor( 48 + r * 1e-3, 2 - 1e-3 );
+			ds.addPrimitive( previous );
+			for( int s = 0; s < STOPS; s++ )
+			{
+				Node stop = new Node( id++ );
+				stop.put( "public_transport", "stop_position" );
+				stop.setCoor( 48 + r * 1e-3, 2 + s * 1e-3 );
+				ds.addPrimitive( stop );
+				Node platform = new Node( id++ );
+				platform.put( "public_transport", "platform" );
+				platform.setCoor( 48 + r * 1e-3 + 1e-4, 2 + s * 1e-3 );
+				ds.addPrimitive( platform );
+
+				Relation stopArea = new Relation( id++ );
+				stopArea.put( "type", "public_transport" );
+				stopArea.put( "public_transport", "stop_area" );
+				ds.addPrimitive( stopArea );
+				stopArea.addMember( new RelationMember( "stop", stop ) );
+				stopArea.addMember( new RelationMember( "platform", platform ) );
+
+				Way w = new Way( id++ );
+				List<Node> nodes = new ArrayList<Node>();
+				nodes.add( previous );
+				nodes.add( stop );
+				w.setNodes( nodes );
+				ds.addPrimitive( w );
+				members.add( new RelationMember( "", w ) );
+				members.add( new RelationMember( "stop", stop ) );
+				members.add( new RelationMember( "platform", platform ) );
+				previous = stop;
+			}
+			Relation route = new Relation( id++ );
+			route.put( "type", "route" );
+			ds.addPrimitive( route );
+			route.setMembers( members );
+			routes.add( route );
+		}
+		return routes;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.check;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
+import org.windu2b.osm.check_transport_relations.data.osm.PublicTransport;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+
+/**
+ * @author windu
+ *
+ */
+public class PlatformProximityTest
+{
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		CheckPlatform.setMaxDistance( 0 );
+	}
+
+
+
+
+	private static Node node( DataSet ds, long id, double lat, double lon,
+	        String publicTransport )
+	{
+		Node n = new Node( id );
+		n.setCoor( lat, lon );
+		if( publicTransport != null ) n.put( "public_transport", publicTransport );
+		ds.addPrimitive( n );
+		return n;
+	}
+
+
+
+
+	@Test
+	public final void testPlatforms()
+	{
+		DataSet ds = new DataSet();
+		Node stop = node( ds, 1, 48.8700, 2.3200, "stop_position" );
+		// 11 m north of the stop
+		Node near = node( ds, 2, 48.8701, 2.3200, "platform" );
+		// 222 m north of the stop
+		Node far = node( ds, 3, 48.8720, 2.3200, "platform" );
+		// a way with a node 15 m east of the stop
+		Way farWay = new Way( 10 );
+		Node w1 = node( ds, 4, 48.8750, 2.3200, null );
+		Node w2 = node( ds, 5, 48.8700, 2.3202, null );
+		farWay.setNodes( Arrays.asList( w1, w2 ) );
+		farWay.put( "public_transport", "platform" );
+		ds.addPrimitive( farWay );
+		// without coordinates
+		Node unknown = new Node( 6 );
+		unknown.put( "public_transport", "platform" );
+		ds.addPrimitive( unknown );
+
+		assertEquals( 11.1, PublicTransport.distance( stop, near ), 0.1 );
+		assertEquals( 14.6, PublicTransport.distance( stop, farWay ), 0.1 );
+		assertTrue( Double.isNaN( PublicTransport.distance( stop, unknown ) ) );
+
+		List<OsmPrimitive> result = PlatformProximity.check( ds, 50 );
+		assertEquals( Arrays.<OsmPrimitive> asList( far ), result );
+		assertTrue( PlatformProximity.check( ds, 500 ).isEmpty() );
+		assertEquals( 3, PlatformProximity.check( ds, 10 ).size() );
+	}
+
+
+
+
+	@Test
+	public final void testMaxDistance()
+	{
+		assertEquals( 0, CheckPlatform.getMaxDistance(), 0 );
+		CheckPlatform.setMaxDistance( 100 );
+		assertEquals( 100, CheckPlatform.getMaxDistance(), 0 );
+		try
+		{
+			CheckPlatform.setMaxDistance( -1 );
+			fail( "IllegalArgumentException expected" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.check;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
+import org.windu2b.osm.check_transport_relations.data.osm.PrimitiveId;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.RelationMember;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+import org.windu2b.osm.check_transport_relations.io.BackreferenceCache;
+import org.windu2b.osm.check_transport_relations.io.OsmTransferException;
+
+/**
+ * @author windu
+ *
+ */
+public class RoutePrefetcherTest
+{
+	private Relation	route;
+
+
+	private Way	     way;
+
+
+	private Node	 nStopPosition, nPlatform, nMissing;
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		BackreferenceCache.getInstance().clear();
+
+		way = new Way( 1 );
+		way.setOsmId( 1, 1 );
+
+		nStopPosition = new Node( 2 );
+		nStopPosition.setOsmId( 2, 1 );
+		Map<String, String> keysStopPosition = new HashMap<>();
+		keysStopPosition.put( "public_transport", "stop_position" );
+		nStopPosition.setKeys( keysStopPosition );
+
+		nPlatform = new Node( 3 );
+		nPlatform.setOsmId( 3, 1 );
+		Map<String, String> keysPlatform = new HashMap<>();
+		keysPlatform.put( "public_transport", "platform" );
+		nPlatform.setKeys( keysPlatform );
+
+		// only its id is known
+		nMissing = new Node( 4 );
+
+		route = new Relation( 10 );
+		route.addMember( new RelationMember( "", way ) );
+		route.addMember( new RelationMember( "stop", nStopPosition ) );
+		route.addMember( new RelationMember( "platform", nPlatform ) );
+		route.addMember( new RelationMember( "stop", nMissing ) );
+		route.addMember( new RelationMember( "stop", nStopPosition ) );
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		BackreferenceCache.getInstance().clear();
+	}
+
+
+
+
+	@Test
+	public final void testPlanMissingMembers()
+	{
+		List<PrimitiveId> ids = new RoutePrefetcher( route )
+		        .planMissingMembers();
+		assertEquals( 1, ids.size() );
+		assertEquals( nMissing.getPrimitiveId(), ids.get( 0 ) );
+	}
+
+
+
+
+	@Test
+	public final void testPlanBackreferences()
+	{
+		List<OsmPrimitive> primitives = new RoutePrefetcher( route )
+		        .planBackreferences();
+		// the way isn't a stop, and each stop is read once
+		assertEquals( 2, primitives.size() );
+		assertSame( nStopPosition, primitives.get( 0 ) );
+		assertSame( nPlatform, primitives.get( 1 ) );
+
+		// the referrers already read aren't read again
+		BackreferenceCache.getInstance().put( nStopPosition, 1, new DataSet() );
+		primitives = new RoutePrefetcher( route ).planBackreferences();
+		assertEquals( 1, primitives.size() );
+		assertSame( nPlatform, primitives.get( 0 ) );
+	}
+
+
+
+
+	@Test
+	public final void testPrefetchLocalOnly()
+	{
+		DataSet ds = new DataSet();
+		ds.setLocalOnly( true );
+		ds.addPrimitive( route );
+		try
+		{
+			// nothing is downloaded from a local extract
+			new RoutePrefetcher( route ).prefetch();
+			assertEquals( 0, BackreferenceCache.getInstance().size() );
+		}
+		catch( OsmTransferException e )
+		{
+			fail( e.toString() );
+		}
+	}
+}
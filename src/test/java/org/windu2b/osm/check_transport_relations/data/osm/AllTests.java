@@ -5,7 +5,11 @@ import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith( Suite.class )
-@SuiteClasses( { PublicTransportTest.class, StopAreaTest.class, WayTest.class } )
+@SuiteClasses( { PublicTransportTest.class, StopAreaTest.class, WayTest.class,
+        TagStatisticsTest.class, NodeGridTest.class,
+        PrimitiveTableTest.class, PrimitiveListTest.class, TagIndexTest.class,
+        ReferrersTest.class, TagDictionaryTest.class,
+        ColumnarMembersTest.class, DataSetSnapshotTest.class } )
 public class AllTests
 {
 
@@ -0,0 +1,142 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures the memory used by the members of the relations of an extract,
+ * stored as {@link RelationMember}s and in columns (see
+ * {@link Relation#setColumnarMembers(boolean)}), and the time of a walk
+ * through them, as {@link org.windu2b.osm.check_transport_relations.check.CheckRoute}
+ * does. Not run by the tests.
+ *
+ * Usage : <code>java -Xmx2g ColumnarMembersBenchmark</code>.
+ *
+ * @author windu
+ *
+ */
+public class ColumnarMembersBenchmark
+{
+	private static final int	  RUNS	    = 5;
+
+
+	private static final int	  RELATIONS	= 50000;
+
+
+	private static final int	  MEMBERS	= 100;
+
+
+	private static final int	  PRIMITIVES	= 1000000;
+
+
+	private static final String[]	ROLES	    = { "", "stop", "platform",
+	        "outer", "inner", "forward" };
+
+
+
+
+	public static void main( String[] args ) throws Exception
+	{
+		OsmPrimitive[] primitives = new OsmPrimitive[PRIMITIVES];
+		for( int i = 0; i < PRIMITIVES; i++ )
+		{
+			primitives[i] = i % 4 == 0 ? new Way( i + 1 ) : new Node( i + 1 );
+		}
+		for( boolean columnar : new boolean[] { false, true } )
+		{
+			Relation.setColumnarMembers( columnar );
+			long before = usedMemory();
+			Relation[] relations = new Relation[RELATIONS];
+			for( int i = 0; i < RELATIONS; i++ )
+			{
+				relations[i] = new Relation( i + 1 );
+				List<RelationMember> members = new ArrayList<RelationMember>(
+				        MEMBERS );
+				for( int m = 0; m < MEMBERS; m++ )
+				{
+					int index = ( int ) ( ( i * 7919L + m * 104729L ) % PRIMITIVES );
+					members.add( new RelationMember( ROLES[( i + m )
+					        % ROLES.length], primitives[index] ) );
+				}
+				relations[i].setMembers( members );
+			}
+			long used = usedMemory() - before;
+			System.out.println( String.format( Locale.ROOT,
+			        "%s : %.1f MB, walk by members %.1f ms, by index %.1f ms",
+			        columnar ? "columns" : "members", used / 1e6,
+			        walkMembers( relations ), walkIndexes( relations ) ) );
+		}
+		Relation.setColumnarMembers( false );
+	}
+
+
+
+
+	/**
+	 * Replies the best time of a walk through the RelationMembers, in ms
+	 */
+	private static double walkMembers( Relation[] relations )
+	{
+		long best = Long.MAX_VALUE;
+		int ways = 0;
+		for( int run = 0; run < 2 * RUNS; run++ )
+		{
+			long start = System.nanoTime();
+			for( Relation r : relations )
+			{
+				for( RelationMember rm : r.getMembers() )
+				{
+					if( rm.isWay() && rm.hasRole() ) ways++;
+				}
+			}
+			// the first runs warm up
+			if( run >= RUNS ) best = Math.min( best, System.nanoTime() - start );
+		}
+		if( ways == 0 ) throw new AssertionError();
+		return best / 1e6;
+	}
+
+
+
+
+	/**
+	 * Replies the best time of a walk through the primitives of the members,
+	 * by index, in ms
+	 */
+	private static double walkIndexes( Relation[] relations )
+	{
+		long best = Long.MAX_VALUE;
+		int ways = 0;
+		for( int run = 0; run < 2 * RUNS; run++ )
+		{
+			long start = System.nanoTime();
+			for( Relation r : relations )
+			{
+				for( int i = 0, n = r.getMembersCount(); i < n; i++ )
+				{
+					if( r.getMemberPrimitive( i ) instanceof Way ) ways++;
+				}
+			}
+			if( run >= RUNS ) best = Math.min( best, System.nanoTime() - start );
+		}
+		if( ways == 0 ) throw new AssertionError();
+		return best / 1e6;
+	}
+
+
+
+
+	private static long usedMemory()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for( int i = 0; i < 5; i++ )
+		{
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
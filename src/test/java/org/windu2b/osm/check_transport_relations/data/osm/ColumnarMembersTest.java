@@ -0,0 +1,117 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class ColumnarMembersTest
+{
+	@After
+	public void tearDown() throws Exception
+	{
+		Relation.setColumnarMembers( false );
+	}
+
+
+
+
+	private static List<RelationMember> members( Node stop, Way way )
+	{
+		List<RelationMember> members = new ArrayList<RelationMember>();
+		members.add( new RelationMember( "stop", stop ) );
+		members.add( new RelationMember( null, way ) );
+		return members;
+	}
+
+
+
+
+	@Test
+	public final void testSameMembers()
+	{
+		Node stop = new Node( 1 );
+		Way way = new Way( 1 );
+		Relation rows = new Relation( 1 );
+		rows.setMembers( members( stop, way ) );
+		Relation.setColumnarMembers( true );
+		Relation columns = new Relation( 2 );
+		columns.setMembers( members( stop, way ) );
+
+		assertEquals( rows.getMembers(), columns.getMembers() );
+		assertEquals( 2, columns.getMembersCount() );
+		assertEquals( "stop", columns.getRole( 0 ) );
+		assertEquals( "", columns.getRole( 1 ) );
+		assertSame( way, columns.getMemberPrimitive( 1 ) );
+		assertSame( way, columns.getMember( 1 ).getMember() );
+		assertEquals( OsmPrimitiveType.WAY, columns.getMemberType( 1 ) );
+		assertEquals( 1, columns.getMemberId( 0 ) );
+		assertTrue( columns.hasIncompleteMembers() );
+	}
+
+
+
+
+	@Test
+	public final void testModifications()
+	{
+		Relation.setColumnarMembers( true );
+		Node stop = new Node( 1 );
+		Way way = new Way( 1 );
+		Relation r = new Relation( 1 );
+		r.setMembers( members( stop, way ) );
+
+		// the list is a copy, once modified
+		List<RelationMember> list = r.getMembers();
+		list.remove( 0 );
+		list.add( new RelationMember( "platform", new Node( 2 ) ) );
+		assertEquals( 2, list.size() );
+		assertEquals( "platform", list.get( 1 ).getRole() );
+		assertSame( stop, r.getMemberPrimitive( 0 ) );
+
+		r.addMember( 1, new RelationMember( "platform", new Node( 3 ) ) );
+		r.addMember( new RelationMember( "stop", new Node( 4 ) ) );
+		assertEquals( 4, r.getMembersCount() );
+		assertEquals( "platform", r.getRole( 1 ) );
+		assertEquals( 3, r.getMemberId( 1 ) );
+		assertEquals( 4, r.getMemberId( 3 ) );
+		assertSame( way, r.getMemberPrimitive( 2 ) );
+
+		r.setMembers( null );
+		assertEquals( 0, r.getMembersCount() );
+		assertTrue( r.getMembers().isEmpty() );
+	}
+
+
+
+
+	@Test
+	public final void testReferrers()
+	{
+		Relation.setColumnarMembers( true );
+		DataSet ds = new DataSet();
+		Node stop = new Node( 1 );
+		Way way = new Way( 1 );
+		ds.addPrimitive( stop );
+		ds.addPrimitive( way );
+		Relation r = new Relation( 1 );
+		ds.addPrimitive( r );
+		r.setMembers( members( stop, way ) );
+		assertEquals( 1, stop.getReferrers().size() );
+		assertSame( r, way.getReferrers().get( 0 ) );
+
+		r.setMembers( null );
+		assertTrue( stop.getReferrers().isEmpty() );
+		assertTrue( way.getReferrers().isEmpty() );
+	}
+}
@@ -0,0 +1,230 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.windu2b.osm.check_transport_relations.tools.StringTable;
+
+/**
+ * Measures the memory used by the tags of a country extract, stored as string
+ * arrays and as compact tags (see
+ * {@link AbstractPrimitive#setCompactTags(boolean)}). The extract is
+ * synthetic : its tags follow the frequencies of a French extract, where most
+ * of the ways are buildings of the cadastre and most of the tagged nodes are
+ * addresses, most of them in associatedStreet relations, and each string is
+ * a new instance, as read by a parser. The strings of the dictionary being
+ * shared by all the primitives, the ratio grows with the size of the extract.
+ * Not run by the tests.
+ *
+ * Usage : <code>java -Xmx3g CompactTagsBenchmark [primitives]</code>.
+ *
+ * @author windu
+ *
+ */
+public class CompactTagsBenchmark
+{
+	private static final int	  DEFAULT_PRIMITIVES	= 8000000;
+
+
+	private static final int	  STREETS	        = 60000;
+
+
+	private static final int	  CITIES	        = 20000;
+
+
+	private static final String[]	HIGHWAYS	    = { "residential",
+	        "service", "track", "unclassified", "footway", "tertiary",
+	        "secondary", "path", "primary", "living_street" };
+
+
+	private static final String[]	LANDUSES	    = { "farmland", "meadow",
+	        "residential", "forest", "grass", "orchard", "vineyard" };
+
+
+	private static final String[]	STREET_TYPES	= { "Rue", "Avenue",
+	        "Chemin", "Impasse", "Allée", "Place", "Boulevard", "Route" };
+
+
+	private static final String[]	PEOPLE	        = { "Victor Hugo",
+	        "Jean Jaurès", "du Général de Gaulle", "Pasteur", "Jean Moulin",
+	        "de la République", "Gambetta", "Jules Ferry", "du Maréchal Foch",
+	        "de la Libération", "Émile Zola", "Anatole France" };
+
+
+	private static final String[]	SHOPS	        = { "bakery", "hairdresser",
+	        "supermarket", "butcher", "convenience", "florist", "clothes" };
+
+
+
+
+	public static void main( String[] args ) throws Exception
+	{
+		int count = args.length > 0 ? Integer.parseInt( args[0] )
+		        : DEFAULT_PRIMITIVES;
+		long strings = measure( count, false );
+		StringTable.getInstance().clear();
+		long compact = measure( count, true );
+		System.out.println( String.format( Locale.ROOT,
+		        "%d primitives : strings %.1f MB, compact %.1f MB (%d codes), "
+		                + "%.1fx", count, strings / 1e6, compact / 1e6,
+		        TagDictionary.getInstance().size(), ( double ) strings
+		                / compact ) );
+	}
+
+
+
+
+	/**
+	 * Replies the memory used by the tags of the primitives, in bytes
+	 */
+	private static long measure( int count, boolean compact )
+	{
+		AbstractPrimitive.setCompactTags( compact );
+		OsmPrimitive[] primitives = new OsmPrimitive[count];
+		for( int i = 0; i < count; i++ )
+		{
+			primitives[i] = i % 3 == 0 ? new Way( i + 1 ) : new Node( i + 1 );
+		}
+		long before = usedMemory();
+		// the same extract in both modes
+		Random random = new Random( 42 );
+		for( OsmPrimitive p : primitives )
+		{
+			if( p instanceof Way )
+				tagWay( p, random );
+			else tagNode( p, random );
+		}
+		long used = usedMemory() - before;
+		if( primitives[0].getKeys().isEmpty() ) throw new AssertionError();
+		AbstractPrimitive.setCompactTags( false );
+		return used;
+	}
+
+
+
+
+	private static void tagWay( OsmPrimitive w, Random random )
+	{
+		int kind = random.nextInt( 100 );
+		if( kind < 70 )
+		{
+			put( w, "building", kind < 60 ? "yes" : "house" );
+			put( w, "source", "cadastre-dgi-fr source : Direction Générale des "
+			        + "Impôts - Cadastre. Mise à jour : "
+			        + ( 2008 + random.nextInt( 6 ) ) );
+			if( kind < 20 ) put( w, "wall", "no" );
+		}
+		else if( kind < 88 )
+		{
+			String highway = HIGHWAYS[zipf( random, HIGHWAYS.length )];
+			put( w, "highway", highway );
+			if( !highway.equals( "track" ) && !highway.equals( "service" ) )
+			    put( w, "name", street( random ) );
+			if( kind < 75 ) put( w, "oneway", "yes" );
+			if( kind < 80 ) put( w, "maxspeed", "50" );
+			if( kind > 84 ) put( w, "surface", "asphalt" );
+		}
+		else if( kind < 96 )
+		{
+			put( w, "landuse", LANDUSES[zipf( random, LANDUSES.length )] );
+			put( w, "source", "Union Européenne - SOeS, CORINE Land Cover, 2006." );
+		}
+		else
+		{
+			put( w, "natural", "water" );
+			if( kind < 98 ) put( w, "water", "pond" );
+		}
+	}
+
+
+
+
+	private static void tagNode( OsmPrimitive n, Random random )
+	{
+		// most of the nodes are untagged
+		int kind = random.nextInt( 100 );
+		if( kind < 80 ) return;
+		if( kind < 95 )
+		{
+			put( n, "addr:housenumber", Integer.toString( 1 + zipf( random,
+			        300 ) ) );
+			// most of the addresses of the cadastre import are in an
+			// associatedStreet relation, which holds the name of the street
+			if( kind >= 90 )
+			{
+				put( n, "addr:street", street( random ) );
+				int city = zipf( random, CITIES );
+				put( n, "addr:postcode", Integer.toString( 1000 + city % 94000 ) );
+				put( n, "addr:city", "Commune " + city );
+			}
+			if( kind < 88 ) put( n, "source:addr", "cadastre" );
+		}
+		else if( kind < 97 )
+		{
+			put( n, "highway", "bus_stop" );
+			put( n, "public_transport", "platform" );
+			put( n, "bus", "yes" );
+			put( n, "name", street( random ) );
+		}
+		else
+		{
+			put( n, "shop", SHOPS[zipf( random, SHOPS.length )] );
+			put( n, "name", "Commerce " + random.nextInt( 100000 ) );
+			put( n, "opening_hours", "Mo-Sa 08:00-19:00" );
+		}
+	}
+
+
+
+
+	/**
+	 * Sets a tag with new instances of its strings, as a parser does
+	 */
+	private static void put( OsmPrimitive p, String key, String value )
+	{
+		p.put( new String( key ), new String( value ) );
+	}
+
+
+
+
+	/**
+	 * Replies the name of a street, as long as a real one
+	 */
+	private static String street( Random random )
+	{
+		int street = zipf( random, STREETS );
+		return STREET_TYPES[street % STREET_TYPES.length] + " "
+		        + PEOPLE[street / STREET_TYPES.length % PEOPLE.length] + " "
+		        + street / STREET_TYPES.length / PEOPLE.length;
+	}
+
+
+
+
+	/**
+	 * Replies a random index in [0, n), the first indexes being the most
+	 * frequent ones
+	 */
+	private static int zipf( Random random, int n )
+	{
+		return ( int ) Math.min( n - 1, Math.floor( Math.pow( n + 1, random
+		        .nextDouble() ) ) - 1 );
+	}
+
+
+
+
+	private static long usedMemory()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for( int i = 0; i < 5; i++ )
+		{
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
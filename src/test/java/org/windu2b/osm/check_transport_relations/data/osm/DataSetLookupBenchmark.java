@@ -0,0 +1,214 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the lookups by id of {@link DataSet} with the former ones, which
+ * went through a foreign key of the {@link Storage} of all the primitives, on
+ * 10 million primitives : 80% of nodes, 15% of ways and 5% of relations, with
+ * the sparse ids of an extract. Also measures the collisions of the tables.
+ * Not run by the tests.
+ *
+ * Usage : <code>DataSetLookupBenchmark [primitives]</code>, with -Xmx4g for
+ * the default 10 million primitives.
+ *
+ * @author windu
+ *
+ */
+public class DataSetLookupBenchmark
+{
+	private static final int	RUNS	= 5;
+
+
+	private static final int	LOOKUPS	= 5000000;
+
+
+
+
+	/**
+	 * The hash of the former lookups
+	 */
+	private static class IdHash implements Hash<PrimitiveId, OsmPrimitive>
+	{
+		@Override
+		public int getHashCode( PrimitiveId k )
+		{
+			return ( int ) k.getUniqueId() ^ k.getType().hashCode();
+		}
+
+
+
+
+		@Override
+		public boolean equals( PrimitiveId key, OsmPrimitive value )
+		{
+			if( key == null || value == null ) return false;
+			return key.getUniqueId() == value.getUniqueId()
+			        && key.getType() == value.getType();
+		}
+	}
+
+
+
+
+	private interface Lookup
+	{
+		OsmPrimitive get( long id, OsmPrimitiveType type );
+	}
+
+
+
+
+	public static void main( String[] args ) throws Exception
+	{
+		int count = args.length > 0 ? Integer.parseInt( args[0] ) : 10000000;
+		Random random = new Random( 42 );
+		long[][] ids = new long[3][];
+		ids[0] = sparseIds( random, count / 100 * 80, 10000000000L );
+		ids[1] = sparseIds( random, count / 100 * 15, 1000000000L );
+		ids[2] = sparseIds( random, count / 100 * 5, 10000000L );
+		OsmPrimitiveType[] types = { OsmPrimitiveType.NODE,
+		        OsmPrimitiveType.WAY, OsmPrimitiveType.RELATION };
+
+		final DataSet ds = new DataSet();
+		Storage<OsmPrimitive> storage = new Storage<OsmPrimitive>(
+		        new IdHash(), true );
+		final Map<PrimitiveId, OsmPrimitive> former = storage
+		        .foreignKey( new IdHash() );
+		ds.beginUpdate();
+		try
+		{
+			for( int t = 0; t < 3; t++ )
+			{
+				for( long id : ids[t] )
+				{
+					OsmPrimitive p = types[t].newInstance( id );
+					ds.addPrimitive( p );
+					storage.add( p );
+				}
+			}
+		}
+		finally
+		{
+			ds.endUpdate();
+		}
+
+		// the collisions
+		PrimitiveTable<?>[] tables = { new PrimitiveTable<Node>(),
+		        new PrimitiveTable<Way>(), new PrimitiveTable<Relation>() };
+		for( int t = 0; t < 3; t++ )
+		{
+			@SuppressWarnings( "unchecked" )
+			PrimitiveTable<OsmPrimitive> table = ( PrimitiveTable<OsmPrimitive> ) tables[t];
+			for( long id : ids[t] )
+			{
+				table.add( ds.getPrimitiveById( id, types[t] ) );
+			}
+			long probes = 0;
+			int max = 0;
+			for( long id : ids[t] )
+			{
+				int p = table.probes( id );
+				probes += p;
+				max = Math.max( max, p );
+			}
+			long missProbes = 0;
+			for( int i = 0; i < ids[t].length; i++ )
+			{
+				missProbes += table.probes( -1 - random.nextInt( Integer.MAX_VALUE ) );
+			}
+			System.out.println( String.format( Locale.ROOT,
+			        "%s : %d, probes per hit %.2f (max %d), per miss %.2f",
+			        types[t], table.size(), ( double ) probes / ids[t].length,
+			        max, ( double ) missProbes / ids[t].length ) );
+		}
+
+		// the queries : 90% of hits, in the proportions of the primitives
+		final long[] queryIds = new long[LOOKUPS];
+		final OsmPrimitiveType[] queryTypes = new OsmPrimitiveType[LOOKUPS];
+		for( int i = 0; i < LOOKUPS; i++ )
+		{
+			int r = random.nextInt( 100 );
+			int t = r < 80 ? 0 : r < 95 ? 1 : 2;
+			queryTypes[i] = types[t];
+			queryIds[i] = random.nextInt( 10 ) == 0 ? -1 - i
+			        : ids[t][random.nextInt( ids[t].length )];
+		}
+
+		Lookup storageLookup = new Lookup()
+		{
+			@Override
+			public OsmPrimitive get( long id, OsmPrimitiveType type )
+			{
+				return former.get( new SimplePrimitiveId( id, type ) );
+			}
+		};
+		Lookup tableLookup = new Lookup()
+		{
+			@Override
+			public OsmPrimitive get( long id, OsmPrimitiveType type )
+			{
+				return ds.getPrimitiveById( id, type );
+			}
+		};
+		System.out.println( String.format( Locale.ROOT,
+		        "%d primitives : storage %.1f ns/lookup, tables %.1f ns/lookup",
+		        ds.allPrimitives().size(), measure( storageLookup, queryIds,
+		                queryTypes ), measure( tableLookup, queryIds,
+		                queryTypes ) ) );
+	}
+
+
+
+
+	/**
+	 * Replies some distinct ids, shuffled, among [1, max]
+	 */
+	private static long[] sparseIds( Random random, int count, long max )
+	{
+		long[] ids = new long[count];
+		long step = max / count;
+		for( int i = 0; i < count; i++ )
+		{
+			ids[i] = 1 + i * step + ( long ) ( random.nextDouble() * step );
+		}
+		for( int i = count - 1; i > 0; i-- )
+		{
+			int j = random.nextInt( i + 1 );
+			long id = ids[i];
+			ids[i] = ids[j];
+			ids[j] = id;
+		}
+		return ids;
+	}
+
+
+
+
+	/**
+	 * Replies the best time per lookup, in nanoseconds
+	 */
+	private static double measure( Lookup lookup, long[] ids,
+	        OsmPrimitiveType[] types )
+	{
+		long best = Long.MAX_VALUE;
+		int found = 0;
+		for( int run = 0; run < 2 * RUNS; run++ )
+		{
+			long start = System.nanoTime();
+			for( int i = 0; i < ids.length; i++ )
+			{
+				if( lookup.get( ids[i], types[i] ) != null ) found++;
+			}
+			// the first runs warm up
+			if( run >= RUNS ) best = Math.min( best, System.nanoTime() - start );
+		}
+		if( found == 0 ) throw new AssertionError();
+		return ( double ) best / ids.length;
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class DataSetSnapshotTest
+{
+	private static DataSet route()
+	{
+		DataSet ds = new DataSet();
+		Node stop = new Node( 1 );
+		stop.put( "public_transport", "stop_position" );
+		ds.addPrimitive( stop );
+		Node n = new Node( 2 );
+		ds.addPrimitive( n );
+		Way w = new Way( 1 );
+		w.setNodes( Arrays.asList( stop, n ) );
+		ds.addPrimitive( w );
+		Relation r = new Relation( 1 );
+		r.put( "type", "route" );
+		ds.addPrimitive( r );
+		List<RelationMember> members = new ArrayList<RelationMember>();
+		members.add( new RelationMember( "stop", stop ) );
+		members.add( new RelationMember( "", w ) );
+		r.setMembers( members );
+		return ds;
+	}
+
+
+
+
+	@Test
+	public final void testFreeze() throws Exception
+	{
+		DataSet ds = route();
+		ds.setLocalOnly( true );
+		assertNull( ds.getLastSnapshot() );
+		DataSet snapshot = ds.freeze();
+		assertSame( snapshot, ds.getLastSnapshot() );
+		assertTrue( snapshot.isReadOnly() );
+		assertFalse( ds.isReadOnly() );
+		assertTrue( snapshot.isLocalOnly() );
+
+		Node stop = snapshot.getNode( 1 );
+		assertNotSame( ds.getNode( 1 ), stop );
+		assertEquals( "stop_position", stop.get( "public_transport" ) );
+		Way w = snapshot.getWay( 1 );
+		assertSame( stop, w.getFirstNode() );
+		Relation r = snapshot.getRelation( 1 );
+		assertSame( w, r.getMemberPrimitive( 1 ) );
+		assertEquals( Arrays.asList( r ), snapshot.getRelations( "type",
+		        "route" ) );
+		assertEquals( Arrays.asList( r ), new ArrayList<Relation>( stop
+		        .getReferringRelations() ) );
+
+		// the live dataset goes on changing
+		ds.getNode( 1 ).put( "name", "Gare" );
+		Relation other = new Relation( 2 );
+		other.put( "type", "route" );
+		ds.addPrimitive( other );
+		assertNull( stop.get( "name" ) );
+		assertEquals( 1, snapshot.getRelations().size() );
+		assertEquals( 2, ds.getRelations( "type", "route" ).size() );
+		assertSame( snapshot, ds.getLastSnapshot() );
+		assertEquals( 2, ds.freeze().getRelations().size() );
+	}
+
+
+
+
+	@Test
+	public final void testReadOnly()
+	{
+		DataSet snapshot = route().freeze();
+		try
+		{
+			snapshot.getNode( 1 ).put( "name", "Gare" );
+			fail( "IllegalStateException expected" );
+		}
+		catch( IllegalStateException e )
+		{
+			// expected
+		}
+		try
+		{
+			snapshot.addPrimitive( new Node( 3 ) );
+			fail( "IllegalStateException expected" );
+		}
+		catch( IllegalStateException e )
+		{
+			// expected
+		}
+		try
+		{
+			snapshot.getWay( 1 ).setNodes( ( List<Node> ) null );
+			fail( "IllegalStateException expected" );
+		}
+		catch( IllegalStateException e )
+		{
+			// expected
+		}
+		assertNull( snapshot.getNode( 1 ).get( "name" ) );
+		assertEquals( 2, snapshot.getWay( 1 ).getNodesCount() );
+
+		// the read lock does nothing
+		snapshot.getReadLock().lock();
+		snapshot.getReadLock().lock();
+		snapshot.getReadLock().unlock();
+	}
+
+
+
+
+	@Test
+	public final void testConcurrentReads() throws Exception
+	{
+		final DataSet ds = route();
+		final DataSet snapshot = ds.freeze();
+		final AtomicInteger errors = new AtomicInteger();
+		List<Thread> readers = new ArrayList<Thread>();
+		for( int t = 0; t < 4; t++ )
+		{
+			Thread reader = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					for( int i = 0; i < 2000; i++ )
+					{
+						if( snapshot.allPrimitives().size() != 4
+						        || snapshot.getRelations( "type", "route" )
+						                .size() != 1
+						        || snapshot.getNode( 1 ).getReferrers().size() != 2 )
+						    errors.incrementAndGet();
+					}
+				}
+			};
+			readers.add( reader );
+			reader.start();
+		}
+		// meanwhile, new data is merged into the live dataset
+		for( long id = 3; id < 2000; id++ )
+		{
+			Node n = new Node( id );
+			ds.addPrimitive( n );
+			Relation r = new Relation( id );
+			r.put( "type", "route" );
+			ds.addPrimitive( r );
+			r.setMembers( Arrays.asList( new RelationMember( "", ds
+			        .getNode( 1 ) ) ) );
+		}
+		for( Thread reader : readers )
+		{
+			reader.join();
+		}
+		assertEquals( 0, errors.get() );
+		assertEquals( 1999, ds.getNode( 1 ).getReferrers().size() );
+	}
+}
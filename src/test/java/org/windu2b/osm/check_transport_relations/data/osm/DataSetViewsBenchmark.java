@@ -0,0 +1,165 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.windu2b.osm.check_transport_relations.tools.SubclassFilteredCollection;
+
+/**
+ * Compares the typed views of {@link DataSet} with the former ones, which
+ * filtered a {@link Storage} of all the primitives, on a network of bus
+ * routes : the referring relations of each stop are searched in the
+ * relations of the dataset, as {@link OsmPrimitive#getReferringRelations()}
+ * does for a local extract. Not run by the tests.
+ *
+ * Usage : <code>DataSetViewsBenchmark</code>.
+ *
+ * @author windu
+ *
+ */
+public class DataSetViewsBenchmark
+{
+	private static final int	RUNS	  = 5;
+
+
+	private static final int	ROUTES	  = 500;
+
+
+	/** the stops of a route, and the nodes of the ways between them */
+	private static final int	STOPS	  = 30;
+
+
+	private static final int	WAY_NODES	= 20;
+
+
+
+
+	private interface Views
+	{
+		Collection<Relation> getRelations();
+	}
+
+
+
+
+	public static void main( String[] args ) throws Exception
+	{
+		final DataSet ds = new DataSet();
+		final Storage<OsmPrimitive> storage = new Storage<OsmPrimitive>( true );
+		List<Node> stops = new ArrayList<Node>();
+		long nodeId = 1;
+		long wayId = 1;
+		for( int route = 1; route <= ROUTES; route++ )
+		{
+			Relation r = new Relation( route );
+			r.put( "type", "route" );
+			r.put( "route", "bus" );
+			List<RelationMember> members = new ArrayList<RelationMember>();
+			for( int stop = 0; stop < STOPS; stop++ )
+			{
+				Node n = new Node( nodeId++ );
+				n.put( "public_transport", "stop_position" );
+				add( ds, storage, n );
+				stops.add( n );
+				members.add( new RelationMember( "stop", n ) );
+				List<Node> nodes = new ArrayList<Node>();
+				for( int i = 0; i < WAY_NODES; i++ )
+				{
+					Node wn = new Node( nodeId++ );
+					add( ds, storage, wn );
+					nodes.add( wn );
+				}
+				Way w = new Way( wayId++ );
+				w.setNodes( nodes );
+				add( ds, storage, w );
+				members.add( new RelationMember( "", w ) );
+			}
+			r.setMembers( members );
+			add( ds, storage, r );
+		}
+
+		Views former = new Views()
+		{
+			@Override
+			public Collection<Relation> getRelations()
+			{
+				return new SubclassFilteredCollection<OsmPrimitive, Relation>(
+				        storage, OsmPrimitive.relationPredicate );
+			}
+		};
+		Views typed = new Views()
+		{
+			@Override
+			public Collection<Relation> getRelations()
+			{
+				return ds.getRelations();
+			}
+		};
+		System.out.println( String.format( Locale.ROOT,
+		        "%d primitives, %d relations", ds.allPrimitives().size(), ds
+		                .getRelations().size() ) );
+		for( int sample : new int[] { 1, 10 } )
+		{
+			List<Node> queried = new ArrayList<Node>();
+			for( int i = 0; i < stops.size(); i += 100 / sample )
+			{
+				queried.add( stops.get( i ) );
+			}
+			System.out.println( String.format( Locale.ROOT,
+			        "%d stops : former %.1f us/stop, typed %.1f us/stop",
+			        queried.size(), measure( former, queried ), measure(
+			                typed, queried ) ) );
+		}
+	}
+
+
+
+
+	private static void add( DataSet ds, Storage<OsmPrimitive> storage,
+	        OsmPrimitive p )
+	{
+		ds.addPrimitive( p );
+		storage.add( p );
+	}
+
+
+
+
+	/**
+	 * Replies the best time per stop, in microseconds
+	 */
+	private static double measure( Views views, List<Node> stops )
+	{
+		long best = Long.MAX_VALUE;
+		int found = 0;
+		for( int run = 0; run < 2 * RUNS; run++ )
+		{
+			long start = System.nanoTime();
+			for( Node stop : stops )
+			{
+				Collection<Relation> relations = views.getRelations();
+				if( relations.size() == 0 ) throw new AssertionError();
+				for( Relation r : relations )
+				{
+					for( RelationMember rm : r.getMembers() )
+					{
+						if( rm.getMember() == stop )
+						{
+							found++;
+							break;
+						}
+					}
+				}
+			}
+			// the first runs warm up
+			if( run >= RUNS ) best = Math.min( best, System.nanoTime() - start );
+		}
+		if( found != 2 * RUNS * stops.size() ) throw new AssertionError();
+		return best / 1e3 / stops.size();
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class NodeGridTest
+{
+	@Test
+	public final void testParseCoordinates()
+	{
+		assertEquals( 488583701, Coordinates.parse( "48.8583701" ) );
+		assertEquals( -23253194, Coordinates.parse( "-2.3253194" ) );
+		assertEquals( 23000000, Coordinates.parse( "2.3" ) );
+		assertEquals( 20000000, Coordinates.parse( "+2" ) );
+		assertEquals( -5000000, Coordinates.parse( "-.5" ) );
+		// rounded on the 8th decimal
+		assertEquals( 12345679, Coordinates.parse( "1.234567851" ) );
+		assertEquals( 12345678, Coordinates.parse( "1.234567849" ) );
+		assertEquals( -1800000000, Coordinates.parse( "-180" ) );
+		assertEquals( 15000000, Coordinates.parse( "1.5e0" ) );
+		for( String illegal : new String[] { "", "-", ".", "1.2.3", "abc",
+		        "180.0000001" } )
+		{
+			try
+			{
+				Coordinates.parse( illegal );
+				fail( illegal );
+			}
+			catch( NumberFormatException e )
+			{
+				// expected
+			}
+		}
+	}
+
+
+
+
+	@Test
+	public final void testDistance()
+	{
+		// a degree of latitude, and a degree of longitude at 60°
+		assertEquals( 111319.5, Coordinates.distance( 0, 0, 10000000, 0 ), 0.1 );
+		assertEquals( 55660, Coordinates.distance( 600000000, 0, 600000000,
+		        10000000 ), 10 );
+		assertEquals( 0, Coordinates.distance( 1, 2, 1, 2 ), 0 );
+
+		Node n = new Node( 1 );
+		assertFalse( n.hasCoor() );
+		assertTrue( Double.isNaN( n.getLat() ) );
+		assertTrue( Double.isNaN( n.distance( n ) ) );
+		n.setCoor( 48.8583701, 2.2944813 );
+		assertEquals( 488583701, n.getFixedLat() );
+		assertEquals( 2.2944813, n.getLon(), 1e-9 );
+		assertEquals( 2.2944813, new Node( n ).getLon(), 1e-9 );
+		try
+		{
+			n.setCoor( 90.5, 0 );
+			fail( "IllegalArgumentException expected" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+
+
+
+
+	@Test
+	public final void testQueries()
+	{
+		Random random = new Random( 42 );
+		List<Node> nodes = new ArrayList<Node>();
+		for( int i = 1; i <= 2000; i++ )
+		{
+			Node n = new Node( i );
+			// around Paris, and a few nodes on both sides of the meridian
+			n.setFixedCoor( 488000000 + random.nextInt( 2000000 ),
+			        i % 10 == 0 ? random.nextInt( 200000 ) - 100000 : 22000000
+			                + random.nextInt( 3000000 ) );
+			nodes.add( n );
+		}
+		nodes.add( new Node( 9999 ) );
+		NodeGrid grid = new NodeGrid( nodes, 300 );
+		assertEquals( 2000, grid.size() );
+
+		for( int q = 0; q < 200; q++ )
+		{
+			int lat = 488000000 + random.nextInt( 2000000 );
+			int lon = q % 10 == 0 ? random.nextInt( 200000 ) - 100000
+			        : 22000000 + random.nextInt( 3000000 );
+			double radius = 50 + random.nextInt( 1000 );
+
+			// the same nodes as a linear search
+			HashSet<Node> expected = new HashSet<Node>();
+			Node nearest = null;
+			double best = Double.POSITIVE_INFINITY;
+			for( Node n : nodes )
+			{
+				if( !n.hasCoor() ) continue;
+				double d = Coordinates.distance( lat, lon, n.getFixedLat(),
+				        n.getFixedLon() );
+				if( d <= radius ) expected.add( n );
+				if( d < best )
+				{
+					best = d;
+					nearest = n;
+				}
+			}
+			assertEquals( expected, new HashSet<Node>( grid.within( lat, lon,
+			        radius ) ) );
+			assertSame( best <= radius ? nearest : null, grid.nearest( lat,
+			        lon, radius ) );
+			assertSame( nearest, grid.nearest( lat, lon,
+			        Double.POSITIVE_INFINITY ) );
+		}
+		assertTrue( grid.within( 0, 0, -1 ).isEmpty() );
+	}
+}
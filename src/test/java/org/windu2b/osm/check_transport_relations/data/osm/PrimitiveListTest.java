@@ -0,0 +1,93 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class PrimitiveListTest
+{
+	@Test
+	public final void testTypedViews()
+	{
+		DataSet ds = new DataSet();
+		Relation r = new Relation( 1 );
+		ds.addPrimitive( r );
+		List<Node> nodes = new ArrayList<Node>();
+		for( long id = 1; id <= 100; id++ )
+		{
+			Node n = new Node( id );
+			nodes.add( n );
+			ds.addPrimitive( n );
+		}
+		Way w = new Way( 1 );
+		ds.addPrimitive( w );
+
+		assertEquals( 100, ds.getNodes().size() );
+		assertEquals( nodes, new ArrayList<Node>( ds.getNodes() ) );
+		assertEquals( 1, ds.getWays().size() );
+		assertSame( w, ds.getWays().iterator().next() );
+		assertEquals( 1, ds.getRelations().size() );
+		assertSame( r, ds.getRelations().iterator().next() );
+
+		// the nodes, then the ways, then the relations
+		Collection<OsmPrimitive> all = ds.allPrimitives();
+		assertEquals( 102, all.size() );
+		List<OsmPrimitive> expected = new ArrayList<OsmPrimitive>( nodes );
+		expected.add( w );
+		expected.add( r );
+		assertEquals( expected, new ArrayList<OsmPrimitive>( all ) );
+
+		try
+		{
+			ds.getNodes().add( new Node( 101 ) );
+			fail( "UnsupportedOperationException expected" );
+		}
+		catch( UnsupportedOperationException e )
+		{
+			// expected
+		}
+
+		ds.clear();
+		assertTrue( ds.getNodes().isEmpty() );
+		assertTrue( ds.allPrimitives().isEmpty() );
+		assertNull( r.getDataSet() );
+	}
+
+
+
+
+	@Test
+	public final void testSnapshotIterator()
+	{
+		DataSet ds = new DataSet();
+		for( long id = 1; id <= 16; id++ )
+		{
+			ds.addPrimitive( new Node( id ) );
+		}
+		// the nodes added during the iteration aren't read, even when the
+		// elements grow
+		Iterator<Node> it = ds.getNodes().iterator();
+		long id = 17;
+		int read = 0;
+		while( it.hasNext() )
+		{
+			it.next();
+			read++;
+			ds.addPrimitive( new Node( id++ ) );
+		}
+		assertEquals( 16, read );
+		assertEquals( 32, ds.getNodes().size() );
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class PrimitiveTableTest
+{
+	@Test
+	public final void testLookup()
+	{
+		DataSet ds = new DataSet();
+		for( long id = 1; id <= 1000; id++ )
+		{
+			ds.addPrimitive( new Node( id ) );
+			ds.addPrimitive( new Way( id ) );
+		}
+		Relation r = new Relation( 42 );
+		ds.addPrimitive( r );
+		Node zero = new Node( 0 );
+		ds.addPrimitive( zero );
+
+		for( long id = 1; id <= 1000; id++ )
+		{
+			assertEquals( id, ds.getNode( id ).getId() );
+			assertSame( ds.getNode( id ), ds.getPrimitiveById( id,
+			        OsmPrimitiveType.NODE ) );
+			assertSame( ds.getWay( id ), ds.getPrimitiveById(
+			        new SimplePrimitiveId( id, OsmPrimitiveType.WAY ) ) );
+		}
+		assertNull( ds.getNode( 1001 ) );
+		assertNull( ds.getRelation( 1 ) );
+		assertSame( r, ds.getRelation( 42 ) );
+		// 0 is a key as the others
+		assertSame( zero, ds.getNode( 0 ) );
+
+		try
+		{
+			ds.addPrimitive( new Way( 7 ) );
+			fail( "DataIntegrityProblemException expected" );
+		}
+		catch( DataIntegrityProblemException e )
+		{
+			// expected
+		}
+
+		ds.clear();
+		assertNull( ds.getNode( 1 ) );
+		assertNull( ds.getRelation( 42 ) );
+		ds.addPrimitive( new Node( 1 ) );
+		assertNotNull( ds.getNode( 1 ) );
+	}
+
+
+
+
+	@Test
+	public final void testProbes()
+	{
+		PrimitiveTable<Node> table = new PrimitiveTable<Node>();
+		// sequential ids, as in an extract
+		for( long id = 1; id <= 100000; id++ )
+		{
+			table.add( new Node( id ) );
+		}
+		assertEquals( 100000, table.size() );
+		long probes = 0;
+		for( long id = 1; id <= 100000; id++ )
+		{
+			probes += table.probes( id );
+		}
+		// a load factor of 0.75 at most
+		assertTrue( probes / 100000.0 < 2.5 );
+	}
+
+
+
+
+	@Test
+	public final void testConcurrentLookups()
+	{
+		final DataSet ds = new DataSet();
+		final AtomicLong added = new AtomicLong();
+		ExecutorService executor = Executors.newFixedThreadPool( 3 );
+		try
+		{
+			List<Future<Boolean>> readers = new ArrayList<Future<Boolean>>();
+			for( int t = 0; t < 2; t++ )
+			{
+				readers.add( executor.submit( new Callable<Boolean>()
+				{
+					@Override
+					public Boolean call()
+					{
+						// the nodes added before the lookup are always found
+						while( added.get() < 50000 )
+						{
+							long last = added.get();
+							for( long id = Math.max( 1, last - 100 ); id <= last; id++ )
+							{
+								if( ds.getNode( id ) == null ) return false;
+							}
+						}
+						return true;
+					}
+				} ) );
+			}
+			for( long id = 1; id <= 50000; id++ )
+			{
+				ds.addPrimitive( new Node( id ) );
+				added.set( id );
+			}
+			for( Future<Boolean> reader : readers )
+			{
+				assertTrue( reader.get() );
+			}
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
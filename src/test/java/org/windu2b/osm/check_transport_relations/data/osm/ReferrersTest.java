@@ -0,0 +1,108 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class ReferrersTest
+{
+	@Test
+	public final void testRegistration()
+	{
+		DataSet ds = new DataSet();
+		Node n1 = new Node( 1 );
+		Node n2 = new Node( 2 );
+		Node n3 = new Node( 3 );
+		ds.addPrimitive( n1 );
+		ds.addPrimitive( n2 );
+		ds.addPrimitive( n3 );
+
+		// the nodes of a way added to the dataset, a closed way counted once
+		Way w = new Way( 1 );
+		w.setNodes( Arrays.asList( n1, n2, n1 ) );
+		assertTrue( n1.getReferrers().isEmpty() );
+		ds.addPrimitive( w );
+		assertEquals( Arrays.asList( w ), n1.getReferrers() );
+		assertEquals( Arrays.asList( w ), n2.getReferrers() );
+
+		w.setNodes( Arrays.asList( n2, n3 ) );
+		assertTrue( n1.getReferrers().isEmpty() );
+		assertEquals( Arrays.asList( w ), n3.getReferrers() );
+
+		// the members of a relation of the dataset
+		Relation r = new Relation( 1 );
+		ds.addPrimitive( r );
+		r.setMembers( Arrays.asList( new RelationMember( "stop", n2 ),
+		        new RelationMember( "", w ) ) );
+		assertEquals( Arrays.<OsmPrimitive> asList( w, r ), n2.getReferrers() );
+		assertEquals( Arrays.asList( r ), w.getReferrers() );
+		r.addMember( new RelationMember( "platform", n1 ) );
+		assertEquals( Arrays.asList( r ), n1.getReferrers() );
+		r.setMembers( null );
+		assertEquals( Arrays.asList( w ), n2.getReferrers() );
+		assertTrue( n1.getReferrers().isEmpty() );
+		assertTrue( w.getReferrers().isEmpty() );
+
+		// a node which isn't part of the dataset isn't registered
+		Node other = new Node( 4 );
+		r.addMember( new RelationMember( "", other ) );
+		assertTrue( other.getReferrers().isEmpty() );
+
+		ds.clear();
+		assertTrue( n2.getReferrers().isEmpty() );
+	}
+
+
+
+
+	@Test
+	public final void testMergeReferrers() throws Exception
+	{
+		DataSet ds = new DataSet();
+		Node stop = new Node( 1 );
+		stop.setOsmId( 1, 1 );
+		ds.addPrimitive( stop );
+		assertFalse( stop.isReferrersComplete() );
+
+		// the reply of node/1/relations
+		DataSet reply = new DataSet();
+		Node member = new Node( 1 );
+		reply.addPrimitive( member );
+		Relation stopArea = new Relation( 10 );
+		stopArea.setOsmId( 10, 1 );
+		stopArea.put( "public_transport", "stop_area" );
+		reply.addPrimitive( stopArea );
+		stopArea.setMembers( new ArrayList<RelationMember>( Collections
+		        .singleton( new RelationMember( "", member ) ) ) );
+
+		stop.mergeReferrers( reply );
+		assertTrue( stop.isReferrersComplete() );
+		Relation merged = ds.getRelation( 10 );
+		assertNotNull( merged );
+		assertNotSame( stopArea, merged );
+		assertEquals( Arrays.asList( merged ), stop.getReferrers() );
+		// answered from the dataset, without any request
+		assertSame( merged, stop.getRelation( new TagCollection(
+		        new Tag[] { new Tag( "public_transport", "stop_area" ) } ) ) );
+		assertEquals( Arrays.asList( merged ), new ArrayList<Relation>( stop
+		        .getReferringRelations() ) );
+
+		// the flag belongs to the primitive
+		Node copy = new Node( stop );
+		new DataSet().addPrimitive( copy );
+		assertFalse( copy.isReferrersComplete() );
+		stop.mergeFrom( member );
+		assertTrue( stop.isReferrersComplete() );
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class TagDictionaryTest
+{
+	@After
+	public void tearDown() throws Exception
+	{
+		AbstractPrimitive.setCompactTags( false );
+	}
+
+
+
+
+	@Test
+	public final void testCompactTags()
+	{
+		AbstractPrimitive.setCompactTags( true );
+		Node n = new Node( 1 );
+		assertFalse( n.hasKeys() );
+		n.put( "public_transport", "platform" );
+		n.put( "name", "Gare" );
+		n.put( "bus", "yes" );
+		assertTrue( n.keys instanceof int[] );
+
+		assertEquals( "Gare", n.get( "name" ) );
+		assertNull( n.get( "ref" ) );
+		assertNull( n.get( "never used as a key" ) );
+		assertTrue( n.hasKey( "bus" ) );
+		assertTrue( n.hasKeyValue( "public_transport", "platform" ) );
+		assertFalse( n.hasKeyValue( "public_transport", "stop_position" ) );
+		assertTrue( n.isThisKind( "public_transport", "platform" ) );
+		assertEquals( new HashSet<String>( Arrays.asList( "public_transport",
+		        "name", "bus" ) ), n.keySet() );
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put( "public_transport", "platform" );
+		expected.put( "name", "Gare" );
+		expected.put( "bus", "yes" );
+		assertEquals( expected, n.getKeys() );
+
+		n.put( "name", "Gare SNCF" );
+		assertEquals( "Gare SNCF", n.get( "name" ) );
+		n.remove( "bus" );
+		n.remove( "ref" );
+		assertFalse( n.hasKey( "bus" ) );
+		assertEquals( 2, n.getKeys().size() );
+		n.put( "name", null );
+		assertEquals( 1, n.getKeys().size() );
+		n.removeAll();
+		assertFalse( n.hasKeys() );
+
+		n.setKeys( expected );
+		assertEquals( expected, n.getKeys() );
+		n.remove( "public_transport" );
+		n.remove( "name" );
+		n.remove( "bus" );
+		assertFalse( n.hasKeys() );
+	}
+
+
+
+
+	@Test
+	public final void testSharedCodes()
+	{
+		AbstractPrimitive.setCompactTags( true );
+		Way w1 = new Way( 1 );
+		w1.put( "building", "yes" );
+		w1.put( "source", "cadastre" );
+		Way w2 = new Way( 2 );
+		// not the same instances, not the same order
+		w2.put( new String( "source" ), new String( "cadastre" ) );
+		w2.put( new String( "building" ), new String( "yes" ) );
+		assertSame( w1.keys, w2.keys );
+
+		// the codes are never modified
+		w2.put( "building", "house" );
+		assertNotSame( w1.keys, w2.keys );
+		assertEquals( "yes", w1.get( "building" ) );
+		assertEquals( "house", w2.get( "building" ) );
+	}
+
+
+
+
+	@Test
+	public final void testRepresentationChange()
+	{
+		Node n = new Node( 1 );
+		n.put( "highway", "bus_stop" );
+		assertTrue( n.keys instanceof String[] );
+
+		// the former tags are kept
+		AbstractPrimitive.setCompactTags( true );
+		n.put( "name", "Mairie" );
+		assertTrue( n.keys instanceof int[] );
+		assertEquals( "bus_stop", n.get( "highway" ) );
+
+		AbstractPrimitive.setCompactTags( false );
+		assertEquals( "Mairie", n.get( "name" ) );
+		n.put( "shelter", "yes" );
+		assertTrue( n.keys instanceof String[] );
+		assertEquals( 3, n.getKeys().size() );
+		assertEquals( "bus_stop", n.get( "highway" ) );
+	}
+
+
+
+
+	@Test
+	public final void testIndexOf()
+	{
+		TagDictionary dictionary = TagDictionary.getInstance();
+		int[] codes = dictionary.put( null, "test:b", "1" );
+		codes = dictionary.put( codes, "test:d", "2" );
+		codes = dictionary.put( codes, "test:c", "3" );
+		assertEquals( 3, codes.length );
+		assertEquals( "[test:b, 1, test:d, 2, test:c, 3]", Arrays.toString(
+		        dictionary.decode( codes ) ) );
+		assertEquals( 1, dictionary.indexOf( codes, dictionary
+		        .code( "test:d" ) ) );
+		assertEquals( -4, dictionary.indexOf( codes, dictionary
+		        .code( "test:e" ) ) );
+		assertEquals( -1, dictionary.indexOf( new int[0], dictionary
+		        .code( "test:b" ) ) );
+
+		// the same tag, the same code
+		assertEquals( codes[0], dictionary.tagCode( new String( "test:b" ),
+		        new String( "1" ) ) );
+		assertEquals( "2", dictionary.get( codes, "test:d" ) );
+		assertNull( dictionary.remove( dictionary.put( null, "test:b", "1" ),
+		        "test:b" ) );
+	}
+}
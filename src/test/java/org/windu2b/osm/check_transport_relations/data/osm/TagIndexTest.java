@@ -0,0 +1,120 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class TagIndexTest
+{
+	@Test
+	public final void testIndexUpdates()
+	{
+		DataSet ds = new DataSet();
+		Relation route = new Relation( 1 );
+		route.put( "type", "route" );
+		route.put( "route", "bus" );
+		Relation stopArea = new Relation( 2 );
+		stopArea.put( "public_transport", "stop_area" );
+		ds.addPrimitive( route );
+		ds.addPrimitive( stopArea );
+
+		assertEquals( Arrays.asList( route ), ds.getRelations( "type" ) );
+		assertEquals( Arrays.asList( route ), ds.getRelations( "type",
+		        "route" ) );
+		assertTrue( ds.getRelations( "type", "route_master" ).isEmpty() );
+		assertTrue( ds.getRelations( "type", null ).isEmpty() );
+		assertTrue( ds.getRelations( "name" ).isEmpty() );
+
+		// the tags changed after the relation was added
+		route.put( "route", "tram" );
+		assertTrue( ds.getRelations( "route", "bus" ).isEmpty() );
+		assertEquals( Arrays.asList( route ), ds.getRelations( "route",
+		        "tram" ) );
+		stopArea.put( "type", "public_transport" );
+		assertEquals( Arrays.asList( route, stopArea ), ds
+		        .getRelations( "type" ) );
+		route.remove( "type" );
+		assertEquals( Arrays.asList( stopArea ), ds.getRelations( "type" ) );
+		assertTrue( ds.getRelations( "type", "route" ).isEmpty() );
+
+		Map<String, String> keys = new HashMap<String, String>();
+		keys.put( "type", "route_master" );
+		route.setKeys( keys );
+		assertTrue( ds.getRelations( "route" ).isEmpty() );
+		assertEquals( Arrays.asList( route ), ds.getRelations( "type",
+		        "route_master" ) );
+		route.removeAll();
+		assertTrue( ds.getRelations( "type", "route_master" ).isEmpty() );
+
+		assertEquals( 1, ds.getRelationsCount( "type", null ) );
+		assertEquals( 1, ds.getRelationsCount( "public_transport",
+		        "stop_area" ) );
+		assertEquals( 0, ds.getRelationsCount( "type", "route_master" ) );
+
+		ds.clear();
+		assertTrue( ds.getRelations( "type" ).isEmpty() );
+		assertEquals( 0, ds.getRelationsCount( "type", null ) );
+	}
+
+
+
+
+	@Test
+	public final void testReferringRelations() throws Exception
+	{
+		DataSet ds = new DataSet();
+		ds.setLocalOnly( true );
+		Node stop = new Node( 1 );
+		Node other = new Node( 2 );
+		ds.addPrimitive( stop );
+		ds.addPrimitive( other );
+		Relation stopArea = new Relation( 1 );
+		stopArea.put( "public_transport", "stop_area" );
+		stopArea.setMembers( Arrays.asList( new RelationMember( "", stop ) ) );
+		Relation otherArea = new Relation( 2 );
+		otherArea.put( "public_transport", "stop_area" );
+		otherArea.setMembers( Arrays.asList( new RelationMember( "", other ) ) );
+		Relation route = new Relation( 3 );
+		route.put( "type", "route" );
+		route.setMembers( Arrays.asList( new RelationMember( "stop", stop ) ) );
+		ds.addPrimitive( stopArea );
+		ds.addPrimitive( otherArea );
+		ds.addPrimitive( route );
+
+		assertEquals( Arrays.asList( stopArea ), stop.getRelations(
+		        "public_transport", "stop_area" ) );
+		assertEquals( Arrays.asList( route ), stop.getRelations( "type" ) );
+		assertSame( otherArea, other.getRelation( "public_transport",
+		        "stop_area" ) );
+		assertNull( other.getRelation( "type", "route" ) );
+		assertSame( stopArea, stop.getRelation( new TagCollection(
+		        new Tag[] { new Tag( "public_transport", "stop_area" ) } ) ) );
+
+		// more referrers than stop_areas : the tag index is read
+		for( long id = 10; id < 15; id++ )
+		{
+			Way w = new Way( id );
+			w.setNodes( Arrays.asList( stop, other ) );
+			ds.addPrimitive( w );
+		}
+		assertEquals( 7, stop.getReferrers().size() );
+		assertEquals( Arrays.asList( stopArea ), stop.getRelations(
+		        "public_transport", "stop_area" ) );
+		assertEquals( Arrays.asList( stopArea ), stop
+		        .getRelations( "public_transport" ) );
+		assertSame( otherArea, other.getRelation( "public_transport",
+		        "stop_area" ) );
+		assertNull( other.getRelation( "type", "route_master" ) );
+	}
+}
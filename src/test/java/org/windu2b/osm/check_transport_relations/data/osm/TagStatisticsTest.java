@@ -0,0 +1,87 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.data.osm;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.tools.StringTable;
+
+/**
+ * @author windu
+ *
+ */
+public class TagStatisticsTest
+{
+	@Test
+	public final void testCanonicalTags()
+	{
+		// new instances, as if they were read from a file
+		Node n1 = new Node( 1 );
+		n1.put( new String( "public_transport" ), new String( "platform" ) );
+		Node n2 = new Node( 2 );
+		Map<String, String> keys = new HashMap<String, String>();
+		keys.put( new String( "public_transport" ), new String( "platform" ) );
+		n2.setKeys( keys );
+
+		String key = n1.keySet().iterator().next();
+		assertSame( key, n2.keySet().iterator().next() );
+		assertSame( n1.get( key ), n2.get( key ) );
+		assertTrue( n2.hasKeyValue( key, n1.get( key ) ) );
+		assertTrue( n2.hasKeyValue( "public_transport", "platform" ) );
+		assertFalse( n2.hasKeyValue( "public_transport", "stop_position" ) );
+		assertFalse( n2.hasKeyValue( "highway", "platform" ) );
+	}
+
+
+
+
+	@Test
+	public final void testStatistics()
+	{
+		List<Node> nodes = new ArrayList<Node>();
+		for( int i = 1; i <= 10; i++ )
+		{
+			Node n = new Node( i );
+			n.put( new String( "public_transport" ), new String( "platform" ) );
+			n.put( "name", "Arrêt " + i );
+			nodes.add( n );
+		}
+		nodes.add( new Node( 11 ) );
+
+		TagStatistics stats = new TagStatistics( nodes );
+		assertEquals( 40, stats.getReferences() );
+		// the 3 shared strings, and a name per node
+		assertEquals( 13, stats.getInstances() );
+		assertEquals( 13, stats.getStrings() );
+		assertEquals( 40.0 / 13, stats.getDedupRatio(), 1e-9 );
+		assertEquals( 9 * ( TagStatistics.sizeOf( "public_transport" )
+		        + TagStatistics.sizeOf( "platform" ) + TagStatistics
+		        .sizeOf( "name" ) ), stats.getSavedBytes() );
+	}
+
+
+
+
+	@Test
+	public final void testBoundedTable()
+	{
+		StringTable table = new StringTable( 3 );
+		assertEquals( 4, table.capacity() );
+		String s = new String( "stop" );
+		assertSame( s, table.get( s ) );
+		assertSame( s, table.get( new String( "stop" ) ) );
+		for( int i = 0; i < 100; i++ )
+		{
+			table.get( "value " + i );
+		}
+		assertTrue( table.size() <= 4 );
+		assertNull( table.get( null ) );
+	}
+}
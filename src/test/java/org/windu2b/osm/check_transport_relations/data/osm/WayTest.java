@@ -70,6 +70,7 @@ public class WayTest
 		n2 = null;
 		n3 = null;
 		n4 = null;
+		LastElements.reset();
 	}
 
 
@@ -0,0 +1,19 @@
+package org.windu2b.osm.check_transport_relations.io;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith( Suite.class )
+@SuiteClasses( { BackreferenceCacheTest.class,
+        OsmServerMultiObjectReaderTest.class, HttpConnectionPoolTest.class,
+        DownloadSchedulerTest.class, DiskResponseCacheTest.class,
+        OsmFileReaderTest.class, PbfReaderTest.class,
+        OverpassServerReaderTest.class, RetryPolicyTest.class,
+        RateLimiterTest.class, OsmApiTest.class, ReferrerIndexTest.class,
+        OsmReaderTest.class, ParallelOsmReaderTest.class,
+        FilteredReaderTest.class } )
+public class AllTests
+{
+
+}
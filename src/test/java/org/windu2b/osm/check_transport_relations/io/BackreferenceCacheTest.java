@@ -0,0 +1,144 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.SimplePrimitiveId;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+
+/**
+ * @author windu
+ * 
+ */
+public class BackreferenceCacheTest
+{
+	private BackreferenceCache	cache;
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		cache = new BackreferenceCache( 2 );
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		cache = null;
+	}
+
+
+
+
+	@Test
+	public final void testHitAndMiss()
+	{
+		DataSet ds = new DataSet();
+
+		assertNull( cache.get( new Node( 1 ), 0 ) );
+		cache.put( new Node( 1 ), 0, ds );
+		assertSame( ds, cache.get( new Node( 1 ), 0 ) );
+		assertSame( ds,
+		        cache.get( new SimplePrimitiveId( 1, OsmPrimitiveType.NODE ), 0 ) );
+
+		assertEquals( 2, cache.getHits() );
+		assertEquals( 1, cache.getMisses() );
+	}
+
+
+
+
+	@Test
+	public final void testKeyedByTypeAndId()
+	{
+		cache.put( new Node( 1 ), 0, new DataSet() );
+
+		assertNull( cache.get( new Way( 1 ), 0 ) );
+	}
+
+
+
+
+	@Test
+	public final void testLeastRecentlyUsedIsEvicted()
+	{
+		DataSet ds1 = new DataSet(), ds2 = new DataSet(), ds3 = new DataSet();
+
+		cache.put( new Node( 1 ), 0, ds1 );
+		cache.put( new Node( 2 ), 0, ds2 );
+		// Node 1 is now the most recently used one
+		cache.get( new Node( 1 ), 0 );
+		cache.put( new Node( 3 ), 0, ds3 );
+
+		assertEquals( 2, cache.size() );
+		assertEquals( 1, cache.getEvictions() );
+		assertSame( ds1, cache.get( new Node( 1 ), 0 ) );
+		assertNull( cache.get( new Node( 2 ), 0 ) );
+		assertSame( ds3, cache.get( new Node( 3 ), 0 ) );
+	}
+
+
+
+
+	@Test
+	public final void testContains()
+	{
+		cache.put( new Node( 1 ), 3, new DataSet() );
+
+		assertTrue( cache.contains( new Node( 1 ), 3 ) );
+		assertTrue( cache.contains( new Node( 1 ), 0 ) );
+		assertFalse( cache.contains( new Node( 1 ), 4 ) );
+		assertFalse( cache.contains( new Node( 2 ), 0 ) );
+		// neither counted nor invalidated
+		assertEquals( 0, cache.getHits() );
+		assertEquals( 0, cache.getMisses() );
+		assertEquals( 1, cache.size() );
+	}
+
+
+
+
+	@Test
+	public final void testNewVersionInvalidatesEntry()
+	{
+		cache.put( new Node( 1 ), 3, new DataSet() );
+
+		assertNotNull( cache.get( new Node( 1 ), 3 ) );
+		// An unknown version doesn't invalidate anything
+		assertNotNull( cache.get( new Node( 1 ), 0 ) );
+		assertNull( cache.get( new Node( 1 ), 4 ) );
+		assertNull( cache.get( new Node( 1 ), 3 ) );
+		assertEquals( 0, cache.size() );
+	}
+
+
+
+
+	@Test
+	public final void testInvalidate()
+	{
+		cache.put( new Node( 1 ), 0, new DataSet() );
+		cache.invalidate( new Node( 1 ) );
+
+		assertNull( cache.get( new Node( 1 ), 0 ) );
+	}
+}
@@ -0,0 +1,314 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.SimplePrimitiveId;
+import org.windu2b.osm.check_transport_relations.gui.progress.NullProgressMonitor;
+import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author windu
+ *
+ */
+public class DiskResponseCacheTest
+{
+	private static final String	FULL_URL	= "http://localhost/api/0.6/relation/42/full";
+
+
+	private File	            directory;
+
+
+
+
+	private static String relation( int version )
+	{
+		return "<osm version='0.6'><node id='1' version='1' lat='0' lon='0'/>"
+		        + "<relation id='42' version='" + version + "'>"
+		        + "<member type='node' ref='1' role='stop'/></relation></osm>";
+	}
+
+
+
+
+	private static String readAll( InputStream in ) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int n;
+		while( ( n = in.read( buffer ) ) != -1 )
+		{
+			out.write( buffer, 0, n );
+		}
+		in.close();
+		return out.toString( "UTF-8" );
+	}
+
+
+
+
+	private static void store( DiskResponseCache cache, String url,
+	        String body ) throws IOException
+	{
+		readAll( cache.store( url, new ByteArrayInputStream(
+		        body.getBytes( "UTF-8" ) ) ) );
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		directory = File.createTempFile( "cache", "" );
+		directory.delete();
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		DiskResponseCache.uninstall();
+		File[] files = directory.listFiles();
+		if( files != null )
+		{
+			for( File f : files )
+			{
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+
+
+
+	@Test
+	public final void testStoreAndGet()
+	{
+		try
+		{
+			DiskResponseCache cache = new DiskResponseCache( directory, 60000,
+			        1024 * 1024 );
+			assertNull( cache.get( FULL_URL ) );
+			store( cache, FULL_URL, relation( 3 ) );
+
+			DiskResponseCache.CachedResponse response = cache.get( FULL_URL );
+			assertNotNull( response );
+			assertEquals( 3, response.getVersion() );
+			assertEquals( relation( 3 ), readAll( response.open() ) );
+			assertEquals( 1, cache.getHits() );
+			assertEquals( 1, cache.getMisses() );
+
+			// the cache is shared between the runs
+			DiskResponseCache warm = new DiskResponseCache( directory, 60000,
+			        1024 * 1024 );
+			assertEquals( relation( 3 ), readAll( warm.get( FULL_URL ).open() ) );
+		}
+		catch( IOException e )
+		{
+			fail( e.getMessage() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testPartialReadNotStored()
+	{
+		try
+		{
+			DiskResponseCache cache = new DiskResponseCache( directory, 60000,
+			        1024 * 1024 );
+			InputStream in = cache.store( FULL_URL, new InputStream()
+			{
+				@Override
+				public int read() throws IOException
+				{
+					throw new IOException( "connection reset" );
+				}
+			} );
+			in.close();
+			assertNull( cache.get( FULL_URL ) );
+		}
+		catch( IOException e )
+		{
+			fail( e.getMessage() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testTtl()
+	{
+		try
+		{
+			DiskResponseCache cache = new DiskResponseCache( directory, 1,
+			        1024 * 1024 );
+			store( cache, FULL_URL, relation( 3 ) );
+			Thread.sleep( 20 );
+			assertNull( cache.get( FULL_URL ) );
+			assertEquals( 0, cache.getSize() );
+		}
+		catch( Exception e )
+		{
+			fail( e.getMessage() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testSizeEviction()
+	{
+		try
+		{
+			DiskResponseCache cache = new DiskResponseCache( directory, 60000,
+			        1 );
+			store( cache, FULL_URL, relation( 3 ) );
+			assertNull( cache.get( FULL_URL ) );
+			assertEquals( 0, cache.getSize() );
+		}
+		catch( IOException e )
+		{
+			fail( e.getMessage() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testGetFullPrimitiveId()
+	{
+		assertEquals( new SimplePrimitiveId( 42, OsmPrimitiveType.RELATION ),
+		        DiskResponseCache.getFullPrimitiveId( FULL_URL ) );
+		assertEquals( new SimplePrimitiveId( 7, OsmPrimitiveType.WAY ),
+		        DiskResponseCache.getFullPrimitiveId( "way/7/full" ) );
+		assertNull( DiskResponseCache
+		        .getFullPrimitiveId( "node/42/relations" ) );
+	}
+
+
+
+
+	@Test
+	public final void testRevalidation()
+	{
+		final AtomicInteger version = new AtomicInteger( 3 );
+		final AtomicInteger fullRequests = new AtomicInteger();
+		HttpServer server = null;
+		try
+		{
+			server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ),
+			        0 );
+			server.createContext( "/", new HttpHandler()
+			{
+				@Override
+				public void handle( HttpExchange exchange ) throws IOException
+				{
+					if( exchange.getRequestURI().getPath().endsWith( "/full" ) )
+					{
+						fullRequests.incrementAndGet();
+					}
+					byte[] body = relation( version.get() ).getBytes( "UTF-8" );
+					exchange.sendResponseHeaders( 200, body.length );
+					OutputStream out = exchange.getResponseBody();
+					out.write( body );
+					out.close();
+				}
+			} );
+			server.start();
+			final String url = "http://127.0.0.1:"
+			        + server.getAddress().getPort() + "/api/0.6/relation/42/full";
+			OsmServerReader reader = new OsmServerReader()
+			{
+				@Override
+				public DataSet parseOsm( ProgressMonitor progressMonitor )
+				        throws OsmTransferException
+				{
+					InputStream in = getInputStream( url,
+					        NullProgressMonitor.INSTANCE );
+					try
+					{
+						return OsmReader.parseDataSet( in,
+						        NullProgressMonitor.INSTANCE );
+					}
+					catch( IllegalDataException e )
+					{
+						throw new OsmTransferException( e );
+					}
+					finally
+					{
+						try
+						{
+							in.close();
+						}
+						catch( IOException e )
+						{/* ignore this exception */
+						}
+					}
+				}
+			};
+			DiskResponseCache cache = DiskResponseCache.install( directory, 60,
+			        1 );
+
+			reader.parseOsm( null );
+			assertEquals( 1, fullRequests.get() );
+
+			// unchanged: only the version is read from the server
+			DataSet ds = reader.parseOsm( null );
+			assertEquals( 1, fullRequests.get() );
+			assertEquals( 3, ds.getPrimitiveById( 42, OsmPrimitiveType.RELATION )
+			        .getVersion() );
+
+			// changed: the entry is stale
+			version.set( 4 );
+			ds = reader.parseOsm( null );
+			assertEquals( 2, fullRequests.get() );
+			assertEquals( 4, ds.getPrimitiveById( 42, OsmPrimitiveType.RELATION )
+			        .getVersion() );
+			assertEquals( 1, cache.getHits() );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+		finally
+		{
+			if( server != null ) server.stop( 0 );
+		}
+	}
+}
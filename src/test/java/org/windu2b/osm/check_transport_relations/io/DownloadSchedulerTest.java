@@ -0,0 +1,387 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
+
+/**
+ * @author windu
+ *
+ */
+public class DownloadSchedulerTest
+{
+	private DownloadScheduler	scheduler;
+
+
+
+	/**
+	 * Replies a dataset with a single node, after an optional wait
+	 */
+	private static class StubReader extends OsmServerReader
+	{
+		private final long		       id;
+
+
+		private final CountDownLatch	latch;
+
+
+		private final AtomicInteger	   running;
+
+
+		private final AtomicInteger	   maxRunning;
+
+
+
+
+		private StubReader( long id, CountDownLatch latch,
+		        AtomicInteger running, AtomicInteger maxRunning )
+		{
+			this.id = id;
+			this.latch = latch;
+			this.running = running;
+			this.maxRunning = maxRunning;
+		}
+
+
+
+
+		@Override
+		public DataSet parseOsm( ProgressMonitor progressMonitor )
+		        throws OsmTransferException
+		{
+			int n = running.incrementAndGet();
+			synchronized( maxRunning )
+			{
+				if( n > maxRunning.get() )
+				{
+					maxRunning.set( n );
+				}
+			}
+			try
+			{
+				if( latch != null ) latch.await( 5, TimeUnit.SECONDS );
+			}
+			catch( InterruptedException e )
+			{
+				throw new OsmTransferCanceledException();
+			}
+			finally
+			{
+				running.decrementAndGet();
+			}
+			if( id <= 0 ) throw new OsmTransferException( "failed" );
+			DataSet ds = new DataSet();
+			ds.addPrimitive( new Node( id ) );
+			return ds;
+		}
+	}
+
+
+
+
+	/**
+	 * Fails with a 503 error a number of times, then replies a dataset with a
+	 * single node
+	 */
+	private static class FailingReader extends OsmServerReader
+	{
+		private final long		      id;
+
+
+		private final AtomicInteger	failures;
+
+
+
+
+		private FailingReader( long id, int failures )
+		{
+			this.id = id;
+			this.failures = new AtomicInteger( failures );
+		}
+
+
+
+
+		@Override
+		public DataSet parseOsm( ProgressMonitor progressMonitor )
+		        throws OsmTransferException
+		{
+			if( failures.getAndDecrement() > 0 )
+			    throw new OsmApiException( 503, null, null );
+			DataSet ds = new DataSet();
+			ds.addPrimitive( new Node( id ) );
+			return ds;
+		}
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		scheduler = new DownloadScheduler( 2 );
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		scheduler.shutdown();
+		scheduler = null;
+	}
+
+
+
+
+	@Test
+	public final void testResultsInSubmitOrder()
+	{
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		DownloadScheduler.Batch batch = scheduler.newBatch();
+		for( long id = 1; id <= 6; id++ )
+		{
+			batch.submit( new StubReader( id, null, running, maxRunning ) );
+		}
+		try
+		{
+			List<DataSet> results = batch.getResults();
+			assertEquals( 6, results.size() );
+			for( int i = 0; i < 6; i++ )
+			{
+				assertEquals( i + 1, results.get( i ).getNodes().iterator()
+				        .next().getId() );
+			}
+		}
+		catch( OsmTransferException e )
+		{
+			fail( e.getMessage() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testThreadCount()
+	{
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		CountDownLatch latch = new CountDownLatch( 1 );
+		DownloadScheduler.Batch batch = scheduler.newBatch();
+		for( long id = 1; id <= 5; id++ )
+		{
+			batch.submit( new StubReader( id, latch, running, maxRunning ) );
+		}
+		try
+		{
+			Thread.sleep( 200 );
+			assertEquals( 2, running.get() );
+			latch.countDown();
+			batch.getResults();
+			assertEquals( 2, maxRunning.get() );
+		}
+		catch( Exception e )
+		{
+			fail( e.getMessage() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testFailure()
+	{
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		DownloadScheduler.Batch batch = scheduler.newBatch();
+		batch.submit( new StubReader( 1, null, running, maxRunning ) );
+		StubReader failing = new StubReader( 0, null, running, maxRunning );
+		batch.submit( failing );
+		StubReader other = new StubReader( 3, null, running, maxRunning );
+		batch.submit( other );
+		try
+		{
+			batch.getResults();
+			fail( "OsmTransferException expected" );
+		}
+		catch( OsmTransferException e )
+		{
+			// the other downloads of the batch are canceled
+			assertTrue( other.isCanceled() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testSubmitFromWorkerThread()
+	{
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final DownloadScheduler single = new DownloadScheduler( 1 );
+		try
+		{
+			// would block forever if the waiting worker didn't run the inner
+			// reader
+			Future<DataSet> outer = single.submit( new OsmServerReader()
+			{
+				@Override
+				public DataSet parseOsm( ProgressMonitor progressMonitor )
+				        throws OsmTransferException
+				{
+					assertTrue( DownloadScheduler.isWorkerThread() );
+					return DownloadScheduler.get( single.submit( new StubReader(
+					        7, null, running, maxRunning ) ) );
+				}
+			} );
+			assertEquals( 7, outer.get( 5, TimeUnit.SECONDS ).getNodes()
+			        .iterator().next().getId() );
+			assertFalse( DownloadScheduler.isWorkerThread() );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+		finally
+		{
+			single.shutdown();
+		}
+	}
+
+
+
+
+	@Test
+	public final void testNestedBatchFromWorkerThread()
+	{
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch( 1 );
+		// the outer reader keeps one of the two workers
+		Future<DataSet> outer = scheduler.submit( new OsmServerReader()
+		{
+			@Override
+			public DataSet parseOsm( ProgressMonitor progressMonitor )
+			        throws OsmTransferException
+			{
+				DownloadScheduler.Batch batch = scheduler.newBatch();
+				for( long id = 1; id <= 3; id++ )
+				{
+					batch.submit( new StubReader( id, latch, running,
+					        maxRunning ) );
+				}
+				DataSet ds = new DataSet();
+				for( DataSet chunk : batch.getResults() )
+				{
+					ds.addPrimitive( new Node( chunk.getNodes().iterator()
+					        .next().getId() ) );
+				}
+				return ds;
+			}
+		} );
+		try
+		{
+			// the other worker and the waiting one download the chunks
+			Thread.sleep( 200 );
+			assertEquals( 2, running.get() );
+			latch.countDown();
+			assertEquals( 3, outer.get( 5, TimeUnit.SECONDS ).getNodes()
+			        .size() );
+			assertEquals( 2, maxRunning.get() );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testRetry()
+	{
+		DownloadScheduler retrying = new DownloadScheduler( 1, new RetryPolicy(
+		        2, 10, 20, new RateLimiter( 0, 1 ) ) );
+		try
+		{
+			assertEquals( 4, DownloadScheduler.get( retrying.submit(
+			        new FailingReader( 4, 2 ) ) ).getNodes().iterator().next()
+			        .getId() );
+			try
+			{
+				DownloadScheduler.get( retrying.submit( new FailingReader( 5, 3 ) ) );
+				fail( "OsmApiException expected" );
+			}
+			catch( OsmApiException e )
+			{
+				assertEquals( 503, e.getResponseCode() );
+			}
+		}
+		catch( OsmTransferException e )
+		{
+			fail( e.toString() );
+		}
+		finally
+		{
+			retrying.shutdown();
+		}
+	}
+
+
+
+
+	@Test
+	public final void testRetryDoesNotPinWorker()
+	{
+		// a single worker, and a long delay before the retry
+		DownloadScheduler retrying = new DownloadScheduler( 1, new RetryPolicy(
+		        1, 2000, 2000, new RateLimiter( 0, 1 ) ) );
+		try
+		{
+			Future<DataSet> failing = retrying.submit( new FailingReader( 4, 1 ) );
+			Thread.sleep( 100 );
+			Future<DataSet> other = retrying.submit( new FailingReader( 5, 0 ) );
+			// the other download doesn't wait for the retry
+			assertEquals( 5, other.get( 500, TimeUnit.MILLISECONDS ).getNodes()
+			        .iterator().next().getId() );
+			assertFalse( failing.isDone() );
+			assertEquals( 4, failing.get( 5, TimeUnit.SECONDS ).getNodes()
+			        .iterator().next().getId() );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+		finally
+		{
+			retrying.shutdown();
+		}
+	}
+}
@@ -0,0 +1,208 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.Tag;
+import org.windu2b.osm.check_transport_relations.data.osm.TagCollection;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+
+/**
+ * @author windu
+ *
+ */
+public class FilteredReaderTest
+{
+	/**
+	 * The route 10 has the stop 3, the way 6 and the multipolygon 20 ; the
+	 * stop_area 21 has the stop 3. The nodes 4 and 5, the way 7 and the
+	 * multipolygon aren't needed.
+	 */
+	private static final String	EXTRACT	= "<?xml version='1.0' encoding='UTF-8'?>"
+	                                        + "<osm version='0.6'>"
+	                                        + "<node id='1' version='1' lat='1' lon='1'/>"
+	                                        + "<node id='2' version='1' lat='2' lon='2'/>"
+	                                        + "<node id='3' version='1' lat='3' lon='3'><tag k='public_transport' v='stop_position'/></node>"
+	                                        + "<node id='4' version='1' lat='4' lon='4'/>"
+	                                        + "<node id='5' version='1' lat='5' lon='5'/>"
+	                                        + "<way id='6' version='1'><nd ref='1'/><nd ref='2'/><tag k='highway' v='primary'/></way>"
+	                                        + "<way id='7' version='1'><nd ref='4'/><nd ref='5'/></way>"
+	                                        + "<relation id='10' version='1'><member type='node' ref='3' role='stop'/>"
+	                                        + "<member type='way' ref='6' role=''/><member type='relation' ref='20' role=''/>"
+	                                        + "<tag k='type' v='route'/><tag k='route' v='bus'/></relation>"
+	                                        + "<relation id='20' version='1'><member type='way' ref='7' role='outer'/>"
+	                                        + "<tag k='type' v='multipolygon'/></relation>"
+	                                        + "<relation id='21' version='1'><member type='node' ref='3' role='stop'/>"
+	                                        + "<tag k='type' v='public_transport'/><tag k='public_transport' v='stop_area'/></relation>"
+	                                        + "</osm>";
+
+
+	private File	            extract;
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		if( extract != null ) extract.delete();
+	}
+
+
+
+
+	private void writeExtract( String suffix, byte[] content )
+	        throws IOException
+	{
+		extract = File.createTempFile( "extract", suffix );
+		OutputStream out = new FileOutputStream( extract );
+		out.write( content );
+		out.close();
+	}
+
+
+
+
+	private void assertFiltered( DataSet ds )
+	{
+		assertEquals( 3, ds.getNodes().size() );
+		assertEquals( 1, ds.getWays().size() );
+		assertEquals( 3, ds.getRelations().size() );
+		for( long id = 1; id <= 3; id++ )
+		{
+			assertNotNull( ds.getPrimitiveById( id, OsmPrimitiveType.NODE ) );
+		}
+		assertEquals( "stop_position",
+		        ds.getPrimitiveById( 3, OsmPrimitiveType.NODE ).get(
+		                "public_transport" ) );
+		assertNull( ds.getPrimitiveById( 4, OsmPrimitiveType.NODE ) );
+		assertNull( ds.getPrimitiveById( 5, OsmPrimitiveType.NODE ) );
+		assertNull( ds.getPrimitiveById( 7, OsmPrimitiveType.WAY ) );
+
+		Way way = ( Way ) ds.getPrimitiveById( 6, OsmPrimitiveType.WAY );
+		assertFalse( way.isIncomplete() );
+		assertEquals( 2, way.getNodesCount() );
+		assertSame( ds.getPrimitiveById( 1, OsmPrimitiveType.NODE ),
+		        way.getNode( 0 ) );
+		assertEquals( "primary", way.get( "highway" ) );
+
+		Relation route = ( Relation ) ds.getPrimitiveById( 10,
+		        OsmPrimitiveType.RELATION );
+		assertEquals( 3, route.getMembers().size() );
+		assertSame( way, route.getMembers().get( 1 ).getMember() );
+		// the multipolygon isn't read, but still a member of the route
+		OsmPrimitive multipolygon = route.getMembers().get( 2 ).getMember();
+		assertEquals( 20, multipolygon.getId() );
+		assertTrue( multipolygon.isIncomplete() );
+
+		Relation stopArea = ( Relation ) ds.getPrimitiveById( 21,
+		        OsmPrimitiveType.RELATION );
+		assertSame( route.getMembers().get( 0 ).getMember(), stopArea
+		        .getMembers().get( 0 ).getMember() );
+	}
+
+
+
+
+	@Test
+	public final void testParseXml()
+	{
+		try
+		{
+			writeExtract( ".osm", EXTRACT.getBytes( "UTF-8" ) );
+			DataSet ds = FilteredReader.parseDataSet( extract,
+			        FilteredReader.getPublicTransportTags(), null );
+			assertEquals( "0.6", ds.getVersion() );
+			assertFiltered( ds );
+
+			// without filter, the whole extract is read
+			ds = OsmFileReader.parseDataSet( extract, null );
+			assertEquals( 5, ds.getNodes().size() );
+			assertEquals( 2, ds.getWays().size() );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testParsePbf()
+	{
+		try
+		{
+			OsmPrimitiveType n = OsmPrimitiveType.NODE;
+			OsmPrimitiveType w = OsmPrimitiveType.WAY;
+			OsmPrimitiveType r = OsmPrimitiveType.RELATION;
+			for( boolean dense : new boolean[] { true, false } )
+			{
+				PbfWriter writer = new PbfWriter().setDense( dense )
+				        .addNode( 1, 1 ).addNode( 2, 1 )
+				        .addNode( 3, 1, "public_transport", "stop_position" )
+				        .addNode( 4, 1 ).addNode( 5, 1 );
+				writer.addWay( 6, 1, new long[] { 1, 2 }, "highway", "primary" )
+				        .addWay( 7, 1, new long[] { 4, 5 } );
+				writer.addRelation( 10, 1, new long[] { 3, 6, 20 },
+				        new OsmPrimitiveType[] { n, w, r }, new String[] {
+				                "stop", "", "" }, "type", "route", "route",
+				        "bus" );
+				writer.addRelation( 20, 1, new long[] { 7 },
+				        new OsmPrimitiveType[] { w }, new String[] { "outer" },
+				        "type", "multipolygon" );
+				writer.addRelation( 21, 1, new long[] { 3 },
+				        new OsmPrimitiveType[] { n }, new String[] { "stop" },
+				        "type", "public_transport", "public_transport",
+				        "stop_area" );
+				writeExtract( ".osm.pbf", writer.toByteArray() );
+				assertFiltered( OsmFileReader.parseDataSet( extract,
+				        FilteredReader.getPublicTransportTags(), null ) );
+				extract.delete();
+			}
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testParseTags()
+	{
+		TagCollection tags = FilteredReader
+		        .parseTags( "type=route|route_master|public_transport, public_transport" );
+		assertEquals( 4, tags.size() );
+		assertTrue( tags.contains( new Tag( "type", "route_master" ) ) );
+		assertTrue( tags.contains( new Tag( "public_transport" ) ) );
+		try
+		{
+			FilteredReader.parseTags( "=bus" );
+			fail( "IllegalArgumentException expected" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+}
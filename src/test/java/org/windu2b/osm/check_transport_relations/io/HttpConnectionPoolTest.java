@@ -0,0 +1,275 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.KeyStore;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * @author windu
+ *
+ */
+public class HttpConnectionPoolTest
+{
+	/** replies an empty data set */
+	private static final HttpHandler	HANDLER	= new HttpHandler()
+	{
+		@Override
+		public void handle( HttpExchange exchange ) throws IOException
+		{
+			byte[] body = "<osm version='0.6'/>".getBytes( "UTF-8" );
+			exchange.sendResponseHeaders( 200, body.length );
+			OutputStream out = exchange.getResponseBody();
+			out.write( body );
+			out.close();
+		}
+	};
+
+
+	private HttpServer	server;
+
+
+	private URL	       url;
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+		server.createContext( "/", HANDLER );
+		server.start();
+		url = new URL( "http://127.0.0.1:" + server.getAddress().getPort()
+		        + "/api/0.6/node/1" );
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		server.stop( 0 );
+		server = null;
+	}
+
+
+
+
+	private static void get( HttpConnectionPool pool, URL url )
+	        throws IOException
+	{
+		HttpURLConnection connection = pool.open( url );
+		assertEquals( 200, connection.getResponseCode() );
+		InputStream in = pool.getInputStream( connection );
+		// only read the beginning, close() drains the rest
+		assertTrue( in.read() != -1 );
+		in.close();
+	}
+
+
+
+
+	@Test
+	public final void testReuse()
+	{
+		HttpConnectionPool pool = new HttpConnectionPool( 2, 5000 );
+		try
+		{
+			get( pool, url );
+			assertEquals( 1, pool.getIdleCount( url ) );
+			get( pool, url );
+			get( pool, url );
+
+			assertEquals( 1, pool.getEstimatedOpened() );
+			assertEquals( 2, pool.getEstimatedReused() );
+			assertEquals( 0, pool.getOpened() );
+		}
+		catch( IOException e )
+		{
+			fail( e.getMessage() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testIdleEviction()
+	{
+		HttpConnectionPool pool = new HttpConnectionPool( 2, 0 );
+		try
+		{
+			get( pool, url );
+			assertEquals( 0, pool.getIdleCount( url ) );
+			get( pool, url );
+
+			assertEquals( 2, pool.getEstimatedOpened() );
+			assertEquals( 0, pool.getEstimatedReused() );
+		}
+		catch( IOException e )
+		{
+			fail( e.getMessage() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testReleaseNotReusable()
+	{
+		HttpConnectionPool pool = new HttpConnectionPool( 1, 5000 );
+		try
+		{
+			HttpURLConnection connection = pool.open( url );
+			pool.release( connection, false );
+			// the only permit was given back
+			connection = pool.open( url );
+			pool.release( connection, false );
+
+			assertEquals( 0, pool.getIdleCount( url ) );
+			assertEquals( 2, pool.getEstimatedOpened() );
+		}
+		catch( IOException e )
+		{
+			fail( e.getMessage() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testHttpsSockets() throws Exception
+	{
+		// a self-signed certificate for 127.0.0.1
+		File keyStore = File.createTempFile( "pool", ".p12" );
+		keyStore.delete();
+		char[] password = "secret".toCharArray();
+		HttpsServer https = null;
+		SSLSocketFactory defaultFactory = HttpsURLConnection
+		        .getDefaultSSLSocketFactory();
+		try
+		{
+			Process keytool = new ProcessBuilder( System
+			        .getProperty( "java.home" )
+			        + File.separator + "bin" + File.separator + "keytool",
+			        "-genkeypair", "-keystore", keyStore.getPath(),
+			        "-storetype", "PKCS12", "-storepass", "secret",
+			        "-keypass", "secret", "-alias", "pool", "-keyalg", "RSA",
+			        "-dname", "CN=127.0.0.1", "-ext", "SAN=ip:127.0.0.1",
+			        "-validity", "1" ).redirectErrorStream( true ).start();
+			while( keytool.getInputStream().read() != -1 )
+			{
+				// the output is ignored
+			}
+			assumeTrue( keytool.waitFor() == 0 );
+
+			KeyStore ks = KeyStore.getInstance( "PKCS12" );
+			InputStream in = new FileInputStream( keyStore );
+			try
+			{
+				ks.load( in, password );
+			}
+			finally
+			{
+				in.close();
+			}
+			KeyManagerFactory kmf = KeyManagerFactory
+			        .getInstance( KeyManagerFactory.getDefaultAlgorithm() );
+			kmf.init( ks, password );
+			TrustManagerFactory tmf = TrustManagerFactory
+			        .getInstance( TrustManagerFactory.getDefaultAlgorithm() );
+			tmf.init( ks );
+			SSLContext context = SSLContext.getInstance( "TLS" );
+			context.init( kmf.getKeyManagers(), tmf.getTrustManagers(), null );
+
+			https = HttpsServer.create( new InetSocketAddress( "127.0.0.1", 0 ),
+			        0 );
+			https.setHttpsConfigurator( new HttpsConfigurator( context ) );
+			https.createContext( "/", HANDLER );
+			https.start();
+			HttpsURLConnection.setDefaultSSLSocketFactory( context
+			        .getSocketFactory() );
+
+			URL httpsUrl = new URL( "https://127.0.0.1:"
+			        + https.getAddress().getPort() + "/api/0.6/node/1" );
+			HttpConnectionPool pool = new HttpConnectionPool( 2, 5000 );
+			get( pool, httpsUrl );
+			get( pool, httpsUrl );
+			get( pool, httpsUrl );
+
+			// the sockets really created, not an estimate
+			assertEquals( 1, pool.getOpened() );
+			assertEquals( 2, pool.getReused() );
+			assertEquals( 0, pool.getEstimatedOpened() );
+		}
+		finally
+		{
+			HttpsURLConnection.setDefaultSSLSocketFactory( defaultFactory );
+			if( https != null ) https.stop( 0 );
+			keyStore.delete();
+		}
+	}
+
+
+
+
+	@Test
+	public final void testInvalidParameters()
+	{
+		try
+		{
+			new HttpConnectionPool( 0, 5000 );
+			fail( "IllegalArgumentException expected" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+		try
+		{
+			new HttpConnectionPool( 1, -1 );
+			fail( "IllegalArgumentException expected" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+}
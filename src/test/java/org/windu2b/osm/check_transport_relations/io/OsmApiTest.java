@@ -0,0 +1,355 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.gui.progress.ProgressMonitor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author windu
+ *
+ */
+public class OsmApiTest
+{
+	private static final String	RESPONSE	= "<?xml version='1.0' encoding='UTF-8'?>"
+	                                            + "<osm version='0.6'>"
+	                                            + "<node id='100' version='1' lat='0' lon='0'/>"
+	                                            + "<relation id='1' version='1'><member type='node' ref='100' role='stop'/>"
+	                                            + "<tag k='type' v='route'/></relation>"
+	                                            + "</osm>";
+
+
+	private HttpServer	        server;
+
+
+	private OsmApi	            api;
+
+
+	private volatile String	    acceptEncoding;
+
+
+	/** the requests to the busy server */
+	private final AtomicInteger	busyHits	= new AtomicInteger();
+
+
+
+
+	private static void reply( HttpExchange exchange, int code, byte[] body )
+	        throws IOException
+	{
+		exchange.sendResponseHeaders( code, body.length );
+		OutputStream out = exchange.getResponseBody();
+		out.write( body );
+		out.close();
+	}
+
+
+
+
+	/**
+	 * Parses the body of a response while it is downloaded, as the readers do
+	 */
+	private DataSet parseDataSet( String urlSuffix )
+	        throws OsmTransferException
+	{
+		return api.sendRequest( "GET", urlSuffix, null, false,
+		        new OsmApi.ResponseHandler<DataSet>()
+		        {
+			        @Override
+			        public DataSet handle( InputStream in )
+			                throws IllegalDataException
+			        {
+				        return OsmReader.parseDataSet( in, null );
+			        }
+		        } );
+	}
+
+
+
+
+	/**
+	 * Reads the body of a response as text
+	 */
+	private String getText( String urlSuffix ) throws OsmTransferException
+	{
+		return api.sendRequest( "GET", urlSuffix, null, false,
+		        new OsmApi.ResponseHandler<String>()
+		        {
+			        @Override
+			        public String handle( InputStream in ) throws IOException
+			        {
+				        ByteArrayOutputStream out = new ByteArrayOutputStream();
+				        int b;
+				        while( ( b = in.read() ) != -1 )
+				        {
+					        out.write( b );
+				        }
+				        return out.toString( "UTF-8" );
+			        }
+		        } );
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+		server.createContext( "/api/0.6/relation/1/full", new HttpHandler()
+		{
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException
+			{
+				acceptEncoding = exchange.getRequestHeaders().getFirst(
+				        "Accept-Encoding" );
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				GZIPOutputStream out = new GZIPOutputStream( bytes );
+				out.write( RESPONSE.getBytes( "UTF-8" ) );
+				out.close();
+				exchange.getResponseHeaders().set( "Content-Encoding", "gzip" );
+				reply( exchange, 200, bytes.toByteArray() );
+			}
+		} );
+		server.createContext( "/api/0.6/text", new HttpHandler()
+		{
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException
+			{
+				reply( exchange, 200, "a\r\nb".getBytes( "UTF-8" ) );
+			}
+		} );
+		server.createContext( "/api/0.6/relation/2/full", new HttpHandler()
+		{
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException
+			{
+				exchange.getResponseHeaders().set( "Error", "Not found" );
+				reply( exchange, 404, "Not found".getBytes( "UTF-8" ) );
+			}
+		} );
+		// busy at the first request
+		server.createContext( "/api/0.6/busy", new HttpHandler()
+		{
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException
+			{
+				if( busyHits.incrementAndGet() == 1 )
+				{
+					exchange.getResponseHeaders().set( "Retry-After", "2" );
+					reply( exchange, 503, "Busy".getBytes( "UTF-8" ) );
+				}
+				else
+				{
+					reply( exchange, 200, "ok".getBytes( "UTF-8" ) );
+				}
+			}
+		} );
+		server.start();
+		api = new OsmApi( "http://127.0.0.1:" + server.getAddress().getPort()
+		        + "/api" );
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		server.stop( 0 );
+	}
+
+
+
+
+	@Test
+	public final void testParseDataSet()
+	{
+		try
+		{
+			DataSet ds = parseDataSet( "relation/1/full" );
+			assertEquals( "gzip", acceptEncoding );
+			assertNotNull( ds.getPrimitiveById( 1, OsmPrimitiveType.RELATION ) );
+			assertNotNull( ds.getPrimitiveById( 100, OsmPrimitiveType.NODE ) );
+		}
+		catch( OsmTransferException e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testHandlerReadsTheWholeBody()
+	{
+		try
+		{
+			String body = api.sendRequest( "GET", "text", null, false,
+			        new OsmApi.ResponseHandler<String>()
+			        {
+				        @Override
+				        public String handle( InputStream in ) throws IOException
+				        {
+					        ByteArrayOutputStream out = new ByteArrayOutputStream();
+					        int b;
+					        while( ( b = in.read() ) != -1 )
+					        {
+						        out.write( b );
+					        }
+					        return out.toString( "UTF-8" );
+				        }
+			        } );
+			assertEquals( "a\r\nb", body );
+		}
+		catch( OsmTransferException e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testErrorResponse()
+	{
+		try
+		{
+			parseDataSet( "relation/2/full" );
+			fail( "OsmApiException expected" );
+		}
+		catch( OsmApiException e )
+		{
+			assertEquals( 404, e.getResponseCode() );
+			assertEquals( "Not found", e.getErrorHeader() );
+		}
+		catch( OsmTransferException e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testRetryGivesTheConnectionBack() throws Exception
+	{
+		final String[] body = new String[1];
+		Thread retrying = new Thread( new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					body[0] = getText( "busy" );
+				}
+				catch( OsmTransferException e )
+				{
+					body[0] = e.toString();
+				}
+			}
+		} );
+		retrying.start();
+		for( int i = 0; i < 100 && busyHits.get() == 0; i++ )
+		{
+			Thread.sleep( 50 );
+		}
+		assertEquals( 1, busyHits.get() );
+
+		// all the connections to the host are free while the request waits
+		HttpConnectionPool pool = HttpConnectionPool.getInstance();
+		URL url = new URL( "http://127.0.0.1:" + server.getAddress().getPort()
+		        + "/api/0.6/text" );
+		List<HttpURLConnection> held = new ArrayList<HttpURLConnection>();
+		long start = System.currentTimeMillis();
+		for( int i = 0; i < pool.getMaxConnectionsPerHost(); i++ )
+		{
+			held.add( pool.open( url ) );
+		}
+		assertTrue( System.currentTimeMillis() - start < 1000 );
+		assertEquals( 1, busyHits.get() );
+		for( HttpURLConnection connection : held )
+		{
+			pool.release( connection, false );
+		}
+
+		retrying.join( 10000 );
+		assertEquals( "ok", body[0] );
+		assertEquals( 2, busyHits.get() );
+	}
+
+
+
+
+	@Test
+	public final void testNoWaitInAWorkerThread()
+	{
+		// the scheduler doesn't retry either
+		DownloadScheduler scheduler = new DownloadScheduler( 1, new RetryPolicy(
+		        0, 10, 10 ) );
+		long start = System.currentTimeMillis();
+		try
+		{
+			DownloadScheduler.get( scheduler.submit( new OsmServerReader()
+			{
+				@Override
+				public DataSet parseOsm( ProgressMonitor progressMonitor )
+				        throws OsmTransferException
+				{
+					getText( "busy" );
+					return new DataSet();
+				}
+			} ) );
+			fail( "OsmApiException expected" );
+		}
+		catch( OsmApiException e )
+		{
+			// left to the timer of the scheduler
+			assertEquals( 503, e.getResponseCode() );
+			assertEquals( "2", e.getRetryAfter() );
+			assertEquals( 1, busyHits.get() );
+			assertTrue( System.currentTimeMillis() - start < 1000 );
+		}
+		catch( OsmTransferException e )
+		{
+			fail( e.toString() );
+		}
+		finally
+		{
+			scheduler.shutdown();
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.PublicTransport;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+
+/**
+ * @author windu
+ *
+ */
+public class OsmFileReaderTest
+{
+	private static final String	OSM	 = "<osm version='0.6'><node id='1' version='1' lat='0' lon='0'>"
+	                                     + "<tag k='public_transport' v='stop_position'/></node>"
+	                                     + "<relation id='10' version='1'><tag k='type' v='public_transport'/>"
+	                                     + "<tag k='public_transport' v='stop_area'/>"
+	                                     + "<member type='node' ref='1' role='stop'/></relation>"
+	                                     + "<relation id='20' version='1'><tag k='type' v='route'/>"
+	                                     + "<member type='node' ref='1' role='stop'/></relation></osm>";
+
+
+	/**
+	 * OSM compressed with bzip2 -9
+	 */
+	private static final byte[]	BZIP2	= {
+	        66, 90, 104, 57, 49, 65, 89, 38, 83, 89, 95, -8, 70, 85,
+	        0, 0, 50, -101, -128, 64, -127, -15, 7, 0, 0, -65, -81, -33,
+	        32, 48, 0, -54, -80, 73, 66, -102, 120, 68, 60, -102, 19, 71,
+	        -90, -128, -110, 41, -23, 6, -128, -48, -115, 52, -47, -96, 73, 83,
+	        68, -12, -45, 106, -97, -94, 4, -48, -56, -60, -2, -107, 15, 2,
+	        -2, 48, 55, 98, -108, -98, 52, 97, -64, -41, 16, -79, -123, 124,
+	        -47, 34, 111, -128, -32, 77, -120, -88, 13, 20, 113, 26, 106, 37,
+	        118, 43, -125, -121, 24, -56, -28, -20, 113, -121, 60, -55, -126, 123,
+	        87, 17, 10, -89, -27, -122, 33, -86, -34, -56, -111, -54, -32, 87,
+	        9, -84, 72, -80, 120, -24, -91, 2, -27, 3, 34, -63, 98, -6,
+	        -90, -69, 6, 25, -47, 32, -64, -75, 85, 4, 30, -55, 8, 109,
+	        77, -90, -73, 12, -118, 44, 88, 78, 25, 6, 18, -116, -61, -96,
+	        117, -85, -86, 19, 84, -88, -61, 16, 35, 16, -102, 96, -79, 85,
+	        92, 22, -87, 72, 53, -127, 91, 7, 7, 87, -116, 85, 52, 0,
+	        -96, 118, 46, -28, -118, 112, -95, 32, -65, -16, -116, -86 };
+
+
+	private File	            file;
+
+
+
+
+	private void write( String suffix, byte[] content, boolean gzip )
+	        throws IOException
+	{
+		file = File.createTempFile( "extract", suffix );
+		OutputStream out = new FileOutputStream( file );
+		if( gzip ) out = new GZIPOutputStream( out );
+		out.write( content );
+		out.close();
+	}
+
+
+
+
+	private static void assertExtract( DataSet ds ) throws Exception
+	{
+		assertTrue( ds.isLocalOnly() );
+		assertEquals( 2, ds.getRelations().size() );
+
+		// the stop_area is found in the extract, without any request
+		Node node = ( Node ) ds.getPrimitiveById( 1, OsmPrimitiveType.NODE );
+		Relation stopArea = PublicTransport.getStopAreaRelation( node );
+		assertNotNull( stopArea );
+		assertEquals( 10, stopArea.getId() );
+		assertEquals( 2, node.getReferringRelations().size() );
+		assertEquals( 1, node.getRelations( "type", "route" ).size() );
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		BackreferenceCache.getInstance().clear();
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		if( file != null ) file.delete();
+		file = null;
+	}
+
+
+
+
+	@Test
+	public final void testPlain()
+	{
+		try
+		{
+			write( ".osm", OSM.getBytes( "UTF-8" ), false );
+			assertExtract( OsmFileReader.parseDataSet( file, null ) );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testGzip()
+	{
+		try
+		{
+			write( ".osm.gz", OSM.getBytes( "UTF-8" ), true );
+			assertExtract( OsmFileReader.parseDataSet( file, null ) );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testBzip2()
+	{
+		try
+		{
+			write( ".osm.bz2", BZIP2, false );
+			assertExtract( OsmFileReader.parseDataSet( file, null ) );
+			assertEquals( 0, BackreferenceCache.getInstance().getMisses() );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testPbf()
+	{
+		try
+		{
+			write( ".osm.pbf", new PbfWriter().addNode( 1, 1,
+			        "public_transport", "stop_position" ).addRelation( 10, 1,
+			        new long[] { 1 }, new OsmPrimitiveType[] { OsmPrimitiveType.NODE },
+			        new String[] { "stop" }, "type", "public_transport",
+			        "public_transport", "stop_area" ).addRelation( 20, 1,
+			        new long[] { 1 }, new OsmPrimitiveType[] { OsmPrimitiveType.NODE },
+			        new String[] { "stop" }, "type", "route" ).toByteArray(),
+			        false );
+			assertExtract( OsmFileReader.parseDataSet( file, null ) );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testCorruptedBzip2()
+	{
+		try
+		{
+			byte[] corrupted = BZIP2.clone();
+			corrupted[60] ^= 0x10;
+			write( ".osm.bz2", corrupted, false );
+			OsmFileReader.parseDataSet( file, null );
+			fail( "IllegalDataException expected" );
+		}
+		catch( IllegalDataException e )
+		{
+			// expected
+		}
+		catch( IOException e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testIsParallel()
+	{
+		boolean processors = Runtime.getRuntime().availableProcessors() > 1;
+		long chunk = ParallelOsmReader.MIN_CHUNK_SIZE;
+		assertFalse( OsmFileReader.isParallel( "a.osm", OSM.length() ) );
+		assertFalse( OsmFileReader.isParallel( "a.osm", 2 * chunk - 1 ) );
+		assertEquals( processors, OsmFileReader.isParallel( "a.osm", 2 * chunk ) );
+		assertEquals( processors, OsmFileReader.isParallel( "a.osm",
+		        ParallelOsmReader.MAX_SIZE ) );
+		assertFalse( OsmFileReader.isParallel( "a.osm",
+		        ParallelOsmReader.MAX_SIZE + 1L ) );
+		assertEquals( processors, OsmFileReader.isParallel( "a.osm.gz",
+		        OSM.length() ) );
+		assertEquals( processors, OsmFileReader.isParallel( "a.osm.bz2",
+		        4L * ParallelOsmReader.MAX_SIZE ) );
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+
+/**
+ * Measures the memory allocated by {@link OsmReader} and {@link PbfReader} per
+ * parsed element, on the extract generated by {@link PbfReaderBenchmark}. Not
+ * run by the tests.
+ *
+ * The benchmark fails if a reader allocates more than its budget: the
+ * primitives themselves, their tags and timestamps, the tables of the
+ * dataset by id, and for the XML the strings of the StAX parser, but no
+ * intermediate object.
+ *
+ * Usage : <code>OsmReaderBenchmark</code>. Needs a HotSpot JVM, which counts
+ * the allocations of each thread.
+ *
+ * @author windu
+ *
+ */
+public class OsmReaderBenchmark
+{
+	private static final int	RUNS	                 = 5;
+
+
+	/** bytes per element */
+	private static final long	MAX_XML_ALLOCATION	     = 650;
+
+
+	/** bytes per element */
+	private static final long	MAX_PBF_ALLOCATION	     = 300;
+
+
+
+
+	private interface Parser
+	{
+		DataSet parse() throws Exception;
+	}
+
+
+
+
+	public static void main( String[] args ) throws Exception
+	{
+		final byte[][] extract = PbfReaderBenchmark.generate();
+		Parser xml = new Parser()
+		{
+			@Override
+			public DataSet parse() throws Exception
+			{
+				return OsmReader.parseDataSet( new ByteArrayInputStream(
+				        extract[0] ), null );
+			}
+		};
+		Parser pbf = new Parser()
+		{
+			@Override
+			public DataSet parse() throws Exception
+			{
+				return PbfReader.parseDataSet( new ByteArrayInputStream(
+				        extract[1] ), null );
+			}
+		};
+		check( "XML", xml, MAX_XML_ALLOCATION );
+		check( "PBF", pbf, MAX_PBF_ALLOCATION );
+	}
+
+
+
+
+	private static void check( String name, Parser parser, long max )
+	        throws Exception
+	{
+		com.sun.management.ThreadMXBean bean = ( com.sun.management.ThreadMXBean ) ManagementFactory
+		        .getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		// first runs : warm up
+		int elements = 0;
+		for( int i = 0; i < RUNS; i++ )
+		{
+			elements = parser.parse().allPrimitives().size();
+		}
+		long best = Long.MAX_VALUE;
+		long allocated = Long.MAX_VALUE;
+		for( int i = 0; i < RUNS; i++ )
+		{
+			long bytes = bean.getThreadAllocatedBytes( thread );
+			long start = System.nanoTime();
+			parser.parse();
+			best = Math.min( best, System.nanoTime() - start );
+			allocated = Math.min( allocated, bean.getThreadAllocatedBytes( thread )
+			        - bytes );
+		}
+		long perElement = allocated / elements;
+		System.out.println( String.format( Locale.ROOT,
+		        "%s : %d elements, best %.1f ms, %d bytes allocated per element",
+		        name, elements, best / 1e6, perElement ) );
+		if( perElement > max )
+		    throw new AssertionError( String.format(
+		            "%s : %d bytes allocated per element, %d expected at most",
+		            name, perElement, max ) );
+	}
+}
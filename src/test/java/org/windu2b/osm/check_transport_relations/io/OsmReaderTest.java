@@ -0,0 +1,160 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+
+/**
+ * @author windu
+ *
+ */
+public class OsmReaderTest
+{
+	private static DataSet parse( String xml ) throws Exception
+	{
+		return OsmReader.parseDataSet(
+		        new ByteArrayInputStream( xml.getBytes( "UTF-8" ) ), null );
+	}
+
+
+
+
+	@Test
+	public final void testParse()
+	{
+		try
+		{
+			DataSet ds = parse( "<?xml version='1.0' encoding='UTF-8'?>"
+			        + "<osm version='0.6'>"
+			        + "<node id='1' version='2' timestamp='2011-03-13T07:06:40Z' lat='48.87' lon='2.32'>"
+			        + "<tag k='public_transport' v='stop_position'/></node>"
+			        + "<node id='2' version='1' lat='48.88' lon='2.33'/>"
+			        + "<way id='100' version='4'><nd ref='1'/><nd ref='2'/><nd ref='3'/>"
+			        + "<tag k='highway' v='primary'/></way>"
+			        + "<relation id='200' version='7'>"
+			        + "<member type='way' ref='100' role=''/>"
+			        + "<member type='relation' ref='300' role=''/>"
+			        + "<tag k='type' v='route'/></relation>" + "</osm>" );
+
+			Node n = ( Node ) ds.getPrimitiveById( 1, OsmPrimitiveType.NODE );
+			assertEquals( 2, n.getVersion() );
+			assertEquals( new Date( 1300000000000L ), n.getTimestamp() );
+			assertEquals( "stop_position", n.get( "public_transport" ) );
+			assertEquals( 488700000, n.getFixedLat() );
+			assertEquals( 23200000, n.getFixedLon() );
+			assertEquals( 1332, n.distance( ( Node ) ds.getPrimitiveById( 2,
+			        OsmPrimitiveType.NODE ) ), 1 );
+
+			Way w = ( Way ) ds.getPrimitiveById( 100, OsmPrimitiveType.WAY );
+			assertEquals( 4, w.getVersion() );
+			assertFalse( w.isIncomplete() );
+			assertEquals( 3, w.getNodesCount() );
+			assertSame( n, w.getNode( 0 ) );
+			// the node which isn't in the file is incomplete
+			assertTrue( w.getNode( 2 ).isIncomplete() );
+			assertFalse( w.getNode( 2 ).hasCoor() );
+			assertTrue( w.hasIncompleteNodes() );
+
+			Relation r = ( Relation ) ds.getPrimitiveById( 200,
+			        OsmPrimitiveType.RELATION );
+			assertEquals( 7, r.getVersion() );
+			assertSame( w, r.getMembers().get( 0 ).getMember() );
+			assertTrue( r.getMembers().get( 1 ).getMember().isIncomplete() );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testIllegalCoordinates()
+	{
+		try
+		{
+			parse( "<?xml version='1.0' encoding='UTF-8'?>"
+			        + "<osm version='0.6'>"
+			        + "<node id='1' version='1' lat='91.5' lon='2.32'/></osm>" );
+			fail( "IllegalDataException expected" );
+		}
+		catch( IllegalDataException e )
+		{
+			// expected
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testLongWay()
+	{
+		try
+		{
+			// more nodes than the initial size of the node refs buffer
+			StringBuilder xml = new StringBuilder( "<osm version='0.6'>" );
+			for( int i = 1; i <= 1000; i++ )
+			{
+				xml.append( "<node id='" ).append( i )
+				        .append( "' version='1' lat='0' lon='0'/>" );
+			}
+			xml.append( "<way id='1' version='1'>" );
+			for( int i = 1; i <= 1000; i++ )
+			{
+				xml.append( "<nd ref='" ).append( i ).append( "'/>" );
+			}
+			xml.append( "</way><way id='2' version='1'><nd ref='1'/></way></osm>" );
+
+			DataSet ds = parse( xml.toString() );
+			Way w = ( Way ) ds.getPrimitiveById( 1, OsmPrimitiveType.WAY );
+			assertEquals( 1000, w.getNodesCount() );
+			assertEquals( 1000, w.getNode( 999 ).getId() );
+			// the buffer is reused for the next way
+			assertEquals( 1, ( ( Way ) ds.getPrimitiveById( 2,
+			        OsmPrimitiveType.WAY ) ).getNodesCount() );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testMissingNegativeNode()
+	{
+		try
+		{
+			parse( "<osm version='0.6'><way id='1' version='1'><nd ref='-5'/></way></osm>" );
+			fail( "IllegalDataException expected" );
+		}
+		catch( IllegalDataException e )
+		{
+			// expected
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+}
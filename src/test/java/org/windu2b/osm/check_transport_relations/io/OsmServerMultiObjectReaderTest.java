@@ -0,0 +1,221 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.SimplePrimitiveId;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author windu
+ *
+ */
+public class OsmServerMultiObjectReaderTest
+{
+	private OsmServerMultiObjectReader	reader;
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		reader = new OsmServerMultiObjectReader();
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		reader = null;
+	}
+
+
+
+
+	@Test
+	public final void testBuildRequestString()
+	{
+		assertEquals( "ways?ways=1,2,3",
+		        OsmServerMultiObjectReader.buildRequestString(
+		                OsmPrimitiveType.WAY, Arrays.asList( 1L, 2L, 3L ) ) );
+		assertEquals( "relations?relations=42",
+		        OsmServerMultiObjectReader.buildRequestString(
+		                OsmPrimitiveType.RELATION, Arrays.asList( 42L ) ) );
+	}
+
+
+
+
+	@Test
+	public final void testChunksByCount()
+	{
+		reader.setMaxIdsPerRequest( 2 );
+		List<List<Long>> chunks = reader.buildChunks( OsmPrimitiveType.NODE,
+		        Arrays.asList( 1L, 2L, 3L, 4L, 5L ) );
+
+		assertEquals( 3, chunks.size() );
+		assertEquals( Arrays.asList( 1L, 2L ), chunks.get( 0 ) );
+		assertEquals( Arrays.asList( 3L, 4L ), chunks.get( 1 ) );
+		assertEquals( Arrays.asList( 5L ), chunks.get( 2 ) );
+	}
+
+
+
+
+	@Test
+	public final void testChunksByUrlLength()
+	{
+		reader.setMaxIdsPerRequest( Integer.MAX_VALUE );
+		List<Long> ids = new ArrayList<Long>();
+		for( long id = 1000000000L; id < 1000002000L; id++ )
+		{
+			ids.add( id );
+		}
+		List<List<Long>> chunks = reader.buildChunks( OsmPrimitiveType.NODE,
+		        ids );
+
+		assertTrue( chunks.size() > 1 );
+		int count = 0;
+		for( List<Long> chunk : chunks )
+		{
+			String url = reader.getBaseUrl()
+			        + OsmServerMultiObjectReader.buildRequestString(
+			                OsmPrimitiveType.NODE, chunk );
+			assertTrue( url.length() <= OsmServerMultiObjectReader.MAX_URL_LENGTH );
+			count += chunk.size();
+		}
+		assertEquals( ids.size(), count );
+	}
+
+
+
+
+	@Test
+	public final void testAppendInvalidId()
+	{
+		try
+		{
+			reader.append( new Node( 0 ) );
+			fail( "IllegalArgumentException expected" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+
+
+
+
+	@Test
+	public final void testSetMaxIdsPerRequest()
+	{
+		try
+		{
+			reader.setMaxIdsPerRequest( 0 );
+			fail( "IllegalArgumentException expected" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+
+
+
+
+	private static void serve( HttpServer server, String path,
+	        final String response, final AtomicInteger requests )
+	{
+		server.createContext( path, new HttpHandler()
+		{
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException
+			{
+				requests.incrementAndGet();
+				byte[] body = response.getBytes( "UTF-8" );
+				exchange.sendResponseHeaders( 200, body.length );
+				OutputStream out = exchange.getResponseBody();
+				out.write( body );
+				out.close();
+			}
+		} );
+	}
+
+
+
+
+	@Test
+	public final void testParseOsmTwice() throws Exception
+	{
+		AtomicInteger relationRequests = new AtomicInteger();
+		AtomicInteger nodeRequests = new AtomicInteger();
+		HttpServer server = HttpServer.create( new InetSocketAddress(
+		        "127.0.0.1", 0 ), 0 );
+		serve( server, "/api/0.6/relations",
+		        "<osm version='0.6'><relation id='1' version='1'>"
+		                + "<member type='node' ref='100' role='stop'/>"
+		                + "<tag k='type' v='route'/></relation></osm>",
+		        relationRequests );
+		serve( server, "/api/0.6/nodes", "<osm version='0.6'>"
+		        + "<node id='100' version='1' lat='0' lon='0'/></osm>",
+		        nodeRequests );
+		server.start();
+		try
+		{
+			final String baseUrl = "http://127.0.0.1:"
+			        + server.getAddress().getPort() + "/api/0.6/";
+			reader = new OsmServerMultiObjectReader( Arrays
+			        .asList( new SimplePrimitiveId( 1,
+			                OsmPrimitiveType.RELATION ) ), true )
+			{
+				@Override
+				protected String getBaseUrl()
+				{
+					return baseUrl;
+				}
+			};
+			// as the DownloadScheduler does on a retry
+			for( int attempt = 0; attempt < 2; attempt++ )
+			{
+				DataSet ds = reader.parseOsm( null );
+				assertNotNull( ds.getRelation( 1 ) );
+				assertNotNull( ds.getNode( 100 ) );
+				assertEquals( attempt + 1, relationRequests.get() );
+				assertEquals( attempt + 1, nodeRequests.get() );
+			}
+		}
+		finally
+		{
+			server.stop( 0 );
+		}
+	}
+}
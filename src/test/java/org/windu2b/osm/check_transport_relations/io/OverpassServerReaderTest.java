@@ -0,0 +1,178 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.check.Check;
+import org.windu2b.osm.check_transport_relations.check.LastElements;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.PublicTransport;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author windu
+ *
+ */
+public class OverpassServerReaderTest
+{
+	/**
+	 * Canned response of the query of the route_master 1
+	 */
+	private static final String	RESPONSE	= "<?xml version='1.0' encoding='UTF-8'?>"
+	                                            + "<osm version='0.6' generator='Overpass API'>"
+	                                            + "<note>The data included in this document is from www.openstreetmap.org.</note>"
+	                                            + "<meta osm_base='2013-05-01T10:00:00Z'/>"
+	                                            + "<node id='100' version='1' lat='0' lon='0'>"
+	                                            + "<tag k='public_transport' v='stop_position'/><tag k='bus' v='yes'/></node>"
+	                                            + "<node id='101' version='1' lat='0' lon='0'>"
+	                                            + "<tag k='public_transport' v='platform'/><tag k='highway' v='bus_stop'/></node>"
+	                                            + "<node id='102' version='1' lat='0' lon='0'/>"
+	                                            + "<way id='200' version='1'><nd ref='100'/><nd ref='102'/>"
+	                                            + "<tag k='highway' v='primary'/></way>"
+	                                            + "<relation id='1' version='1'><member type='relation' ref='10' role=''/>"
+	                                            + "<tag k='type' v='route_master'/><tag k='route_master' v='bus'/></relation>"
+	                                            + "<relation id='10' version='1'><member type='way' ref='200' role=''/>"
+	                                            + "<member type='node' ref='100' role='stop'/>"
+	                                            + "<member type='node' ref='101' role='platform'/>"
+	                                            + "<tag k='type' v='route'/><tag k='route' v='bus'/></relation>"
+	                                            + "<relation id='50' version='1'><member type='node' ref='100' role='stop'/>"
+	                                            + "<member type='node' ref='101' role='platform'/>"
+	                                            + "<tag k='type' v='public_transport'/><tag k='public_transport' v='stop_area'/></relation>"
+	                                            + "</osm>";
+
+
+	private HttpServer	        server;
+
+
+	private String	            url;
+
+
+	private final AtomicInteger	requests	= new AtomicInteger();
+
+
+	private volatile String	    query;
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+		server.createContext( "/", new HttpHandler()
+		{
+			@Override
+			public void handle( HttpExchange exchange ) throws IOException
+			{
+				requests.incrementAndGet();
+				String q = exchange.getRequestURI().getRawQuery();
+				query = q == null ? null : URLDecoder.decode(
+				        q.substring( "data=".length() ), "UTF-8" );
+				byte[] body = RESPONSE.getBytes( "UTF-8" );
+				exchange.sendResponseHeaders( 200, body.length );
+				OutputStream out = exchange.getResponseBody();
+				out.write( body );
+				out.close();
+			}
+		} );
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort()
+		        + "/api/interpreter";
+		BackreferenceCache.getInstance().clear();
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		server.stop( 0 );
+		LastElements.reset();
+	}
+
+
+
+
+	@Test
+	public final void testBuildQuery()
+	{
+		String q = OverpassServerReader.buildQuery( 1 );
+		assertTrue( q.contains( "relation(1)" ) );
+		assertTrue( q.contains( "\"public_transport\"=\"stop_area\"" ) );
+		assertTrue( q.endsWith( "out meta;" ) );
+	}
+
+
+
+
+	@Test
+	public final void testParseOsm()
+	{
+		try
+		{
+			DataSet ds = new OverpassServerReader( 1, url ).parseOsm( null );
+			assertEquals( 1, requests.get() );
+			assertEquals( OverpassServerReader.buildQuery( 1 ), query );
+			assertTrue( ds.isLocalOnly() );
+			assertEquals( 3, ds.getRelations().size() );
+
+			// the stop_area is found without any other request
+			Node stop = ( Node ) ds.getPrimitiveById( 100,
+			        OsmPrimitiveType.NODE );
+			assertEquals( 50, PublicTransport.getStopAreaRelation( stop )
+			        .getId() );
+
+			// so is the whole check of the route_master
+			Relation master = ( Relation ) ds.getPrimitiveById( 1,
+			        OsmPrimitiveType.RELATION );
+			new Check( master ).check();
+			assertEquals( 1, requests.get() );
+			assertEquals( 0, BackreferenceCache.getInstance().getMisses() );
+		}
+		catch( OsmTransferException e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testIllegalId()
+	{
+		try
+		{
+			new OverpassServerReader( 0, url );
+			fail( "IllegalArgumentException expected" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+}
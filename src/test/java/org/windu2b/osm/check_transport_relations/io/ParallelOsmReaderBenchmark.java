@@ -0,0 +1,69 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * Compares the parsing times of {@link ParallelOsmReader} with 1 to n threads.
+ * Not run by the tests.
+ *
+ * Usage : <code>ParallelOsmReaderBenchmark [&lt;extract.osm&gt;]</code>.
+ * Without any file, the extract generated by {@link PbfReaderBenchmark} is
+ * used.
+ *
+ * @author windu
+ *
+ */
+public class ParallelOsmReaderBenchmark
+{
+	private static final int	RUNS	= 5;
+
+
+
+
+	public static void main( String[] args ) throws Exception
+	{
+		byte[] data;
+		if( args.length == 1 )
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			InputStream in = OsmFileReader.getInputStream( new File( args[0] ) );
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while( ( n = in.read( buffer ) ) > 0 )
+			{
+				out.write( buffer, 0, n );
+			}
+			in.close();
+			data = out.toByteArray();
+		}
+		else data = PbfReaderBenchmark.generate()[0];
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		System.out.println( String.format( "%d bytes, %d processors",
+		        data.length, processors ) );
+		double sequential = 0;
+		for( int threads = 1; threads <= Math.max( processors, 2 ); threads *= 2 )
+		{
+			long best = Long.MAX_VALUE;
+			for( int i = 0; i < 2 * RUNS; i++ )
+			{
+				long start = System.nanoTime();
+				ParallelOsmReader.parseDataSet( new ByteArrayInputStream( data ),
+				        null, threads, 1024 * 1024 );
+				// the first runs warm up
+				if( i >= RUNS ) best = Math.min( best, System.nanoTime() - start );
+			}
+			if( threads == 1 ) sequential = best;
+			System.out.println( String.format( Locale.ROOT,
+			        "%d threads : best %.1f ms, speed-up %.2f", threads,
+			        best / 1e6, sequential / best ) );
+		}
+	}
+}
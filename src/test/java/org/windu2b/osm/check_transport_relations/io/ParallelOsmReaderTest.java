@@ -0,0 +1,190 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitive;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+
+/**
+ * @author windu
+ *
+ */
+public class ParallelOsmReaderTest
+{
+	private static final String	EXTRACT	= "<?xml version='1.0' encoding='UTF-8'?>\n"
+	                                        + "<osm version='0.6' generator='a > b'>\n"
+	                                        + "<note>The data is made available under ODbL.</note>\n"
+	                                        + "<node id='1' version='1' lat='0' lon='0'><tag k='name' v='Gare'/></node>\n"
+	                                        + "<node id='2' version='1' lat='0' lon='0'/>\n"
+	                                        + "<node id='3' version='2' lat='0' lon='0'/>\n"
+	                                        + "<way id='10' version='1'><nd ref='1'/><nd ref='2'/><nd ref='4'/></way>\n"
+	                                        + "<way id='11' version='1'><nd ref='3'/><nd ref='1'/></way>\n"
+	                                        + "<relation id='20' version='1'><member type='way' ref='10' role=''/>"
+	                                        + "<member type='node' ref='5' role='stop'/><tag k='type' v='route'/></relation>\n"
+	                                        + "<relation id='21' version='1'><member type='relation' ref='20' role=''/></relation>\n"
+	                                        + "</osm>\n";
+
+
+
+
+	private static DataSet parse( byte[] data, int parallelism )
+	        throws IllegalDataException
+	{
+		return ParallelOsmReader.parseDataSet(
+		        new ByteArrayInputStream( data ), null, parallelism, 1 );
+	}
+
+
+
+
+	private static void assertSameDataSet( DataSet expected, DataSet actual )
+	{
+		assertEquals( expected.allPrimitives().size(), actual.allPrimitives()
+		        .size() );
+		for( OsmPrimitive e : expected.allPrimitives() )
+		{
+			OsmPrimitive a = actual.getPrimitiveById( e.getPrimitiveId() );
+			assertNotNull( e.toString(), a );
+			assertEquals( e.getVersion(), a.getVersion() );
+			assertEquals( e.getTimestamp(), a.getTimestamp() );
+			assertEquals( e.isIncomplete(), a.isIncomplete() );
+			assertEquals( e.getKeys(), a.getKeys() );
+			if( e instanceof Way )
+			{
+				Way we = ( Way ) e, wa = ( Way ) a;
+				assertEquals( we.getNodesCount(), wa.getNodesCount() );
+				for( int i = 0; i < we.getNodesCount(); i++ )
+				{
+					assertSame( actual.getPrimitiveById( we.getNode( i )
+					        .getPrimitiveId() ), wa.getNode( i ) );
+				}
+			}
+			else if( e instanceof Relation )
+			{
+				Relation re = ( Relation ) e, ra = ( Relation ) a;
+				assertEquals( re.getMembers().size(), ra.getMembers().size() );
+				for( int i = 0; i < re.getMembers().size(); i++ )
+				{
+					assertEquals( re.getMembers().get( i ).getRole(), ra
+					        .getMembers().get( i ).getRole() );
+					assertSame( actual.getPrimitiveById( re.getMembers().get( i )
+					        .getMember().getPrimitiveId() ), ra.getMembers()
+					        .get( i ).getMember() );
+				}
+			}
+		}
+	}
+
+
+
+
+	@Test
+	public final void testSplit()
+	{
+		try
+		{
+			byte[] data = EXTRACT.getBytes( "UTF-8" );
+			int[] bounds = ParallelOsmReader.split( data, data.length, 4, 1 );
+			assertNotNull( bounds );
+			assertEquals( 5, bounds.length );
+			// the '>' of the generator isn't the end of the <osm> start tag
+			assertEquals( EXTRACT.indexOf( "\n<note>" ), bounds[0] );
+			for( int i = 1; i < bounds.length - 1; i++ )
+			{
+				String chunk = EXTRACT.substring( bounds[i] );
+				assertTrue( chunk, chunk.startsWith( "<node " )
+				        || chunk.startsWith( "<way " )
+				        || chunk.startsWith( "<relation " ) );
+			}
+			assertEquals( EXTRACT.lastIndexOf( "</osm>" ),
+			        bounds[bounds.length - 1] );
+
+			// too small, or a comment which may hide a tag
+			assertNull( ParallelOsmReader.split( data, data.length, 4, 1000 ) );
+			data = EXTRACT.replace( "<way id='11'", "<!-- <node --><way id='11'" )
+			        .getBytes( "UTF-8" );
+			assertNull( ParallelOsmReader.split( data, data.length, 4, 1 ) );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testSameAsOsmReader()
+	{
+		try
+		{
+			byte[] data = EXTRACT.getBytes( "UTF-8" );
+			DataSet expected = OsmReader.parseDataSet( new ByteArrayInputStream(
+			        data ), null );
+			for( int parallelism = 1; parallelism <= 8; parallelism++ )
+			{
+				assertSameDataSet( expected, parse( data, parallelism ) );
+			}
+
+			data = PbfReaderBenchmark.generate()[0];
+			expected = OsmReader.parseDataSet(
+			        new ByteArrayInputStream( data ), null );
+			assertSameDataSet( expected, parse( data, 4 ) );
+
+			// above the maximum size, the rest of the input is streamed
+			for( int maxSize : new int[] { 1, 1000, data.length - 1,
+			        data.length, data.length + 1 } )
+			{
+				assertSameDataSet( expected, ParallelOsmReader.parseDataSet(
+				        new ByteArrayInputStream( data ), null, 4, 1, maxSize ) );
+			}
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testErrorAtItsLine()
+	{
+		byte[] data = null;
+		String expected = null;
+		try
+		{
+			data = EXTRACT.replace( "<way id='11' version='1'",
+			        "<way id='11' version='x'" ).getBytes( "UTF-8" );
+			OsmReader.parseDataSet( new ByteArrayInputStream( data ), null );
+			fail( "IllegalDataException expected" );
+		}
+		catch( IllegalDataException e )
+		{
+			expected = e.getMessage();
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+		try
+		{
+			parse( data, 4 );
+			fail( "IllegalDataException expected" );
+		}
+		catch( IllegalDataException e )
+		{
+			assertEquals( expected, e.getMessage() );
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Locale;
+
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+
+/**
+ * Compares the parsing times of {@link OsmReader} and {@link PbfReader} on the
+ * same extract. Not run by the tests.
+ *
+ * Usage : <code>PbfReaderBenchmark [&lt;extract.osm&gt; &lt;extract.osm.pbf&gt;]</code>.
+ * Without any file, a generated extract is used.
+ *
+ * @author windu
+ *
+ */
+public class PbfReaderBenchmark
+{
+	private static final int	RUNS	   = 5;
+
+
+	private static final int	WAYS	   = 20000;
+
+
+	private static final int	WAY_NODES	= 10;
+
+
+
+
+	private interface Parser
+	{
+		DataSet parse() throws Exception;
+	}
+
+
+
+
+	public static void main( String[] args ) throws Exception
+	{
+		Parser xml;
+		Parser pbf;
+		if( args.length == 2 )
+		{
+			final File xmlFile = new File( args[0] );
+			final File pbfFile = new File( args[1] );
+			System.out.println( String.format( "XML : %d bytes, PBF : %d bytes",
+			        xmlFile.length(), pbfFile.length() ) );
+			xml = new Parser()
+			{
+				@Override
+				public DataSet parse() throws Exception
+				{
+					return OsmFileReader.parseDataSet( xmlFile, null );
+				}
+			};
+			pbf = new Parser()
+			{
+				@Override
+				public DataSet parse() throws Exception
+				{
+					return OsmFileReader.parseDataSet( pbfFile, null );
+				}
+			};
+		}
+		else
+		{
+			final byte[][] extract = generate();
+			System.out.println( String.format( "XML : %d bytes, PBF : %d bytes",
+			        extract[0].length, extract[1].length ) );
+			xml = new Parser()
+			{
+				@Override
+				public DataSet parse() throws Exception
+				{
+					return OsmReader.parseDataSet( new ByteArrayInputStream(
+					        extract[0] ), null );
+				}
+			};
+			pbf = new Parser()
+			{
+				@Override
+				public DataSet parse() throws Exception
+				{
+					return PbfReader.parseDataSet( new ByteArrayInputStream(
+					        extract[1] ), null );
+				}
+			};
+		}
+		run( "XML", xml );
+		run( "PBF", pbf );
+	}
+
+
+
+
+	private static void run( String name, Parser parser ) throws Exception
+	{
+		// first run : warm up
+		int size = parser.parse().allPrimitives().size();
+		long best = Long.MAX_VALUE;
+		long total = 0;
+		for( int i = 0; i < RUNS; i++ )
+		{
+			long start = System.nanoTime();
+			parser.parse();
+			long time = System.nanoTime() - start;
+			best = Math.min( best, time );
+			total += time;
+		}
+		System.out.println( String.format( Locale.ROOT,
+		        "%s : %d primitives, best %.1f ms, mean %.1f ms", name, size,
+		        best / 1e6, total / 1e6 / RUNS ) );
+	}
+
+
+
+
+	/**
+	 * Generates the same extract as XML and as PBF
+	 */
+	static byte[][] generate() throws Exception
+	{
+		StringBuilder xml = new StringBuilder(
+		        "<?xml version='1.0' encoding='UTF-8'?>\n<osm version='0.6'>\n" );
+		PbfWriter pbf = new PbfWriter();
+		String timestamp = "timestamp='2011-03-13T07:06:40Z'";
+		long nodes = ( long ) WAYS * WAY_NODES;
+		for( long id = 1; id <= nodes; id++ )
+		{
+			if( id % 50 == 0 )
+			{
+				xml.append( "<node id='" ).append( id ).append(
+				        "' version='1' " ).append( timestamp ).append(
+				        " lat='48.8' lon='2.3'>"
+				                + "<tag k='highway' v='bus_stop'/>"
+				                + "<tag k='public_transport' v='platform'/></node>\n" );
+				pbf.addNode( id, 1, "highway", "bus_stop", "public_transport",
+				        "platform" );
+			}
+			else
+			{
+				xml.append( "<node id='" ).append( id ).append(
+				        "' version='1' " ).append( timestamp ).append(
+				        " lat='48.8' lon='2.3'/>\n" );
+				pbf.addNode( id, 1 );
+			}
+		}
+		for( long id = 1; id <= WAYS; id++ )
+		{
+			long[] refs = new long[WAY_NODES];
+			xml.append( "<way id='" ).append( id ).append( "' version='2' " )
+			        .append( timestamp ).append( ">" );
+			for( int i = 0; i < WAY_NODES; i++ )
+			{
+				refs[i] = ( id - 1 ) * WAY_NODES + i + 1;
+				xml.append( "<nd ref='" ).append( refs[i] ).append( "'/>" );
+			}
+			xml.append( "<tag k='highway' v='residential'/></way>\n" );
+			pbf.addWay( id, 2, refs, "highway", "residential" );
+		}
+		for( long id = 1; id <= WAYS / 100; id++ )
+		{
+			long[] refs = new long[100];
+			OsmPrimitiveType[] types = new OsmPrimitiveType[100];
+			String[] roles = new String[100];
+			xml.append( "<relation id='" ).append( id ).append(
+			        "' version='3' " ).append( timestamp ).append( ">" );
+			for( int i = 0; i < 100; i++ )
+			{
+				refs[i] = ( id - 1 ) * 100 + i + 1;
+				types[i] = OsmPrimitiveType.WAY;
+				roles[i] = "";
+				xml.append( "<member type='way' ref='" ).append( refs[i] )
+				        .append( "' role=''/>" );
+			}
+			xml.append( "<tag k='type' v='route'/><tag k='route' v='bus'/></relation>\n" );
+			pbf.addRelation( id, 3, refs, types, roles, "type", "route",
+			        "route", "bus" );
+		}
+		xml.append( "</osm>\n" );
+		return new byte[][] { xml.toString().getBytes( "UTF-8" ),
+		        pbf.toByteArray() };
+	}
+}
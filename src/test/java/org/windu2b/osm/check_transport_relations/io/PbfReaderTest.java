@@ -0,0 +1,173 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.RelationMember;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+
+/**
+ * @author windu
+ *
+ */
+public class PbfReaderTest
+{
+	private static PbfWriter newWriter()
+	{
+		return new PbfWriter()
+		        .addNode( 1, 2, 48.8756381, 2.3253194, "public_transport",
+		                "stop_position", "bus", "yes" )
+		        .addNode( 2, 1, -33.8688197, -70.2093 )
+		        .addNode( 5, 3, "name", "Gare Saint-Lazare" )
+		        .addWay( 100, 4, new long[] { 1, 2, 5 }, "highway", "primary" )
+		        .addRelation(
+		                200,
+		                7,
+		                new long[] { 1, 100, 300 },
+		                new OsmPrimitiveType[] { OsmPrimitiveType.NODE,
+		                        OsmPrimitiveType.WAY,
+		                        OsmPrimitiveType.RELATION }, new String[] {
+		                        "stop", "", "" }, "type", "route", "route",
+		                "bus" );
+	}
+
+
+
+
+	private static DataSet parse( PbfWriter writer ) throws IOException,
+	        IllegalDataException
+	{
+		return PbfReader.parseDataSet(
+		        new ByteArrayInputStream( writer.toByteArray() ), null );
+	}
+
+
+
+
+	private static void assertDataSet( DataSet ds )
+	{
+		Node n = ( Node ) ds.getPrimitiveById( 1, OsmPrimitiveType.NODE );
+		assertNotNull( n );
+		assertEquals( 2, n.getVersion() );
+		assertEquals( "stop_position", n.get( "public_transport" ) );
+		assertEquals( "yes", n.get( "bus" ) );
+		assertEquals( new Date( 1300000000000L ), n.getTimestamp() );
+		assertEquals( 488756381, n.getFixedLat() );
+		assertEquals( 23253194, n.getFixedLon() );
+		// the coordinates are delta coded in the dense nodes
+		Node n2 = ( Node ) ds.getPrimitiveById( 2, OsmPrimitiveType.NODE );
+		assertEquals( -33.8688197, n2.getLat(), 1e-9 );
+		assertEquals( -70.2093, n2.getLon(), 1e-9 );
+		assertEquals( "Gare Saint-Lazare",
+		        ds.getPrimitiveById( 5, OsmPrimitiveType.NODE ).get( "name" ) );
+
+		Way w = ( Way ) ds.getPrimitiveById( 100, OsmPrimitiveType.WAY );
+		assertEquals( 4, w.getVersion() );
+		assertEquals( "primary", w.get( "highway" ) );
+		assertEquals( 3, w.getNodes().size() );
+		assertSame( n, w.getNodes().get( 0 ) );
+		assertEquals( 5, w.getNodes().get( 2 ).getId() );
+
+		Relation r = ( Relation ) ds.getPrimitiveById( 200,
+		        OsmPrimitiveType.RELATION );
+		assertEquals( 7, r.getVersion() );
+		assertTrue( r.isThisKind( "route", "bus" ) );
+		assertEquals( 3, r.getMembers().size() );
+		RelationMember rm = r.getMembers().get( 0 );
+		assertEquals( "stop", rm.getRole() );
+		assertSame( n, rm.getMember() );
+		assertSame( w, r.getMembers().get( 1 ).getMember() );
+
+		// the relation which isn't in the file is incomplete
+		Relation missing = ( Relation ) r.getMembers().get( 2 ).getMember();
+		assertEquals( 300, missing.getId() );
+		assertTrue( missing.isIncomplete() );
+		assertEquals( 2, ds.getRelations().size() );
+	}
+
+
+
+
+	@Test
+	public final void testDenseNodes()
+	{
+		try
+		{
+			assertDataSet( parse( newWriter() ) );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testNodesInRawBlobs()
+	{
+		try
+		{
+			assertDataSet( parse( newWriter().setDense( false )
+			        .setCompressed( false ).setBlockSize( 1 ) ) );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testTruncatedFile()
+	{
+		try
+		{
+			byte[] pbf = newWriter().setCompressed( false ).toByteArray();
+			PbfReader.parseDataSet( new ByteArrayInputStream( Arrays.copyOf(
+			        pbf, pbf.length - 10 ) ), null );
+			fail( "IllegalDataException expected" );
+		}
+		catch( IllegalDataException e )
+		{
+			// expected
+		}
+		catch( IOException e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testMissingHeader()
+	{
+		try
+		{
+			PbfReader.parseDataSet( new ByteArrayInputStream( new byte[0] ),
+			        null );
+			fail( "IllegalDataException expected" );
+		}
+		catch( IllegalDataException e )
+		{
+			// expected
+		}
+	}
+}
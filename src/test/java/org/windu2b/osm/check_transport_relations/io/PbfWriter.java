@@ -0,0 +1,464 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+
+/**
+ * Writes small <code>.osm.pbf</code> files, to test {@link PbfReader}
+ *
+ * @author windu
+ *
+ */
+public class PbfWriter
+{
+	/**
+	 * Encoder of protocol buffers messages
+	 */
+	static class ProtobufWriter
+	{
+		private final ByteArrayOutputStream	out	= new ByteArrayOutputStream();
+
+
+
+
+		private void writeVarint( long value )
+		{
+			while( ( value & ~0x7fL ) != 0 )
+			{
+				out.write( ( int ) ( value & 0x7f ) | 0x80 );
+				value >>>= 7;
+			}
+			out.write( ( int ) value );
+		}
+
+
+
+
+		private void writeKey( int field, int wireType )
+		{
+			writeVarint( field << 3 | wireType );
+		}
+
+
+
+
+		ProtobufWriter varint( int field, long value )
+		{
+			writeKey( field, ProtobufParser.VARINT );
+			writeVarint( value );
+			return this;
+		}
+
+
+
+
+		ProtobufWriter sint( int field, long value )
+		{
+			return varint( field, ( value << 1 ) ^ ( value >> 63 ) );
+		}
+
+
+
+
+		ProtobufWriter bytes( int field, byte[] value )
+		{
+			writeKey( field, ProtobufParser.LENGTH_DELIMITED );
+			writeVarint( value.length );
+			out.write( value, 0, value.length );
+			return this;
+		}
+
+
+
+
+		ProtobufWriter string( int field, String value )
+		{
+			try
+			{
+				return bytes( field, value.getBytes( "UTF-8" ) );
+			}
+			catch( UnsupportedEncodingException e )
+			{
+				throw new AssertionError( e );
+			}
+		}
+
+
+
+
+		ProtobufWriter message( int field, ProtobufWriter message )
+		{
+			return bytes( field, message.toByteArray() );
+		}
+
+
+
+
+		ProtobufWriter packed( int field, List<Long> values, boolean zigzag )
+		{
+			ProtobufWriter packed = new ProtobufWriter();
+			for( long value : values )
+			{
+				packed.writeVarint( zigzag ? ( value << 1 ) ^ ( value >> 63 )
+				        : value );
+			}
+			return bytes( field, packed.toByteArray() );
+		}
+
+
+
+
+		byte[] toByteArray()
+		{
+			return out.toByteArray();
+		}
+	}
+
+
+
+	/**
+	 * A primitive to write
+	 */
+	private static class Entity
+	{
+		long		       id;
+
+
+		int		           version;
+
+
+		String[]	       tags;
+
+
+		long[]		       refs;
+
+
+		String[]	       roles;
+
+
+		OsmPrimitiveType[]	types;
+
+
+		/** the coordinates of a node, in 1e-7 degrees */
+		long		       lat;
+
+
+		long		       lon;
+	}
+
+
+	private final List<Entity>	nodes	   = new ArrayList<Entity>();
+
+
+	private final List<Entity>	ways	   = new ArrayList<Entity>();
+
+
+	private final List<Entity>	relations	= new ArrayList<Entity>();
+
+
+	private boolean	           dense	   = true;
+
+
+	private boolean	           compressed	= true;
+
+
+	private int	               blockSize	= 8000;
+
+
+
+
+	/**
+	 * Writes the nodes as DenseNodes (default) or as Node messages
+	 */
+	public PbfWriter setDense( boolean dense )
+	{
+		this.dense = dense;
+		return this;
+	}
+
+
+
+
+	/**
+	 * Compresses the blobs with zlib (default) or writes them raw
+	 */
+	public PbfWriter setCompressed( boolean compressed )
+	{
+		this.compressed = compressed;
+		return this;
+	}
+
+
+
+
+	/**
+	 * Sets the maximum number of primitives per block
+	 */
+	public PbfWriter setBlockSize( int blockSize )
+	{
+		this.blockSize = blockSize;
+		return this;
+	}
+
+
+
+
+	/**
+	 * @param tags
+	 *            the keys and the values
+	 */
+	public PbfWriter addNode( long id, int version, String... tags )
+	{
+		Entity e = new Entity();
+		e.id = id;
+		e.version = version;
+		e.tags = tags;
+		nodes.add( e );
+		return this;
+	}
+
+
+
+
+	/**
+	 * @param lat
+	 *            the latitude, in degrees
+	 * @param lon
+	 *            the longitude, in degrees
+	 * @param tags
+	 *            the keys and the values
+	 */
+	public PbfWriter addNode( long id, int version, double lat, double lon,
+	        String... tags )
+	{
+		addNode( id, version, tags );
+		Entity e = nodes.get( nodes.size() - 1 );
+		e.lat = Math.round( lat * 1e7 );
+		e.lon = Math.round( lon * 1e7 );
+		return this;
+	}
+
+
+
+
+	public PbfWriter addWay( long id, int version, long[] refs,
+	        String... tags )
+	{
+		Entity e = new Entity();
+		e.id = id;
+		e.version = version;
+		e.refs = refs;
+		e.tags = tags;
+		ways.add( e );
+		return this;
+	}
+
+
+
+
+	public PbfWriter addRelation( long id, int version, long[] refs,
+	        OsmPrimitiveType[] types, String[] roles, String... tags )
+	{
+		Entity e = new Entity();
+		e.id = id;
+		e.version = version;
+		e.refs = refs;
+		e.types = types;
+		e.roles = roles;
+		e.tags = tags;
+		relations.add( e );
+		return this;
+	}
+
+
+
+
+	public byte[] toByteArray() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream( out );
+		writeBlob( data, "OSMHeader", new ProtobufWriter().string( 4,
+		        "OsmSchema-V0.6" ).string( 4, "DenseNodes" ) );
+		writeBlocks( data, nodes, 1 );
+		writeBlocks( data, ways, 3 );
+		writeBlocks( data, relations, 4 );
+		data.close();
+		return out.toByteArray();
+	}
+
+
+
+
+	private void writeBlocks( DataOutputStream data, List<Entity> entities,
+	        int kind ) throws IOException
+	{
+		for( int from = 0; from < entities.size(); from += blockSize )
+		{
+			writeBlob( data, "OSMData", primitiveBlock( entities.subList( from,
+			        Math.min( from + blockSize, entities.size() ) ), kind ) );
+		}
+	}
+
+
+
+
+	private void writeBlob( DataOutputStream data, String type,
+	        ProtobufWriter block ) throws IOException
+	{
+		byte[] raw = block.toByteArray();
+		ProtobufWriter blob = new ProtobufWriter();
+		if( compressed )
+		{
+			Deflater deflater = new Deflater();
+			deflater.setInput( raw );
+			deflater.finish();
+			ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			while( !deflater.finished() )
+			{
+				zlib.write( buffer, 0, deflater.deflate( buffer ) );
+			}
+			deflater.end();
+			blob.varint( 2, raw.length ).bytes( 3, zlib.toByteArray() );
+		}
+		else blob.bytes( 1, raw );
+
+		byte[] blobBytes = blob.toByteArray();
+		byte[] header = new ProtobufWriter().string( 1, type ).varint( 3,
+		        blobBytes.length ).toByteArray();
+		data.writeInt( header.length );
+		data.write( header );
+		data.write( blobBytes );
+	}
+
+
+
+
+	private ProtobufWriter primitiveBlock( List<Entity> entities, int kind )
+	{
+		final List<String> table = new ArrayList<String>();
+		final Map<String, Long> index = new HashMap<String, Long>();
+		table.add( "" );
+		index.put( "", 0L );
+
+		ProtobufWriter group = new ProtobufWriter();
+		if( kind == 1 && dense )
+		{
+			List<Long> ids = new ArrayList<Long>();
+			List<Long> versions = new ArrayList<Long>();
+			List<Long> timestamps = new ArrayList<Long>();
+			List<Long> lats = new ArrayList<Long>();
+			List<Long> lons = new ArrayList<Long>();
+			List<Long> keysValues = new ArrayList<Long>();
+			long lastId = 0;
+			long lastLat = 0;
+			long lastLon = 0;
+			for( Entity e : entities )
+			{
+				ids.add( e.id - lastId );
+				lastId = e.id;
+				lats.add( e.lat - lastLat );
+				lastLat = e.lat;
+				lons.add( e.lon - lastLon );
+				lastLon = e.lon;
+				versions.add( ( long ) e.version );
+				timestamps.add( e == entities.get( 0 ) ? 1300000000L : 0L );
+				for( String s : e.tags )
+				{
+					keysValues.add( stringIndex( s, table, index ) );
+				}
+				keysValues.add( 0L );
+			}
+			ProtobufWriter info = new ProtobufWriter().packed( 1, versions,
+			        false ).packed( 2, timestamps, true );
+			group.message( 2, new ProtobufWriter().packed( 1, ids, true )
+			        .message( 5, info ).packed( 8, lats, true ).packed( 9, lons,
+			                true ).packed( 10, keysValues, false ) );
+		}
+		else
+		{
+			for( Entity e : entities )
+			{
+				ProtobufWriter message = new ProtobufWriter();
+				if( kind == 1 )
+					message.sint( 1, e.id );
+				else message.varint( 1, e.id );
+				List<Long> keys = new ArrayList<Long>();
+				List<Long> values = new ArrayList<Long>();
+				for( int i = 0; i < e.tags.length; i += 2 )
+				{
+					keys.add( stringIndex( e.tags[i], table, index ) );
+					values.add( stringIndex( e.tags[i + 1], table, index ) );
+				}
+				message.packed( 2, keys, false ).packed( 3, values, false );
+				message.message( 4, new ProtobufWriter().varint( 1, e.version )
+				        .varint( 2, 1300000000L ) );
+				if( kind == 1 )
+				{
+					message.sint( 8, e.lat ).sint( 9, e.lon );
+				}
+				else
+				{
+					List<Long> refs = new ArrayList<Long>();
+					long last = 0;
+					for( long ref : e.refs )
+					{
+						refs.add( ref - last );
+						last = ref;
+					}
+					if( kind == 4 )
+					{
+						List<Long> roles = new ArrayList<Long>();
+						List<Long> types = new ArrayList<Long>();
+						for( int i = 0; i < e.refs.length; i++ )
+						{
+							roles.add( stringIndex( e.roles[i], table, index ) );
+							types.add( ( long ) e.types[i].ordinal() );
+						}
+						message.packed( 8, roles, false ).packed( 9, refs, true )
+						        .packed( 10, types, false );
+					}
+					else message.packed( 8, refs, true );
+				}
+				group.message( kind, message );
+			}
+		}
+
+		ProtobufWriter stringTable = new ProtobufWriter();
+		for( String s : table )
+		{
+			stringTable.string( 1, s );
+		}
+		// written in the order of the fields, the granularity after the groups
+		return new ProtobufWriter().message( 1, stringTable ).message( 2,
+		        group ).varint( 17, 100 ).varint( 18, 1000 );
+	}
+
+
+
+
+	private static long stringIndex( String s, List<String> table,
+	        Map<String, Long> index )
+	{
+		Long i = index.get( s );
+		if( i == null )
+		{
+			i = ( long ) table.size();
+			table.add( s );
+			index.put( s, i );
+		}
+		return i;
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class RateLimiterTest
+{
+	@Test
+	public final void testBurst()
+	{
+		RateLimiter limiter = new RateLimiter( 10, 3 );
+		for( int i = 0; i < 3; i++ )
+		{
+			assertEquals( 0, limiter.reserve() );
+		}
+		// the bucket is empty: 100 ms per token
+		long wait = limiter.reserve();
+		assertTrue( wait > 50 && wait <= 100 );
+		wait = limiter.reserve();
+		assertTrue( wait > 150 && wait <= 200 );
+		assertEquals( 2, limiter.getDelayed() );
+	}
+
+
+
+
+	@Test
+	public final void testRefill()
+	{
+		try
+		{
+			RateLimiter limiter = new RateLimiter( 100, 1 );
+			assertEquals( 0, limiter.reserve() );
+			Thread.sleep( 30 );
+			assertEquals( 0, limiter.reserve() );
+		}
+		catch( InterruptedException e )
+		{
+			fail( e.getMessage() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testNoLimit()
+	{
+		RateLimiter limiter = new RateLimiter( 0, 1 );
+		for( int i = 0; i < 100; i++ )
+		{
+			assertEquals( 0, limiter.reserve() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testPause()
+	{
+		RateLimiter limiter = new RateLimiter( 0, 1 );
+		limiter.pause( 500 );
+		long wait = limiter.reserve();
+		assertTrue( wait > 400 && wait <= 500 );
+	}
+
+
+
+
+	@Test
+	public final void testIllegalParameters()
+	{
+		try
+		{
+			new RateLimiter( -1, 1 );
+			fail( "IllegalArgumentException expected" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+		try
+		{
+			new RateLimiter( 1, 0 );
+			fail( "IllegalArgumentException expected" );
+		}
+		catch( IllegalArgumentException e )
+		{
+			// expected
+		}
+	}
+}
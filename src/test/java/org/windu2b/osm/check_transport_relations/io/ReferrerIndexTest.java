@@ -0,0 +1,254 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.windu2b.osm.check_transport_relations.data.osm.DataSet;
+import org.windu2b.osm.check_transport_relations.data.osm.Node;
+import org.windu2b.osm.check_transport_relations.data.osm.OsmPrimitiveType;
+import org.windu2b.osm.check_transport_relations.data.osm.PublicTransport;
+import org.windu2b.osm.check_transport_relations.data.osm.Relation;
+import org.windu2b.osm.check_transport_relations.data.osm.Way;
+
+/**
+ * @author windu
+ *
+ */
+public class ReferrerIndexTest
+{
+	/**
+	 * Node 1 is in the route 20 and in the stop_area 10; way 2 in the stop_area
+	 * 11 and in the stop_area_group 30
+	 */
+	private static final String	EXTRACT	= "<?xml version='1.0' encoding='UTF-8'?>"
+	                                        + "<osm version='0.6'>"
+	                                        + "<node id='1' version='1' lat='0' lon='0'/>"
+	                                        + "<node id='3' version='1' lat='0' lon='0'/>"
+	                                        + "<way id='2' version='1'><nd ref='1'/><nd ref='3'/></way>"
+	                                        + "<relation id='10' version='1'><member type='node' ref='1' role='stop'/>"
+	                                        + "<tag k='type' v='public_transport'/><tag k='public_transport' v='stop_area'/></relation>"
+	                                        + "<relation id='11' version='1'><member type='way' ref='2' role='platform'/>"
+	                                        + "<tag k='type' v='public_transport'/><tag k='public_transport' v='stop_area'/></relation>"
+	                                        + "<relation id='20' version='1'><member type='node' ref='1' role='stop'/>"
+	                                        + "<tag k='type' v='route'/><tag k='route' v='bus'/></relation>"
+	                                        + "<relation id='30' version='1'><member type='relation' ref='10' role=''/>"
+	                                        + "<member type='way' ref='2' role=''/>"
+	                                        + "<tag k='public_transport' v='stop_area_group'/></relation>"
+	                                        + "</osm>";
+
+
+	private File	            extract;
+
+
+	private File	            index;
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		index = File.createTempFile( "referrers", ".idx" );
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@After
+	public void tearDown() throws Exception
+	{
+		ReferrerIndex.uninstall();
+		if( extract != null ) extract.delete();
+		index.delete();
+	}
+
+
+
+
+	private void writeExtract( String suffix, byte[] content )
+	        throws IOException
+	{
+		extract = File.createTempFile( "extract", suffix );
+		OutputStream out = new FileOutputStream( extract );
+		out.write( content );
+		out.close();
+	}
+
+
+
+
+	private void assertIndex( ReferrerIndex ri )
+	{
+		// the route isn't indexed
+		assertEquals( 4, ri.size() );
+
+		int i = ri.indexOf( OsmPrimitiveType.NODE, 1 );
+		assertTrue( ri.isEntryOf( i, OsmPrimitiveType.NODE, 1 ) );
+		assertEquals( 10, ri.getRelationId( i ) );
+		assertEquals( "public_transport", ri.getType( i ) );
+		assertEquals( "stop_area", ri.getPublicTransport( i ) );
+		assertFalse( ri.isEntryOf( i + 1, OsmPrimitiveType.NODE, 1 ) );
+
+		// the entries of a member are sorted by relation
+		i = ri.indexOf( OsmPrimitiveType.WAY, 2 );
+		assertEquals( 11, ri.getRelationId( i ) );
+		assertEquals( 30, ri.getRelationId( i + 1 ) );
+		assertNull( ri.getType( i + 1 ) );
+		assertEquals( "stop_area_group", ri.getPublicTransport( i + 1 ) );
+
+		assertEquals( 30, ri.getRelationId( ri.indexOf(
+		        OsmPrimitiveType.RELATION, 10 ) ) );
+		assertEquals( -1, ri.indexOf( OsmPrimitiveType.NODE, 2 ) );
+		assertEquals( -1, ri.indexOf( OsmPrimitiveType.NODE, 3 ) );
+	}
+
+
+
+
+	@Test
+	public final void testBuildFromXml()
+	{
+		try
+		{
+			writeExtract( ".osm", EXTRACT.getBytes( "UTF-8" ) );
+			assertEquals( 4, ReferrerIndex.build( extract, index ) );
+			assertIndex( ReferrerIndex.open( index ) );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testBuildFromPbf()
+	{
+		try
+		{
+			OsmPrimitiveType n = OsmPrimitiveType.NODE;
+			OsmPrimitiveType w = OsmPrimitiveType.WAY;
+			OsmPrimitiveType r = OsmPrimitiveType.RELATION;
+			PbfWriter writer = new PbfWriter().addNode( 1, 1 ).addNode( 3, 1 )
+			        .addWay( 2, 1, new long[] { 1, 3 } );
+			writer.addRelation( 10, 1, new long[] { 1 },
+			        new OsmPrimitiveType[] { n }, new String[] { "stop" },
+			        "type", "public_transport", "public_transport", "stop_area" );
+			writer.addRelation( 11, 1, new long[] { 2 },
+			        new OsmPrimitiveType[] { w }, new String[] { "platform" },
+			        "type", "public_transport", "public_transport", "stop_area" );
+			writer.addRelation( 20, 1, new long[] { 1 },
+			        new OsmPrimitiveType[] { n }, new String[] { "stop" },
+			        "type", "route", "route", "bus" );
+			writer.addRelation( 30, 1, new long[] { 10, 2 },
+			        new OsmPrimitiveType[] { r, w }, new String[] { "", "" },
+			        "public_transport", "stop_area_group" );
+			writeExtract( ".osm.pbf", writer.toByteArray() );
+			assertEquals( 4, ReferrerIndex.build( extract, index ) );
+			assertIndex( ReferrerIndex.open( index ) );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testModifiedUtf8Values()
+	{
+		try
+		{
+			// NUL and a supplementary character, which modified UTF-8 encodes
+			// differently
+			String value = "stop\u0000area \uD83D\uDE8C";
+			PbfWriter writer = new PbfWriter().addNode( 1, 1 );
+			writer.addRelation( 10, 1, new long[] { 1 },
+			        new OsmPrimitiveType[] { OsmPrimitiveType.NODE },
+			        new String[] { "stop" }, "type", "public_transport",
+			        "public_transport", value );
+			writeExtract( ".osm.pbf", writer.toByteArray() );
+			assertEquals( 1, ReferrerIndex.build( extract, index ) );
+			ReferrerIndex ri = ReferrerIndex.open( index );
+			int i = ri.indexOf( OsmPrimitiveType.NODE, 1 );
+			assertEquals( value, ri.getPublicTransport( i ) );
+			assertEquals( "public_transport", ri.getType( i ) );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testStopAreaFromTheIndex()
+	{
+		try
+		{
+			writeExtract( ".osm", EXTRACT.getBytes( "UTF-8" ) );
+			ReferrerIndex.build( extract, index );
+			ReferrerIndex.install( index );
+
+			// no request is sent for the stop_area
+			Node node = new Node( 1 );
+			Relation stopArea = PublicTransport.getStopAreaRelation( node );
+			assertEquals( 10, stopArea.getId() );
+			assertEquals( "stop_area", stopArea.get( "public_transport" ) );
+
+			// the relation of the dataset is preferred
+			DataSet ds = new DataSet();
+			Way way = new Way( 2 );
+			Relation r11 = new Relation( 11 );
+			ds.addPrimitive( way );
+			ds.addPrimitive( r11 );
+			assertSame( r11, PublicTransport.getStopAreaRelation( way ) );
+
+			assertNull( PublicTransport.getStopAreaRelation( new Node( 3 ) ) );
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testNotAnIndex()
+	{
+		try
+		{
+			writeExtract( ".osm", EXTRACT.getBytes( "UTF-8" ) );
+			ReferrerIndex.open( extract );
+			fail( "IOException expected" );
+		}
+		catch( IOException e )
+		{
+			// expected
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.io;
+
+import static org.junit.Assert.*;
+
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class RetryPolicyTest
+{
+	private RetryPolicy	policy;
+
+
+	private RateLimiter	limiter;
+
+
+
+
+	private static OsmApiException apiException( int code, String retryAfter )
+	{
+		OsmApiException e = new OsmApiException( code, null, null );
+		e.setRetryAfter( retryAfter );
+		return e;
+	}
+
+
+
+
+	/**
+	 * @throws java.lang.Exception
+	 */
+	@Before
+	public void setUp() throws Exception
+	{
+		limiter = new RateLimiter( 0, 1 );
+		policy = new RetryPolicy( 3, 100, 1000, limiter );
+	}
+
+
+
+
+	@Test
+	public final void testIsRetryable()
+	{
+		assertTrue( RetryPolicy.isRetryable( apiException( 500, null ) ) );
+		assertTrue( RetryPolicy.isRetryable( apiException( 503, null ) ) );
+		assertTrue( RetryPolicy.isRetryable( apiException( 429, null ) ) );
+		assertTrue( RetryPolicy.isRetryable( apiException( 509, null ) ) );
+		assertFalse( RetryPolicy.isRetryable( apiException( 404, null ) ) );
+		assertFalse( RetryPolicy.isRetryable( new OsmApiPrimitiveGoneException(
+		        null, null ) ) );
+		assertTrue( RetryPolicy.isRetryable( new OsmTransferException(
+		        new SocketTimeoutException() ) ) );
+		assertFalse( RetryPolicy.isRetryable( new OsmTransferException(
+		        new UnknownHostException() ) ) );
+		assertFalse( RetryPolicy
+		        .isRetryable( new OsmTransferCanceledException() ) );
+	}
+
+
+
+
+	@Test
+	public final void testExponentialBackoff()
+	{
+		for( int attempt = 0; attempt < 3; attempt++ )
+		{
+			long backoff = Math.min( 1000, 100 << attempt );
+			long delay = policy.nextDelay( attempt, apiException( 503, null ) );
+			assertTrue( delay >= backoff / 2 );
+			assertTrue( delay <= backoff );
+		}
+		assertEquals( 3, policy.getRetries() );
+		assertEquals( 0, policy.getThrottled() );
+	}
+
+
+
+
+	@Test
+	public final void testMaxRetries()
+	{
+		OsmApiException e = apiException( 503, null );
+		assertEquals( -1, policy.nextDelay( 3, e ) );
+		// a reader failing with the same error isn't retried again
+		assertEquals( -1, policy.nextDelay( 0, e ) );
+		assertEquals( -1, policy.nextDelay( 0, apiException( 404, null ) ) );
+	}
+
+
+
+
+	@Test
+	public final void testRetryAfter()
+	{
+		assertEquals( 120000, RetryPolicy.parseRetryAfter( "120" ) );
+		assertEquals( -1, RetryPolicy.parseRetryAfter( null ) );
+		assertEquals( -1, RetryPolicy.parseRetryAfter( "soon" ) );
+
+		SimpleDateFormat format = new SimpleDateFormat(
+		        "EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US );
+		format.setTimeZone( TimeZone.getTimeZone( "GMT" ) );
+		long delay = RetryPolicy.parseRetryAfter( format.format( new Date(
+		        System.currentTimeMillis() + 60000 ) ) );
+		assertTrue( delay > 55000 && delay <= 60000 );
+
+		assertEquals( 2000, policy.nextDelay( 0, apiException( 429, "2" ) ) );
+		assertEquals( 1, policy.getThrottled() );
+		// the other requests wait too
+		assertTrue( limiter.reserve() > 1500 );
+	}
+}
@@ -0,0 +1,12 @@
+package org.windu2b.osm.check_transport_relations.tools;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+@RunWith( Suite.class )
+@SuiteClasses( { DateUtilsTest.class } )
+public class AllTests
+{
+
+}
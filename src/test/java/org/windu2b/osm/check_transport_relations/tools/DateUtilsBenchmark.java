@@ -0,0 +1,147 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.tools;
+
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares {@link DateUtils#toEpochMillis(String)} with the former parser,
+ * which set the fields of a shared calendar under the class lock, on 1 to n
+ * threads. Not run by the tests.
+ *
+ * Usage : <code>DateUtilsBenchmark</code>.
+ *
+ * @author windu
+ *
+ */
+public class DateUtilsBenchmark
+{
+	private static final int	  RUNS	  = 5;
+
+
+	private static final int	  DATES	  = 1000000;
+
+
+	private static final String[]	SAMPLES	= { "2011-03-13T07:06:40Z",
+	        "2012-11-02T18:45:01Z", "2009-01-31T00:00:59Z",
+	        "2013-06-21T12:30:15Z"	      };
+
+
+
+
+	private interface Parser
+	{
+		long parse( String date );
+	}
+
+
+
+
+	/**
+	 * The former parser, for the layout "xxxx-xx-xxTxx:xx:xxZ"
+	 */
+	private static class CalendarParser implements Parser
+	{
+		private static final GregorianCalendar	calendar	= new GregorianCalendar(
+		                                                    TimeZone.getTimeZone( "UTC" ) );
+
+
+
+
+		@Override
+		public long parse( String str )
+		{
+			synchronized( CalendarParser.class )
+			{
+				calendar.set( Integer.valueOf( str.substring( 0, 4 ) ),
+				        Integer.valueOf( str.substring( 5, 7 ) ) - 1,
+				        Integer.valueOf( str.substring( 8, 10 ) ),
+				        Integer.valueOf( str.substring( 11, 13 ) ),
+				        Integer.valueOf( str.substring( 14, 16 ) ),
+				        Integer.valueOf( str.substring( 17, 19 ) ) );
+				return calendar.getTime().getTime();
+			}
+		}
+	}
+
+
+
+
+	public static void main( String[] args ) throws Exception
+	{
+		Parser calendar = new CalendarParser();
+		Parser integer = new Parser()
+		{
+			@Override
+			public long parse( String date )
+			{
+				return DateUtils.toEpochMillis( date );
+			}
+		};
+		int processors = Runtime.getRuntime().availableProcessors();
+		for( int threads = 1; threads <= Math.max( processors, 2 ); threads *= 2 )
+		{
+			System.out.println( String.format( Locale.ROOT,
+			        "%d threads : calendar %.1f ns/date, integer %.1f ns/date",
+			        threads, measure( calendar, threads ), measure( integer,
+			                threads ) ) );
+		}
+	}
+
+
+
+
+	/**
+	 * Replies the best time per date, in nanoseconds
+	 */
+	private static double measure( final Parser parser, int threads )
+	        throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool( threads );
+		try
+		{
+			long best = Long.MAX_VALUE;
+			for( int run = 0; run < 2 * RUNS; run++ )
+			{
+				long start = System.nanoTime();
+				List<Future<Long>> results = new ArrayList<Future<Long>>();
+				for( int t = 0; t < threads; t++ )
+				{
+					results.add( executor.submit( new Callable<Long>()
+					{
+						@Override
+						public Long call()
+						{
+							long sum = 0;
+							for( int i = 0; i < DATES; i++ )
+							{
+								sum += parser.parse( SAMPLES[i & 3] );
+							}
+							return sum;
+						}
+					} ) );
+				}
+				for( Future<Long> result : results )
+				{
+					result.get();
+				}
+				// the first runs warm up
+				if( run >= RUNS ) best = Math.min( best, System.nanoTime() - start );
+			}
+			return ( double ) best / ( ( long ) DATES * threads );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
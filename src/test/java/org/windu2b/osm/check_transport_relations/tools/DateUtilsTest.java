@@ -0,0 +1,157 @@
+/**
+ * License: GPL v3 or later. For details, see LICENSE file.
+ */
+package org.windu2b.osm.check_transport_relations.tools;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * @author windu
+ *
+ */
+public class DateUtilsTest
+{
+	/**
+	 * The milliseconds of a date, computed by a lenient calendar as the former
+	 * implementation did
+	 */
+	private static long expected( int year, int month, int day, int hour,
+	        int minute, int second, int millis, int offsetHours )
+	{
+		GregorianCalendar calendar = new GregorianCalendar(
+		        TimeZone.getTimeZone( "UTC" ) );
+		calendar.clear();
+		calendar.set( year, month - 1, day, hour, minute, second );
+		calendar.set( Calendar.MILLISECOND, millis );
+		return calendar.getTimeInMillis() - offsetHours * 3600000L;
+	}
+
+
+
+
+	@Test
+	public final void testCommonLayouts()
+	{
+		long t = expected( 2011, 3, 13, 7, 6, 40, 0, 0 );
+		assertEquals( 1300000000000L, t );
+		assertEquals( t, DateUtils.toEpochMillis( "2011-03-13T07:06:40Z" ) );
+		assertEquals( t, DateUtils.toEpochMillis( "2011-03-13T07:06:40" ) );
+		assertEquals( t, DateUtils.toEpochMillis( "2011-03-13T09:06:40+02:00" ) );
+		assertEquals( t, DateUtils.toEpochMillis( "2011-03-13T04:06:40-03:00" ) );
+		assertEquals( t + 123,
+		        DateUtils.toEpochMillis( "2011-03-13T07:06:40.123Z" ) );
+		assertEquals( t + 123,
+		        DateUtils.toEpochMillis( "2011-03-13T08:06:40.123+01:00" ) );
+		assertEquals( t, DateUtils.fromString( "2011-03-13T07:06:40Z" )
+		        .getTime() );
+
+		// the fields out of range overflow, as with a lenient calendar
+		assertEquals( expected( 2011, 13, 1, 24, 0, 0, 0, 0 ),
+		        DateUtils.toEpochMillis( "2011-13-01T24:00:00Z" ) );
+		assertEquals( expected( 2011, 0, 0, 0, 0, 0, 0, 0 ),
+		        DateUtils.toEpochMillis( "2011-00-00T00:00:00Z" ) );
+	}
+
+
+
+
+	@Test
+	public final void testRandomDates()
+	{
+		Random random = new Random( 42 );
+		for( int i = 0; i < 10000; i++ )
+		{
+			int year = 1600 + random.nextInt( 800 );
+			int month = 1 + random.nextInt( 12 );
+			int day = 1 + random.nextInt( 31 );
+			int hour = random.nextInt( 24 );
+			int minute = random.nextInt( 60 );
+			int second = random.nextInt( 60 );
+			int millis = random.nextInt( 1000 );
+			int offset = random.nextInt( 25 ) - 12;
+			String zone = String.format( Locale.ROOT, "%s%02d:00",
+			        offset < 0 ? "-" : "+", Math.abs( offset ) );
+			String date = String.format( Locale.ROOT,
+			        "%04d-%02d-%02dT%02d:%02d:%02d", year, month, day, hour,
+			        minute, second );
+			assertEquals( date, expected( year, month, day, hour, minute,
+			        second, 0, 0 ), DateUtils.toEpochMillis( date + "Z" ) );
+			assertEquals( date, expected( year, month, day, hour, minute,
+			        second, millis, offset ), DateUtils.toEpochMillis( date
+			        + String.format( Locale.ROOT, ".%03d", millis ) + zone ) );
+		}
+	}
+
+
+
+
+	@Test
+	public final void testOtherLayouts()
+	{
+		// the XML parser reads the other fractions of seconds
+		assertEquals( expected( 2008, 8, 18, 13, 33, 3, 500, 0 ),
+		        DateUtils.toEpochMillis( "2008-08-18T13:33:03.5Z" ) );
+		// not a date : the current time
+		long now = System.currentTimeMillis();
+		assertTrue( DateUtils.toEpochMillis( "2011-03-13T07:06:4xZ" ) >= now );
+		assertTrue( DateUtils.toEpochMillis( "" ) >= now );
+	}
+
+
+
+
+	@Test
+	public final void testConcurrentParsing()
+	{
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+		try
+		{
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for( int t = 0; t < 4; t++ )
+			{
+				final int hour = t;
+				results.add( executor.submit( new Callable<Boolean>()
+				{
+					@Override
+					public Boolean call()
+					{
+						long expected = expected( 2011, 3, 13, hour, 0, 0, 0, 0 );
+						String date = "2011-03-13T0" + hour + ":00:00Z";
+						for( int i = 0; i < 10000; i++ )
+						{
+							if( DateUtils.toEpochMillis( date ) != expected )
+							    return false;
+						}
+						return true;
+					}
+				} ) );
+			}
+			for( Future<Boolean> result : results )
+			{
+				assertTrue( result.get() );
+			}
+		}
+		catch( Exception e )
+		{
+			fail( e.toString() );
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}